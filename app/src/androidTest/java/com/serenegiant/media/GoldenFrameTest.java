@@ -0,0 +1,320 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: GoldenFrameTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.media.MediaExtractor;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeFalse;
+
+/**
+ * golden frame regression test of MediaVideoPlayer on ByteBuffer mode.
+ * every clip in androidTest assets/golden is decoded as fast as possible, and CRC32 of cropped Y/U/V planes
+ * and presentation time of every frame are compared with its golden file(clip name + ".golden").
+ * the clip is also decoded from the middle and the frames must match golden frames
+ * from the key frame that MediaExtractor seeks to.
+ * a clip without golden file fails. with instrumentation argument record=true, golden files are written to
+ * getExternalFilesDir("golden") of the app instead of comparing, pull them with adb and commit them with the clips, e.g.
+ * ./gradlew :app:connectedDebugAndroidTest -Pandroid.testInstrumentationRunnerArguments.record=true
+ * the committed clips and golden files are written by androidTest/tools/GoldenClipWriter.java
+ */
+@RunWith(Parameterized.class)
+public class GoldenFrameTest {
+    private static final String TAG = "GoldenFrameTest";
+
+    private static final String ASSET_DIR = "golden";
+    private static final String GOLDEN_SUFFIX = ".golden";
+    private static final String ARG_RECORD = "record";
+    private static final long CLIP_TIMEOUT_MS = 60 * 1000;
+
+    @Parameterized.Parameters(name = "{0}")
+    public static List<Object[]> clips() throws IOException {
+        final String[] names = getTestContext().getAssets().list(ASSET_DIR);
+        final List<Object[]> clips = new ArrayList<Object[]>();
+        if (names != null) {
+            Arrays.sort(names);
+            for (final String name: names) {
+                if (!name.endsWith(GOLDEN_SUFFIX)) {
+                    clips.add(new Object[] {name});
+                }
+            }
+        }
+        if (clips.isEmpty()) {
+            // otherwise no test runs and the corpus is never checked
+            throw new IOException("No clips in androidTest assets/" + ASSET_DIR);
+        }
+        return clips;
+    }
+
+    private final String mClip;
+
+    public GoldenFrameTest(final String clip) {
+        mClip = clip;
+    }
+
+    @Test
+    public void framesMatchGolden() throws Exception {
+        final File clip = copyClip();
+        final FrameLog frames = decode(clip, -1);
+        assertTrue(mClip + ": no frames decoded", frames.count > 0);
+        if (isRecording()) {
+            final File goldenFile = new File(getTargetContext().getExternalFilesDir(ASSET_DIR), mClip + GOLDEN_SUFFIX);
+            frames.write(goldenFile, mClip);
+            Log.i(TAG, "recorded " + frames.count + " frames to " + goldenFile);
+            return;
+        }
+        final FrameLog golden = readGolden();
+        assertEquals(mClip + ": first mismatched frame", -1, frames.compare(golden, 0));
+        assertEquals(mClip + ": frames", golden.count, frames.count);
+    }
+
+    @Test
+    public void framesAfterSeekMatchGolden() throws Exception {
+        assumeFalse("golden files are being recorded", isRecording());
+        final FrameLog golden = readGolden();
+        final File clip = copyClip();
+        final long seekUs = golden.pts[golden.count / 2];
+        final long syncUs = findSyncTime(clip, seekUs);
+        final int start = golden.indexOf(syncUs);
+        assertTrue(mClip + ": no golden frame at key frame " + syncUs, start >= 0);
+        final FrameLog seeked = decode(clip, seekUs);
+        assertEquals(mClip + ": first mismatched frame after seeking to " + seekUs,
+            -1, seeked.compare(golden, start));
+        assertEquals(mClip + ": frames after seeking to " + seekUs, golden.count - start, seeked.count);
+    }
+
+    private static Context getTestContext() {
+        return InstrumentationRegistry.getInstrumentation().getContext();
+    }
+
+    private static Context getTargetContext() {
+        return InstrumentationRegistry.getInstrumentation().getTargetContext();
+    }
+
+    private static boolean isRecording() {
+        return Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString(ARG_RECORD));
+    }
+
+    /**
+     * MediaVideoPlayer reads the clip from file, copy it from assets to cache directory
+     */
+    private File copyClip() throws IOException {
+        final File file = new File(getTargetContext().getCacheDir(), mClip);
+        final InputStream in = getTestContext().getAssets().open(ASSET_DIR + "/" + mClip);
+        try {
+            final OutputStream out = new FileOutputStream(file);
+            try {
+                final byte[] buf = new byte[8192];
+                for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                    out.write(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        return file;
+    }
+
+    private FrameLog readGolden() throws IOException {
+        final InputStream in;
+        try {
+            in = getTestContext().getAssets().open(ASSET_DIR + "/" + mClip + GOLDEN_SUFFIX);
+        } catch (final FileNotFoundException e) {
+            fail(mClip + ": no golden file, run with instrumentation argument "
+                + ARG_RECORD + "=true to record it");
+            return null;
+        }
+        try {
+            return FrameLog.read(in, mClip + GOLDEN_SUFFIX);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static FrameLog decode(final File clip, final long seekUs)
+        throws IOException, InterruptedException {
+
+        final FrameLog frames = new FrameLog();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final MediaVideoPlayer[] holder = new MediaVideoPlayer[1];
+        final HashingVideoPlayer player = new HashingVideoPlayer(new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                if (seekUs >= 0) {
+                    // position is applied when playing starts
+                    holder[0].seek(seekUs);
+                }
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                latch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                // decode as fast as possible without adjusting presentation time
+                return true;
+            }
+        }, new HashingVideoPlayer.FrameListener() {
+            @Override
+            public void onFrame(final long presentationTimeUs, final int crc) {
+                frames.add(presentationTimeUs, crc);
+            }
+        });
+        holder[0] = player;
+        try {
+            player.prepare(clip.getPath());
+            if (!latch.await(CLIP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("decoding " + clip + " timed out");
+            }
+        } finally {
+            player.release();
+        }
+        return frames;
+    }
+
+    /**
+     * @return presentation time of the key frame that MediaVideoPlayer seeks to
+     */
+    private static long findSyncTime(final File clip, final long seekUs) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(clip.getPath());
+            final int trackIndex = MediaVideoPlayer.selectTrack(extractor, "video/");
+            if (trackIndex < 0) {
+                throw new IOException("No video track found in " + clip);
+            }
+            extractor.selectTrack(trackIndex);
+            extractor.seekTo(seekUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            return extractor.getSampleTime();
+        } finally {
+            extractor.release();
+        }
+    }
+
+    /**
+     * presentation time and hash of decoded frames
+     */
+    private static final class FrameLog {
+        private long[] pts = new long[256];
+        private int[] crc = new int[256];
+        private int count;
+
+        private synchronized void add(final long presentationTimeUs, final int hash) {
+            if (count == pts.length) {
+                pts = Arrays.copyOf(pts, count * 2);
+                crc = Arrays.copyOf(crc, count * 2);
+            }
+            pts[count] = presentationTimeUs;
+            crc[count++] = hash;
+        }
+
+        private int indexOf(final long presentationTimeUs) {
+            for (int i = 0; i < count; i++) {
+                if (pts[i] == presentationTimeUs) return i;
+            }
+            return -1;
+        }
+
+        /**
+         * @param golden
+         * @param start index of golden frame that corresponds to the first frame of this log
+         * @return index of the first mismatched frame of this log, -1 if all frames matched
+         */
+        private synchronized int compare(@NonNull final FrameLog golden, final int start) {
+            final int n = Math.min(count, golden.count - start);
+            for (int i = 0; i < n; i++) {
+                if ((pts[i] != golden.pts[start + i]) || (crc[i] != golden.crc[start + i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private synchronized void write(@NonNull final File file, final String clip) throws IOException {
+            final PrintWriter writer = new PrintWriter(new FileWriter(file));
+            try {
+                writer.println("# " + clip + " frames=" + count);
+                for (int i = 0; i < count; i++) {
+                    writer.println(pts[i] + " " + String.format(Locale.US, "%08x", crc[i]));
+                }
+            } finally {
+                writer.close();
+            }
+            if (writer.checkError()) {
+                throw new IOException("Unable to write " + file);
+            }
+        }
+
+        private static FrameLog read(@NonNull final InputStream in, final String name) throws IOException {
+            final FrameLog log = new FrameLog();
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(in, "US-ASCII"));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) continue;
+                    final String[] values = line.split(" ");
+                    if (values.length != 2) {
+                        throw new IOException("invalid golden file " + name + ":" + line);
+                    }
+                    log.add(Long.parseLong(values[0]), (int)Long.parseLong(values[1], 16));
+                }
+            } catch (final NumberFormatException e) {
+                throw new IOException("invalid golden file " + name, e);
+            }
+            return log;
+        }
+    }
+}
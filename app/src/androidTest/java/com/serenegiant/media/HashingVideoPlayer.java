@@ -0,0 +1,112 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: HashingVideoPlayer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * MediaVideoPlayer on ByteBuffer mode that hashes every decoded frame.
+ * the hash is CRC32 of cropped Y, U and V planes in this order(YuvFrame) regardless of
+ * stride/slice height/semi-planar layout of the decoder, so the hashes can be compared between devices
+ * as long as the decoders are bit exact.
+ * frames in vendor specific or flexible formats are hashed from MediaCodec#getOutputImage planes
+ */
+class HashingVideoPlayer extends MediaVideoPlayer {
+
+    interface FrameListener {
+        /**
+         * called on video task for every decoded frame
+         * @param presentationTimeUs
+         * @param crc
+         */
+        void onFrame(long presentationTimeUs, int crc);
+    }
+
+    private final FrameListener mListener;
+    private final CRC32 mCrc = new CRC32();
+    private final YuvLayout mLayout = new YuvLayout();
+    private final YuvFrame mFrame = new YuvFrame(0, 0);
+    private MediaCodec mCodec;
+
+    HashingVideoPlayer(@NonNull final IFrameCallback callback, @NonNull final FrameListener listener) {
+        super(null, callback);
+        mListener = listener;
+    }
+
+    @Override
+    protected MediaCodec internalStartVideo(final MediaExtractor media_extractor, final int trackIndex) {
+        mCodec = super.internalStartVideo(media_extractor, trackIndex);
+        return mCodec;
+    }
+
+    @Override
+    protected void internalOutputFormatChanged(final MediaFormat format) {
+        mLayout.update(format);
+        mFrame.resize(mLayout.getWidth(), mLayout.getHeight());
+    }
+
+    @Override
+    protected boolean internalWriteVideo(final ByteBuffer buffer,
+        final int offset, final int size, final long presentationTimeUs) {
+
+        if (mLayout.isSupported()) {
+            mLayout.copy(buffer, offset, mFrame);
+        } else {
+            final Image image = mCodec.getOutputImage(indexOf(buffer));
+            if (image == null) {
+                throw new IllegalStateException("unable to read decoded frame, color format="
+                    + mLayout.getColorFormat());
+            }
+            try {
+                mLayout.copy(image, mFrame);
+            } finally {
+                image.close();
+            }
+        }
+        mCrc.reset();
+        mCrc.update(mFrame.getData(), 0, mFrame.getFrameSize());
+        mListener.onFrame(presentationTimeUs, (int)mCrc.getValue());
+        return false;
+    }
+
+    /**
+     * MediaVideoPlayer passes the output buffer from MediaCodec#getOutputBuffers,
+     * search the buffer index by identity
+     */
+    @SuppressWarnings("deprecation")
+    private int indexOf(final ByteBuffer buffer) {
+        final ByteBuffer[] buffers = mCodec.getOutputBuffers();
+        for (int i = 0; i < buffers.length; i++) {
+            if (buffers[i] == buffer) return i;
+        }
+        throw new IllegalStateException("unknown output buffer");
+    }
+}
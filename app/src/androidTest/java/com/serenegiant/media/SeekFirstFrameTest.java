@@ -0,0 +1,416 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SeekFirstFrameTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * checks the first frame that MediaMoviePlayer and MediaVideoPlayer(ByteBuffer mode) output
+ * after seeking while playing.
+ * the clip is encoded on the device, luma of each frame is derived from its frame index
+ * so that the decoded content can be checked without golden files.
+ * frames of MediaVideoPlayer are compared by hash with the frames decoded from the beginning of the clip
+ */
+@RunWith(AndroidJUnit4.class)
+public class SeekFirstFrameTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAME_RATE = 30;
+    private static final int FRAMES = FRAME_RATE * 4;
+    private static final long FRAME_US = 1000000L / FRAME_RATE;
+    private static final long TIMEOUT_MS = 10 * 1000;
+    /** allowed error of average luma, the frames are flat so that the encoder keeps them almost exact */
+    private static final int LUMA_TOLERANCE = 6;
+
+    private static File sClip;
+    /** hash of frames decoded from the beginning by MediaVideoPlayer, keyed by presentation time */
+    private static Map<Long, Integer> sFrames;
+
+    @BeforeClass
+    public static void createClip() throws Exception {
+        final Context context = ApplicationProvider.getApplicationContext();
+        sClip = new File(context.getCacheDir(), "seek_test.mp4");
+        encodeClip(sClip);
+        sFrames = decodeFrames();
+    }
+
+    @Test
+    public void seekForwardStartsFromKeyFrame() throws Exception {
+        // from 0.3s to 2.2s, 2.0s is the closest key frame
+        checkSeek(300000, 2200000);
+    }
+
+    @Test
+    public void seekBackwardStartsFromKeyFrame() throws Exception {
+        checkSeek(2500000, 1100000);
+    }
+
+    @Test
+    public void videoPlayerSeekForwardStartsFromKeyFrame() throws Exception {
+        checkVideoPlayerSeek(300000, 2200000);
+    }
+
+    @Test
+    public void videoPlayerSeekBackwardStartsFromKeyFrame() throws Exception {
+        checkVideoPlayerSeek(2500000, 1100000);
+    }
+
+    @Test
+    public void videoPlayerSeekWhileDrainingStartsFromKeyFrame() throws Exception {
+        // seek after input reached EOS, decoder still has frames to output
+        checkVideoPlayerSeek(-1, 1100000);
+    }
+
+    private static void checkSeek(final long seekFromUs, final long seekToUs) throws Exception {
+        final long syncUs = findSyncTime(seekToUs);
+        final List<long[]> frames = new ArrayList<long[]>();
+        final CountDownLatch seekedLatch = new CountDownLatch(1);
+        final MediaMoviePlayer[] holder = new MediaMoviePlayer[1];
+        final MediaMoviePlayer player = new MediaMoviePlayer(null, new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                seekedLatch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return false;
+            }
+        }, false, ApplicationProvider.getApplicationContext());
+        holder[0] = player;
+        player.setYuvFrameListener(new IYuvFrameListener() {
+            private boolean mSeeked;
+
+            @Override
+            public void onYuvFrame(@NonNull final YuvFrame frame) {
+                final long pts = frame.getPresentationTimeUs();
+                if (mSeeked) {
+                    synchronized (frames) {
+                        frames.add(new long[] {pts, averageLuma(frame)});
+                        if (frames.size() >= FRAME_RATE / 2) {
+                            seekedLatch.countDown();
+                        }
+                    }
+                } else if (pts >= seekFromUs) {
+                    mSeeked = true;
+                    holder[0].seek(seekToUs);
+                }
+                frame.release();
+            }
+        }, 2);
+        try {
+            player.prepare(sClip.getPath());
+            assertTrue("player did not output frames after seeking",
+                seekedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            player.release();
+        }
+        // frames that were already decoded when seek was requested are delivered first
+        long[] first = null;
+        synchronized (frames) {
+            for (final long[] frame: frames) {
+                if ((seekToUs > seekFromUs) ? (frame[0] >= syncUs) : (frame[0] < seekFromUs)) {
+                    first = frame;
+                    break;
+                }
+            }
+        }
+        assertNotNull("no frame after seeking", first);
+        assertEquals("first frame after seeking", syncUs, first[0]);
+        final int index = (int)((first[0] + FRAME_US / 2) / FRAME_US);
+        final int luma = (int)first[1];
+        assertTrue("first frame after seeking was not decoded correctly, luma=" + luma,
+            Math.abs(luma - lumaOf(index)) <= LUMA_TOLERANCE);
+    }
+
+    /**
+     * @param seekFromUs seek when the frame of this time is decoded, negative value to seek after input reached EOS
+     * @param seekToUs
+     * @throws Exception
+     */
+    private static void checkVideoPlayerSeek(final long seekFromUs, final long seekToUs) throws Exception {
+        final long syncUs = findSyncTime(seekToUs);
+        final List<long[]> frames = new ArrayList<long[]>();
+        // number of frames that were output before seeking, -1 if not seeked yet
+        final int[] seekIndex = new int[] {-1};
+        final CountDownLatch seekedLatch = new CountDownLatch(1);
+        final MediaVideoPlayer[] holder = new MediaVideoPlayer[1];
+        final IFrameCallback callback = new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                seekedLatch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return false;
+            }
+        };
+        final HashingVideoPlayer.FrameListener listener = new HashingVideoPlayer.FrameListener() {
+            @Override
+            public void onFrame(final long presentationTimeUs, final int crc) {
+                synchronized (frames) {
+                    frames.add(new long[] {presentationTimeUs, crc});
+                    if (seekIndex[0] >= 0) {
+                        if (frames.size() - seekIndex[0] >= FRAME_RATE / 2) {
+                            seekedLatch.countDown();
+                        }
+                    } else if ((seekFromUs >= 0) && (presentationTimeUs >= seekFromUs)) {
+                        seekIndex[0] = frames.size();
+                        holder[0].seek(seekToUs);
+                    }
+                }
+            }
+        };
+        final HashingVideoPlayer player = new HashingVideoPlayer(callback, listener) {
+            @Override
+            protected boolean internalProcessInput(final MediaCodec codec,
+                final MediaExtractor extractor, final ByteBuffer[] inputBuffers,
+                final long presentationTimeUs, final boolean isAudio) {
+
+                final boolean result = super.internalProcessInput(codec, extractor,
+                    inputBuffers, presentationTimeUs, isAudio);
+                if (!result && (seekFromUs < 0)) {
+                    synchronized (frames) {
+                        if (seekIndex[0] >= 0) return result;
+                        seekIndex[0] = frames.size();
+                    }
+                    holder[0].seek(seekToUs);
+                    // let the player task hand the seek over to this video task before input EOS is queued
+                    SystemClock.sleep(200);
+                }
+                return result;
+            }
+        };
+        holder[0] = player;
+        try {
+            player.prepare(sClip.getPath());
+            assertTrue("player did not output frames after seeking",
+                seekedLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            player.release();
+        }
+        synchronized (frames) {
+            // frames that were already decoded when seek was requested are delivered first,
+            // the first frame after seeking does not follow its previous frame
+            int first = -1;
+            for (int i = Math.max(seekIndex[0], 1); i < frames.size(); i++) {
+                if (Math.abs(frames.get(i)[0] - frames.get(i - 1)[0] - FRAME_US) > FRAME_US / 2) {
+                    first = i;
+                    break;
+                }
+            }
+            assertTrue("no frame after seeking", (seekIndex[0] >= 0) && (first >= 0));
+            assertEquals("first frame after seeking", syncUs, frames.get(first)[0]);
+            for (int i = first; i < frames.size(); i++) {
+                final long pts = frames.get(i)[0];
+                assertEquals("frame at " + pts + "us after seeking was not decoded correctly",
+                    sFrames.get(pts), Integer.valueOf((int)frames.get(i)[1]));
+            }
+        }
+    }
+
+    /**
+     * decode whole clip by MediaVideoPlayer as fast as possible
+     * @return hash of frames keyed by presentation time
+     */
+    private static Map<Long, Integer> decodeFrames() throws Exception {
+        final Map<Long, Integer> frames = new HashMap<Long, Integer>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final MediaVideoPlayer[] holder = new MediaVideoPlayer[1];
+        final HashingVideoPlayer player = new HashingVideoPlayer(new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                latch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return true;
+            }
+        }, new HashingVideoPlayer.FrameListener() {
+            @Override
+            public void onFrame(final long presentationTimeUs, final int crc) {
+                synchronized (frames) {
+                    frames.put(presentationTimeUs, crc);
+                }
+            }
+        });
+        holder[0] = player;
+        try {
+            player.prepare(sClip.getPath());
+            assertTrue("decoding clip timed out", latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            player.release();
+        }
+        synchronized (frames) {
+            assertTrue("no frames decoded", !frames.isEmpty());
+            return frames;
+        }
+    }
+
+    private static long findSyncTime(final long timeUs) throws IOException {
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(sClip.getPath());
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                if (extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME).startsWith("video/")) {
+                    extractor.selectTrack(i);
+                    break;
+                }
+            }
+            extractor.seekTo(timeUs, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            return extractor.getSampleTime();
+        } finally {
+            extractor.release();
+        }
+    }
+
+    private static int lumaOf(final int index) {
+        return 32 + index;
+    }
+
+    private static long averageLuma(final YuvFrame frame) {
+        final byte[] data = frame.getData();
+        final int n = frame.getWidth() * frame.getHeight();
+        long sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += data[i] & 0xff;
+        }
+        return sum / n;
+    }
+
+    /**
+     * encode flat gray frames whose luma increases every frame, 1 key frame per second
+     * @param file
+     * @throws IOException
+     */
+    private static void encodeClip(final File file) throws IOException {
+        final MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, WIDTH, HEIGHT);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, 1000000);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 1);
+        final MediaCodec encoder = MediaCodec.createEncoderByType(MediaFormat.MIMETYPE_VIDEO_AVC);
+        final MediaMuxer muxer = new MediaMuxer(file.getPath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        try {
+            encoder.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            encoder.start();
+            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            int input = 0;
+            int track = -1;
+            for (boolean outputDone = false; !outputDone; ) {
+                if (input <= FRAMES) {
+                    final int ix = encoder.dequeueInputBuffer(10000);
+                    if (ix >= 0) {
+                        if (input < FRAMES) {
+                            final Image image = encoder.getInputImage(ix);
+                            fill(image, lumaOf(input));
+                            encoder.queueInputBuffer(ix, 0, WIDTH * HEIGHT * 3 / 2, input * FRAME_US, 0);
+                        } else {
+                            encoder.queueInputBuffer(ix, 0, 0, input * FRAME_US, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        }
+                        input++;
+                    }
+                }
+                final int ix = encoder.dequeueOutputBuffer(info, 10000);
+                if (ix == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                    track = muxer.addTrack(encoder.getOutputFormat());
+                    muxer.start();
+                } else if (ix >= 0) {
+                    final ByteBuffer buffer = encoder.getOutputBuffer(ix);
+                    if ((info.size > 0) && ((info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0)) {
+                        muxer.writeSampleData(track, buffer, info);
+                    }
+                    outputDone = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                    encoder.releaseOutputBuffer(ix, false);
+                }
+            }
+            muxer.stop();
+        } finally {
+            encoder.release();
+            muxer.release();
+        }
+    }
+
+    private static void fill(final Image image, final int luma) {
+        final Image.Plane[] planes = image.getPlanes();
+        for (int i = 0; i < planes.length; i++) {
+            final int w = i == 0 ? WIDTH : WIDTH / 2;
+            final int h = i == 0 ? HEIGHT : HEIGHT / 2;
+            final byte value = (byte)(i == 0 ? luma : 128);
+            final ByteBuffer buffer = planes[i].getBuffer();
+            final int rowStride = planes[i].getRowStride();
+            final int pixelStride = planes[i].getPixelStride();
+            for (int y = 0; y < h; y++) {
+                for (int x = 0; x < w; x++) {
+                    buffer.put(y * rowStride + x * pixelStride, value);
+                }
+            }
+        }
+    }
+}
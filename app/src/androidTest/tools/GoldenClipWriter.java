@@ -0,0 +1,498 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: GoldenClipWriter.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * writes the clips and golden files of GoldenFrameTest(androidTest/assets/golden), e.g.
+ * java app/src/androidTest/tools/GoldenClipWriter.java app/src/androidTest/assets/golden
+ * this is not a part of the test apk.
+ * the clips are H.264 constrained baseline with I_PCM and P_Skip macroblocks only and deblocking disabled,
+ * so every conformant decoder outputs exactly the samples that are written here
+ * and the golden files are computed from them without decoding.
+ * key frames(IDR) are filled with I_PCM macroblocks, other frames(P) replace one macroblock
+ * of the previous frame with I_PCM macroblock and skip the others,
+ * so frames after a key frame are decoded correctly only when decoding starts from the key frame.
+ */
+public class GoldenClipWriter {
+    private static final int FRAME_RATE = 25;
+    private static final int TIMESCALE = 90000;
+    private static final int SAMPLE_DELTA = TIMESCALE / FRAME_RATE;
+    /** log2_max_frame_num_minus4 = 0 */
+    private static final int MAX_FRAME_NUM = 16;
+
+    public static void main(final String[] args) throws IOException {
+        final File dir = new File(args.length > 0 ? args[0] : ".");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+        // QCIF, 3 seconds
+        new GoldenClipWriter(176, 144, 0, 0, 75, FRAME_RATE).write(dir, "pcm_qcif.mp4");
+        // 170x118 cropped from 176x128, crop rect of the decoder has to be applied
+        new GoldenClipWriter(176, 128, 6, 10, 50, FRAME_RATE).write(dir, "pcm_crop.mp4");
+    }
+
+    private final int mWidth, mHeight;
+    private final int mCropRight, mCropBottom;
+    private final int mMbWidth, mMbHeight;
+    private final int mFrames, mGop;
+    /** decoded frame, I420 of coded size */
+    private final byte[] mY, mU, mV;
+
+    /**
+     * @param width coded width, multiple of 16
+     * @param height coded height, multiple of 16
+     * @param cropRight pixels cropped from right edge, even number
+     * @param cropBottom pixels cropped from bottom edge, even number
+     * @param frames
+     * @param gop interval of key frames in frames
+     */
+    private GoldenClipWriter(final int width, final int height,
+        final int cropRight, final int cropBottom, final int frames, final int gop) {
+
+        mWidth = width;
+        mHeight = height;
+        mCropRight = cropRight;
+        mCropBottom = cropBottom;
+        mMbWidth = width / 16;
+        mMbHeight = height / 16;
+        mFrames = frames;
+        mGop = gop;
+        mY = new byte[width * height];
+        mU = new byte[width * height / 4];
+        mV = new byte[width * height / 4];
+    }
+
+    private void write(final File dir, final String name) throws IOException {
+        final List<byte[]> samples = new ArrayList<byte[]>();
+        final long[] pts = new long[mFrames];
+        final int[] crc = new int[mFrames];
+        final CRC32 crc32 = new CRC32();
+        for (int i = 0; i < mFrames; i++) {
+            samples.add(nal(i % mGop == 0 ? 5 : 1, i % mGop == 0 ? 3 : 2, slice(i)));
+            pts[i] = i * 1000000L / FRAME_RATE;
+            crc32.reset();
+            hashCropped(crc32);
+            crc[i] = (int)crc32.getValue();
+        }
+        final OutputStream out = new FileOutputStream(new File(dir, name));
+        try {
+            out.write(mp4(samples));
+        } finally {
+            out.close();
+        }
+        final PrintWriter writer = new PrintWriter(new FileWriter(new File(dir, name + ".golden")));
+        try {
+            writer.println("# " + name + " frames=" + mFrames);
+            for (int i = 0; i < mFrames; i++) {
+                writer.println(pts[i] + " " + String.format(Locale.US, "%08x", crc[i]));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * CRC32 of cropped Y, U and V planes in this order, same as YuvFrame
+     */
+    private void hashCropped(final CRC32 crc32) {
+        final int w = mWidth - mCropRight;
+        final int h = mHeight - mCropBottom;
+        for (int y = 0; y < h; y++) {
+            crc32.update(mY, y * mWidth, w);
+        }
+        for (int y = 0; y < (h + 1) / 2; y++) {
+            crc32.update(mU, y * mWidth / 2, (w + 1) / 2);
+        }
+        for (int y = 0; y < (h + 1) / 2; y++) {
+            crc32.update(mV, y * mWidth / 2, (w + 1) / 2);
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// H.264 elementary stream
+//--------------------------------------------------------------------------------
+    private byte[] sps() {
+        final BitWriter bw = new BitWriter();
+        bw.u(8, 66);					// profile_idc, baseline
+        bw.u(8, 0xc0);					// constraint_set0/1_flag, constrained baseline
+        bw.u(8, 30);					// level_idc
+        bw.ue(0);						// seq_parameter_set_id
+        bw.ue(0);						// log2_max_frame_num_minus4
+        bw.ue(2);						// pic_order_cnt_type, output order is decoding order
+        bw.ue(1);						// max_num_ref_frames
+        bw.u(1, 0);						// gaps_in_frame_num_value_allowed_flag
+        bw.ue(mMbWidth - 1);			// pic_width_in_mbs_minus1
+        bw.ue(mMbHeight - 1);			// pic_height_in_map_units_minus1
+        bw.u(1, 1);						// frame_mbs_only_flag
+        bw.u(1, 1);						// direct_8x8_inference_flag
+        final boolean crop = (mCropRight > 0) || (mCropBottom > 0);
+        bw.u(1, crop ? 1 : 0);			// frame_cropping_flag
+        if (crop) {
+            bw.ue(0);					// frame_crop_left_offset
+            bw.ue(mCropRight / 2);		// frame_crop_right_offset
+            bw.ue(0);					// frame_crop_top_offset
+            bw.ue(mCropBottom / 2);		// frame_crop_bottom_offset
+        }
+        bw.u(1, 1);						// vui_parameters_present_flag
+        bw.u(1, 0);						// aspect_ratio_info_present_flag
+        bw.u(1, 0);						// overscan_info_present_flag
+        bw.u(1, 0);						// video_signal_type_present_flag
+        bw.u(1, 0);						// chroma_loc_info_present_flag
+        bw.u(1, 0);						// timing_info_present_flag
+        bw.u(1, 0);						// nal_hrd_parameters_present_flag
+        bw.u(1, 0);						// vcl_hrd_parameters_present_flag
+        bw.u(1, 0);						// pic_struct_present_flag
+        bw.u(1, 1);						// bitstream_restriction_flag
+        bw.u(1, 1);						// motion_vectors_over_pic_boundaries_flag
+        bw.ue(0);						// max_bytes_per_pic_denom
+        bw.ue(0);						// max_bits_per_mb_denom
+        bw.ue(16);						// log2_max_mv_length_horizontal
+        bw.ue(16);						// log2_max_mv_length_vertical
+        bw.ue(0);						// max_num_reorder_frames
+        bw.ue(1);						// max_dec_frame_buffering
+        bw.trailing();
+        return nal(7, 3, bw.toByteArray());
+    }
+
+    private static byte[] pps() {
+        final BitWriter bw = new BitWriter();
+        bw.ue(0);						// pic_parameter_set_id
+        bw.ue(0);						// seq_parameter_set_id
+        bw.u(1, 0);						// entropy_coding_mode_flag, CAVLC
+        bw.u(1, 0);						// bottom_field_pic_order_in_frame_present_flag
+        bw.ue(0);						// num_slice_groups_minus1
+        bw.ue(0);						// num_ref_idx_l0_default_active_minus1
+        bw.ue(0);						// num_ref_idx_l1_default_active_minus1
+        bw.u(1, 0);						// weighted_pred_flag
+        bw.u(2, 0);						// weighted_bipred_idc
+        bw.se(0);						// pic_init_qp_minus26
+        bw.se(0);						// pic_init_qs_minus26
+        bw.se(0);						// chroma_qp_index_offset
+        bw.u(1, 1);						// deblocking_filter_control_present_flag
+        bw.u(1, 0);						// constrained_intra_pred_flag
+        bw.u(1, 0);						// redundant_pic_cnt_present_flag
+        bw.trailing();
+        return nal(8, 3, bw.toByteArray());
+    }
+
+    /**
+     * encode a frame and update decoded frame
+     * @param index
+     * @return rbsp of the slice
+     */
+    private byte[] slice(final int index) {
+        final int mbs = mMbWidth * mMbHeight;
+        final boolean idr = index % mGop == 0;
+        final BitWriter bw = new BitWriter();
+        bw.ue(0);						// first_mb_in_slice
+        bw.ue(idr ? 7 : 5);				// slice_type, I or P
+        bw.ue(0);						// pic_parameter_set_id
+        bw.u(4, (index % mGop) % MAX_FRAME_NUM);	// frame_num
+        if (idr) {
+            bw.ue((index / mGop) & 0xffff);	// idr_pic_id
+            bw.u(1, 0);					// no_output_of_prior_pics_flag
+            bw.u(1, 0);					// long_term_reference_flag
+        } else {
+            bw.u(1, 0);					// num_ref_idx_active_override_flag
+            bw.u(1, 0);					// ref_pic_list_modification_flag_l0
+            bw.u(1, 0);					// adaptive_ref_pic_marking_mode_flag
+        }
+        bw.se(0);						// slice_qp_delta
+        bw.ue(1);						// disable_deblocking_filter_idc
+        if (idr) {
+            for (int mb = 0; mb < mbs; mb++) {
+                fillKeyFrame(mb, index);
+                pcm(bw, mb, 25);		// mb_type I_PCM
+            }
+        } else {
+            // P_Skip copies co-located samples of the previous frame because all motion vectors are zero
+            final int mb = (index * 7) % mbs;
+            bw.ue(mb);					// mb_skip_run
+            fillMacroblock(mb, index);
+            pcm(bw, mb, 30);			// mb_type I_PCM in P slice
+            if (mb < mbs - 1) {
+                bw.ue(mbs - 1 - mb);	// mb_skip_run
+            }
+        }
+        bw.trailing();
+        return bw.toByteArray();
+    }
+
+    private void fillKeyFrame(final int mb, final int index) {
+        final int left = (mb % mMbWidth) * 16;
+        final int top = (mb / mMbWidth) * 16;
+        for (int y = top; y < top + 16; y++) {
+            for (int x = left; x < left + 16; x++) {
+                mY[y * mWidth + x] = sample(x * 3 + y * 2 + index * 8);
+            }
+        }
+        for (int y = top / 2; y < top / 2 + 8; y++) {
+            for (int x = left / 2; x < left / 2 + 8; x++) {
+                mU[y * mWidth / 2 + x] = sample(x * 5 + y + index * 16);
+                mV[y * mWidth / 2 + x] = sample(y * 5 + x + index * 24);
+            }
+        }
+    }
+
+    private void fillMacroblock(final int mb, final int index) {
+        final int left = (mb % mMbWidth) * 16;
+        final int top = (mb / mMbWidth) * 16;
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                mY[(top + y) * mWidth + left + x] = sample(index * 37 + (x ^ y) * 11);
+            }
+        }
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                mU[(top / 2 + y) * mWidth / 2 + left / 2 + x] = sample(index * 53 + x * 17);
+                mV[(top / 2 + y) * mWidth / 2 + left / 2 + x] = sample(index * 29 + y * 19);
+            }
+        }
+    }
+
+    /**
+     * @return 1..255, zero is not used for PCM samples so that old decoders accept them
+     */
+    private static byte sample(final int value) {
+        return (byte)(1 + (value & 0x7fffffff) % 255);
+    }
+
+    /**
+     * write I_PCM macroblock from decoded frame
+     */
+    private void pcm(final BitWriter bw, final int mb, final int mbType) {
+        final int left = (mb % mMbWidth) * 16;
+        final int top = (mb / mMbWidth) * 16;
+        bw.ue(mbType);
+        bw.align();						// pcm_alignment_zero_bit
+        for (int y = top; y < top + 16; y++) {
+            for (int x = left; x < left + 16; x++) {
+                bw.u(8, mY[y * mWidth + x] & 0xff);
+            }
+        }
+        for (final byte[] plane: new byte[][] {mU, mV}) {
+            for (int y = top / 2; y < top / 2 + 8; y++) {
+                for (int x = left / 2; x < left / 2 + 8; x++) {
+                    bw.u(8, plane[y * mWidth / 2 + x] & 0xff);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return NAL unit without start code, emulation prevention bytes are inserted
+     */
+    private static byte[] nal(final int type, final int refIdc, final byte[] rbsp) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(rbsp.length + 16);
+        out.write((refIdc << 5) | type);
+        int zeros = 0;
+        for (final byte b: rbsp) {
+            if ((zeros >= 2) && ((b & 0xff) <= 3)) {
+                out.write(3);
+                zeros = 0;
+            }
+            out.write(b);
+            zeros = (b == 0) ? zeros + 1 : 0;
+        }
+        return out.toByteArray();
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private int mBits, mCount;
+
+        private void u(final int n, final int value) {
+            for (int i = n - 1; i >= 0; i--) {
+                mBits = (mBits << 1) | ((value >>> i) & 1);
+                if (++mCount == 8) {
+                    mOut.write(mBits);
+                    mBits = mCount = 0;
+                }
+            }
+        }
+
+        private void ue(final int value) {
+            final int v = value + 1;
+            final int len = 32 - Integer.numberOfLeadingZeros(v);
+            u(len - 1, 0);
+            u(len, v);
+        }
+
+        private void se(final int value) {
+            ue(value > 0 ? value * 2 - 1 : -value * 2);
+        }
+
+        private void align() {
+            while (mCount != 0) {
+                u(1, 0);
+            }
+        }
+
+        private void trailing() {
+            u(1, 1);
+            align();
+        }
+
+        private byte[] toByteArray() {
+            return mOut.toByteArray();
+        }
+    }
+
+//--------------------------------------------------------------------------------
+// MP4(ISO BMFF) with moov before mdat
+//--------------------------------------------------------------------------------
+    private byte[] mp4(final List<byte[]> samples) throws IOException {
+        final int width = mWidth - mCropRight;
+        final int height = mHeight - mCropBottom;
+        final long durationMs = mFrames * 1000L / FRAME_RATE;
+        final Box avcC = new Box("avcC");
+        final byte[] sps = sps();
+        final byte[] pps = pps();
+        avcC.u8(1).u8(sps[1]).u8(sps[2]).u8(sps[3]).u8(0xff)	// 4 bytes NAL length
+            .u8(0xe1).u16(sps.length).bytes(sps)
+            .u8(1).u16(pps.length).bytes(pps);
+        final Box avc1 = new Box("avc1");
+        avc1.zeros(6).u16(1)			// data_reference_index
+            .zeros(16).u16(width).u16(height)
+            .u32(0x00480000).u32(0x00480000).u32(0).u16(1)
+            .zeros(32).u16(0x18).u16(0xffff)
+            .box(avcC);
+        final Box stsd = new Box("stsd").u32(0).u32(1).box(avc1);
+        final Box stts = new Box("stts").u32(0).u32(1).u32(mFrames).u32(SAMPLE_DELTA);
+        final Box stss = new Box("stss").u32(0).u32((mFrames + mGop - 1) / mGop);
+        for (int i = 0; i < mFrames; i += mGop) {
+            stss.u32(i + 1);
+        }
+        final Box stsc = new Box("stsc").u32(0).u32(1).u32(1).u32(mFrames).u32(1);
+        final Box stsz = new Box("stsz").u32(0).u32(0).u32(mFrames);
+        int mdatSize = 8;
+        for (final byte[] sample: samples) {
+            stsz.u32(sample.length + 4);
+            mdatSize += sample.length + 4;
+        }
+        final Box stco = new Box("stco").u32(0).u32(1).u32(0);
+        final Box stbl = new Box("stbl").box(stsd).box(stts).box(stss).box(stsc).box(stsz).box(stco);
+        final Box dinf = new Box("dinf").box(new Box("dref").u32(0).u32(1).box(new Box("url ").u32(1)));
+        final Box minf = new Box("minf").box(new Box("vmhd").u32(1).zeros(8)).box(dinf).box(stbl);
+        final Box mdhd = new Box("mdhd").u32(0).u32(0).u32(0)
+            .u32(TIMESCALE).u32(mFrames * SAMPLE_DELTA).u16(0x55c4).u16(0);	// und
+        final Box hdlr = new Box("hdlr").u32(0).u32(0).fourcc("vide").zeros(12).bytes("VideoHandler\0".getBytes("US-ASCII"));
+        final Box mdia = new Box("mdia").box(mdhd).box(hdlr).box(minf);
+        final Box tkhd = new Box("tkhd").u32(3).u32(0).u32(0).u32(1).u32(0).u32((int)durationMs)
+            .zeros(8).u16(0).u16(0).u16(0).u16(0).matrix().u32(width << 16).u32(height << 16);
+        final Box trak = new Box("trak").box(tkhd).box(mdia);
+        final Box mvhd = new Box("mvhd").u32(0).u32(0).u32(0).u32(1000).u32((int)durationMs)
+            .u32(0x00010000).u16(0x0100).zeros(10).matrix().zeros(24).u32(2);
+        final Box moov = new Box("moov").box(mvhd).box(trak);
+        final Box ftyp = new Box("ftyp").fourcc("isom").u32(0x200)
+            .fourcc("isom").fourcc("iso2").fourcc("avc1").fourcc("mp41");
+        final byte[] head = ftyp.toByteArray();
+        final byte[] movie = moov.toByteArray();
+        // chunk offset is the last 4 bytes of moov
+        final int offset = head.length + movie.length + 8;
+        movie[movie.length - 4] = (byte)(offset >>> 24);
+        movie[movie.length - 3] = (byte)(offset >>> 16);
+        movie[movie.length - 2] = (byte)(offset >>> 8);
+        movie[movie.length - 1] = (byte)offset;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(offset + mdatSize);
+        out.write(head);
+        out.write(movie);
+        final Box mdat = new Box("mdat");
+        for (final byte[] sample: samples) {
+            mdat.u32(sample.length).bytes(sample);
+        }
+        out.write(mdat.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static final class Box {
+        private final String mType;
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+
+        private Box(final String type) {
+            mType = type;
+        }
+
+        private Box u8(final int value) {
+            mOut.write(value);
+            return this;
+        }
+
+        private Box u16(final int value) {
+            return u8(value >>> 8).u8(value);
+        }
+
+        private Box u32(final int value) {
+            return u16(value >>> 16).u16(value);
+        }
+
+        private Box zeros(final int n) {
+            for (int i = 0; i < n; i++) {
+                u8(0);
+            }
+            return this;
+        }
+
+        private Box fourcc(final String fourcc) {
+            for (int i = 0; i < 4; i++) {
+                u8(fourcc.charAt(i));
+            }
+            return this;
+        }
+
+        private Box bytes(final byte[] bytes) {
+            mOut.write(bytes, 0, bytes.length);
+            return this;
+        }
+
+        /** unity matrix */
+        private Box matrix() {
+            return u32(0x00010000).u32(0).u32(0)
+                .u32(0).u32(0x00010000).u32(0)
+                .u32(0).u32(0).u32(0x40000000);
+        }
+
+        private Box box(final Box child) {
+            return bytes(child.toByteArray());
+        }
+
+        private byte[] toByteArray() {
+            final byte[] payload = mOut.toByteArray();
+            final Box box = new Box(null);
+            box.u32(payload.length + 8).fourcc(mType).bytes(payload);
+            return box.mOut.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.serenegiant.audiovideoplayersample;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: BenchmarkActivity.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.IOException;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import com.serenegiant.media.DecodeBenchmarkRunner;
+import com.serenegiant.media.MediaSource;
+
+/**
+ * small runner activity of decode benchmark, e.g.
+ * adb shell am start -n com.serenegiant.audiovideoplayersample/.BenchmarkActivity \
+ *     --ei warmup 2 --ei iterations 5 --ez audio false --es path /sdcard/Movies/test.mp4
+ * add --ez lowLatency true to measure decode latency on low latency mode of MediaMoviePlayer.
+ * the sample movie in res/raw is used if path is not specified.
+ * the report is shown on screen and written to logcat with tag "BenchmarkActivity"
+ */
+public class BenchmarkActivity extends Activity {
+    private static final String TAG = "BenchmarkActivity";
+
+    public static final String EXTRA_PATH = "path";
+    public static final String EXTRA_WARMUP = "warmup";
+    public static final String EXTRA_ITERATIONS = "iterations";
+    public static final String EXTRA_AUDIO = "audio";
+    public static final String EXTRA_LOW_LATENCY = "lowLatency";
+
+    private TextView mResultView;
+
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mResultView = new TextView(this);
+        final ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mResultView);
+        setContentView(scrollView);
+
+        final Intent intent = getIntent();
+        final String path = intent.getStringExtra(EXTRA_PATH);
+        final int warmup = intent.getIntExtra(EXTRA_WARMUP, 1);
+        final int iterations = intent.getIntExtra(EXTRA_ITERATIONS, 3);
+        final boolean audio = intent.getBooleanExtra(EXTRA_AUDIO, true);
+        final boolean lowLatency = intent.getBooleanExtra(EXTRA_LOW_LATENCY, false);
+        mResultView.setText("running benchmark...");
+        final DecodeBenchmarkRunner runner = new DecodeBenchmarkRunner(getApplicationContext(),
+            new DecodeBenchmarkRunner.SourceFactory() {
+                @Override
+                public MediaSource create() throws IOException {
+                    if (!TextUtils.isEmpty(path)) {
+                        return MediaSource.fromPath(path);
+                    }
+                    return MediaSource.fromAssetFileDescriptor(
+                        getResources().openRawResourceFd(R.raw.hdr10_720p));
+                }
+            }, audio);
+        runner.setLowLatencyMode(lowLatency);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String text;
+                try {
+                    text = runner.run(warmup, iterations).toString();
+                } catch (final IOException | InterruptedException e) {
+                    text = "benchmark failed:" + e;
+                }
+                Log.i(TAG, text);
+                final String result = text;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        mResultView.setText(result);
+                    }
+                });
+            }
+        }, TAG).start();
+    }
+}
@@ -22,13 +22,12 @@ package com.serenegiant.audiovideoplayersample;
  * All files in the folder are under this Apache License, Version 2.0.
 */
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.File;
 import java.io.IOException;
 
 import com.serenegiant.media.MediaMoviePlayer;
 import com.serenegiant.media.IFrameCallback;
+import com.serenegiant.media.IStartupListener;
+import com.serenegiant.media.StartupReport;
 import com.serenegiant.widget.PlayerSurfaceView;
 
 import android.app.Activity;
@@ -36,15 +35,19 @@ import android.content.Context;
 import androidx.fragment.app.Fragment;
 
 import android.content.pm.ActivityInfo;
+import android.content.res.AssetFileDescriptor;
 import android.os.Build;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.LayoutInflater;
+import android.view.SurfaceHolder;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
 
+import androidx.annotation.NonNull;
+
 @SuppressWarnings("unused")
 public class PlayerFragment extends Fragment {
     private static final boolean DEBUG = true;	// TODO set false on release
@@ -74,6 +77,14 @@ public class PlayerFragment extends Fragment {
         mPlayerView.setAspectRatio(640 / 480.f);
         mPlayerButton = rootView.findViewById(R.id.play_button);
         mPlayerButton.setOnClickListener(mOnClickListener);
+        // this fragment is retained, the player keeps playing while the view is recreated
+        mPlayerView.getHolder().addCallback(mSurfaceCallback);
+        if (mPlayer != null) {
+            if ((mPlayer.getWidth() > 0) && (mPlayer.getHeight() > 0)) {
+                mPlayerView.setAspectRatio(mPlayer.getWidth() / (float)mPlayer.getHeight());
+            }
+            mPlayerButton.setColorFilter(0x7fff0000);	// turn red
+        }
         return rootView;
     }
 
@@ -82,16 +93,63 @@ public class PlayerFragment extends Fragment {
         super.onResume();
         if (DEBUG) Log.v(TAG, "onResume:");
         mPlayerView.onResume();
+        if ((mPlayer != null) && mPlayerView.getHolder().getSurface().isValid()) {
+            // otherwise video is resumed when the surface is created
+            mPlayer.setAudioOnly(false);
+        }
     }
 
     @Override
     public void onPause() {
         if (DEBUG) Log.v(TAG, "onPause:");
-        stopPlay();
+        final Activity activity = getActivity();
+        if ((activity == null) || activity.isFinishing()) {
+            stopPlay();
+        } else if ((mPlayer != null) && !activity.isChangingConfigurations()) {
+            // keep playing audio in background without decoding video
+            mPlayer.setAudioOnly(true);
+        }
         mPlayerView.onPause();
         super.onPause();
     }
 
+    @Override
+    public void onDestroy() {
+        if (DEBUG) Log.v(TAG, "onDestroy:");
+        stopPlay();
+        super.onDestroy();
+    }
+
+    /**
+     * switch output surface of the player when the view is recreated, e.g. rotating the device
+     */
+    private final SurfaceHolder.Callback mSurfaceCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(@NonNull final SurfaceHolder holder) {
+            if (DEBUG) Log.v(TAG, "surfaceCreated:");
+            if (mPlayer != null) {
+                mPlayer.setOutputSurface(holder.getSurface());
+                if (isResumed()) {
+                    mPlayer.setAudioOnly(false);
+                }
+            }
+        }
+
+        @Override
+        public void surfaceChanged(@NonNull final SurfaceHolder holder,
+            final int format, final int width, final int height) {
+        }
+
+        @Override
+        public void surfaceDestroyed(@NonNull final SurfaceHolder holder) {
+            if (DEBUG) Log.v(TAG, "surfaceDestroyed:");
+            if (mPlayer != null) {
+                // keep decoding without rendering until next surface is created
+                mPlayer.setOutputSurface(null);
+            }
+        }
+    };
+
     /**
      * method when touch record button
      */
@@ -115,11 +173,12 @@ public class PlayerFragment extends Fragment {
         final Activity activity = getActivity();
         try {
             assert activity != null;
-            final File dir = activity.getFilesDir();
-            dir.mkdirs();
-            //final File path = new File(dir, "av_h264_30fps_4040kbps_aac_178kbps.mp4");
-            final File path = new File(dir, "hdr10-720p.mp4");
-            prepareSampleMovie(path);
+            // play the sample movie in res/raw directly without copying it to app private storage,
+            // raw resources with .mp4 extension are stored uncompressed in the apk
+            final AssetFileDescriptor afd = activity.getResources().openRawResourceFd(R.raw.hdr10_720p);
+            if (afd == null) {
+                throw new IOException("sample movie is compressed in the apk");
+            }
             mPlayerButton.setColorFilter(0x7fff0000);	// turn red
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
                 requireActivity().getWindow().setColorMode(ActivityInfo.COLOR_MODE_HDR);
@@ -130,7 +189,8 @@ public class PlayerFragment extends Fragment {
             Context context = getContext();
 //			mPlayer = new MediaVideoPlayer(mPlayerView.getSurface(), mIFrameCallback);
             mPlayer = new MediaMoviePlayer(mPlayerView.getHolder().getSurface(), mIFrameCallback, true, context);
-            mPlayer.prepare(path.toString());
+            mPlayer.setStartupListener(mStartupListener);
+            mPlayer.prepare(afd);
         } catch (IOException e) {
             Log.e(TAG, "startPlay:", e);
         }
@@ -149,9 +209,20 @@ public class PlayerFragment extends Fragment {
         }
     }
 
+    /**
+     * startup breakdown from player
+     */
+    private final IStartupListener mStartupListener = new IStartupListener() {
+        @Override
+        public void onStartupReport(final StartupReport report) {
+            if (DEBUG) Log.v(TAG, "onStartupReport:" + report);
+        }
+    };
+
     /**
      * callback methods from decoder
      */
+
     private final IFrameCallback mIFrameCallback = new IFrameCallback() {
         @Override
         public void onPrepared() {
@@ -185,25 +256,4 @@ public class PlayerFragment extends Fragment {
             return false;
         }
     };
-
-    private final void prepareSampleMovie(File path) throws IOException {
-        final Activity activity = getActivity();
-        if (!path.exists()) {
-            if (DEBUG) Log.i(TAG, "copy sample movie file from res/raw to app private storage");
-            assert activity != null;
-            final BufferedInputStream in =
-                    new BufferedInputStream(activity.getResources().openRawResource(R.raw.hdr10_720p));
-            final BufferedOutputStream out =
-                    new BufferedOutputStream(activity.openFileOutput(path.getName(), Context.MODE_PRIVATE));
-            byte[] buf = new byte[8192];
-            int size = in.read(buf);
-            while (size > 0) {
-                out.write(buf, 0, size);
-                size = in.read(buf);
-            }
-            in.close();
-            out.flush();
-            out.close();
-        }
-    }
 }
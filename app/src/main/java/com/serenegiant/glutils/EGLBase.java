@@ -26,6 +26,7 @@ import android.opengl.EGL14;
 import android.opengl.EGLConfig;
 import android.opengl.EGLContext;
 import android.opengl.EGLDisplay;
+import android.opengl.EGLExt;
 import android.opengl.EGLSurface;
 import android.util.Log;
 import android.view.Surface;
@@ -39,6 +40,8 @@ public class EGLBase {
     private EGLConfig mEglConfig = null;
     private EGLContext mEglContext = EGL14.EGL_NO_CONTEXT;
     private EGLDisplay mEglDisplay = EGL14.EGL_NO_DISPLAY;
+    /** surfaces are queried on every frame, EGL is used on a single thread */
+    private final int[] mQueryValue = new int[1];
 
     public static class EglSurface {
         private final EGLBase mEgl;
@@ -52,6 +55,14 @@ public class EGLBase {
             mEglSurface = mEgl.createWindowSurface(surface);
         }
 
+        EglSurface(EGLBase egl, int width, int height) {
+            if (DEBUG) {
+                Log.i(TAG, "EglSurface:offscreen");
+            }
+            mEgl = egl;
+            mEglSurface = mEgl.createOffscreenSurface(width, height);
+        }
+
         public void makeCurrent() {
             mEgl.makeCurrent(mEglSurface);
         }
@@ -60,6 +71,22 @@ public class EGLBase {
             mEgl.swap(mEglSurface);
         }
 
+        /**
+         * set presentation time of the next swapped frame, e.g. Image#getTimestamp of ImageReader
+         * @param nsecs
+         */
+        public void setPresentationTime(long nsecs) {
+            EGLExt.eglPresentationTimeANDROID(mEgl.mEglDisplay, mEglSurface, nsecs);
+        }
+
+        public int getWidth() {
+            return mEgl.querySurface(mEglSurface, EGL14.EGL_WIDTH);
+        }
+
+        public int getHeight() {
+            return mEgl.querySurface(mEglSurface, EGL14.EGL_HEIGHT);
+        }
+
         public void release() {
             if (DEBUG) Log.i(TAG, "EglSurface:release:");
             mEgl.destroyWindowSurface(mEglSurface);
@@ -90,6 +117,24 @@ public class EGLBase {
         return new EglSurface(this, surface);
     }
 
+    /**
+     * create pbuffer surface, e.g. to make the context current on the thread that has no window
+     * @param width
+     * @param height
+     * @return
+     */
+    public EglSurface createOffscreen(int width, int height) {
+        if (DEBUG) Log.i(TAG, "createOffscreen:");
+        return new EglSurface(this, width, height);
+    }
+
+    /**
+     * @return rendering context to share textures with the other EGLBase
+     */
+    public EGLContext getContext() {
+        return mEglContext;
+    }
+
     private void init(EGLContext shared_context, boolean with_depth_buffer) {
         if (DEBUG) Log.v(TAG, "init:");
         if (mEglDisplay != EGL14.EGL_NO_DISPLAY) {
@@ -193,6 +238,24 @@ public class EGLBase {
         return result;
     }
 
+    private EGLSurface createOffscreenSurface(int width, int height) {
+        if (DEBUG) Log.v(TAG, "createOffscreenSurface:");
+
+        final int[] surfaceAttribs = {
+                EGL14.EGL_WIDTH, width,
+                EGL14.EGL_HEIGHT, height,
+                EGL14.EGL_NONE
+        };
+        final EGLSurface result = EGL14.eglCreatePbufferSurface(mEglDisplay, mEglConfig, surfaceAttribs, 0);
+        checkEglError("eglCreatePbufferSurface");
+        return result;
+    }
+
+    private int querySurface(EGLSurface surface, int what) {
+        EGL14.eglQuerySurface(mEglDisplay, surface, what, mQueryValue, 0);
+        return mQueryValue[0];
+    }
+
     private void destroyWindowSurface(EGLSurface surface) {
         if (DEBUG) {
             Log.v(TAG, "destroySurface:");
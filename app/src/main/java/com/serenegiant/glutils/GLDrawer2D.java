@@ -28,7 +28,6 @@ import java.nio.FloatBuffer;
 
 import android.opengl.GLES11Ext;
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.util.Log;
 
 /**
@@ -93,7 +92,7 @@ public class GLDrawer2D {
         muMVPMatrixLoc = GLES20.glGetUniformLocation(hProgram, "uMVPMatrix");
         muTexMatrixLoc = GLES20.glGetUniformLocation(hProgram, "uTexMatrix");
 
-        Matrix.setIdentityM(mMvpMatrix, 0);
+        GLMatrix.setIdentity(mMvpMatrix, 0);
         GLES20.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, mMvpMatrix, 0);
         GLES20.glUniformMatrix4fv(muTexMatrixLoc, 1, false, mMvpMatrix, 0);
         GLES20.glVertexAttribPointer(maPositionLoc, 2, GLES20.GL_FLOAT, false, VERTEX_SZ, pVertex);
@@ -127,6 +126,19 @@ public class GLDrawer2D {
         GLES20.glUseProgram(0);
     }
 
+    /**
+     * set model view projection matrix, e.g. to scale, flip or rotate the texture on this surface.
+     * this should be called in GL context
+     * @param matrix 4x4 column-major matrix, see GLMatrix
+     * @param offset
+     */
+    public void setMvpMatrix(final float[] matrix, final int offset) {
+        System.arraycopy(matrix, offset, mMvpMatrix, 0, 16);
+        GLES20.glUseProgram(hProgram);
+        GLES20.glUniformMatrix4fv(muMVPMatrixLoc, 1, false, mMvpMatrix, 0);
+        GLES20.glUseProgram(0);
+    }
+
     /**
      * create external texture
      * @return texture ID
@@ -0,0 +1,65 @@
+package com.serenegiant.glutils;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: GLMatrix.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+/**
+ * 4x4 column-major matrix operations for GLDrawer2D, same layout as android.opengl.Matrix.
+ * this class does not depend on Android framework.
+ */
+public final class GLMatrix {
+    private GLMatrix() {
+    }
+
+    public static void setIdentity(final float[] m, final int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0;
+        }
+        m[offset] = m[offset + 5] = m[offset + 10] = m[offset + 15] = 1.0f;
+    }
+
+    /**
+     * set scale matrix that fits the content into the view with keeping its aspect ratio,
+     * i.e. letterbox or pillarbox
+     * @param m
+     * @param offset
+     * @param contentWidth
+     * @param contentHeight
+     * @param viewWidth
+     * @param viewHeight
+     */
+    public static void setAspectFit(final float[] m, final int offset,
+        final int contentWidth, final int contentHeight, final int viewWidth, final int viewHeight) {
+
+        setIdentity(m, offset);
+        if ((contentWidth <= 0) || (contentHeight <= 0) || (viewWidth <= 0) || (viewHeight <= 0)) {
+            return;
+        }
+        final float contentAspect = contentWidth / (float)contentHeight;
+        final float viewAspect = viewWidth / (float)viewHeight;
+        if (contentAspect > viewAspect) {
+            m[offset + 5] = viewAspect / contentAspect;
+        } else {
+            m[offset] = contentAspect / viewAspect;
+        }
+    }
+}
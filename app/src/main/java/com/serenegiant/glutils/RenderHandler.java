@@ -23,12 +23,15 @@ package com.serenegiant.glutils;
 */
 
 import android.opengl.EGLContext;
+import android.opengl.GLES20;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 import android.view.Surface;
 
+import com.serenegiant.media.MediaTrace;
+
 import java.util.Objects;
 
 /**
@@ -40,10 +43,15 @@ public final class RenderHandler extends Handler {
 
     private static final int MSG_RENDER_SET_GLCONTEXT = 1;
     private static final int MSG_RENDER_DRAW = 2;
+    private static final int MSG_RENDER_SET_MVP = 3;
     private static final int MSG_RENDER_QUIT = 9;
+    private static final String TRACE_DRAW = "RenderHandler:draw";
 
     private int mTexId = -1;
     private final RenderThread mThread;
+    /** number of draw requests and finished draws, guarded by mDrawSync */
+    private final Object mDrawSync = new Object();
+    private long mDrawRequested, mDrawn;
 
     public static RenderHandler createHandler() {
         return createHandler(null);
@@ -61,27 +69,76 @@ public final class RenderHandler extends Handler {
         sendMessage(obtainMessage(MSG_RENDER_SET_GLCONTEXT, new ContextParams(shared_context, surface)));
     }
 
+    /**
+     * set model view projection matrix of this surface
+     * @param mvp_matrix 4x4 column-major matrix, this is copied
+     */
+    public void setMvpMatrix(final float[] mvp_matrix) {
+        sendMessage(obtainMessage(MSG_RENDER_SET_MVP, mvp_matrix.clone()));
+    }
+
     public void draw() {
-        sendMessage(obtainMessage(MSG_RENDER_DRAW, mTexId, 0, null));
+        draw(mTexId, null);
     }
 
     public void draw(int tex_id) {
-        sendMessage(obtainMessage(MSG_RENDER_DRAW, tex_id, 0, null));
+        draw(tex_id, null);
     }
 
     public void draw(final float[] tex_matrix) {
-        sendMessage(obtainMessage(MSG_RENDER_DRAW, mTexId, 0, tex_matrix));
+        draw(mTexId, tex_matrix);
     }
 
+    /**
+     * the texture matrix is not copied, keep its content until #waitDrawn returns
+     * @param tex_id
+     * @param tex_matrix
+     */
     public void draw(int tex_id, final float[] tex_matrix) {
+        synchronized (mDrawSync) {
+            mDrawRequested++;
+        }
         sendMessage(obtainMessage(MSG_RENDER_DRAW, tex_id, 0, tex_matrix));
     }
 
+    /**
+     * wait until all requested draws are swapped
+     * @param timeoutMs
+     * @return false if timed out
+     */
+    public boolean waitDrawn(long timeoutMs) {
+        final long end = System.currentTimeMillis() + timeoutMs;
+        synchronized (mDrawSync) {
+            for (long t = timeoutMs; mDrawn < mDrawRequested; t = end - System.currentTimeMillis()) {
+                if (t <= 0) return false;
+                try {
+                    mDrawSync.wait(t);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public void release() {
         if (DEBUG) Log.i(TAG, "release:");
         sendEmptyMessage(MSG_RENDER_QUIT);
     }
 
+    /**
+     * release and wait until EGL resources of this handler are released,
+     * e.g. before the surface is destroyed
+     */
+    public void releaseAndWait() {
+        release();
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            // ignore
+        }
+    }
+
     @Override
     public void handleMessage(Message msg) {
         switch (msg.what) {
@@ -90,7 +147,17 @@ public final class RenderHandler extends Handler {
             mThread.setEglContext(params.shared_context, params.surface);
             break;
         case MSG_RENDER_DRAW:
-            mThread.draw(msg.arg1, (float[])msg.obj);
+            try {
+                mThread.draw(msg.arg1, (float[])msg.obj);
+            } finally {
+                synchronized (mDrawSync) {
+                    mDrawn++;
+                    mDrawSync.notifyAll();
+                }
+            }
+            break;
+        case MSG_RENDER_SET_MVP:
+            mThread.setMvpMatrix((float[])msg.obj);
             break;
         case MSG_RENDER_QUIT:
             Objects.requireNonNull(Looper.myLooper()).quit();
@@ -126,6 +193,8 @@ public final class RenderHandler extends Handler {
         private EGLBase mEgl;
         private EGLBase.EglSurface mInputSurface;
         private GLDrawer2D mDrawer;
+        /** model view projection matrix, kept to apply to the drawer of next context */
+        private float[] mMvpMatrix;
 
         public RenderThread(String name) {
             super(name);
@@ -181,14 +250,31 @@ public final class RenderHandler extends Handler {
             mInputSurface = mEgl.createFromSurface(surface);
             mInputSurface.makeCurrent();
             mDrawer = new GLDrawer2D();
+            if (mMvpMatrix != null) {
+                mDrawer.setMvpMatrix(mMvpMatrix, 0);
+            }
+        }
+
+        private void setMvpMatrix(final float[] mvp_matrix) {
+            mMvpMatrix = mvp_matrix;
+            if (mDrawer != null) {
+                mInputSurface.makeCurrent();
+                mDrawer.setMvpMatrix(mvp_matrix, 0);
+            }
         }
  
         private void draw(int tex_id, final float[] tex_matrix) {
             if (DEBUG) Log.i(TAG, "RenderThread:draw");
             if (tex_id >= 0) {
-                mInputSurface.makeCurrent();
-                mDrawer.draw(tex_id, tex_matrix);
-                mInputSurface.swap();
+                MediaTrace.beginSection(TRACE_DRAW);
+                try {
+                    mInputSurface.makeCurrent();
+                    GLES20.glViewport(0, 0, mInputSurface.getWidth(), mInputSurface.getHeight());
+                    mDrawer.draw(tex_id, tex_matrix);
+                    mInputSurface.swap();
+                } finally {
+                    MediaTrace.endSection();
+                }
             }
         }
     }
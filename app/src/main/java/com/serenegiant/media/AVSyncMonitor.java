@@ -0,0 +1,288 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AVSyncMonitor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * monitor of A/V offset and render interval jitter.
+ * A/V offset is the difference between presentation time of rendered video frame
+ * and presentation time of audio that is being played by IAudioSink at that moment.
+ * a frame is counted as janky when its render interval exceeds
+ * JANK_FACTOR times of expected frame interval.
+ * #onAudioWritten is called from audio decoder thread and
+ * #onVideoRendered is called from video decoder thread.
+ */
+public class AVSyncMonitor {
+    public static final long DEFAULT_OFFSET_THRESHOLD_US = 45000;
+    private static final float JANK_FACTOR = 1.5f;
+    /** number of frames for rolling statistics */
+    private static final int WINDOW = 120;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+    /** zero length trace section that marks janky frame, so that trace tools can count them */
+    private static final String TRACE_JANK = "MoviePlayer:videoJank";
+
+    /**
+     * snapshot of statistics, rolling values are calculated from last WINDOW frames
+     */
+    public static final class Stats {
+        /** number of rendered frames since reset */
+        public final long frames;
+        /** number of janky frames since reset */
+        public final long jankyFrames;
+        /** A/V offset of last frame, positive value means video is ahead, 0 if audio is not available */
+        public final long offsetUs;
+        /** rolling average of A/V offset */
+        public final long avgOffsetUs;
+        /** rolling maximum of absolute A/V offset */
+        public final long maxAbsOffsetUs;
+        /** rolling average of absolute difference between render interval and expected interval */
+        public final long avgJitterUs;
+        /** rolling maximum of absolute difference between render interval and expected interval */
+        public final long maxJitterUs;
+
+        private Stats(final long frames, final long jankyFrames,
+            final long offsetUs, final long avgOffsetUs, final long maxAbsOffsetUs,
+            final long avgJitterUs, final long maxJitterUs) {
+
+            this.frames = frames;
+            this.jankyFrames = jankyFrames;
+            this.offsetUs = offsetUs;
+            this.avgOffsetUs = avgOffsetUs;
+            this.maxAbsOffsetUs = maxAbsOffsetUs;
+            this.avgJitterUs = avgJitterUs;
+            this.maxJitterUs = maxJitterUs;
+        }
+
+        @Override
+        public String toString() {
+            return "AVSync{frames=" + frames + ",jank=" + jankyFrames
+                + ",offset=" + offsetUs + ",avgOffset=" + avgOffsetUs
+                + ",maxAbsOffset=" + maxAbsOffsetUs
+                + ",avgJitter=" + avgJitterUs + ",maxJitter=" + maxJitterUs + "}";
+        }
+    }
+
+    private final Object mSync = new Object();
+    private final IClock mClock;
+    private IAVSyncListener mListener;
+    private long mOffsetThresholdUs = DEFAULT_OFFSET_THRESHOLD_US;
+    private float mFrameRate;
+    // audio, guarded by mSync
+    private IAudioSink mAudioSink;
+    private int mSampleRate;
+    private int mFrameSize;
+    private long mWrittenFrames;
+    private long mAudioBasePtsUs = UNKNOWN;
+    private long mAudioBaseFrames;
+    // video, updated from video decoder thread, guarded by mSync
+    private long mLastRenderNs = UNKNOWN;
+    private long mLastPtsUs = UNKNOWN;
+    private boolean mOffsetExceeded;
+    private long mFrames;
+    private long mJankyFrames;
+    private long mLastOffsetUs;
+    private final long[] mOffsets = new long[WINDOW];
+    private int mOffsetCount;
+    private final long[] mJitters = new long[WINDOW];
+    private int mJitterCount;
+
+    public AVSyncMonitor() {
+        this(MonotonicClock.INSTANCE);
+    }
+
+    /**
+     * @param clock same clock as the player paces frames with
+     */
+    public AVSyncMonitor(final IClock clock) {
+        mClock = clock;
+    }
+
+    /**
+     * @param listener null to clear
+     * @param offsetThresholdUs
+     */
+    public void setListener(final IAVSyncListener listener, final long offsetThresholdUs) {
+        synchronized (mSync) {
+            mListener = listener;
+            mOffsetThresholdUs = offsetThresholdUs;
+        }
+    }
+
+    /**
+     * @param frameRate expected frame rate, if 0 the expected interval is estimated from presentation time
+     */
+    public void setFrameRate(final float frameRate) {
+        synchronized (mSync) {
+            mFrameRate = frameRate;
+        }
+    }
+
+    /**
+     * @param sink null if audio is not played
+     * @param sampleRate
+     * @param channelCount
+     */
+    public void setAudioSink(final IAudioSink sink, final int sampleRate, final int channelCount) {
+        synchronized (mSync) {
+            mAudioSink = sink;
+            mSampleRate = sampleRate;
+            mFrameSize = 2 * channelCount;	// PCM 16 bit
+            mWrittenFrames = 0;
+            mAudioBasePtsUs = UNKNOWN;
+        }
+    }
+
+    /**
+     * clear statistics, e.g. when playing started or after seeking
+     */
+    public void reset() {
+        synchronized (mSync) {
+            mAudioBasePtsUs = UNKNOWN;
+            mLastRenderNs = mLastPtsUs = UNKNOWN;
+            mOffsetExceeded = false;
+            mFrames = mJankyFrames = mLastOffsetUs = 0;
+            mOffsetCount = mJitterCount = 0;
+        }
+    }
+
+    /**
+     * IAudioSink#flush was called, the playback position of the sink restarted from 0
+     */
+    public void onAudioFlushed() {
+        synchronized (mSync) {
+            mWrittenFrames = 0;
+            mAudioBasePtsUs = UNKNOWN;
+        }
+    }
+
+    /**
+     * audio data was written to IAudioSink
+     * @param presentationTimeUs
+     * @param bytes
+     */
+    public void onAudioWritten(final long presentationTimeUs, final int bytes) {
+        synchronized (mSync) {
+            if ((mAudioSink == null) || (mFrameSize <= 0)) return;
+            if (mAudioBasePtsUs == UNKNOWN) {
+                // presentation time of the first frame of this buffer
+                mAudioBasePtsUs = presentationTimeUs;
+                mAudioBaseFrames = mWrittenFrames;
+            }
+            mWrittenFrames += bytes / mFrameSize;
+        }
+    }
+
+    /**
+     * video frame was released to render
+     * @param presentationTimeUs
+     */
+    public void onVideoRendered(final long presentationTimeUs) {
+        onVideoRendered(presentationTimeUs, mClock.nanoTime());
+    }
+
+    /**
+     * video frame was released to render at specific time
+     * @param presentationTimeUs
+     * @param renderNs time the frame will be shown, IClock base
+     */
+    public void onVideoRendered(final long presentationTimeUs, final long renderNs) {
+        final long now = renderNs;
+        IAVSyncListener listener = null;
+        long offset = 0;
+        long interval = 0, expected = 0;
+        boolean offsetExceeded = false, jank = false;
+        synchronized (mSync) {
+            mFrames++;
+            final long audioPts = getAudioPtsLocked(now);
+            if (audioPts != UNKNOWN) {
+                offset = presentationTimeUs - audioPts;
+                mLastOffsetUs = offset;
+                mOffsets[mOffsetCount++ % WINDOW] = offset;
+                final boolean exceeded = Math.abs(offset) > mOffsetThresholdUs;
+                offsetExceeded = exceeded && !mOffsetExceeded;
+                mOffsetExceeded = exceeded;
+            }
+            if ((mLastRenderNs != UNKNOWN) && (presentationTimeUs > mLastPtsUs)) {
+                interval = (now - mLastRenderNs) / 1000;
+                expected = mFrameRate > 0 ? (long)(1000000 / mFrameRate) : presentationTimeUs - mLastPtsUs;
+                mJitters[mJitterCount++ % WINDOW] = Math.abs(interval - expected);
+                if (interval > expected * JANK_FACTOR) {
+                    mJankyFrames++;
+                    jank = true;
+                }
+            }
+            mLastRenderNs = now;
+            mLastPtsUs = presentationTimeUs;
+            listener = mListener;
+        }
+        if (jank) {
+            MediaTrace.beginSection(TRACE_JANK);
+            MediaTrace.endSection();
+        }
+        if (listener != null) {
+            if (offsetExceeded) {
+                listener.onAVOffsetExceeded(offset);
+            }
+            if (jank) {
+                listener.onJank(interval, expected);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (mSync) {
+            long sumOffset = 0, maxOffset = 0;
+            final int nOffset = Math.min(mOffsetCount, WINDOW);
+            for (int i = 0; i < nOffset; i++) {
+                sumOffset += mOffsets[i];
+                maxOffset = Math.max(maxOffset, Math.abs(mOffsets[i]));
+            }
+            long sumJitter = 0, maxJitter = 0;
+            final int nJitter = Math.min(mJitterCount, WINDOW);
+            for (int i = 0; i < nJitter; i++) {
+                sumJitter += mJitters[i];
+                maxJitter = Math.max(maxJitter, mJitters[i]);
+            }
+            return new Stats(mFrames, mJankyFrames, mLastOffsetUs,
+                nOffset > 0 ? sumOffset / nOffset : 0, maxOffset,
+                nJitter > 0 ? sumJitter / nJitter : 0, maxJitter);
+        }
+    }
+
+    /**
+     * estimate presentation time of audio that is being played now
+     * @param nowNs
+     * @return UNKNOWN if audio is not available
+     */
+    private long getAudioPtsLocked(final long nowNs) {
+        if ((mAudioSink == null) || (mAudioBasePtsUs == UNKNOWN) || (mSampleRate <= 0)) {
+            return UNKNOWN;
+        }
+        long position = mAudioSink.getPlaybackPosition(nowNs);
+        if (position < 0) return UNKNOWN;
+        // audio that was written before the base buffer is not being played yet
+        position = Math.min(position, mWrittenFrames);
+        if (position < mAudioBaseFrames) return UNKNOWN;
+        return mAudioBasePtsUs + (long)((position - mAudioBaseFrames) * 1e6 / mSampleRate);
+    }
+}
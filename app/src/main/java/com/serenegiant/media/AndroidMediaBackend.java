@@ -0,0 +1,114 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AndroidMediaBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaMetadataRetriever;
+import android.util.Log;
+
+/**
+ * IMediaBackend with MediaExtractor/FragmentedMp4Extractor, MediaCodec and AudioTrack
+ */
+public class AndroidMediaBackend implements IMediaBackend {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "AndroidMediaBackend";
+
+    @Override
+    public void checkReadable(final MediaSource source) throws FileNotFoundException {
+        source.checkReadable();
+    }
+
+    @Override
+    public MediaMetadataRetriever createMetadataRetriever(final MediaSource source) {
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            source.setDataSource(retriever);
+        } catch (final RuntimeException e) {
+            try {
+                retriever.release();
+            } catch (final IOException e1) {
+                // ignore
+            }
+            throw e;
+        }
+        return retriever;
+    }
+
+    /**
+     * fragmented mp4 is read by FragmentedMp4Extractor
+     * that can start playing as soon as the first fragment is available
+     */
+    @Override
+    public ISampleSource createSampleSource(final MediaSource source) throws IOException {
+        if (source.isFragmented()) {
+            if (DEBUG) Log.v(TAG, "createSampleSource:fragmented mp4");
+            return source.createFragmentedExtractor();
+        }
+        final MediaExtractor extractor = new MediaExtractor();
+        try {
+            source.setDataSource(extractor);
+        } catch (final IOException e) {
+            extractor.release();
+            throw e;
+        }
+        return new MediaExtractorSource(extractor);
+    }
+
+    @Override
+    public IDecoder createDecoder(final String mime) throws IOException {
+        return new MediaCodecDecoder(mime);
+    }
+
+    @Override
+    public IDecoder createDecoderByName(final String name) throws IOException {
+        return new MediaCodecDecoder(MediaCodec.createByCodecName(name));
+    }
+
+    @Override
+    public DecoderResourceManager getDecoderResourceManager() {
+        return DecoderResourceManager.getInstance();
+    }
+
+    /**
+     * vsync timing from Choreographer
+     */
+    @Override
+    public VsyncScheduler createVsyncScheduler() {
+        return new VsyncScheduler(VsyncScheduler.DEFAULT_REFRESH_RATE, true);
+    }
+
+    @Override
+    public IAudioSink createAudioSink() {
+        return new AudioTrackSink();
+    }
+
+    @Override
+    public IClock getClock() {
+        return MonotonicClock.INSTANCE;
+    }
+}
@@ -0,0 +1,141 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AudioTrackSink.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+import android.util.Log;
+
+/**
+ * IAudioSink that plays audio with AudioTrack on streaming mode
+ */
+public class AudioTrackSink implements IAudioSink {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "AudioTrackSink";
+
+    private final AudioTimestamp mAudioTimestamp = new AudioTimestamp();
+    private AudioTrack mAudioTrack;
+    private int mSampleRate;
+    /** frame position and System#nanoTime at the last #flush, AudioTrack may not restart the position from 0 */
+    private volatile long mPositionBase;
+    private volatile long mFlushNs;
+
+    @Override
+    public int getMinBufferSize(final int sampleRate, final int channels) {
+        return AudioTrack.getMinBufferSize(sampleRate,
+            (channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO),
+            AudioFormat.ENCODING_PCM_16BIT);
+    }
+
+    @Override
+    public int getNativeOutputSampleRate() {
+        return AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+    }
+
+    @Override
+    public boolean open(final int sampleRate, final int channels, final int bufferSize) {
+        release();
+        try {
+            final AudioTrack track = new AudioTrack(AudioManager.STREAM_MUSIC,
+                sampleRate,
+                (channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO),
+                AudioFormat.ENCODING_PCM_16BIT,
+                bufferSize,
+                AudioTrack.MODE_STREAM);
+            if (track.getState() == AudioTrack.STATE_INITIALIZED) {
+                mAudioTrack = track;
+                mSampleRate = sampleRate;
+                mPositionBase = mFlushNs = 0;
+                return true;
+            }
+            track.release();
+        } catch (final IllegalArgumentException e) {
+            Log.w(TAG, "open:" + sampleRate + "Hz," + channels + "ch", e);
+        }
+        return false;
+    }
+
+    @Override
+    public void play() {
+        mAudioTrack.play();
+    }
+
+    @Override
+    public int write(final byte[] data, final int offset, final int size) {
+        return mAudioTrack.write(data, offset, size);
+    }
+
+    @Override
+    public int write(final short[] data, final int offset, final int size) {
+        return mAudioTrack.write(data, offset, size);
+    }
+
+    @Override
+    public long getPlaybackPosition(final long nowNs) {
+        final AudioTrack track = mAudioTrack;
+        if (track == null) return -1;
+        if (track.getTimestamp(mAudioTimestamp) && (mAudioTimestamp.nanoTime >= mFlushNs)) {
+            // extrapolate frame position to now
+            return mAudioTimestamp.framePosition - mPositionBase
+                + (long)((nowNs - mAudioTimestamp.nanoTime) * (double)mSampleRate / 1e9);
+        }
+        // playback head position is a 32 bit unsigned value
+        return (track.getPlaybackHeadPosition() & 0xffffffffL) - mPositionBase;
+    }
+
+    @Override
+    public void flush() {
+        final AudioTrack track = mAudioTrack;
+        if (track == null) return;
+        // AudioTrack discards written data only while paused or stopped
+        final boolean playing = track.getPlayState() == AudioTrack.PLAYSTATE_PLAYING;
+        if (playing) {
+            track.pause();
+        }
+        track.flush();
+        mPositionBase = track.getPlaybackHeadPosition() & 0xffffffffL;
+        mFlushNs = System.nanoTime();
+        if (playing) {
+            track.play();
+        }
+    }
+
+    @Override
+    public void stop() {
+        if ((mAudioTrack != null) && (mAudioTrack.getState() != AudioTrack.STATE_UNINITIALIZED)) {
+            mAudioTrack.stop();
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mAudioTrack != null) {
+            if (DEBUG) Log.v(TAG, "release:");
+            mAudioTrack.release();
+            mAudioTrack = null;
+        }
+    }
+}
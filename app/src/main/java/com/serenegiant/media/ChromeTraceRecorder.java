@@ -0,0 +1,202 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ChromeTraceRecorder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * in-process recorder of trace events that writes Chrome trace-event JSON,
+ * the output file can be opened with chrome://tracing or ui.perfetto.dev.
+ * events are stored into preallocated arrays without allocation and locking,
+ * events after the buffer became full are dropped.
+ * a slot is published by its phase after the other fields were written,
+ * so events that are still being written while #writeTo are skipped.
+ * this class does not depend on Android framework.
+ */
+public class ChromeTraceRecorder {
+    public static final int DEFAULT_MAX_EVENTS = 256 * 1024;
+
+    private static final char PHASE_BEGIN = 'B';
+    private static final char PHASE_END = 'E';
+    private static final char PHASE_ASYNC_BEGIN = 'b';
+    private static final char PHASE_ASYNC_END = 'e';
+    private static final char PHASE_COUNTER = 'C';
+
+    private final long mOriginNs = System.nanoTime();
+    private final int mMaxEvents;
+    private final AtomicInteger mCount = new AtomicInteger();
+    /** phase of each slot, 0 while the slot is reserved but not written yet */
+    private final AtomicIntegerArray mPhases;
+    private final String[] mNames;
+    private final long[] mTimesNs;
+    private final long[] mThreadIds;
+    private final long[] mValues;
+    private final ConcurrentHashMap<Long, String> mThreadNames = new ConcurrentHashMap<Long, String>();
+    /** whether the name of current thread was already registered */
+    private final ThreadLocal<Boolean> mRegistered = new ThreadLocal<Boolean>();
+
+    public ChromeTraceRecorder() {
+        this(DEFAULT_MAX_EVENTS);
+    }
+
+    /**
+     * @param maxEvents
+     */
+    public ChromeTraceRecorder(final int maxEvents) {
+        mMaxEvents = maxEvents;
+        mPhases = new AtomicIntegerArray(maxEvents);
+        mNames = new String[maxEvents];
+        mTimesNs = new long[maxEvents];
+        mThreadIds = new long[maxEvents];
+        mValues = new long[maxEvents];
+    }
+
+    public void beginSection(final String name) {
+        add(PHASE_BEGIN, name, 0);
+    }
+
+    public void endSection() {
+        add(PHASE_END, null, 0);
+    }
+
+    /**
+     * @param name
+     * @param id slices with same name and id are paired
+     */
+    public void beginAsyncSection(final String name, final long id) {
+        add(PHASE_ASYNC_BEGIN, name, id);
+    }
+
+    public void endAsyncSection(final String name, final long id) {
+        add(PHASE_ASYNC_END, name, id);
+    }
+
+    public void counter(final String name, final long value) {
+        add(PHASE_COUNTER, name, value);
+    }
+
+    /**
+     * @return number of recorded events
+     */
+    public int getEventCount() {
+        return Math.min(mCount.get(), mMaxEvents);
+    }
+
+    /**
+     * @return number of events that were dropped because the buffer was full
+     */
+    public int getDroppedCount() {
+        return Math.max(mCount.get() - mMaxEvents, 0);
+    }
+
+    /**
+     * write recorded events as JSON object format of Chrome trace-event.
+     * you should call this after recording finished
+     * @param file
+     * @throws IOException
+     */
+    public void writeTo(final File file) throws IOException {
+        try (final Writer out = new BufferedWriter(
+            new OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) {
+
+            writeTo(out);
+        }
+    }
+
+    public void writeTo(final Writer out) throws IOException {
+        final int n = getEventCount();
+        out.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n");
+        boolean first = true;
+        for (final Map.Entry<Long, String> e: mThreadNames.entrySet()) {
+            if (!first) out.write(",\n");
+            first = false;
+            out.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":" + e.getKey()
+                + ",\"args\":{\"name\":\"" + escape(e.getValue()) + "\"}}");
+        }
+        for (int i = 0; i < n; i++) {
+            final char phase = (char)mPhases.get(i);
+            if (phase == 0) continue;	// the writer has not finished this slot yet
+            if (!first) out.write(",\n");
+            first = false;
+            final long timeNs = mTimesNs[i] - mOriginNs;
+            final long fraction = timeNs % 1000;
+            final StringBuilder sb = new StringBuilder(128);
+            sb.append("{\"ph\":\"").append(phase).append('"')
+                .append(",\"ts\":").append(timeNs / 1000).append('.');
+            // zero padded by hand, String.format depends on the default locale
+            if (fraction < 100) sb.append('0');
+            if (fraction < 10) sb.append('0');
+            sb.append(fraction)
+                .append(",\"pid\":1,\"tid\":").append(mThreadIds[i]);
+            if (mNames[i] != null) {
+                sb.append(",\"name\":\"").append(escape(mNames[i])).append('"');
+            }
+            switch (phase) {
+            case PHASE_ASYNC_BEGIN:
+            case PHASE_ASYNC_END:
+                sb.append(",\"cat\":\"frame\",\"id\":\"0x").append(Long.toHexString(mValues[i])).append('"');
+                break;
+            case PHASE_COUNTER:
+                sb.append(",\"args\":{\"value\":").append(mValues[i]).append('}');
+                break;
+            default:
+                break;
+            }
+            sb.append('}');
+            out.write(sb.toString());
+        }
+        out.write("\n]}\n");
+    }
+
+    private void add(final char phase, final String name, final long value) {
+        final long now = System.nanoTime();
+        final int ix = mCount.getAndIncrement();
+        if (ix >= mMaxEvents) return;
+        final Thread thread = Thread.currentThread();
+        final long tid = thread.getId();
+        if (mRegistered.get() == null) {
+            mThreadNames.put(tid, thread.getName());
+            mRegistered.set(Boolean.TRUE);
+        }
+        mNames[ix] = name;
+        mTimesNs[ix] = now;
+        mThreadIds[ix] = tid;
+        mValues[ix] = value;
+        // publish the slot
+        mPhases.lazySet(ix, phase);
+    }
+
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
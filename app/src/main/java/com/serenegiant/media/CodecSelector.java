@@ -0,0 +1,415 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: CodecSelector.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.hardware.display.DisplayManager;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.util.Log;
+import android.util.Range;
+import android.view.Display;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * ranks video decoders for the movie.
+ * MediaCodecList is enumerated once per build of the device and the capabilities are saved
+ * as json in the cache directory with Build.FINGERPRINT, so later launches skip probing.
+ * decoders are ranked by
+ * 1. support of size and profile of the movie(e.g. 10-bit HDR profiles)
+ * 2. hardware decoders before software decoders
+ * 3. support of low latency decoding if the format has KEY_LOW_LATENCY
+ * 4. support of level of the movie
+ * 5. larger maximum resolution
+ * unsupported decoders are kept at the end of the list as the last fallback.
+ */
+public final class CodecSelector {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "CodecSelector";
+
+    private static final String CACHE_NAME = "codec_profile.json";
+    /** increment this when the format of the cache file changes */
+    private static final int CACHE_VERSION = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private static CodecSelector sInstance;
+
+    /**
+     * @param context used on first call to locate the cache file and to query HDR capabilities of the display,
+     *                without context, the probe results are not saved
+     */
+    public static synchronized CodecSelector getInstance(@Nullable final Context context) {
+        if (sInstance == null) {
+            sInstance = new CodecSelector(context);
+        } else if ((sInstance.mCacheFile == null) && (context != null)) {
+            sInstance.init(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * capabilities of a decoder for a mime type
+     */
+    public static final class Decoder {
+        public final String name;
+        public final String mime;
+        public final boolean hardware;
+        public final int maxWidth;
+        public final int maxHeight;
+        /** Integer.MAX_VALUE if unknown */
+        public final int maxInstances;
+        /** width x height x frame rate at the maximum resolution, 0 if unknown */
+        public final long maxPixelRate;
+        /** true if the decoder supports MediaCodecInfo.CodecCapabilities#FEATURE_LowLatency */
+        public final boolean lowLatency;
+        /** pairs of profile and level */
+        private final int[] profileLevels;
+
+        private Decoder(final String name, final String mime, final boolean hardware,
+            final int maxWidth, final int maxHeight, final int maxInstances, final long maxPixelRate,
+            final boolean lowLatency, final int[] profileLevels) {
+
+            this.name = name;
+            this.mime = mime;
+            this.hardware = hardware;
+            this.maxWidth = maxWidth;
+            this.maxHeight = maxHeight;
+            this.maxInstances = maxInstances;
+            this.maxPixelRate = maxPixelRate;
+            this.lowLatency = lowLatency;
+            this.profileLevels = profileLevels;
+        }
+
+        public boolean supportsSize(final int width, final int height) {
+            return ((width <= maxWidth) && (height <= maxHeight))
+                || ((height <= maxWidth) && (width <= maxHeight));
+        }
+
+        /**
+         * @return true if the decoder does not report profiles
+         */
+        public boolean supportsProfile(final int profile) {
+            if (profileLevels.length == 0) return true;
+            for (int i = 0; i < profileLevels.length; i += 2) {
+                if (profileLevels[i] == profile) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return true if the decoder does not report profiles
+         */
+        public boolean supportsLevel(final int profile, final int level) {
+            if (profileLevels.length == 0) return true;
+            for (int i = 0; i < profileLevels.length; i += 2) {
+                // level constants of MediaCodecInfo.CodecProfileLevel increase with level
+                if ((profileLevels[i] == profile) && (profileLevels[i + 1] >= level)) return true;
+            }
+            return false;
+        }
+
+        private JSONObject toJson() throws JSONException {
+            final JSONArray pl = new JSONArray();
+            for (final int v: profileLevels) {
+                pl.put(v);
+            }
+            return new JSONObject()
+                .put("name", name)
+                .put("mime", mime)
+                .put("hardware", hardware)
+                .put("maxWidth", maxWidth)
+                .put("maxHeight", maxHeight)
+                .put("maxInstances", maxInstances)
+                .put("maxPixelRate", maxPixelRate)
+                .put("lowLatency", lowLatency)
+                .put("profileLevels", pl);
+        }
+
+        private static Decoder fromJson(final JSONObject json) throws JSONException {
+            final JSONArray pl = json.getJSONArray("profileLevels");
+            final int[] profileLevels = new int[pl.length()];
+            for (int i = 0; i < profileLevels.length; i++) {
+                profileLevels[i] = pl.getInt(i);
+            }
+            return new Decoder(json.getString("name"), json.getString("mime"),
+                json.getBoolean("hardware"), json.getInt("maxWidth"), json.getInt("maxHeight"),
+                json.getInt("maxInstances"), json.getLong("maxPixelRate"),
+                json.getBoolean("lowLatency"), profileLevels);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return name + "{" + mime + (hardware ? ",hw" : ",sw")
+                + "," + maxWidth + "x" + maxHeight + ",pixelRate=" + maxPixelRate + "}";
+        }
+    }
+
+    private File mCacheFile;
+    private List<Decoder> mDecoders;
+    private int[] mDisplayHdrTypes = new int[0];
+
+    private CodecSelector(@Nullable final Context context) {
+        if (context != null) {
+            init(context);
+        }
+    }
+
+    private void init(@NonNull final Context context) {
+        mCacheFile = new File(context.getCacheDir(), CACHE_NAME);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            final DisplayManager manager = (DisplayManager)context.getSystemService(Context.DISPLAY_SERVICE);
+            final Display display = manager != null ? manager.getDisplay(Display.DEFAULT_DISPLAY) : null;
+            if ((display != null) && (display.getHdrCapabilities() != null)) {
+                mDisplayHdrTypes = display.getHdrCapabilities().getSupportedHdrTypes();
+            }
+        }
+    }
+
+    /**
+     * @param hdrType Display.HdrCapabilities.HDR_TYPE_XXX
+     * @return true if the default display supports hdrType, this is queried only once
+     */
+    public synchronized boolean isDisplayHdrTypeSupported(final int hdrType) {
+        for (final int type: mDisplayHdrTypes) {
+            if (type == hdrType) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param format format of video track
+     * @return decoders for the mime type of format in order of preference, empty if none
+     */
+    @NonNull
+    public List<Decoder> getDecoders(@NonNull final MediaFormat format) {
+        final String mime = format.getString(MediaFormat.KEY_MIME);
+        final int width = format.containsKey(MediaFormat.KEY_WIDTH) ? format.getInteger(MediaFormat.KEY_WIDTH) : 0;
+        final int height = format.containsKey(MediaFormat.KEY_HEIGHT) ? format.getInteger(MediaFormat.KEY_HEIGHT) : 0;
+        final int profile = format.containsKey(MediaFormat.KEY_PROFILE) ? format.getInteger(MediaFormat.KEY_PROFILE) : -1;
+        final int level = format.containsKey(MediaFormat.KEY_LEVEL) ? format.getInteger(MediaFormat.KEY_LEVEL) : -1;
+        final boolean lowLatency = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+            && format.containsKey(MediaFormat.KEY_LOW_LATENCY)
+            && (format.getInteger(MediaFormat.KEY_LOW_LATENCY) != 0);
+        final List<Decoder> result = new ArrayList<Decoder>();
+        for (final Decoder decoder: getDecoders()) {
+            if (decoder.mime.equalsIgnoreCase(mime)) {
+                result.add(decoder);
+            }
+        }
+        // Collections#sort is stable, so the order of MediaCodecList is kept for same rank
+        Collections.sort(result, new Comparator<Decoder>() {
+            @Override
+            public int compare(final Decoder d1, final Decoder d2) {
+                final int result = Integer.compare(rank(d2), rank(d1));
+                return result != 0 ? result
+                    : Long.compare(d2.maxWidth * (long)d2.maxHeight, d1.maxWidth * (long)d1.maxHeight);
+            }
+
+            private int rank(final Decoder decoder) {
+                int rank = 0;
+                if (decoder.supportsSize(width, height)
+                    && ((profile < 0) || decoder.supportsProfile(profile))) {
+                    rank += 8;
+                }
+                if (decoder.hardware) {
+                    rank += 4;
+                }
+                if (lowLatency && decoder.lowLatency) {
+                    rank += 2;
+                }
+                if ((profile < 0) || (level < 0) || decoder.supportsLevel(profile, level)) {
+                    rank += 1;
+                }
+                return rank;
+            }
+        });
+        if (DEBUG) Log.v(TAG, "getDecoders:" + format + "=" + result);
+        return result;
+    }
+
+    /**
+     * @return all video decoders, probed or loaded from the cache on first call
+     */
+    @NonNull
+    public synchronized List<Decoder> getDecoders() {
+        if (mDecoders == null) {
+            mDecoders = load();
+            if (mDecoders == null) {
+                mDecoders = probe();
+                save(mDecoders);
+            }
+        }
+        return mDecoders;
+    }
+
+    private List<Decoder> load() {
+        if ((mCacheFile == null) || !mCacheFile.canRead()) return null;
+        try {
+            final JSONObject json = new JSONObject(readText(mCacheFile));
+            if ((json.getInt("version") != CACHE_VERSION)
+                || !Build.FINGERPRINT.equals(json.getString("fingerprint"))) {
+
+                if (DEBUG) Log.v(TAG, "load:cache is for other build");
+                return null;
+            }
+            final JSONArray array = json.getJSONArray("decoders");
+            final List<Decoder> result = new ArrayList<Decoder>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                result.add(Decoder.fromJson(array.getJSONObject(i)));
+            }
+            if (DEBUG) Log.v(TAG, "load:" + result.size() + " decoders");
+            return Collections.unmodifiableList(result);
+        } catch (final IOException | JSONException e) {
+            Log.w(TAG, e);
+            return null;
+        }
+    }
+
+    private void save(final List<Decoder> decoders) {
+        if (mCacheFile == null) return;
+        try {
+            final JSONArray array = new JSONArray();
+            for (final Decoder decoder: decoders) {
+                array.put(decoder.toJson());
+            }
+            final JSONObject json = new JSONObject()
+                .put("version", CACHE_VERSION)
+                .put("fingerprint", Build.FINGERPRINT)
+                .put("decoders", array);
+            // write to temporary file and rename, so the other process never reads partial file
+            final File tmp = new File(mCacheFile.getPath() + ".tmp");
+            final OutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(json.toString().getBytes(UTF8));
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(mCacheFile)) {
+                tmp.delete();
+            }
+        } catch (final IOException | JSONException e) {
+            Log.w(TAG, e);
+        }
+    }
+
+    private static String readText(final File file) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] bytes = new byte[(int)file.length()];
+            int offset = 0;
+            while (offset < bytes.length) {
+                final int n = in.read(bytes, offset, bytes.length - offset);
+                if (n < 0) break;
+                offset += n;
+            }
+            return new String(bytes, 0, offset, UTF8);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static List<Decoder> probe() {
+        final long start = System.nanoTime();
+        final List<Decoder> result = new ArrayList<Decoder>();
+        for (final MediaCodecInfo info: new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+            if (info.isEncoder()
+                || ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) && info.isAlias())) continue;
+            for (final String mime: info.getSupportedTypes()) {
+                if (!mime.startsWith("video/")) continue;
+                try {
+                    result.add(probe(info, mime));
+                } catch (final RuntimeException e) {
+                    // some vendor codecs throw on querying capabilities
+                    Log.w(TAG, "probe:" + info.getName(), e);
+                }
+            }
+        }
+        if (DEBUG) Log.v(TAG, "probe:" + result.size() + " decoders in "
+            + (System.nanoTime() - start) / 1000000 + "ms");
+        return Collections.unmodifiableList(result);
+    }
+
+    private static Decoder probe(final MediaCodecInfo info, final String mime) {
+        final MediaCodecInfo.CodecCapabilities caps = info.getCapabilitiesForType(mime);
+        int maxInstances = Integer.MAX_VALUE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            maxInstances = caps.getMaxSupportedInstances();
+        }
+        int maxWidth = 0, maxHeight = 0;
+        long maxPixelRate = 0;
+        final MediaCodecInfo.VideoCapabilities video = caps.getVideoCapabilities();
+        if (video != null) {
+            maxWidth = video.getSupportedWidths().getUpper();
+            maxHeight = video.getSupportedHeightsFor(maxWidth).getUpper();
+            double fps = DecoderResourceManager.DEFAULT_FRAME_RATE;
+            try {
+                final Range<Double> rates = video.getSupportedFrameRatesFor(maxWidth, maxHeight);
+                fps = rates.getUpper();
+            } catch (final IllegalArgumentException e) {
+                // ignore
+            }
+            maxPixelRate = (long)(maxWidth * (long)maxHeight * fps);
+            // maximum height may be larger at smaller width, e.g. portrait
+            maxHeight = Math.max(maxHeight, video.getSupportedHeights().getUpper());
+        }
+        final boolean lowLatency = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R)
+            && caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_LowLatency);
+        final MediaCodecInfo.CodecProfileLevel[] levels = caps.profileLevels;
+        final int[] profileLevels = new int[levels != null ? levels.length * 2 : 0];
+        for (int i = 0; i < profileLevels.length; i += 2) {
+            profileLevels[i] = levels[i / 2].profile;
+            profileLevels[i + 1] = levels[i / 2].level;
+        }
+        return new Decoder(info.getName(), mime, !isSoftwareOnly(info),
+            maxWidth, maxHeight, maxInstances, maxPixelRate, lowLatency, profileLevels);
+    }
+
+    private static boolean isSoftwareOnly(final MediaCodecInfo info) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            return info.isSoftwareOnly();
+        }
+        final String name = info.getName();
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+    }
+}
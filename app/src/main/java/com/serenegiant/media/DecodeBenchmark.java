@@ -0,0 +1,133 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: DecodeBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import android.os.Debug;
+
+/**
+ * throughput counter of one decoder track for benchmark mode.
+ * all methods except #getResult should be called on the decode thread of the track
+ * because cpu time is measured as thread cpu time.
+ */
+public class DecodeBenchmark {
+
+    /**
+     * result of one track
+     */
+    public static final class Result {
+        public final String track;
+        /** number of decoded frames(buffers for audio) */
+        public final long frames;
+        /** wall time from the first input to output EOS */
+        public final long wallTimeMs;
+        /** cpu time of the decode thread, -1 if not supported */
+        public final long cpuTimeMs;
+        /** time that dequeueInputBuffer waited for free input buffer */
+        public final long inputStallMs;
+        /** time that dequeueOutputBuffer waited for decoded output */
+        public final long outputStallMs;
+
+        private Result(final String track, final long frames, final long wallTimeMs,
+            final long cpuTimeMs, final long inputStallMs, final long outputStallMs) {
+
+            this.track = track;
+            this.frames = frames;
+            this.wallTimeMs = wallTimeMs;
+            this.cpuTimeMs = cpuTimeMs;
+            this.inputStallMs = inputStallMs;
+            this.outputStallMs = outputStallMs;
+        }
+
+        /**
+         * @return decoded frames per second
+         */
+        public float getFps() {
+            return wallTimeMs > 0 ? frames * 1000f / wallTimeMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return track + "{frames=" + frames + ",fps=" + getFps()
+                + ",wall=" + wallTimeMs + "ms,cpu=" + cpuTimeMs
+                + "ms,inputStall=" + inputStallMs + "ms,outputStall=" + outputStallMs + "ms}";
+        }
+    }
+
+    private final String mTrack;
+    private long mStartNs;
+    private long mStartCpuNs;
+    private long mFrames;
+    private long mInputStallNs;
+    private long mOutputStallNs;
+    private volatile Result mResult;
+
+    /**
+     * @param track name of the track, e.g. "video"
+     */
+    public DecodeBenchmark(final String track) {
+        mTrack = track;
+    }
+
+    /**
+     * start measuring, call this on the decode thread
+     */
+    public void start() {
+        mFrames = mInputStallNs = mOutputStallNs = 0;
+        mResult = null;
+        mStartCpuNs = Debug.threadCpuTimeNanos();
+        mStartNs = System.nanoTime();
+    }
+
+    public void onInputStall(final long ns) {
+        mInputStallNs += ns;
+    }
+
+    public void onOutputStall(final long ns) {
+        mOutputStallNs += ns;
+    }
+
+    public void onFrameDecoded() {
+        mFrames++;
+    }
+
+    /**
+     * finish measuring, call this on the decode thread.
+     * only the first call after #start is effective
+     */
+    public void finish() {
+        if (mResult != null) return;
+        final long wallNs = System.nanoTime() - mStartNs;
+        final long cpuNs = Debug.threadCpuTimeNanos();
+        mResult = new Result(mTrack, mFrames, wallNs / 1000000L,
+            (cpuNs >= 0) && (mStartCpuNs >= 0) ? (cpuNs - mStartCpuNs) / 1000000L : -1,
+            mInputStallNs / 1000000L, mOutputStallNs / 1000000L);
+    }
+
+    /**
+     * @return null if not finished yet
+     */
+    public Result getResult() {
+        return mResult;
+    }
+}
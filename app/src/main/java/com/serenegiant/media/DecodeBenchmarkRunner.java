@@ -0,0 +1,240 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: DecodeBenchmarkRunner.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.graphics.SurfaceTexture;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * runs MediaMoviePlayer on benchmark mode repeatedly with warmup and measurement iterations.
+ * decoded frames are sent to a dummy surface and dropped.
+ * this can be called from instrumented test or runner activity(BenchmarkActivity)
+ */
+public class DecodeBenchmarkRunner {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "DecodeBenchmarkRunner";
+
+    private static final long ITERATION_TIMEOUT_MS = 10 * 60 * 1000;
+
+    /**
+     * create new MediaSource for each iteration because player releases it when finished
+     */
+    public interface SourceFactory {
+        MediaSource create() throws IOException;
+    }
+
+    /**
+     * results of measurement iterations
+     */
+    public static final class Report {
+        public final boolean lowLatency;
+        public final List<List<DecodeBenchmark.Result>> iterations;
+        /** latencies of each measurement iteration */
+        public final List<PipelineLatencyTracker.Snapshot> latencies;
+
+        private Report(final boolean lowLatency,
+            final List<List<DecodeBenchmark.Result>> iterations,
+            final List<PipelineLatencyTracker.Snapshot> latencies) {
+
+            this.lowLatency = lowLatency;
+            this.iterations = iterations;
+            this.latencies = latencies;
+        }
+
+        /**
+         * @param track "video" or "audio"
+         * @return median of decoded fps over measurement iterations, 0 if the track was not found
+         */
+        public float getMedianFps(@NonNull final String track) {
+            final List<DecodeBenchmark.Result> results = getResults(track);
+            final float[] fps = new float[results.size()];
+            for (int i = 0; i < fps.length; i++) {
+                fps[i] = results.get(i).getFps();
+            }
+            if (fps.length == 0) return 0;
+            Arrays.sort(fps);
+            return (fps.length & 1) != 0 ? fps[fps.length / 2]
+                : (fps[fps.length / 2 - 1] + fps[fps.length / 2]) / 2;
+        }
+
+        /**
+         * @param track "video" or "audio"
+         * @return median of p50 decode latency(queue to decoder output)[us] over measurement iterations
+         */
+        public long getMedianDecodeLatencyUs(@NonNull final String track) {
+            final long[] us = new long[latencies.size()];
+            for (int i = 0; i < us.length; i++) {
+                final PipelineLatencyTracker.Snapshot latency = latencies.get(i);
+                us[i] = ("video".equals(track) ? latency.video : latency.audio).decode.p50;
+            }
+            if (us.length == 0) return 0;
+            Arrays.sort(us);
+            return (us.length & 1) != 0 ? us[us.length / 2]
+                : (us[us.length / 2 - 1] + us[us.length / 2]) / 2;
+        }
+
+        /**
+         * @param track "video" or "audio"
+         * @return results of specific track of each measurement iteration
+         */
+        public List<DecodeBenchmark.Result> getResults(@NonNull final String track) {
+            final List<DecodeBenchmark.Result> result = new ArrayList<DecodeBenchmark.Result>();
+            for (final List<DecodeBenchmark.Result> iteration: iterations) {
+                for (final DecodeBenchmark.Result r: iteration) {
+                    if (track.equals(r.track)) {
+                        result.add(r);
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("DecodeBenchmark{lowLatency=").append(lowLatency)
+                .append(",medianFps(video=")
+                .append(getMedianFps("video")).append(",audio=").append(getMedianFps("audio"))
+                .append("),medianDecodeLatencyUs(video=")
+                .append(getMedianDecodeLatencyUs("video")).append(",audio=")
+                .append(getMedianDecodeLatencyUs("audio")).append(")");
+            for (int i = 0; i < iterations.size(); i++) {
+                sb.append("\n#").append(i).append(':').append(iterations.get(i))
+                    .append("\n  ").append(latencies.get(i));
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    private final Context mContext;
+    private final SourceFactory mFactory;
+    private final boolean mAudio;
+    private boolean mLowLatency;
+
+    /**
+     * @param context
+     * @param factory
+     * @param audio whether audio track is also decoded
+     */
+    public DecodeBenchmarkRunner(@NonNull final Context context,
+        @NonNull final SourceFactory factory, final boolean audio) {
+
+        mContext = context;
+        mFactory = factory;
+        mAudio = audio;
+    }
+
+    /**
+     * run the player on low latency mode to compare decode latency with default mode,
+     * see MediaMoviePlayer#setLowLatencyMode
+     * @param enabled
+     */
+    public void setLowLatencyMode(final boolean enabled) {
+        mLowLatency = enabled;
+    }
+
+    /**
+     * run benchmark, this blocks until all iterations finished
+     * @param warmup number of iterations that are discarded
+     * @param iterations number of measurement iterations
+     * @return
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    @WorkerThread
+    public Report run(final int warmup, final int iterations)
+        throws IOException, InterruptedException {
+
+        final List<List<DecodeBenchmark.Result>> results = new ArrayList<List<DecodeBenchmark.Result>>();
+        final List<PipelineLatencyTracker.Snapshot> latencies = new ArrayList<PipelineLatencyTracker.Snapshot>();
+        final PipelineLatencyTracker.Snapshot[] latency = new PipelineLatencyTracker.Snapshot[1];
+        final SurfaceTexture texture = new SurfaceTexture(0);
+        final Surface surface = new Surface(texture);
+        try {
+            for (int i = 0; i < warmup + iterations; i++) {
+                final List<DecodeBenchmark.Result> result = runOnce(surface, latency);
+                if (DEBUG) Log.v(TAG, (i < warmup ? "warmup#" : "iteration#") + i + ":" + result);
+                if (i >= warmup) {
+                    results.add(result);
+                    latencies.add(latency[0]);
+                }
+            }
+        } finally {
+            surface.release();
+            texture.release();
+        }
+        return new Report(mLowLatency, results, latencies);
+    }
+
+    /**
+     * @param surface
+     * @param latency latencies of this iteration is returned at latency[0]
+     */
+    private List<DecodeBenchmark.Result> runOnce(final Surface surface,
+        final PipelineLatencyTracker.Snapshot[] latency) throws IOException, InterruptedException {
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final MediaMoviePlayer[] holder = new MediaMoviePlayer[1];
+        final MediaMoviePlayer player = new MediaMoviePlayer(surface, new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                latch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return true;
+            }
+        }, mAudio, mContext);
+        holder[0] = player;
+        try {
+            player.setBenchmarkMode(true);
+            player.setLowLatencyMode(mLowLatency);
+            player.prepare(mFactory.create());
+            if (!latch.await(ITERATION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("benchmark iteration timed out");
+            }
+            latency[0] = player.getLatencySnapshot();
+            return player.getBenchmarkResults();
+        } finally {
+            player.release();
+        }
+    }
+}
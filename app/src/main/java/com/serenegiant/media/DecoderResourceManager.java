@@ -0,0 +1,419 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: DecoderResourceManager.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.media.MediaFormat;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * process-wide bookkeeping of hardware video decoders.
+ * hardware decoders are limited by number of instances and by decodable pixel rate,
+ * so each player asks for a Grant before creating its video decoder and releases it after releasing the decoder.
+ * the hardware and software decoders are chosen by CodecSelector,
+ * and the budget of each hardware decoder is taken from its capabilities(or #setBudget),
+ * and the load of each player is width x height x frame rate.
+ * when the new player does not fit into the budget, it is
+ * downgraded to the software decoder if its priority is lower than PRIORITY_NORMAL,
+ * otherwise it is queued until the other players release their decoders.
+ * queued players are admitted in order of priority,
+ * and the player that is not admitted within its wait time is downgraded.
+ */
+public final class DecoderResourceManager {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "DecoderResourceManager";
+
+    public static final int PRIORITY_LOW = 0;
+    public static final int PRIORITY_NORMAL = 50;
+    public static final int PRIORITY_HIGH = 100;
+
+    /** used when the frame rate is not available from the movie */
+    public static final float DEFAULT_FRAME_RATE = 30.0f;
+    private static final int UNLIMITED_INSTANCES = Integer.MAX_VALUE;
+
+    private static DecoderResourceManager sInstance;
+
+    public static synchronized DecoderResourceManager getInstance() {
+        if (sInstance == null) {
+            sInstance = new DecoderResourceManager();
+        }
+        return sInstance;
+    }
+
+    /**
+     * decoder that a player is allowed to create, release this after releasing the decoder
+     */
+    public final class Grant {
+        private final Budget mBudget;
+        private final List<String> mCodecNames;
+        private final boolean mDowngraded;
+        private final long mPixelRate;
+        private final int mPriority;
+        private boolean mReleased;
+
+        private Grant(@NonNull final Budget budget, @NonNull final List<String> codecNames,
+            final boolean downgraded, final long pixelRate, final int priority) {
+
+            mBudget = budget;
+            mCodecNames = codecNames;
+            mDowngraded = downgraded;
+            mPixelRate = pixelRate;
+            mPriority = priority;
+        }
+
+        /**
+         * @return name of the codec to create with MediaCodec#createByCodecName
+         */
+        @NonNull
+        public String getCodecName() {
+            return mCodecNames.get(0);
+        }
+
+        /**
+         * @return names of the codecs to try in order when the previous one fails to configure,
+         *         the first one is #getCodecName
+         */
+        @NonNull
+        public List<String> getCodecNames() {
+            return mCodecNames;
+        }
+
+        /**
+         * @return true if the player should use the software decoder
+         */
+        public boolean isDowngraded() {
+            return mDowngraded;
+        }
+
+        public int getPriority() {
+            return mPriority;
+        }
+
+        public void release() {
+            DecoderResourceManager.this.release(this);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "Grant{" + getCodecName() + ",pixelRate=" + mPixelRate
+                + ",priority=" + mPriority + ",downgraded=" + isDowngraded() + "}";
+        }
+    }
+
+    /**
+     * tells #acquire that the caller does not wait for the decoder any more, e.g. the player is stopping.
+     * call #wakeUp after the condition changed so that the queued caller checks it.
+     */
+    public interface CancelSignal {
+        boolean isCancelled();
+    }
+
+    /**
+     * utilisation of one hardware decoder
+     */
+    public static final class Usage {
+        public final String codecName;
+        public final int instances;
+        public final int maxInstances;
+        public final long pixelRate;
+        public final long maxPixelRate;
+        /** number of players that are waiting for this decoder */
+        public final int queued;
+        /** number of players that are using the software decoder instead of this decoder */
+        public final int downgraded;
+
+        private Usage(final Budget budget) {
+            codecName = budget.codecName;
+            instances = budget.instances;
+            maxInstances = budget.maxInstances;
+            pixelRate = budget.pixelRate;
+            maxPixelRate = budget.maxPixelRate;
+            queued = budget.waiters.size();
+            downgraded = budget.downgraded;
+        }
+
+        /**
+         * @return ratio of the pixel rate or number of instances to the budget whichever is larger
+         */
+        public float getLoad() {
+            final float instanceLoad = maxInstances != UNLIMITED_INSTANCES
+                ? instances / (float)maxInstances : 0;
+            final float pixelLoad = maxPixelRate > 0 ? pixelRate / (float)maxPixelRate : 0;
+            return Math.max(instanceLoad, pixelLoad);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return codecName + "{instances=" + instances + "/" + maxInstances
+                + ",pixelRate=" + pixelRate + "/" + maxPixelRate
+                + ",queued=" + queued + ",downgraded=" + downgraded + "}";
+        }
+    }
+
+    private static final class Waiter {
+        private final int priority;
+        private final long pixelRate;
+
+        private Waiter(final int priority, final long pixelRate) {
+            this.priority = priority;
+            this.pixelRate = pixelRate;
+        }
+    }
+
+    private static final class Budget {
+        private final String codecName;
+        private int maxInstances;
+        private long maxPixelRate;
+        private int instances;
+        private long pixelRate;
+        private int downgraded;
+        /** in order of priority, first come first served within same priority */
+        private final List<Waiter> waiters = new ArrayList<Waiter>();
+
+        private Budget(final String codecName, final int maxInstances, final long maxPixelRate) {
+            this.codecName = codecName;
+            this.maxInstances = maxInstances;
+            this.maxPixelRate = maxPixelRate;
+        }
+
+        private boolean fits(final long requested) {
+            return (instances < maxInstances)
+                && ((maxPixelRate <= 0) || (instances == 0) || (pixelRate + requested <= maxPixelRate));
+        }
+
+        private void enqueue(final Waiter waiter) {
+            int i = waiters.size();
+            while ((i > 0) && (waiters.get(i - 1).priority < waiter.priority)) {
+                i--;
+            }
+            waiters.add(i, waiter);
+        }
+    }
+
+    /** key is codec name of hardware decoder */
+    private final Map<String, Budget> mBudgets = new HashMap<String, Budget>();
+    /** key is codec name, overrides the capabilities of the codec */
+    private final Map<String, long[]> mOverrides = new HashMap<String, long[]>();
+
+    private DecoderResourceManager() {
+    }
+
+    /**
+     * override the budget of the hardware decoder,
+     * e.g. for the devices that report wrong capabilities or to leave room for the other apps
+     * @param codecName
+     * @param maxInstances
+     * @param maxPixelRate width x height x frame rate, 0 means unlimited
+     */
+    public synchronized void setBudget(@NonNull final String codecName,
+        final int maxInstances, final long maxPixelRate) {
+
+        mOverrides.put(codecName, new long[] {maxInstances, maxPixelRate});
+        final Budget budget = mBudgets.get(codecName);
+        if (budget != null) {
+            budget.maxInstances = maxInstances;
+            budget.maxPixelRate = maxPixelRate;
+        }
+        notifyAll();
+    }
+
+    /**
+     * ask for the video decoder, this blocks the calling thread(usually the player thread
+     * in prepare) while the player is queued, at most maxWaitMs
+     * @param selector
+     * @param format format of the video track
+     * @param frameRate frame rate of the video, used when the format does not have KEY_FRAME_RATE
+     * @param priority e.g. PRIORITY_NORMAL
+     * @param maxWaitMs maximum time to wait in the queue before downgraded to the software decoder
+     * @return null if there is no hardware decoder for the format,
+     *         i.e. the player should try the decoders from CodecSelector
+     */
+    @Nullable
+    public Grant acquire(@NonNull final CodecSelector selector,
+        @NonNull final MediaFormat format, final float frameRate,
+        final int priority, final long maxWaitMs) {
+
+        return acquire(selector, format, frameRate, priority, maxWaitMs, null);
+    }
+
+    /**
+     * same as #acquire, but stops waiting in the queue when cancel signal is set
+     * @param selector
+     * @param format
+     * @param frameRate
+     * @param priority
+     * @param maxWaitMs
+     * @param cancel
+     * @return null if there is no hardware decoder for the format or the request was cancelled
+     */
+    @Nullable
+    public synchronized Grant acquire(@NonNull final CodecSelector selector,
+        @NonNull final MediaFormat format, final float frameRate,
+        final int priority, final long maxWaitMs, @Nullable final CancelSignal cancel) {
+
+        // all decoders in order of preference, and software decoders for downgrading
+        final List<String> all = new ArrayList<String>();
+        final List<String> software = new ArrayList<String>();
+        Budget budget = null;
+        for (final CodecSelector.Decoder decoder: selector.getDecoders(format)) {
+            all.add(decoder.name);
+            if (!decoder.hardware) {
+                software.add(decoder.name);
+            } else if (budget == null) {
+                budget = getBudget(decoder);
+            }
+        }
+        if (budget == null) {
+            return null;
+        }
+        final long pixelRate = getPixelRate(format, frameRate);
+        if (DEBUG) Log.v(TAG, "acquire:" + budget.codecName + ",pixelRate=" + pixelRate + ",priority=" + priority);
+        if (budget.waiters.isEmpty() && budget.fits(pixelRate)) {
+            return admit(budget, all, pixelRate, priority);
+        } else if ((priority < PRIORITY_NORMAL) && !software.isEmpty()) {
+            return downgrade(budget, software, pixelRate, priority);
+        }
+        final Waiter waiter = new Waiter(priority, pixelRate);
+        budget.enqueue(waiter);
+        final long deadline = SystemClock.elapsedRealtime() + maxWaitMs;
+        try {
+            for (; ;) {
+                if ((cancel != null) && cancel.isCancelled()) {
+                    if (DEBUG) Log.v(TAG, "acquire:cancelled");
+                    return null;
+                }
+                if ((budget.waiters.get(0) == waiter) && budget.fits(pixelRate)) {
+                    return admit(budget, all, pixelRate, priority);
+                }
+                final long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) break;
+                wait(remaining);
+            }
+        } catch (final InterruptedException e) {
+            // keep the interrupt for the caller and fall through to downgrading
+            Thread.currentThread().interrupt();
+        } finally {
+            budget.waiters.remove(waiter);
+            // the next waiter may fit now
+            notifyAll();
+        }
+        if (!software.isEmpty()) {
+            return downgrade(budget, software, pixelRate, priority);
+        }
+        // no alternative, the player tries the hardware decoder anyway
+        Log.w(TAG, "acquire:over budget," + new Usage(budget));
+        return admit(budget, all, pixelRate, priority);
+    }
+
+    /**
+     * wake up the callers queued in #acquire to check their CancelSignal
+     */
+    public synchronized void wakeUp() {
+        notifyAll();
+    }
+
+    /**
+     * @return utilisation of the hardware decoders that have been asked for
+     */
+    @NonNull
+    public synchronized List<Usage> getUsage() {
+        final List<Usage> result = new ArrayList<Usage>(mBudgets.size());
+        for (final Budget budget: mBudgets.values()) {
+            result.add(new Usage(budget));
+        }
+        return result;
+    }
+
+    private Grant admit(final Budget budget, final List<String> codecNames,
+        final long pixelRate, final int priority) {
+
+        budget.instances++;
+        budget.pixelRate += pixelRate;
+        final Grant grant = new Grant(budget, codecNames, false, pixelRate, priority);
+        if (DEBUG) Log.v(TAG, "admit:" + grant + "," + new Usage(budget));
+        return grant;
+    }
+
+    private Grant downgrade(final Budget budget, final List<String> codecNames,
+        final long pixelRate, final int priority) {
+
+        budget.downgraded++;
+        final Grant grant = new Grant(budget, codecNames, true, pixelRate, priority);
+        if (DEBUG) Log.v(TAG, "downgrade:" + grant + "," + new Usage(budget));
+        return grant;
+    }
+
+    private synchronized void release(final Grant grant) {
+        if (grant.mReleased) return;
+        grant.mReleased = true;
+        final Budget budget = grant.mBudget;
+        if (grant.isDowngraded()) {
+            budget.downgraded--;
+        } else {
+            budget.instances--;
+            budget.pixelRate -= grant.mPixelRate;
+        }
+        if (DEBUG) Log.v(TAG, "release:" + grant + "," + new Usage(budget));
+        notifyAll();
+    }
+
+    private static long getPixelRate(final MediaFormat format, final float frameRate) {
+        float fps = frameRate > 0 ? frameRate : DEFAULT_FRAME_RATE;
+        if (format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+            try {
+                fps = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+            } catch (final ClassCastException e) {
+                fps = format.getFloat(MediaFormat.KEY_FRAME_RATE);
+            }
+        }
+        return (long)(format.getInteger(MediaFormat.KEY_WIDTH)
+            * (long)format.getInteger(MediaFormat.KEY_HEIGHT) * fps);
+    }
+
+    /**
+     * @param decoder hardware decoder
+     * @return budget shared by all mime types of same hardware decoder
+     */
+    private Budget getBudget(@NonNull final CodecSelector.Decoder decoder) {
+        Budget budget = mBudgets.get(decoder.name);
+        if (budget == null) {
+            final long[] override = mOverrides.get(decoder.name);
+            budget = override != null
+                ? new Budget(decoder.name, (int)override[0], override[1])
+                : new Budget(decoder.name, decoder.maxInstances, decoder.maxPixelRate);
+            if (DEBUG) Log.v(TAG, "getBudget:" + new Usage(budget));
+            mBudgets.put(decoder.name, budget);
+        }
+        return budget;
+    }
+}
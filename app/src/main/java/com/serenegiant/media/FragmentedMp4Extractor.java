@@ -0,0 +1,281 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FragmentedMp4Extractor.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+/**
+ * ISampleSource for fragmented MP4(fMP4/CMAF) that parses moof/traf/trun incrementally.
+ * samples can be read as soon as the first fragment is written,
+ * only the sample table of current fragment is kept on memory.
+ * same as MediaExtractor, you should create one instance for each track.
+ */
+public class FragmentedMp4Extractor implements ISampleSource {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "FragmentedMp4Extractor";
+
+    private final FileChannel mChannel;
+    private final boolean mOwnChannel;
+    private final Mp4FragmentReader mReader;
+    private final Mp4FragmentReader.SampleTable mTable = new Mp4FragmentReader.SampleTable();
+    private MediaFormat[] mFormats;
+    private Mp4FragmentReader.TrackInfo mTrack;
+    private ByteBuffer mTempBuf;
+    private int mSampleIx;
+
+    public FragmentedMp4Extractor(final String path) throws IOException {
+        this(new RandomAccessFile(path, "r").getChannel(), 0, -1, true);
+    }
+
+    /**
+     * @param channel
+     * @param offset offset of the movie in the channel
+     * @param length length of the movie, negative value means it extends to the end of channel
+     * @param ownChannel if true, channel is closed in #release
+     * @throws IOException moov is not available
+     */
+    public FragmentedMp4Extractor(final FileChannel channel,
+        final long offset, final long length, final boolean ownChannel) throws IOException {
+
+        mChannel = channel;
+        mOwnChannel = ownChannel;
+        mReader = new Mp4FragmentReader(channel, offset, length);
+        if (!mReader.readHeader()) {
+            release();
+            throw new IOException("moov not found");
+        }
+        final List<Mp4FragmentReader.TrackInfo> tracks = mReader.getTracks();
+        mFormats = new MediaFormat[tracks.size()];
+        for (int i = 0; i < mFormats.length; i++) {
+            mFormats[i] = createFormat(tracks.get(i));
+        }
+    }
+
+    /**
+     * check whether specific file is fragmented mp4
+     * @param path
+     * @return
+     */
+    public static boolean isFragmented(final String path) {
+        try (final RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            return Mp4FragmentReader.isFragmented(file.getChannel(), 0, -1);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public int getTrackCount() {
+        return mFormats.length;
+    }
+
+    @Override
+    public MediaFormat getTrackFormat(final int index) {
+        return mFormats[index];
+    }
+
+    /**
+     * only one track can be selected at the same time
+     * @param index
+     */
+    @Override
+    public void selectTrack(final int index) {
+        mTrack = mReader.getTracks().get(index);
+        mTable.count = mSampleIx = 0;
+        if (!loadNextFragment()) {
+            if (DEBUG) Log.v(TAG, "selectTrack:no fragment yet");
+        }
+    }
+
+    @Override
+    public int readSampleData(final ByteBuffer buffer, final int offset) {
+        if (!hasSample()) return -1;
+        final int size = mTable.sizes[mSampleIx];
+        final long position = mTable.offsets[mSampleIx];
+        final int nalLengthSize = mTrack.nalLengthSize;
+        try {
+            int result;
+            buffer.clear();
+            if ((nalLengthSize > 0) && (nalLengthSize < 4)) {
+                // need to expand length field to start code
+                if ((mTempBuf == null) || (mTempBuf.capacity() < size)) {
+                    mTempBuf = ByteBuffer.allocate(size);
+                }
+                mTempBuf.clear();
+                if (mReader.readSample(position, mTempBuf, size) < size) return -1;
+                buffer.position(offset);
+                result = lengthToStartCode(mTempBuf, size, nalLengthSize, buffer);
+            } else {
+                buffer.position(offset);
+                if (mReader.readSample(position, buffer, size) < size) return -1;
+                if (nalLengthSize == 4) {
+                    // replace 4 bytes length field with start code in place
+                    for (int p = offset; p + 4 <= offset + size; ) {
+                        final int len = buffer.getInt(p);
+                        buffer.putInt(p, 1);
+                        if (len < 0) break;
+                        p += 4 + len;
+                    }
+                }
+                result = size;
+            }
+            buffer.limit(offset + result);
+            buffer.position(offset);
+            return result;
+        } catch (final IOException | RuntimeException e) {
+            Log.w(TAG, "readSampleData:", e);
+            return -1;
+        }
+    }
+
+    @Override
+    public long getSampleTime() {
+        return hasSample() ? mTable.timesUs[mSampleIx] : -1;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return hasSample() && mTable.syncs[mSampleIx] ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+    }
+
+    /**
+     * move to next sample, parse next fragment if current one is exhausted
+     * @return false if next sample is not available(yet)
+     */
+    @Override
+    public boolean advance() {
+        if (mTrack == null) return false;
+        if (mSampleIx < mTable.count) {
+            mSampleIx++;
+        }
+        return (mSampleIx < mTable.count) || loadNextFragment();
+    }
+
+    @Override
+    public void seekTo(final long timeUs, final int mode) {
+        if (mTrack == null) return;
+        final boolean next = mode == MediaExtractor.SEEK_TO_NEXT_SYNC;
+        mReader.rewindTo(mTrack.trackId, timeUs);
+        int ix = -1;
+        while (loadNextFragment()) {
+            // fragment usually starts with sync sample
+            if (mTable.timesUs[mTable.count - 1] >= timeUs) {
+                ix = mTable.findSyncSample(timeUs, next);
+                if (ix >= 0) break;
+            }
+        }
+        if (ix >= 0) {
+            mSampleIx = ix;
+        }
+    }
+
+    @Override
+    public void release() {
+        if (mOwnChannel && (mChannel != null)) {
+            try {
+                mChannel.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * try to parse next fragment if current fragment was exhausted,
+     * this is useful to wait for new fragment when the file is still being written
+     * @return true if sample is available
+     */
+    public boolean poll() {
+        return hasSample() || loadNextFragment();
+    }
+
+    /**
+     * @return position of the file that was already parsed
+     */
+    public long getReadPosition() {
+        return mReader.getReadPosition();
+    }
+
+    private boolean hasSample() {
+        return (mTrack != null) && (mSampleIx < mTable.count);
+    }
+
+    private boolean loadNextFragment() {
+        try {
+            if (mReader.readNextFragment(mTrack.trackId, mTable)) {
+                mSampleIx = 0;
+                return true;
+            }
+        } catch (final IOException e) {
+            Log.w(TAG, e);
+        }
+        mSampleIx = mTable.count = 0;
+        return false;
+    }
+
+    private static int lengthToStartCode(final ByteBuffer src, final int size,
+        final int nalLengthSize, final ByteBuffer dst) {
+
+        int result = 0;
+        for (int p = 0; p + nalLengthSize <= size; ) {
+            int len = 0;
+            for (int i = 0; i < nalLengthSize; i++) {
+                len = (len << 8) | (src.get(p + i) & 0xff);
+            }
+            p += nalLengthSize;
+            len = Math.min(len, size - p);
+            dst.putInt(1);
+            for (int i = 0; i < len; i++) {
+                dst.put(src.get(p + i));
+            }
+            p += len;
+            result += 4 + len;
+        }
+        return result;
+    }
+
+    private static MediaFormat createFormat(final Mp4FragmentReader.TrackInfo track) {
+        final MediaFormat format;
+        if (track.isVideo() || track.mime.startsWith("video/")) {
+            format = MediaFormat.createVideoFormat(track.mime, track.width, track.height);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE,
+                Math.max(track.width * track.height * 3 / 2, 64 * 1024));
+        } else {
+            format = MediaFormat.createAudioFormat(track.mime, track.sampleRate, track.channelCount);
+            format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, 16 * 1024);
+        }
+        format.setLong(MediaFormat.KEY_DURATION, track.durationUs);
+        for (int i = 0; i < track.csd.size(); i++) {
+            format.setByteBuffer("csd-" + i, ByteBuffer.wrap(track.csd.get(i)));
+        }
+        return format;
+    }
+}
@@ -0,0 +1,141 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: GrowingFileWatcher.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.File;
+
+import android.os.Build;
+import android.os.FileObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * helper class to wait for a file that is still being written.
+ * FileObserver wakes up the waiting thread as soon as the file is modified,
+ * and the file size is also polled with bounded exponential backoff
+ * because some file systems(e.g. FUSE) do not deliver inotify events.
+ * each decode thread should have its own instance.
+ */
+public class GrowingFileWatcher {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "GrowingFileWatcher";
+
+    private static final long MIN_BACKOFF_MS = 2;
+    private static final long MAX_BACKOFF_MS = 100;
+    /** the file is treated as finished when it does not grow for this period after closed by writer */
+    private static final long CLOSED_GRACE_MS = 500;
+
+    private final Object mSync = new Object();
+    private final File mFile;
+    private final long mIdleTimeoutMs;
+    private final FileObserver mObserver;
+    private long mLastSize;
+    private long mLastGrowthMs;
+    private long mBackoffMs = MIN_BACKOFF_MS;
+    private boolean mChanged;
+    private boolean mClosed;
+    private volatile boolean mReleased;
+
+    /**
+     * @param file
+     * @param idleTimeoutMs the file is treated as finished when it does not grow for this period
+     */
+    @SuppressWarnings("deprecation")
+    public GrowingFileWatcher(final File file, final long idleTimeoutMs) {
+        mFile = file;
+        mIdleTimeoutMs = idleTimeoutMs;
+        mLastSize = file.length();
+        mLastGrowthMs = SystemClock.elapsedRealtime();
+        final int mask = FileObserver.MODIFY | FileObserver.CLOSE_WRITE;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            mObserver = new FileObserver(file, mask) {
+                @Override
+                public void onEvent(final int event, final String path) {
+                    GrowingFileWatcher.this.onEvent(event);
+                }
+            };
+        } else {
+            mObserver = new FileObserver(file.getAbsolutePath(), mask) {
+                @Override
+                public void onEvent(final int event, final String path) {
+                    GrowingFileWatcher.this.onEvent(event);
+                }
+            };
+        }
+        mObserver.startWatching();
+    }
+
+    public void release() {
+        mReleased = true;
+        mObserver.stopWatching();
+        synchronized (mSync) {
+            mSync.notifyAll();
+        }
+    }
+
+    /**
+     * wait until the file grows or backoff interval elapses.
+     * the caller should try to read new data when this returns true.
+     * @return false if the file is finished(idle timeout, closed by writer or released)
+     */
+    public boolean await() {
+        final long size = mFile.length();
+        final long now = SystemClock.elapsedRealtime();
+        if (size != mLastSize) {
+            mLastSize = size;
+            mLastGrowthMs = now;
+            mBackoffMs = MIN_BACKOFF_MS;
+            synchronized (mSync) {
+                mClosed = false;
+            }
+            return !mReleased;
+        }
+        final long idle = now - mLastGrowthMs;
+        synchronized (mSync) {
+            if (mReleased || (idle > mIdleTimeoutMs) || (mClosed && (idle > CLOSED_GRACE_MS))) {
+                if (DEBUG) Log.v(TAG, "await:finished, idle=" + idle + ",closed=" + mClosed);
+                return false;
+            }
+            if (!mChanged) {
+                try {
+                    mSync.wait(mBackoffMs);
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+            }
+            mChanged = false;
+        }
+        mBackoffMs = Math.min(mBackoffMs * 2, MAX_BACKOFF_MS);
+        return !mReleased;
+    }
+
+    private void onEvent(final int event) {
+        synchronized (mSync) {
+            mChanged = true;
+            if ((event & FileObserver.CLOSE_WRITE) != 0) {
+                mClosed = true;
+            }
+            mSync.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: HandlerUtils.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import android.os.Handler;
+
+/**
+ * helper methods for the private threads of frame outputs
+ */
+final class HandlerUtils {
+    private HandlerUtils() {
+    }
+
+    /**
+     * run the task on the thread of the handler and wait until it finished,
+     * do not call this on the thread of the handler
+     * @param handler
+     * @param task
+     */
+    static void runAndWait(final Handler handler, final Runnable task) {
+        final Object sync = new Object();
+        final boolean[] done = new boolean[1];
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    synchronized (sync) {
+                        done[0] = true;
+                        sync.notifyAll();
+                    }
+                }
+            }
+        });
+        synchronized (sync) {
+            while (!done[0]) {
+                try {
+                    sync.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+    }
+}
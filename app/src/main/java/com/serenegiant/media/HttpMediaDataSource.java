@@ -0,0 +1,109 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: HttpMediaDataSource.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+
+import android.media.MediaDataSource;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * MediaDataSource that streams the movie from HTTP server with range requests,
+ * see HttpRangeSource for read-ahead and segment cache.
+ * same instance is shared by MediaMetadataRetriever and extractors via MediaSource,
+ * they call #close when they are released, so resources are released by #release instead.
+ * the app needs android.permission.INTERNET.
+ */
+@RequiresApi(Build.VERSION_CODES.M)
+public class HttpMediaDataSource extends MediaDataSource {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "HttpMediaDataSource";
+
+    private final HttpRangeSource mSource;
+
+    /**
+     * @param url
+     * @param cache you should share one SegmentCache instance for each cache directory
+     */
+    public HttpMediaDataSource(@NonNull final URL url, @NonNull final SegmentCache cache) {
+        this(new HttpRangeSource(url, cache));
+    }
+
+    /**
+     * @param url
+     * @param cacheDir
+     * @param maxCacheBytes
+     */
+    public HttpMediaDataSource(@NonNull final URL url,
+        @NonNull final File cacheDir, final long maxCacheBytes) {
+
+        this(url, new SegmentCache(cacheDir, maxCacheBytes));
+    }
+
+    public HttpMediaDataSource(@NonNull final HttpRangeSource source) {
+        mSource = source;
+    }
+
+    @Override
+    public int readAt(final long position, final byte[] buffer,
+        final int offset, final int size) throws IOException {
+
+        if (size == 0) return 0;
+        return mSource.readAt(position, buffer, offset, size);
+    }
+
+    @Override
+    public long getSize() throws IOException {
+        return mSource.getSize();
+    }
+
+    /**
+     * do nothing here because this instance may be still used by other extractor
+     */
+    @Override
+    public void close() {
+        if (DEBUG) Log.v(TAG, "close:" + mSource.getStats());
+    }
+
+    /**
+     * stop read-ahead, cached segments are kept for replay
+     */
+    public void release() {
+        if (DEBUG) Log.v(TAG, "release:" + mSource.getStats());
+        mSource.close();
+    }
+
+    /**
+     * @return snapshot of hit rate, bytes fetched and stall time
+     */
+    public HttpRangeSource.Stats getStats() {
+        return mSource.getStats();
+    }
+}
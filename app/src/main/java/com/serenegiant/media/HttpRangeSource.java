@@ -0,0 +1,528 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: HttpRangeSource.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * random access reader of remote movie using HTTP range requests.
+ * the movie is read as fixed-size segments that are kept in SegmentCache,
+ * and following segments are fetched on background thread(read-ahead window)
+ * so that sequential reading rarely waits for network.
+ * recently read segments are also kept in memory, because video, audio and
+ * MediaMetadataRetriever share same source and read from different segments.
+ * cached segments are validated with ETag(or Last-Modified) of the movie by the first request,
+ * and they are discarded when the movie was changed on the server.
+ * this class does not depend on Android framework, so it can be driven
+ * against a loopback HTTP server on JVM. readAt is thread safe.
+ */
+public class HttpRangeSource implements Closeable {
+    private static final String TAG = "HttpRangeSource";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    public static final int DEFAULT_READ_AHEAD_SEGMENTS = 4;
+    /** number of segments kept in memory, at least one for each reader(video, audio and retriever) */
+    private static final int MEMORY_SEGMENTS = 4;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    /**
+     * snapshot of statistics
+     */
+    public static final class Stats {
+        /** number of segment accesses that were served from memory/disk cache */
+        public final long hits;
+        /** number of segment accesses that had to wait for network */
+        public final long misses;
+        /** total bytes received from the server */
+        public final long bytesFetched;
+        /** total time that readAt was blocked by network */
+        public final long stallTimeMs;
+
+        private Stats(final long hits, final long misses,
+            final long bytesFetched, final long stallTimeMs) {
+
+            this.hits = hits;
+            this.misses = misses;
+            this.bytesFetched = bytesFetched;
+            this.stallTimeMs = stallTimeMs;
+        }
+
+        /**
+         * @return hit rate in [0, 1], 0 if no segment was accessed
+         */
+        public float getHitRate() {
+            final long total = hits + misses;
+            return total > 0 ? hits / (float)total : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{hitRate=" + getHitRate()
+                + ",hits=" + hits + ",misses=" + misses
+                + ",bytesFetched=" + bytesFetched
+                + ",stallTimeMs=" + stallTimeMs + "}";
+        }
+    }
+
+    private final Object mSync = new Object();
+    private final URL mUrl;
+    private final String mKey;
+    private final SegmentCache mCache;
+    private final int mSegmentSize;
+    private final int mReadAhead;
+    /** segment indices that are requested to read ahead, guarded by mSync */
+    private final LinkedList<Long> mPending = new LinkedList<Long>();
+    /** segment indices that are being fetched, guarded by mSync */
+    private final Set<Long> mInFlight = new HashSet<Long>();
+    /** recently accessed segments in access order, to avoid reading the file for each small read, guarded by mSync */
+    private final LinkedHashMap<Long, byte[]> mSegments
+        = new LinkedHashMap<Long, byte[]>(MEMORY_SEGMENTS * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<Long, byte[]> eldest) {
+            return size() > MEMORY_SEGMENTS;
+        }
+    };
+    private Thread mReadAheadThread;
+    private volatile boolean mClosed;
+    // total length and validator of the movie, guarded by mSync
+    private long mSize = -1;
+    private String mValidator;
+    /** whether cached segments were validated with the server, guarded by mSync */
+    private boolean mValidated;
+    // statistics, guarded by mSync
+    private long mHits, mMisses, mBytesFetched, mStallNs;
+
+    /**
+     * @param url
+     * @param cache
+     */
+    public HttpRangeSource(final URL url, final SegmentCache cache) {
+        this(url, cache, DEFAULT_SEGMENT_SIZE, DEFAULT_READ_AHEAD_SEGMENTS);
+    }
+
+    /**
+     * @param url
+     * @param cache
+     * @param segmentSize size of each segment in bytes
+     * @param readAheadSegments number of segments to read ahead, 0 disables read-ahead
+     */
+    public HttpRangeSource(final URL url, final SegmentCache cache,
+        final int segmentSize, final int readAheadSegments) {
+
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("invalid segment size " + segmentSize);
+        }
+        mUrl = url;
+        mCache = cache;
+        mSegmentSize = segmentSize;
+        mReadAhead = Math.max(readAheadSegments, 0);
+        // segment size is a part of the key because cached segments with other size can't be used
+        mKey = hash(url.toString() + "#" + segmentSize);
+        mSize = cache.getLength(mKey);
+        mValidator = cache.getValidator(mKey);
+        if (mReadAhead > 0) {
+            mReadAheadThread = new Thread(mReadAheadTask, TAG);
+            mReadAheadThread.setDaemon(true);
+            mReadAheadThread.start();
+        }
+    }
+
+    public URL getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * @return total size of the movie
+     * @throws IOException
+     */
+    public long getSize() throws IOException {
+        synchronized (mSync) {
+            if (mValidated) return mSize;
+        }
+        validate();
+        synchronized (mSync) {
+            return mSize;
+        }
+    }
+
+    /**
+     * read data at specific position, this reads across segments until size bytes are read
+     * @param position
+     * @param buffer
+     * @param offset
+     * @param size
+     * @return number of bytes read, -1 if position is at or after the end of movie
+     * @throws IOException
+     */
+    public int readAt(final long position, final byte[] buffer, final int offset, final int size)
+        throws IOException {
+
+        final long total = getSize();
+        if (position >= total) return -1;
+        int result = 0;
+        long pos = position;
+        while ((result < size) && (pos < total)) {
+            final long index = pos / mSegmentSize;
+            final byte[] data = getSegment(index);
+            final int segOffset = (int)(pos - index * mSegmentSize);
+            final int n = Math.min(size - result, data.length - segOffset);
+            if (n <= 0) break;
+            System.arraycopy(data, segOffset, buffer, offset + result, n);
+            result += n;
+            pos += n;
+        }
+        requestReadAhead(pos / mSegmentSize);
+        return result;
+    }
+
+    public Stats getStats() {
+        synchronized (mSync) {
+            return new Stats(mHits, mMisses, mBytesFetched, mStallNs / 1000000L);
+        }
+    }
+
+    /**
+     * stop read-ahead thread, cached segments are kept
+     */
+    @Override
+    public void close() {
+        synchronized (mSync) {
+            mClosed = true;
+            mPending.clear();
+            mSegments.clear();
+            mSync.notifyAll();
+        }
+        final Thread thread = mReadAheadThread;
+        mReadAheadThread = null;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * get data of specific segment from memory, disk cache or network in this order.
+     * if the segment is being fetched by read-ahead thread, this waits for it.
+     * @param index
+     * @return
+     * @throws IOException
+     */
+    private byte[] getSegment(final long index) throws IOException {
+        synchronized (mSync) {
+            final byte[] data = mSegments.get(index);
+            if (data != null) {
+                mHits++;
+                return data;
+            }
+        }
+        byte[] data = mCache.get(mKey, index);
+        if (data == null) {
+            final long start = System.nanoTime();
+            boolean fetch = false;
+            synchronized (mSync) {
+                while (!mClosed && mInFlight.contains(index)) {
+                    try {
+                        mSync.wait();
+                    } catch (final InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                }
+                if (mClosed) throw new IOException("already closed");
+                data = mCache.get(mKey, index);
+                if (data == null) {
+                    mInFlight.add(index);
+                    fetch = true;
+                }
+            }
+            if (fetch) {
+                try {
+                    data = fetch(index, false);
+                } finally {
+                    synchronized (mSync) {
+                        mInFlight.remove(index);
+                        mSync.notifyAll();
+                    }
+                }
+            }
+            synchronized (mSync) {
+                mMisses++;
+                mStallNs += System.nanoTime() - start;
+            }
+        } else {
+            synchronized (mSync) {
+                mHits++;
+            }
+        }
+        synchronized (mSync) {
+            mSegments.put(index, data);
+        }
+        return data;
+    }
+
+    /**
+     * request the first segment to get total length of the movie and to check whether
+     * cached segments are still valid, the request is conditional if the validator is cached
+     * so that the server does not send the segment when the movie is not changed.
+     * @throws IOException
+     */
+    private void validate() throws IOException {
+        synchronized (mSync) {
+            while (!mClosed && !mValidated && mInFlight.contains(0L)) {
+                try {
+                    mSync.wait();
+                } catch (final InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+            if (mClosed) throw new IOException("already closed");
+            if (mValidated) return;
+            mInFlight.add(0L);
+        }
+        final long start = System.nanoTime();
+        try {
+            fetch(0, true);
+        } finally {
+            synchronized (mSync) {
+                mInFlight.remove(0L);
+                mStallNs += System.nanoTime() - start;
+                mSync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * request segments after specific segment to read ahead,
+     * requests that are not started yet are discarded(e.g. after seeking)
+     * @param index
+     */
+    private void requestReadAhead(final long index) {
+        if (mReadAhead <= 0) return;
+        synchronized (mSync) {
+            mPending.clear();
+            final long count = (mSize + mSegmentSize - 1) / mSegmentSize;
+            for (long i = index; (i < index + mReadAhead) && (i < count); i++) {
+                if (!mInFlight.contains(i) && !mSegments.containsKey(i) && !mCache.contains(mKey, i)) {
+                    mPending.add(i);
+                }
+            }
+            if (!mPending.isEmpty()) {
+                mSync.notifyAll();
+            }
+        }
+    }
+
+    private final Runnable mReadAheadTask = new Runnable() {
+        @Override
+        public void run() {
+            for ( ; ; ) {
+                final long index;
+                synchronized (mSync) {
+                    while (!mClosed && mPending.isEmpty()) {
+                        try {
+                            mSync.wait();
+                        } catch (final InterruptedException e) {
+                            // ignore
+                        }
+                    }
+                    if (mClosed) break;
+                    index = mPending.removeFirst();
+                    if (mInFlight.contains(index) || mCache.contains(mKey, index)) continue;
+                    mInFlight.add(index);
+                }
+                try {
+                    fetch(index, false);
+                } catch (final IOException e) {
+                    // ignore, readAt will retry this segment
+                } finally {
+                    synchronized (mSync) {
+                        mInFlight.remove(index);
+                        mSync.notifyAll();
+                    }
+                }
+            }
+        }
+    };
+
+    /**
+     * fetch specific segment from the server and put it into the cache.
+     * if the validator in the response differs from cached one, the movie was changed
+     * on the server and all cached segments of the movie are discarded.
+     * @param index
+     * @param conditional true if the segment should not be sent when the validator matches
+     * @return null if the movie is not modified(only when conditional is true)
+     * @throws IOException
+     */
+    private byte[] fetch(final long index, final boolean conditional) throws IOException {
+        final long start = index * mSegmentSize;
+        final HttpURLConnection conn = (HttpURLConnection)mUrl.openConnection();
+        try {
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setRequestProperty("Range", "bytes=" + start + "-" + (start + mSegmentSize - 1));
+            // compressed response can't be used for random access
+            conn.setRequestProperty("Accept-Encoding", "identity");
+            if (conditional) {
+                synchronized (mSync) {
+                    if ((mValidator != null) && (mSize >= 0)) {
+                        conn.setRequestProperty(isETag(mValidator) ? "If-None-Match" : "If-Modified-Since", mValidator);
+                    }
+                }
+            }
+            final int code = conn.getResponseCode();
+            if (conditional && (code == HttpURLConnection.HTTP_NOT_MODIFIED)) {
+                synchronized (mSync) {
+                    mValidated = true;
+                }
+                return null;
+            }
+            long total = -1;
+            boolean skip = false;
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                total = parseTotalLength(conn.getHeaderField("Content-Range"));
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                // the server does not support range request, skip to the segment
+                total = parseLong(conn.getHeaderField("Content-Length"));
+                skip = true;
+            } else if (code == 416) {	// Range Not Satisfiable
+                total = parseTotalLength(conn.getHeaderField("Content-Range"));
+            } else {
+                throw new IOException("unexpected response " + code + " for " + mUrl);
+            }
+            // prefer ETag because Last-Modified has only 1 second resolution
+            String validator = conn.getHeaderField("ETag");
+            if (validator == null) {
+                validator = conn.getHeaderField("Last-Modified");
+            }
+            final long size;
+            synchronized (mSync) {
+                if (((total >= 0) && (total != mSize)) || !equals(validator, mValidator)) {
+                    // the movie was changed(or is new), cached segments can't be used
+                    mCache.remove(mKey);
+                    mSegments.clear();
+                    if (total >= 0) {
+                        mSize = total;
+                    }
+                    mValidator = validator;
+                    if (mSize >= 0) {
+                        mCache.putLength(mKey, mSize, validator);
+                    }
+                }
+                if (mSize < 0) {
+                    throw new IOException("unknown content length of " + mUrl);
+                }
+                mValidated = true;
+                size = mSize;
+            }
+            final int length = (int)Math.max(Math.min(mSegmentSize, size - start), 0);
+            final byte[] data = new byte[length];
+            if (length > 0) {
+                try (final InputStream in = conn.getInputStream()) {
+                    if (skip) {
+                        long remain = start;
+                        while (remain > 0) {
+                            final long n = in.skip(remain);
+                            if (n <= 0) throw new IOException("unexpected end of stream");
+                            remain -= n;
+                        }
+                    }
+                    int n = 0;
+                    while (n < length) {
+                        final int r = in.read(data, n, length - n);
+                        if (r < 0) throw new IOException("unexpected end of stream");
+                        n += r;
+                    }
+                }
+                synchronized (mSync) {
+                    // the segment of old movie should not be cached when the movie was changed while reading
+                    if (equals(validator, mValidator)) {
+                        mCache.put(mKey, index, data, length);
+                    }
+                }
+            }
+            synchronized (mSync) {
+                mBytesFetched += length;
+            }
+            return data;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /**
+     * @param contentRange e.g. "bytes 0-1023/4096"
+     * @return -1 if the total length is not available
+     */
+    private static long parseTotalLength(final String contentRange) {
+        if (contentRange == null) return -1;
+        final int ix = contentRange.lastIndexOf('/');
+        return ix >= 0 ? parseLong(contentRange.substring(ix + 1)) : -1;
+    }
+
+    private static long parseLong(final String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param validator
+     * @return true if the validator is ETag, ETag is always quoted(optionally with weak prefix "W/")
+     */
+    private static boolean isETag(final String validator) {
+        return validator.startsWith("\"") || validator.startsWith("W/");
+    }
+
+    private static boolean equals(final String a, final String b) {
+        return (a == b) || ((a != null) && a.equals(b));
+    }
+
+    private static String hash(final String value) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] bytes = digest.digest(value.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (final byte b: bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0x0f, 16))
+                    .append(Character.forDigit(b & 0x0f, 16));
+            }
+            return sb.toString();
+        } catch (final NoSuchAlgorithmException | IOException e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
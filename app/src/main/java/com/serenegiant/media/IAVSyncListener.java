@@ -0,0 +1,41 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IAVSyncListener.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * callback interface of AVSyncMonitor, called on video decoder thread
+ */
+public interface IAVSyncListener {
+    /**
+     * called when A/V offset exceeded the threshold(once until it returns within the threshold)
+     * @param offsetUs positive value means video is ahead of audio
+     */
+    void onAVOffsetExceeded(long offsetUs);
+    /**
+     * called when the interval between rendered frames was too long
+     * @param intervalUs actual render interval
+     * @param expectedUs expected frame interval
+     */
+    void onJank(long intervalUs, long expectedUs);
+}
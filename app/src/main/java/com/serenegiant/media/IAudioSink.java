@@ -0,0 +1,68 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IAudioSink.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * PCM 16 bit audio output interface that MediaMoviePlayer writes decoded audio to
+ */
+public interface IAudioSink {
+    /**
+     * @param sampleRate
+     * @param channels 1 or 2
+     * @return minimum buffer size in bytes, 0 or negative value if unknown
+     */
+    int getMinBufferSize(int sampleRate, int channels);
+    /**
+     * @return sample rate that the sink can always play
+     */
+    int getNativeOutputSampleRate();
+    /**
+     * @param sampleRate
+     * @param channels 1 or 2
+     * @param bufferSize in bytes
+     * @return false if the sink does not support specific parameters, the sink can be opened again
+     */
+    boolean open(int sampleRate, int channels, int bufferSize);
+    void play();
+    /**
+     * @return number of bytes written
+     */
+    int write(byte[] data, int offset, int size);
+    /**
+     * @return number of samples written
+     */
+    int write(short[] data, int offset, int size);
+    /**
+     * @param nowNs time of IClock#nanoTime
+     * @return number of frames that are being played at nowNs, negative value if unknown
+     */
+    long getPlaybackPosition(long nowNs);
+    /**
+     * discard the data that was written but not played yet, e.g. on seeking.
+     * the sink keeps playing state and the playback position restarts from 0
+     */
+    void flush();
+    void stop();
+    void release();
+}
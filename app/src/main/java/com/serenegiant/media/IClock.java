@@ -0,0 +1,43 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IClock.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * time source of presentation time adjusting, replaced with VirtualClock of local unit tests
+ * to run the pipeline faster than real time
+ */
+public interface IClock {
+    /**
+     * @return monotonic time in nano seconds
+     */
+    long nanoTime();
+
+    /**
+     * wait at most timeoutNs on the monitor of sync, the caller should hold the monitor
+     * @param sync
+     * @param timeoutNs
+     * @throws InterruptedException
+     */
+    void waitOn(Object sync, long timeoutNs) throws InterruptedException;
+}
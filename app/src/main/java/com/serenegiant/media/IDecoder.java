@@ -0,0 +1,91 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IDecoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+/**
+ * decoder interface that decode loops of MediaMoviePlayer use.
+ * methods, return values and flags follow MediaCodec
+ * (MediaCodec#INFO_XXX, MediaCodec#BUFFER_FLAG_XXX)
+ */
+public interface IDecoder {
+    /**
+     * @param format
+     * @param surface null for ByteBuffer output
+     * @throws IOException
+     */
+    void configure(MediaFormat format, Surface surface) throws IOException;
+    /**
+     * switch output surface without reconfiguring
+     * @param surface null to detach from current surface, frames should be released without rendering while detached
+     * @return false if the decoder can not switch, e.g. API < 23 or it was configured without surface
+     */
+    boolean setOutputSurface(Surface surface);
+    void start();
+    /**
+     * @param timeoutUs
+     * @return index of input buffer, MediaCodec#INFO_TRY_AGAIN_LATER if not available
+     */
+    int dequeueInputBuffer(long timeoutUs);
+    ByteBuffer getInputBuffer(int index);
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+    /**
+     * @param info
+     * @param timeoutUs
+     * @return index of output buffer or MediaCodec#INFO_XXX
+     */
+    int dequeueOutputBuffer(MediaCodec.BufferInfo info, long timeoutUs);
+    /**
+     * @param index
+     * @return the content is undefined if the decoder outputs to Surface, may be null
+     */
+    ByteBuffer getOutputBuffer(int index);
+    /**
+     * @param index
+     * @return planes of the output buffer for flexible YUV formats, null if not available
+     * e.g. the decoder outputs to Surface. the image is invalid after the buffer is released
+     */
+    Image getOutputImage(int index);
+    MediaFormat getOutputFormat();
+    void releaseOutputBuffer(int index, boolean render);
+    /**
+     * render the output buffer to Surface at the specific time
+     * @param index
+     * @param renderTimestampNs System#nanoTime(or IClock) base
+     */
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+    /**
+     * drop all queued input and pending output, dequeued buffers become invalid
+     */
+    void flush();
+    void stop();
+    void release();
+}
@@ -0,0 +1,42 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IImageFrameListener.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import android.media.Image;
+
+import androidx.annotation.NonNull;
+
+/**
+ * callback interface of ImageReaderTap, called on analyzer thread of the tap
+ */
+public interface IImageFrameListener {
+    /**
+     * called for every Nth decoded frame that was not dropped.
+     * pixels are not copied by CPU, use Image#getHardwareBuffer(API 28) to pass them to GPU/NN.
+     * the image is closed when this returns, so the image and its HardwareBuffer
+     * should not be used after returning.
+     * while this is running, newer frames are queued and the oldest ones are dropped
+     * @param image timestamp is presentation time of the frame in nanoseconds
+     */
+    void onImageAvailable(@NonNull Image image);
+}
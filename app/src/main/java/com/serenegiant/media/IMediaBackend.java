@@ -0,0 +1,72 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IMediaBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import android.media.MediaMetadataRetriever;
+
+/**
+ * factory of everything that MediaMoviePlayer needs from the platform media framework,
+ * AndroidMediaBackend is used unless the other one is given to the player
+ */
+public interface IMediaBackend {
+    /**
+     * @param source
+     * @throws FileNotFoundException
+     */
+    void checkReadable(MediaSource source) throws FileNotFoundException;
+    /**
+     * @param source
+     * @return null if metadata is not available
+     */
+    MediaMetadataRetriever createMetadataRetriever(MediaSource source);
+    /**
+     * create demuxer, the player creates one for each track
+     * @param source
+     * @throws IOException
+     */
+    ISampleSource createSampleSource(MediaSource source) throws IOException;
+    /**
+     * @param mime
+     * @throws IOException no decoder for mime
+     */
+    IDecoder createDecoder(String mime) throws IOException;
+    /**
+     * @param name codec name that DecoderResourceManager granted
+     * @throws IOException no decoder with name
+     */
+    IDecoder createDecoderByName(String name) throws IOException;
+    /**
+     * @return null if decoders of this backend do not share limited hardware
+     */
+    DecoderResourceManager getDecoderResourceManager();
+    /**
+     * @return null if render time of video frames can not be aligned with vsync
+     */
+    VsyncScheduler createVsyncScheduler();
+    IAudioSink createAudioSink();
+    IClock getClock();
+}
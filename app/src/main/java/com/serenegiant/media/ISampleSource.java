@@ -0,0 +1,61 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ISampleSource.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.nio.ByteBuffer;
+
+import android.media.MediaFormat;
+
+/**
+ * demuxer interface that decode loops read encoded samples from.
+ * methods and return values follow MediaExtractor
+ */
+public interface ISampleSource {
+    int getTrackCount();
+    MediaFormat getTrackFormat(int index);
+    void selectTrack(int index);
+    /**
+     * read current sample into buffer starting at offset
+     * @return size of sample, -1 if no sample is available
+     */
+    int readSampleData(ByteBuffer buffer, int offset);
+    /**
+     * @return presentation time of current sample[us], -1 if no sample is available
+     */
+    long getSampleTime();
+    /**
+     * @return MediaExtractor#SAMPLE_FLAG_XXX
+     */
+    int getSampleFlags();
+    /**
+     * move to next sample
+     * @return false if no more sample is available
+     */
+    boolean advance();
+    /**
+     * @param timeUs
+     * @param mode MediaExtractor#SEEK_TO_XXX
+     */
+    void seekTo(long timeUs, int mode);
+    void release();
+}
@@ -0,0 +1,39 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: IYuvFrameListener.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import androidx.annotation.NonNull;
+
+/**
+ * callback interface of surface-less decoding(MediaMoviePlayer#setYuvFrameListener),
+ * called on video decoder thread
+ */
+public interface IYuvFrameListener {
+    /**
+     * called every decoded frame before time adjusting.
+     * the frame can be passed to other thread, call YuvFrame#release when it is no longer used,
+     * frames are dropped while all frames of the pool are in use
+     * @param frame cropped I420 frame
+     */
+    void onYuvFrame(@NonNull YuvFrame frame);
+}
@@ -0,0 +1,373 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: ImageReaderTap.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.ArrayDeque;
+
+import android.graphics.ImageFormat;
+import android.graphics.PixelFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.HardwareBuffer;
+import android.media.Image;
+import android.media.ImageReader;
+import android.opengl.GLES20;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.glutils.EGLBase;
+import com.serenegiant.glutils.GLDrawer2D;
+
+/**
+ * frame tap that delivers every Nth decoded frame to IImageFrameListener through ImageReader
+ * without CPU copy. pass #getInputSurface to the player as its output surface.
+ * without display surface, the decoder renders directly into ImageReader.
+ * with display surface, the decoder renders into SurfaceTexture and every frame is drawn
+ * to the display surface and every Nth frame also to ImageReader with GL.
+ * the display surface can be replaced with #setDisplaySurface, e.g. when the view is recreated.
+ * images are acquired as soon as they are available and queued for the analyzer thread,
+ * the oldest queued image is dropped when the analyzer lags, so the decoder never waits for the analyzer.
+ */
+public class ImageReaderTap {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "ImageReaderTap";
+
+    /** ImageReader needs a free buffer for the producer and an image for the analyzer */
+    public static final int MIN_MAX_IMAGES = 3;
+
+    private final int mWidth, mHeight;
+    private final int mEveryNth;
+    private final IImageFrameListener mListener;
+    private final ImageReader mImageReader;
+    private final HandlerThread mReaderThread;
+    private final Thread mAnalyzerThread;
+    private final ArrayDeque<Image> mQueue;
+    private final int mMaxQueued;
+    private final GLForwarder mForwarder;
+    private int mFrames;
+    private int mDropped;
+    private volatile boolean mReleased;
+
+    /**
+     * @param width size of the video
+     * @param height
+     * @param maxImages depth of ImageReader, at least MIN_MAX_IMAGES.
+     *                  up to maxImages - 2 images are queued for the analyzer
+     * @param everyNth deliver every Nth frame, 1 for all frames
+     * @param displaySurface frames are also drawn to this surface with GL, null if the video is not displayed
+     * @param listener
+     */
+    public ImageReaderTap(final int width, final int height, final int maxImages, final int everyNth,
+        @Nullable final Surface displaySurface, @NonNull final IImageFrameListener listener) {
+
+        if (maxImages < MIN_MAX_IMAGES) {
+            throw new IllegalArgumentException("maxImages should be " + MIN_MAX_IMAGES + " or more");
+        }
+        mWidth = width;
+        mHeight = height;
+        mEveryNth = Math.max(everyNth, 1);
+        mListener = listener;
+        mMaxQueued = maxImages - 2;
+        mQueue = new ArrayDeque<Image>(mMaxQueued);
+        mImageReader = createImageReader(width, height, maxImages, displaySurface != null);
+        mReaderThread = new HandlerThread(TAG);
+        mReaderThread.start();
+        final Handler handler = new Handler(mReaderThread.getLooper());
+        mImageReader.setOnImageAvailableListener(new ImageReader.OnImageAvailableListener() {
+            @Override
+            public void onImageAvailable(final ImageReader reader) {
+                acquireImage(reader);
+            }
+        }, handler);
+        mAnalyzerThread = new Thread(mAnalyzerTask, TAG + ":analyzer");
+        mAnalyzerThread.start();
+        mForwarder = displaySurface != null
+            ? new GLForwarder(handler, mImageReader.getSurface(), displaySurface) : null;
+    }
+
+    /**
+     * @return surface that the player should output decoded frames to
+     */
+    public Surface getInputSurface() {
+        return mForwarder != null ? mForwarder.getInputSurface() : mImageReader.getSurface();
+    }
+
+    /**
+     * replace the display surface, this returns after previous surface is released,
+     * so this can be called from SurfaceHolder.Callback#surfaceDestroyed.
+     * frames are still delivered to the listener while there is no display surface
+     * @param displaySurface null to stop drawing to the display
+     * @throws IllegalStateException the tap was created without display surface
+     */
+    public void setDisplaySurface(@Nullable final Surface displaySurface) {
+        if (DEBUG) Log.v(TAG, "setDisplaySurface:" + displaySurface);
+        if (mForwarder == null) {
+            // the decoder renders into ImageReader directly, the format is not for display
+            throw new IllegalStateException("created without display surface");
+        }
+        mForwarder.setDisplaySurface(displaySurface);
+    }
+
+    /**
+     * @return number of frames that were dropped because the analyzer lagged
+     */
+    public synchronized int getDroppedCount() {
+        return mDropped;
+    }
+
+    /**
+     * release the tap after the player stopped
+     */
+    public void release() {
+        if (DEBUG) Log.v(TAG, "release:");
+        mReleased = true;
+        if (mForwarder != null) {
+            mForwarder.release();
+        }
+        synchronized (mQueue) {
+            mQueue.notifyAll();
+        }
+        try {
+            mAnalyzerThread.join();
+        } catch (final InterruptedException e) {
+            // ignore
+        }
+        // images are closed and ImageReader is released on reader thread
+        new Handler(mReaderThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                clearQueue();
+                mImageReader.close();
+            }
+        });
+        mReaderThread.quitSafely();
+    }
+
+    private static ImageReader createImageReader(final int width, final int height,
+        final int maxImages, final boolean gl) {
+
+        if (gl) {
+            // GL renders RGBA into ImageReader
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                return ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, maxImages,
+                    HardwareBuffer.USAGE_GPU_COLOR_OUTPUT | HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+            }
+            return ImageReader.newInstance(width, height, PixelFormat.RGBA_8888, maxImages);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            // decoder output as is, only accessible through HardwareBuffer
+            return ImageReader.newInstance(width, height, ImageFormat.PRIVATE, maxImages,
+                HardwareBuffer.USAGE_GPU_SAMPLED_IMAGE);
+        }
+        return ImageReader.newInstance(width, height, ImageFormat.YUV_420_888, maxImages);
+    }
+
+    /**
+     * acquire next image and queue it for the analyzer, this is called on reader thread
+     * @param reader
+     */
+    private void acquireImage(final ImageReader reader) {
+        Image image;
+        try {
+            image = reader.acquireNextImage();
+        } catch (final IllegalStateException e) {
+            // all images are acquired
+            dropOldest();
+            image = reader.acquireNextImage();
+        }
+        if (image == null) return;
+        // GL forwarder draws only every Nth frame into ImageReader
+        if (mReleased || ((mForwarder == null) && ((mFrames++ % mEveryNth) != 0))) {
+            image.close();
+            return;
+        }
+        synchronized (mQueue) {
+            if (mQueue.size() >= mMaxQueued) {
+                mQueue.pollFirst().close();
+                onDropped();
+            }
+            mQueue.addLast(image);
+            mQueue.notifyAll();
+        }
+    }
+
+    private void dropOldest() {
+        synchronized (mQueue) {
+            final Image image = mQueue.pollFirst();
+            if (image != null) {
+                image.close();
+                onDropped();
+            }
+        }
+    }
+
+    private synchronized void onDropped() {
+        mDropped++;
+    }
+
+    private void clearQueue() {
+        synchronized (mQueue) {
+            for (final Image image: mQueue) {
+                image.close();
+            }
+            mQueue.clear();
+        }
+    }
+
+    /**
+     * analyzer task, this takes queued images one by one
+     */
+    private final Runnable mAnalyzerTask = new Runnable() {
+        @Override
+        public void run() {
+            if (DEBUG) Log.v(TAG, "analyzer:start");
+            for (; ;) {
+                final Image image;
+                synchronized (mQueue) {
+                    while (!mReleased && mQueue.isEmpty()) {
+                        try {
+                            mQueue.wait();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) break;
+                    image = mQueue.pollFirst();
+                }
+                try {
+                    mListener.onImageAvailable(image);
+                } catch (final Exception e) {
+                    Log.w(TAG, e);
+                } finally {
+                    image.close();
+                }
+            }
+            if (DEBUG) Log.v(TAG, "analyzer:finished");
+        }
+    };
+
+    /**
+     * draws decoded frames from SurfaceTexture to display surface and every Nth frame to ImageReader,
+     * GL runs on reader thread
+     */
+    private final class GLForwarder implements SurfaceTexture.OnFrameAvailableListener {
+        private final Handler mHandler;
+        private final float[] mTexMatrix = new float[16];
+        private EGLBase mEgl;
+        private EGLBase.EglSurface mReaderSurface;
+        private EGLBase.EglSurface mDisplaySurface;
+        private GLDrawer2D mDrawer;
+        private int mTexId;
+        private SurfaceTexture mSurfaceTexture;
+        private Surface mInputSurface;
+
+        private GLForwarder(final Handler handler, final Surface readerSurface, final Surface displaySurface) {
+            mHandler = handler;
+            HandlerUtils.runAndWait(mHandler, new Runnable() {
+                @Override
+                public void run() {
+                    mEgl = new EGLBase(null, false);
+                    mReaderSurface = mEgl.createFromSurface(readerSurface);
+                    mDisplaySurface = mEgl.createFromSurface(displaySurface);
+                    mReaderSurface.makeCurrent();
+                    mDrawer = new GLDrawer2D();
+                    mTexId = GLDrawer2D.initTex();
+                    mSurfaceTexture = new SurfaceTexture(mTexId);
+                    mSurfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+                    mSurfaceTexture.setOnFrameAvailableListener(GLForwarder.this, mHandler);
+                    mInputSurface = new Surface(mSurfaceTexture);
+                }
+            });
+        }
+
+        private Surface getInputSurface() {
+            return mInputSurface;
+        }
+
+        private void setDisplaySurface(final Surface displaySurface) {
+            HandlerUtils.runAndWait(mHandler, new Runnable() {
+                @Override
+                public void run() {
+                    if (mEgl == null) return;
+                    if (mDisplaySurface != null) {
+                        mDisplaySurface.release();
+                        mDisplaySurface = null;
+                    }
+                    if (displaySurface != null) {
+                        mDisplaySurface = mEgl.createFromSurface(displaySurface);
+                    }
+                    mReaderSurface.makeCurrent();
+                }
+            });
+        }
+
+        @Override
+        public void onFrameAvailable(final SurfaceTexture surfaceTexture) {
+            if (mEgl == null) return;
+            if (mDisplaySurface != null) {
+                mDisplaySurface.makeCurrent();
+            } else {
+                mReaderSurface.makeCurrent();
+            }
+            mSurfaceTexture.updateTexImage();
+            mSurfaceTexture.getTransformMatrix(mTexMatrix);
+            if (mDisplaySurface != null) {
+                GLES20.glViewport(0, 0, mDisplaySurface.getWidth(), mDisplaySurface.getHeight());
+                mDrawer.draw(mTexId, mTexMatrix);
+                mDisplaySurface.swap();
+            }
+            if ((mFrames++ % mEveryNth) == 0) {
+                mReaderSurface.makeCurrent();
+                GLES20.glViewport(0, 0, mWidth, mHeight);
+                mDrawer.draw(mTexId, mTexMatrix);
+                mReaderSurface.setPresentationTime(mSurfaceTexture.getTimestamp());
+                mReaderSurface.swap();
+            }
+        }
+
+        private void release() {
+            HandlerUtils.runAndWait(mHandler, new Runnable() {
+                @Override
+                public void run() {
+                    if (mEgl == null) return;
+                    mSurfaceTexture.setOnFrameAvailableListener(null);
+                    mInputSurface.release();
+                    mSurfaceTexture.release();
+                    mReaderSurface.makeCurrent();
+                    GLDrawer2D.deleteTex(mTexId);
+                    mDrawer.release();
+                    if (mDisplaySurface != null) {
+                        mDisplaySurface.release();
+                    }
+                    mReaderSurface.release();
+                    mEgl.release();
+                    mEgl = null;
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: LatencyHistogram.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * fixed-memory histogram of latency values with log-linear buckets(HdrHistogram-style).
+ * values less than 32 are counted exactly and larger values are counted
+ * with 16 sub-buckets per power of 2, so relative error is less than 1/16.
+ * recording is lock-free and allocation-free, and can be called from several threads
+ * while other thread takes snapshot.
+ * this class does not depend on Android framework.
+ */
+public class LatencyHistogram {
+    private static final int LINEAR_BITS = 5;
+    private static final int LINEAR_COUNT = 1 << LINEAR_BITS;			// 32
+    private static final int SUB_BUCKET_COUNT = LINEAR_COUNT >> 1;		// 16
+    /** values larger than 2^MAX_EXP are clamped */
+    private static final int MAX_EXP = 40;
+    private static final int BUCKET_COUNT
+        = LINEAR_COUNT + (MAX_EXP - LINEAR_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /**
+     * immutable summary of histogram
+     */
+    public static final class Snapshot {
+        public final long count;
+        public final long p50;
+        public final long p99;
+        public final long max;
+
+        private Snapshot(final long count, final long p50, final long p99, final long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        @Override
+        public String toString() {
+            return "{n=" + count + ",p50=" + p50 + ",p99=" + p99 + ",max=" + max + "}";
+        }
+    }
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotalCount = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value negative value is counted as 0
+     */
+    public void record(final long value) {
+        final long v = Math.max(value, 0);
+        mCounts.incrementAndGet(bucketIndex(v));
+        mTotalCount.incrementAndGet();
+        for (long max = mMax.get(); (v > max) && !mMax.compareAndSet(max, v); max = mMax.get()) {
+            // retry
+        }
+    }
+
+    public long getCount() {
+        return mTotalCount.get();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * @param percentile [0, 100]
+     * @return highest value that is equivalent to the bucket of specific percentile,
+     *         0 if no value was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        final long total = mTotalCount.get();
+        if (total <= 0) return 0;
+        final long target = Math.max((long)Math.ceil(total * Math.min(percentile, 100.0) / 100.0), 1);
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts.get(i);
+            if (count >= target) {
+                return Math.min(highestEquivalentValue(i), mMax.get());
+            }
+        }
+        // counts were updated while scanning
+        return mMax.get();
+    }
+
+    public Snapshot getSnapshot() {
+        return new Snapshot(getCount(),
+            getValueAtPercentile(50), getValueAtPercentile(99), getMax());
+    }
+
+    /**
+     * clear all values, values that are recorded at the same time may be lost
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotalCount.set(0);
+        mMax.set(0);
+    }
+
+    private static int bucketIndex(final long value) {
+        if (value < LINEAR_COUNT) return (int)value;
+        final int exp = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXP);
+        final int shift = exp - (LINEAR_BITS - 1);
+        final int sub = (int)Math.min(value >>> shift, LINEAR_COUNT - 1) - SUB_BUCKET_COUNT;
+        return LINEAR_COUNT + (exp - LINEAR_BITS) * SUB_BUCKET_COUNT + sub;
+    }
+
+    private static long highestEquivalentValue(final int index) {
+        if (index < LINEAR_COUNT) return index;
+        final int exp = LINEAR_BITS + (index - LINEAR_COUNT) / SUB_BUCKET_COUNT;
+        final int shift = exp - (LINEAR_BITS - 1);
+        final long sub = SUB_BUCKET_COUNT + (index - LINEAR_COUNT) % SUB_BUCKET_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,188 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MediaCodecDecoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import android.graphics.SurfaceTexture;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+
+/**
+ * IDecoder that delegates to MediaCodec.
+ * buffer arrays of MediaCodec are cached because MediaCodec#getInputBuffer/getOutputBuffer
+ * create new ByteBuffer instance on every call.
+ */
+public class MediaCodecDecoder implements IDecoder {
+    private final MediaCodec mCodec;
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+    private boolean mHasSurface;
+    /** output of the codec while detached, MediaCodec#setOutputSurface does not accept null */
+    private SurfaceTexture mPlaceholderTexture;
+    private Surface mPlaceholderSurface;
+
+    /**
+     * @param mime
+     * @throws IOException no decoder for mime
+     */
+    public MediaCodecDecoder(@NonNull final String mime) throws IOException {
+        mCodec = MediaCodec.createDecoderByType(mime);
+    }
+
+    /**
+     * @param codec e.g. created with MediaCodec#createByCodecName
+     */
+    public MediaCodecDecoder(@NonNull final MediaCodec codec) {
+        mCodec = codec;
+    }
+
+    public MediaCodec getCodec() {
+        return mCodec;
+    }
+
+    @Override
+    public void configure(final MediaFormat format, final Surface surface) {
+        mCodec.configure(format, surface, null, 0);
+        mHasSurface = surface != null;
+    }
+
+    @Override
+    public boolean setOutputSurface(final Surface surface) {
+        if (!mHasSurface) {
+            return surface == null;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        if (surface != null) {
+            mCodec.setOutputSurface(surface);
+        } else {
+            if (mPlaceholderSurface == null) {
+                mPlaceholderTexture = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                    ? new SurfaceTexture(false) : new SurfaceTexture(0);
+                mPlaceholderSurface = new Surface(mPlaceholderTexture);
+            }
+            mCodec.setOutputSurface(mPlaceholderSurface);
+        }
+        return true;
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void start() {
+        mCodec.start();
+        try {
+            mInputBuffers = mCodec.getInputBuffers();
+            mOutputBuffers = mCodec.getOutputBuffers();
+        } catch (final IllegalStateException e) {
+            // fall back to getInputBuffer/getOutputBuffer
+            mInputBuffers = mOutputBuffers = null;
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(final long timeoutUs) {
+        return mCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(final int index) {
+        return mInputBuffers != null ? mInputBuffers[index] : mCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(final int index, final int offset, final int size,
+        final long presentationTimeUs, final int flags) {
+
+        mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public int dequeueOutputBuffer(final MediaCodec.BufferInfo info, final long timeoutUs) {
+        final int result = mCodec.dequeueOutputBuffer(info, timeoutUs);
+        if ((result == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) && (mOutputBuffers != null)) {
+            mOutputBuffers = mCodec.getOutputBuffers();
+        }
+        return result;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(final int index) {
+        return mOutputBuffers != null ? mOutputBuffers[index] : mCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public Image getOutputImage(final int index) {
+        try {
+            return mCodec.getOutputImage(index);
+        } catch (final IllegalStateException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mCodec.getOutputFormat();
+    }
+
+    @Override
+    public void releaseOutputBuffer(final int index, final boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(final int index, final long renderTimestampNs) {
+        mCodec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    @Override
+    public void flush() {
+        mCodec.flush();
+    }
+
+    @Override
+    public void stop() {
+        mInputBuffers = mOutputBuffers = null;
+        mCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mCodec.release();
+        if (mPlaceholderSurface != null) {
+            mPlaceholderSurface.release();
+            mPlaceholderTexture.release();
+            mPlaceholderSurface = null;
+            mPlaceholderTexture = null;
+        }
+    }
+}
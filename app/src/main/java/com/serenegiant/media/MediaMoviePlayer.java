@@ -25,23 +25,34 @@ package com.serenegiant.media;
 import static android.view.Display.DEFAULT_DISPLAY;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.content.pm.ActivityInfo;
+import android.content.res.AssetFileDescriptor;
+import android.graphics.Rect;
 import android.hardware.display.DisplayManager;
-import android.media.AudioFormat;
 import android.media.AudioManager;
-import android.media.AudioTrack;
+import android.media.Image;
 import android.media.LoudnessCodecController;
 import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaDataSource;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.media.MediaMetadataRetriever;
+import android.net.Uri;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
 
 import android.os.Build;
 import android.text.TextUtils;
@@ -54,22 +65,55 @@ public class MediaMoviePlayer {
     private static final String TAG_STATIC = "MediaMoviePlayer:";
     private final String TAG = TAG_STATIC + getClass().getSimpleName();
 
+    /** decode and render every video frame */
+    public static final int VISIBILITY_VISIBLE = 0;
+    /** decode and render only key frames of video, e.g. small preview on scrolling list */
+    public static final int VISIBILITY_THUMBNAIL = 1;
+    /** suspend video decoding, audio and presentation clock keep running */
+    public static final int VISIBILITY_HIDDEN = 2;
+
     private final IFrameCallback mCallback;
     private final boolean mAudioEnabled;
     private final Context mContext;
+    private final IMediaBackend mBackend;
+    private final IClock mClock;
     private LoudnessCodecController mLcc = null;
     private Display mDisplay;
 
-    public MediaMoviePlayer(@NonNull final Surface outputSurface,
+    /**
+     * @param outputSurface null to receive decoded frames with #setYuvFrameListener
+     * @param callback
+     * @param audio_enable
+     * @param context
+     */
+    public MediaMoviePlayer(@Nullable final Surface outputSurface,
         @NonNull final IFrameCallback callback, final boolean audio_enable, final Context context) {
+
+        this(outputSurface, callback, audio_enable, context, new AndroidMediaBackend());
+    }
+
+    /**
+     * @param outputSurface null if decoders of the backend do not need Surface
+     * @param callback
+     * @param audio_enable
+     * @param context null if the backend is not AndroidMediaBackend
+     * @param backend e.g. FakeMediaBackend of local unit tests to run the pipeline without MediaCodec
+     */
+    public MediaMoviePlayer(@Nullable final Surface outputSurface,
+        @NonNull final IFrameCallback callback, final boolean audio_enable,
+        @Nullable final Context context, @NonNull final IMediaBackend backend) {
+
         if (DEBUG) {
             Log.v(TAG, "Constructor:");
         }
-
+        mStartupTracer.mark(StartupReport.MARK_CONSTRUCTED);
         mOutputSurface = outputSurface;
         mCallback = callback;
         mAudioEnabled = audio_enable;
         mContext = context;
+        mBackend = backend;
+        mClock = backend.getClock();
+        mAVSyncMonitor = new AVSyncMonitor(mClock);
         new Thread(mMoviePlayerTask, TAG).start();
         synchronized (mSync) {
             try {
@@ -124,16 +168,341 @@ public class MediaMoviePlayer {
         return mHasAudio;
     }
 
+    /**
+     * set tail follow mode, this should be called before #prepare.
+     * on tail follow mode, the movie(fragmented mp4) is treated as a live recording that is still being written,
+     * the player waits for new fragments at the end of movie instead of finishing playback
+     * @param enable
+     * @param idleTimeoutMs playback finishes when the file does not grow for this period[ms]
+     */
+    public final void setTailFollowMode(final boolean enable, final long idleTimeoutMs) {
+        synchronized (mSync) {
+            mTailFollow = enable;
+            mTailIdleTimeoutMs = idleTimeoutMs;
+        }
+    }
+
+    /**
+     * set listener to receive startup breakdown of each playing
+     * @param listener null to clear
+     */
+    public final void setStartupListener(final IStartupListener listener) {
+        mStartupListener = listener;
+    }
+
+    /**
+     * set listener to receive A/V offset and jank alerts
+     * @param listener null to clear
+     * @param offsetThresholdUs e.g. AVSyncMonitor.DEFAULT_OFFSET_THRESHOLD_US
+     */
+    public final void setAVSyncListener(final IAVSyncListener listener, final long offsetThresholdUs) {
+        mAVSyncMonitor.setListener(listener, offsetThresholdUs);
+    }
+
+    /**
+     * set listener to receive decoded frames as cropped I420(surface-less decoding),
+     * this should be called before #prepare and works only when output surface is null.
+     * frames are copied to buffers of YuvFramePool, so no buffer is allocated on every frame
+     * @param listener null to clear
+     * @param poolSize maximum number of frames that the listener can hold at the same time
+     */
+    public final void setYuvFrameListener(@Nullable final IYuvFrameListener listener, final int poolSize) {
+        if ((listener != null) && (mOutputSurface != null)) {
+            Log.w(TAG, "setYuvFrameListener:decoded frames are rendered to output surface");
+        }
+        mYuvFramePool = listener != null ? new YuvFramePool(poolSize) : null;
+        mYuvFrameListener = listener;
+    }
+
+    /**
+     * enable/disable low latency mode, this should be called before #play.
+     * on low latency mode, e.g. for live monitoring, end-to-end latency is prior to smoothness.
+     * decoders are configured with KEY_LOW_LATENCY, realtime KEY_PRIORITY and KEY_OPERATING_RATE
+     * where supported, video frames in decoder are limited to the minimum that the decoder needs,
+     * audio is played with the minimum buffer, and decoded frames are rendered as soon as they are available
+     * without presentation time adjusting. decode latency can be read with #getLatencySnapshot
+     * @param enabled
+     */
+    public final void setLowLatencyMode(final boolean enabled) {
+        mLowLatency = enabled;
+    }
+
+    public final boolean isLowLatencyMode() {
+        return mLowLatency;
+    }
+
+    /**
+     * enable/disable vsync aligned rendering, this should be called before #play. enabled by default.
+     * video frames are released to the decoder a couple of vsyncs ahead with the render timestamp
+     * of the vsync that is closest to their presentation time instead of rendering them when
+     * the video thread wakes up, and the frame rate of the movie is set to the output surface(API 30+)
+     * so that the display can switch to the refresh rate that is multiple of it.
+     * this is not used on low latency mode, benchmark mode and when decoded frames are delivered
+     * with #setYuvFrameListener.
+     * @param enabled
+     */
+    public final void setVsyncAlignedRendering(final boolean enabled) {
+        mVsyncEnabled = enabled;
+    }
+
+    /**
+     * change output surface without restarting the player, e.g. when the view is recreated on configuration change.
+     * with null, the player keeps decoding on the presentation clock without rendering(detached),
+     * so rendering resumes at current frame when next surface is set.
+     * this blocks until the decoder stops using previous surface(at most SURFACE_CHANGE_TIMEOUT_MS),
+     * call this from SurfaceHolder.Callback#surfaceDestroyed before the surface is destroyed.
+     * pacing of current frame is interrupted, so this usually returns within a couple of dequeue timeouts.
+     * on API < 23 or when the decoder was started without surface, the video decoder is reconfigured
+     * and video restarts from the next key frame on the presentation clock.
+     * @param surface null to detach
+     */
+    public final void setOutputSurface(@Nullable final Surface surface) {
+        synchronized (mSurfaceSync) {
+            if (surface == mOutputSurface) return;
+            if (DEBUG) Log.v(TAG, "setOutputSurface:" + surface);
+            mOutputSurface = surface;
+            if ((mVideoDecoder == null) || mVideoOutputDone) {
+                // applied when the video decoder is started
+                return;
+            }
+            mSurfaceChanged = true;
+            synchronized (mVideoSync) {
+                mVideoSync.notifyAll();
+            }
+            final long endMs = System.currentTimeMillis() + SURFACE_CHANGE_TIMEOUT_MS;
+            for (long t = SURFACE_CHANGE_TIMEOUT_MS; mSurfaceChanged && (t > 0); t = endMs - System.currentTimeMillis()) {
+                try {
+                    mSurfaceSync.wait(t);
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+            if (mSurfaceChanged) {
+                Log.w(TAG, "setOutputSurface:video decoder did not switch output surface in time");
+            }
+        }
+    }
+
+    /**
+     * get cadence error and judder count of vsync aligned rendering since playing started or last seek
+     * @return null if vsync aligned rendering is not used
+     */
+    public final VsyncScheduler.Stats getVsyncStats() {
+        final VsyncScheduler scheduler = mVsyncScheduler;
+        return scheduler != null ? scheduler.getStats() : null;
+    }
+
+    /**
+     * set visibility of the view that shows the video, e.g. when the view is scrolled away or covered.
+     * when the player becomes visible again, video restarts from the next key frame
+     * on the presentation clock without stopping audio
+     * @param visibility VISIBILITY_VISIBLE, VISIBILITY_THUMBNAIL or VISIBILITY_HIDDEN
+     */
+    public final void setVisibility(final int visibility) {
+        if (mVisibility != visibility) {
+            if (DEBUG) Log.v(TAG, "setVisibility:" + visibility);
+            mVisibility = visibility;
+            synchronized (mVideoSync) {
+                mVideoSync.notifyAll();
+            }
+        }
+    }
+
+    public final int getVisibility() {
+        return mVisibility;
+    }
+
+    /**
+     * enable/disable audio only mode, e.g. while the app is in background.
+     * the video decoder is released so that it does not spend decoder resources and power,
+     * while audio keeps playing on the presentation clock.
+     * when disabled, the video decoder is started again on the video thread and video restarts
+     * from the next key frame at or after current position without interrupting audio.
+     * @param audioOnly
+     */
+    public final void setAudioOnly(final boolean audioOnly) {
+        if (mAudioOnly != audioOnly) {
+            if (DEBUG) Log.v(TAG, "setAudioOnly:" + audioOnly);
+            mAudioOnly = audioOnly;
+            synchronized (mVideoSync) {
+                mVideoSync.notifyAll();
+            }
+        }
+    }
+
+    public final boolean isAudioOnly() {
+        return mAudioOnly;
+    }
+
+    /**
+     * enable/disable loop playback. when the input reaches the end of the loop range,
+     * the extractors are rewound to the key frame of the loop start while the decoders keep running
+     * and timestamps are offset by the length of the range, so the movie loops without re-preparing.
+     * when disabled while looping, playback finishes at the end of current pass
+     * @param looping
+     */
+    public final void setLooping(final boolean looping) {
+        if (DEBUG) Log.v(TAG, "setLooping:" + looping);
+        mLooping = looping;
+    }
+
+    public final boolean isLooping() {
+        return mLooping;
+    }
+
+    /**
+     * set A-B range of loop playback, this is applied on next #play.
+     * playback starts from the start of the range unless #seek is requested before #play,
+     * and frames between the key frame and the start of the range are decoded but not shown
+     * @param startUs
+     * @param endUs 0 or negative value means the end of movie
+     */
+    public final void setLoopRange(final long startUs, final long endUs) {
+        synchronized (mSync) {
+            mLoopRangeStartUs = Math.max(startUs, 0);
+            mLoopRangeEndUs = endUs;
+        }
+    }
+
+    /**
+     * set priority of this player to share hardware video decoders with the other players in this process,
+     * this should be called before #play. see DecoderResourceManager
+     * @param priority e.g. DecoderResourceManager.PRIORITY_HIGH for main view of video wall,
+     *                 the player lower than PRIORITY_NORMAL uses software decoder when hardware decoder is busy
+     * @param maxWaitMs the player thread waits for hardware decoder up to this period on starting playback,
+     *                  then falls back to software decoder, no frame is decoded while waiting
+     */
+    public final void setDecoderPriority(final int priority, final long maxWaitMs) {
+        synchronized (mSync) {
+            mDecoderPriority = priority;
+            mDecoderMaxWaitMs = maxWaitMs;
+        }
+    }
+
+    /**
+     * @return true if this player is using software video decoder because hardware decoder was busy
+     */
+    public final boolean isDecoderDowngraded() {
+        final DecoderResourceManager.Grant grant = mDecoderGrant;
+        return (grant != null) && grant.isDowngraded();
+    }
+
+    /**
+     * @return number of frames that were not delivered to IYuvFrameListener because all pooled frames were in use
+     */
+    public final int getDroppedYuvFrames() {
+        final YuvFramePool pool = mYuvFramePool;
+        return pool != null ? pool.getDroppedCount() : 0;
+    }
+
+    /**
+     * get A/V offset, render interval jitter and jank count since playing started or last seek
+     * @return
+     */
+    public final AVSyncMonitor.Stats getAVSyncStats() {
+        return mAVSyncMonitor.getStats();
+    }
+
+    /**
+     * enable/disable benchmark mode, this should be called before #prepare.
+     * on benchmark mode, decoded frames are dropped as fast as possible
+     * without presentation time adjusting and audio output,
+     * and IFrameCallback#onFrameAvailable is not called.
+     * @param enabled
+     */
+    public final void setBenchmarkMode(final boolean enabled) {
+        mBenchmarkMode = enabled;
+    }
+
+    /**
+     * get decode throughput of each track on benchmark mode,
+     * results are available after IFrameCallback#onFinished
+     * @return results of finished tracks
+     */
+    public final List<DecodeBenchmark.Result> getBenchmarkResults() {
+        final List<DecodeBenchmark.Result> result = new ArrayList<DecodeBenchmark.Result>();
+        if (mVideoBenchmark.getResult() != null) {
+            result.add(mVideoBenchmark.getResult());
+        }
+        if (mAudioBenchmark.getResult() != null) {
+            result.add(mAudioBenchmark.getResult());
+        }
+        return result;
+    }
+
+    /**
+     * enable/disable per-frame latency instrumentation, this is enabled by default
+     * @param enabled
+     */
+    public final void setLatencyTrackingEnabled(final boolean enabled) {
+        mLatencyTracker.setEnabled(enabled);
+    }
+
+    /**
+     * get latencies of demux, decode and render stage since playing started.
+     * this allocates the snapshots, so this should not be called on every frame
+     * @return p50/p99/max of each stage and track in micro seconds
+     */
+    public final PipelineLatencyTracker.Snapshot getLatencySnapshot() {
+        return mLatencyTracker.getSnapshot();
+    }
+
     /**
      * request to prepare movie playing
      * @param src_movie
      */
     public final void prepare(final String src_movie) {
+        prepare(MediaSource.fromPath(src_movie));
+    }
+
+    /**
+     * request to prepare movie playing from a range of file descriptor
+     * @param fd the caller should keep this descriptor open while playing
+     * @param offset
+     * @param length negative value means the movie extends to the end of file
+     */
+    public final void prepare(@NonNull final FileDescriptor fd, final long offset, final long length) {
+        prepare(MediaSource.fromFileDescriptor(fd, offset, length));
+    }
+
+    /**
+     * request to prepare movie playing from packaged asset/raw resource without copying it
+     * @param afd this player takes ownership, it is closed when playing finished
+     */
+    public final void prepare(@NonNull final AssetFileDescriptor afd) {
+        prepare(MediaSource.fromAssetFileDescriptor(afd));
+    }
+
+    /**
+     * request to prepare movie playing from file/content uri
+     * @param uri
+     * @throws FileNotFoundException
+     */
+    public final void prepare(@NonNull final Uri uri) throws FileNotFoundException {
+        prepare(MediaSource.fromUri(mContext, uri));
+    }
+
+    /**
+     * request to prepare movie playing from MediaDataSource, e.g. HttpMediaDataSource
+     * @param dataSource
+     */
+    @RequiresApi(Build.VERSION_CODES.M)
+    public final void prepare(@NonNull final MediaDataSource dataSource) {
+        prepare(MediaSource.fromDataSource(dataSource));
+    }
+
+    /**
+     * request to prepare movie playing
+     * @param source
+     */
+    public final void prepare(@NonNull final MediaSource source) {
         if (DEBUG) {
-            Log.v(TAG, "prepare:");
+            Log.v(TAG, "prepare:" + source);
         }
+        mStartupTracer.reset();
+        mStartupTracer.mark(StartupReport.MARK_PREPARE_REQUESTED);
         synchronized (mSync) {
-            mSourcePath = src_movie;
+            mSource = source;
             mRequest = REQ_PREPARE;
             mSync.notifyAll();
         }
@@ -147,6 +516,7 @@ public class MediaMoviePlayer {
         if (DEBUG) {
             Log.v(TAG, "play:");
         }
+        mStartupTracer.mark(StartupReport.MARK_START_REQUESTED);
         synchronized (mSync) {
             if (mState == STATE_PLAYING) return;
             mRequest = REQ_START;
@@ -177,10 +547,14 @@ public class MediaMoviePlayer {
         if (DEBUG) {
             Log.v(TAG, "stop:");
         }
+        synchronized (mSync) {
+            if (mState == STATE_STOP) return;
+            mRequest = REQ_STOP;
+            mSync.notifyAll();
+        }
+        wakeUpDecoderQueue();
         synchronized (mSync) {
             if (mState != STATE_STOP) {
-                mRequest = REQ_STOP;
-                mSync.notifyAll();
                 try {
                     mSync.wait(50);
                 } catch (final InterruptedException e) {
@@ -230,10 +604,25 @@ public class MediaMoviePlayer {
             mRequest = REQ_QUIT;
             mSync.notifyAll();
         }
+        wakeUpDecoderQueue();
     }
 
 //================================================================================
     private static final int TIMEOUT_USEC = 10000;	// 10msec
+    /**
+     * start time of presentation clock before the first frame,
+     * valid start time can be 0 or negative after seeking when the clock is smaller than presentation time
+     */
+    protected static final long CLOCK_NOT_STARTED = Long.MIN_VALUE;
+    private static final long DEFAULT_TAIL_IDLE_TIMEOUT_MS = 10000;
+    private static final long DEFAULT_DECODER_MAX_WAIT_MS = 2000;
+    /** video frames in decoder are increased when the decoder does not output for this period on low latency mode */
+    private static final long LOW_LATENCY_STALL_NS = 100000000L;	// 100msec
+    private static final int LOW_LATENCY_MAX_IN_FLIGHT = 16;
+    /** interval to check end of movie while video decoding is suspended */
+    private static final long HIDDEN_POLL_US = 100000;	// 100msec
+    /** #setOutputSurface blocks UI thread, the video task applies the change within a couple of dequeue timeouts */
+    private static final long SURFACE_CHANGE_TIMEOUT_MS = 100;
 
     /*
      * STATE_CLOSED => [preapre] => STATE_PREPARED [start]
@@ -258,51 +647,136 @@ public class MediaMoviePlayer {
 
 //	private static final long EPS = (long)(1 / 240.0f * 1000000);	// 1/240 seconds[micro seconds]
 
+    // trace section names, see MediaTrace
+    private static final String TRACE_VIDEO_INPUT = "MoviePlayer:videoInput";
+    private static final String TRACE_VIDEO_OUTPUT = "MoviePlayer:videoOutput";
+    private static final String TRACE_AUDIO_INPUT = "MoviePlayer:audioInput";
+    private static final String TRACE_AUDIO_OUTPUT = "MoviePlayer:audioOutput";
+    private static final String TRACE_VIDEO_FRAME = "MoviePlayer:videoFrame";
+    private static final String TRACE_AUDIO_FRAME = "MoviePlayer:audioFrame";
+    private static final String TRACE_ADJUST_TIME = "MoviePlayer:adjustPresentationTime";
+    private static final String TRACE_VSYNC_WAIT = "MoviePlayer:waitVsync";
+
     protected MediaMetadataRetriever mMetadata;
     private final Object mSync = new Object();
     private volatile boolean mIsRunning;
     private int mState;
-    private String mSourcePath;
+    private MediaSource mSource;
     private long mDuration;
     private int mRequest;
     private long mRequestTime;
+    private volatile boolean mLooping;
+    /** loop range that was set with #setLoopRange, guarded by mSync */
+    private long mLoopRangeStartUs, mLoopRangeEndUs;
+    /** loop range of current playback, end is 0 if the range is not valid */
+    private long mLoopStartUs, mLoopEndUs;
+    private boolean mTailFollow;
+    private long mTailIdleTimeoutMs = DEFAULT_TAIL_IDLE_TIMEOUT_MS;
+    private final PipelineLatencyTracker mLatencyTracker = new PipelineLatencyTracker();
+    private final StartupTracer mStartupTracer = new StartupTracer();
+    private final AVSyncMonitor mAVSyncMonitor;
+    private volatile boolean mBenchmarkMode;
+    private volatile boolean mLowLatency;
+    private volatile boolean mVsyncEnabled = true;
+    /** null if vsync aligned rendering is not used */
+    private volatile VsyncScheduler mVsyncScheduler;
+    private final DecodeBenchmark mVideoBenchmark = new DecodeBenchmark("video");
+    private final DecodeBenchmark mAudioBenchmark = new DecodeBenchmark("audio");
+    private volatile IStartupListener mStartupListener;
     // for video playback
     private final Object mVideoSync = new Object();
-    private final Surface mOutputSurface;
-    protected MediaExtractor mVideoMediaExtractor;
-    private MediaCodec mVideoMediaCodec;
+    private volatile Surface mOutputSurface;
+    private final Object mSurfaceSync = new Object();
+    /** output surface was changed and the video task has not applied it yet, guarded by mSurfaceSync */
+    private volatile boolean mSurfaceChanged;
+    /** format that the video decoder was configured with */
+    private MediaFormat mVideoFormat;
+    /** the video decoder was configured with surface, owned by video task */
+    private boolean mVideoOnSurface;
+    /** the video decoder outputs to placeholder surface, owned by video task */
+    private boolean mVideoDetached;
+    protected ISampleSource mVideoMediaExtractor;
+    private IDecoder mVideoDecoder;
     private MediaCodec.BufferInfo mVideoBufferInfo;
-    private ByteBuffer[] mVideoInputBuffers;
-    private ByteBuffer[] mVideoOutputBuffers;
-    private long mVideoStartTime;
+    /** clock time of presentation time 0, CLOCK_NOT_STARTED until the first frame */
+    private long mVideoStartTime = CLOCK_NOT_STARTED;
     @SuppressWarnings("unused")
     private long previousVideoPresentationTimeUs = -1;
+    /** seek position that the video task should apply, -1 if not requested */
+    private final AtomicLong mVideoSeekUs = new AtomicLong(-1);
     private volatile int mVideoTrackIndex;
     private volatile boolean mVideoInputDone;
     private volatile boolean mVideoOutputDone;
+    private GrowingFileWatcher mVideoTailWatcher;
+    private boolean mVideoInputWaiting;
+    private boolean mVideoFirstFrameRendered;
     private int mVideoWidth, mVideoHeight;
     private int mBitrate;
     private float mFrameRate;
     private int mRotation;
+    private float mHdrSdrRatio;
+    private volatile IYuvFrameListener mYuvFrameListener;
+    private volatile YuvFramePool mYuvFramePool;
+    private final YuvLayout mYuvLayout = new YuvLayout();
+    private volatile int mVisibility = VISIBILITY_VISIBLE;
+    /** visibility that video task is decoding with, accessed only from video task */
+    private int mVideoVisibility = VISIBILITY_VISIBLE;
+    private volatile boolean mAudioOnly;
+    /** the video decoder was released for audio only mode, accessed only from video task */
+    private boolean mVideoAudioOnly;
+    /**
+     * number of video samples queued to decoder and not output yet, accessed only from video task.
+     * every output buffer including dropped frames decrements this, restarts from 0 when the decoder is flushed
+     */
+    private int mVideoInFlight;
+    /** maximum number of mVideoInFlight on low latency mode, this grows if the decoder needs more samples */
+    private int mVideoInFlightLimit;
+    private long mVideoLastProgressNs;
+    /** number of times the video input was rewound to the loop start, accessed only from video task */
+    private int mVideoLoops;
+    /** sample time of the key frame that the video input is rewound to */
+    private long mVideoLoopKeyUs;
+    private int mDecoderPriority = DecoderResourceManager.PRIORITY_NORMAL;
+    private long mDecoderMaxWaitMs = DEFAULT_DECODER_MAX_WAIT_MS;
+    private volatile DecoderResourceManager.Grant mDecoderGrant;
     // for audio playback
     private final Object mAudioSync = new Object();
-    protected MediaExtractor mAudioMediaExtractor;
-    private MediaCodec mAudioMediaCodec;
+    protected ISampleSource mAudioMediaExtractor;
+    private IDecoder mAudioDecoder;
     private MediaCodec.BufferInfo mAudioBufferInfo;
-    private ByteBuffer[] mAudioInputBuffers;
-    private ByteBuffer[] mAudioOutputBuffers;
-    private long mAudioStartTime;
+    private long mAudioStartTime = CLOCK_NOT_STARTED;
     @SuppressWarnings("unused")
     private long previousAudioPresentationTimeUs = -1;
+    /** seek position that the audio task should apply, -1 if not requested */
+    private final AtomicLong mAudioSeekUs = new AtomicLong(-1);
     private volatile int mAudioTrackIndex;
     private volatile boolean mAudioInputDone;
     private volatile boolean mAudioOutputDone;
+    private GrowingFileWatcher mAudioTailWatcher;
+    private boolean mAudioInputWaiting;
+    private boolean mAudioFirstWritten;
+    /** number of times the audio input was rewound to the loop start, accessed only from audio task */
+    private int mAudioLoops;
+    private long mAudioLoopKeyUs;
+    /** presentation time of the end of audio written while looping, -1 if unknown */
+    private long mAudioWrittenEndUs;
+    /** zero filled buffer to write silence, allocated on the first loop */
+    private byte[] mAudioSilence;
     private int mAudioChannels;
     private int mAudioSampleRate;
     private int mAudioInputBufSize;
     private boolean mHasAudio;
     private byte[] mAudioOutTempBuf;
-    private AudioTrack mAudioTrack;
+    private IAudioSink mAudioSink;
+    /** channel count and sample rate of mAudioSink */
+    private int mAudioOutChannels;
+    private int mAudioOutSampleRate;
+    /** non null when the audio has more than 2 channels */
+    private int[] mDownmixGains;
+    /** non null when IAudioSink does not support the sample rate of the audio */
+    private PcmUtils.LinearResampler mResampler;
+    private short[] mAudioOutSamples;
+    private short[] mAudioResampled;
 
 //--------------------------------------------------------------------------------
     /**
@@ -374,13 +848,45 @@ public class MediaMoviePlayer {
             if (DEBUG) {
                 Log.v(TAG, "VideoTask:start");
             }
+            if (mBenchmarkMode) {
+                mVideoBenchmark.start();
+            }
             while (mIsRunning && !mVideoInputDone && !mVideoOutputDone) {
                 try {
+                    if (mSurfaceChanged) {
+                        handleOutputSurface();
+                    }
+                    final boolean audioOnly = mAudioOnly;
+                    if (audioOnly != mVideoAudioOnly) {
+                        handleAudioOnly(audioOnly);
+                    }
+                    final long seekUs = mVideoSeekUs.getAndSet(-1);
+                    if (seekUs >= 0) {
+                        handleSeekVideo(seekUs);
+                    }
+                    final int visibility = mVisibility;
+                    if (!mVideoAudioOnly && (visibility != mVideoVisibility)) {
+                        handleVideoVisibility(visibility);
+                    }
+                    if (mVideoAudioOnly || (visibility == VISIBILITY_HIDDEN)) {
+                        waitWhileHidden();
+                        continue;
+                    }
                     if (!mVideoInputDone) {
-                        handleInputVideo();
+                        MediaTrace.beginSection(TRACE_VIDEO_INPUT);
+                        try {
+                            handleInputVideo();
+                        } finally {
+                            MediaTrace.endSection();
+                        }
                     }
                     if (!mVideoOutputDone) {
-                        handleOutputVideo(mCallback);
+                        MediaTrace.beginSection(TRACE_VIDEO_OUTPUT);
+                        try {
+                            handleOutputVideo(mCallback);
+                        } finally {
+                            MediaTrace.endSection();
+                        }
                     }
                 } catch (final Exception e) {
                     Log.e(TAG, "VideoTask:", e);
@@ -394,6 +900,15 @@ public class MediaMoviePlayer {
                 mVideoInputDone = mVideoOutputDone = true;
                 mVideoTask.notifyAll();
             }
+            synchronized (mSurfaceSync) {
+                // the decoder is released soon
+                mSurfaceChanged = false;
+                mSurfaceSync.notifyAll();
+            }
+            // wake up player task to check end of playing
+            synchronized (mSync) {
+                mSync.notifyAll();
+            }
         }
     };
 
@@ -407,13 +922,30 @@ public class MediaMoviePlayer {
             if (DEBUG) {
                 Log.v(TAG, "AudioTask:start");
             }
+            if (mBenchmarkMode) {
+                mAudioBenchmark.start();
+            }
             while (mIsRunning && !mAudioInputDone && !mAudioOutputDone) {
                 try {
+                    final long seekUs = mAudioSeekUs.getAndSet(-1);
+                    if (seekUs >= 0) {
+                        handleSeekAudio(seekUs);
+                    }
                     if (!mAudioInputDone) {
-                        handleInputAudio();
+                        MediaTrace.beginSection(TRACE_AUDIO_INPUT);
+                        try {
+                            handleInputAudio();
+                        } finally {
+                            MediaTrace.endSection();
+                        }
                     }
                     if (!mAudioOutputDone) {
-                        handleOutputAudio(mCallback);
+                        MediaTrace.beginSection(TRACE_AUDIO_OUTPUT);
+                        try {
+                            handleOutputAudio(mCallback);
+                        } finally {
+                            MediaTrace.endSection();
+                        }
                     }
                 } catch (final Exception e) {
                     Log.e(TAG, "VideoTask:", e);
@@ -427,6 +959,10 @@ public class MediaMoviePlayer {
                 mAudioInputDone = mAudioOutputDone = true;
                 mAudioTask.notifyAll();
             }
+            // wake up player task to check end of playing
+            synchronized (mSync) {
+                mSync.notifyAll();
+            }
         }
     };
 
@@ -441,7 +977,7 @@ public class MediaMoviePlayer {
         boolean localIsRunning = true;
         switch (req) {
         case REQ_PREPARE:
-            handlePrepare(mSourcePath);
+            handlePrepare(mSource);
             break;
         case REQ_START:
         case REQ_PAUSE:
@@ -575,50 +1111,100 @@ public class MediaMoviePlayer {
 //
 //--------------------------------------------------------------------------------
     /**
-     * @param sourceFile
+     * @param source
      * @throws IOException
      */
-    private void handlePrepare(final String sourceFile) throws IOException {
+    private void handlePrepare(final MediaSource source) throws IOException {
         if (DEBUG) {
-            Log.v(TAG, "handlePrepare:" + sourceFile);
+            Log.v(TAG, "handlePrepare:" + source);
         }
         synchronized (mSync) {
             if (mState != STATE_STOP) {
                 throw new RuntimeException("invalid state:" + mState);
             }
         }
-        final File src = new File(sourceFile);
-        if (TextUtils.isEmpty(sourceFile) || !src.canRead()) {
-            throw new FileNotFoundException("Unable to read " + sourceFile);
-        }
+        mStartupTracer.mark(StartupReport.MARK_PREPARE_STARTED);
+        mBackend.checkReadable(source);
+        // tail follow mode needs file path to watch the file
+        final File src = mTailFollow && (source.getPath() != null) ? new File(source.getPath()) : null;
         mVideoTrackIndex = mAudioTrackIndex = -1;
-        mMetadata = new MediaMetadataRetriever();
-        mMetadata.setDataSource(sourceFile);
+        if (src != null) {
+            waitForMovieHeader(src);
+        }
+        try {
+            mMetadata = mBackend.createMetadataRetriever(source);
+        } catch (final RuntimeException e) {
+            // MediaMetadataRetriever may fail on the file that is still being written
+            if (src == null) throw e;
+            Log.w(TAG, "handlePrepare:failed to read metadata", e);
+            mMetadata = null;
+        }
+        mStartupTracer.mark(StartupReport.MARK_METADATA_READY);
         updateMovieInfo();
         // preparation for video playback
-        mVideoTrackIndex = internalPrepareVideo(sourceFile);
+        mVideoTrackIndex = internalPrepareVideo(source);
+        mStartupTracer.mark(StartupReport.MARK_VIDEO_EXTRACTOR_READY);
         // preparation for audio playback
         if (mAudioEnabled)
-            mAudioTrackIndex = internalPrepareAudio(sourceFile);
+            mAudioTrackIndex = internalPrepareAudio(source);
         mHasAudio = mAudioTrackIndex >= 0;
         if ((mVideoTrackIndex < 0) && (mAudioTrackIndex < 0)) {
-            throw new RuntimeException("No video and audio track found in " + sourceFile);
+            throw new RuntimeException("No video and audio track found in " + source);
+        }
+        if (mTailFollow) {
+            // only fragmented mp4 can be read incrementally
+            if ((src != null) && (mVideoTrackIndex >= 0)
+                && (mVideoMediaExtractor instanceof FragmentedMp4Extractor)) {
+                mVideoTailWatcher = new GrowingFileWatcher(src, mTailIdleTimeoutMs);
+            }
+            if ((src != null) && (mAudioTrackIndex >= 0)
+                && (mAudioMediaExtractor instanceof FragmentedMp4Extractor)) {
+                mAudioTailWatcher = new GrowingFileWatcher(src, mTailIdleTimeoutMs);
+            }
+            if ((mVideoTailWatcher == null) && (mAudioTailWatcher == null)) {
+                Log.w(TAG, "tail follow mode is only available for fragmented mp4 file");
+            }
         }
+        mVideoInputWaiting = mAudioInputWaiting = false;
         synchronized (mSync) {
             mState = STATE_PREPARED;
         }
+        mStartupTracer.mark(StartupReport.MARK_PREPARED);
         mCallback.onPrepared();
+        mStartupTracer.mark(StartupReport.MARK_PREPARED_CALLBACK_RETURNED);
+    }
+
+    /**
+     * wait until moov of the movie that is still being written becomes available
+     * @param src
+     * @throws IOException
+     */
+    private void waitForMovieHeader(final File src) throws IOException {
+        final GrowingFileWatcher watcher = new GrowingFileWatcher(src, mTailIdleTimeoutMs);
+        try {
+            for ( ; mIsRunning ; ) {
+                try (final RandomAccessFile file = new RandomAccessFile(src, "r")) {
+                    if (new Mp4FragmentReader(file.getChannel(), 0, -1).readHeader()) {
+                        return;
+                    }
+                }
+                if (!watcher.await()) {
+                    throw new IOException("moov is not available:" + src);
+                }
+            }
+        } finally {
+            watcher.release();
+        }
     }
 
     /**
-     * @param sourceFile
+     * @param source
      * @return first video track index, -1 if not found
      */
-    protected int internalPrepareVideo(final String sourceFile) {
+    protected int internalPrepareVideo(final MediaSource source) {
         int trackIndex = -1;
-        mVideoMediaExtractor = new MediaExtractor();
         try {
-            mVideoMediaExtractor.setDataSource(sourceFile);
+            mVideoMediaExtractor = createSampleSource(source);
             trackIndex = selectTrack(mVideoMediaExtractor, "video/");
             if (trackIndex >= 0) {
                 mVideoMediaExtractor.selectTrack(trackIndex);
@@ -626,10 +1212,18 @@ public class MediaMoviePlayer {
                 mVideoWidth = format.getInteger(MediaFormat.KEY_WIDTH);
                 mVideoHeight = format.getInteger(MediaFormat.KEY_HEIGHT);
                 mDuration = format.getLong(MediaFormat.KEY_DURATION);
+                if (format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+                    try {
+                        mFrameRate = format.getInteger(MediaFormat.KEY_FRAME_RATE);
+                    } catch (final ClassCastException e) {
+                        // some extractors set frame rate as float
+                        mFrameRate = format.getFloat(MediaFormat.KEY_FRAME_RATE);
+                    }
+                }
 
                 if (DEBUG) {
-                    Log.v(TAG, String.format("format:size(%d, %d), duration = %d, bps = %d, framerate = %f,rotation = %d",
-                            mVideoWidth, mVideoHeight, mDuration, mBitrate, mFrameRate, mRotation));
+                    Log.v(TAG, "format:size(" + mVideoWidth + "," + mVideoHeight + "), duration=" + mDuration
+                        + ", bps=" + mBitrate + ", framerate=" + mFrameRate + ", rotation=" + mRotation);
                 }
             }
         } catch (final IOException e) {
@@ -639,45 +1233,71 @@ public class MediaMoviePlayer {
     }
 
     /**
-     * @param sourceFile
+     * @param source
      * @return first audio track index, -1 if not found
      */
-    protected int internalPrepareAudio(final String sourceFile) {
+    protected int internalPrepareAudio(final MediaSource source) {
         int trackIndex = -1;
-        mAudioMediaExtractor = new MediaExtractor();
         try {
-            mAudioMediaExtractor.setDataSource(sourceFile);
+            mAudioMediaExtractor = createSampleSource(source);
             trackIndex = selectTrack(mAudioMediaExtractor, "audio/");
             if (trackIndex >= 0) {
                 mAudioMediaExtractor.selectTrack(trackIndex);
                 final MediaFormat format = mAudioMediaExtractor.getTrackFormat(trackIndex);
                 mAudioChannels = format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
                 mAudioSampleRate = format.getInteger(MediaFormat.KEY_SAMPLE_RATE);
-                final int min_buf_size = AudioTrack.getMinBufferSize(mAudioSampleRate,
-                    (mAudioChannels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO),
-                    AudioFormat.ENCODING_PCM_16BIT);
+                // more than 2 channels are mixed down to stereo
+                mAudioOutChannels = Math.min(mAudioChannels, 2);
+                mDownmixGains = mAudioChannels > 2 ? PcmUtils.createDownmixGains(mAudioChannels) : null;
+                final IAudioSink sink = mBackend.createAudioSink();
+                final int min_buf_size = sink.getMinBufferSize(mAudioSampleRate, mAudioOutChannels);
                 final int max_input_size = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
                 mAudioInputBufSize =  min_buf_size > 0 ? min_buf_size * 4 : max_input_size;
                 if (mAudioInputBufSize > max_input_size) mAudioInputBufSize = max_input_size;
                 final int frameSizeInBytes = mAudioChannels * 2;
                 mAudioInputBufSize = (mAudioInputBufSize / frameSizeInBytes) * frameSizeInBytes;
+                mStartupTracer.mark(StartupReport.MARK_AUDIO_EXTRACTOR_READY);
                 if (DEBUG) {
-                    Log.v(TAG, String.format("getMinBufferSize=%d, max_input_size=%d, mAudioInputBufSize = %d",
-                            min_buf_size, max_input_size, mAudioInputBufSize));
+                    Log.v(TAG, "getMinBufferSize=" + min_buf_size + ", max_input_size=" + max_input_size
+                        + ", mAudioInputBufSize=" + mAudioInputBufSize);
                 }
-                mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC,
-                    mAudioSampleRate,
-                    (mAudioChannels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO),
-                    AudioFormat.ENCODING_PCM_16BIT,
-                    mAudioInputBufSize,
-                    AudioTrack.MODE_STREAM);
-                try {
-                    mAudioTrack.play();
-                } catch (final Exception e) {
-                    Log.e(TAG, "failed to start audio track playing", e);
-                    mAudioTrack.release();
-                    mAudioTrack = null;
+                if (mBenchmarkMode) {
+                    // no audio output on benchmark mode
+                    sink.release();
+                    return trackIndex;
+                }
+                final int outBufSize = mLowLatency && (min_buf_size > 0) ? min_buf_size
+                    : mAudioInputBufSize / mAudioChannels * mAudioOutChannels;
+                mResampler = null;
+                mAudioOutSampleRate = mAudioSampleRate;
+                boolean opened = sink.open(mAudioOutSampleRate, mAudioOutChannels, outBufSize);
+                if (!opened) {
+                    // the sample rate is not supported, resample to native output sample rate
+                    mAudioOutSampleRate = sink.getNativeOutputSampleRate();
+                    if (DEBUG) Log.v(TAG, "resample audio from " + mAudioSampleRate + " to " + mAudioOutSampleRate);
+                    opened = sink.open(mAudioOutSampleRate, mAudioOutChannels,
+                        (int)((long)outBufSize * mAudioOutSampleRate / mAudioSampleRate) / 4 * 4);
+                    if (opened) {
+                        mResampler = new PcmUtils.LinearResampler(mAudioOutChannels,
+                            mAudioSampleRate, mAudioOutSampleRate);
+                    }
                 }
+                if (opened) {
+                    mAudioSink = sink;
+                } else {
+                    Log.w(TAG, "failed to open audio sink");
+                    sink.release();
+                }
+                if (mAudioSink != null) {
+                    try {
+                        mAudioSink.play();
+                    } catch (final Exception e) {
+                        Log.e(TAG, "failed to start audio track playing", e);
+                        mAudioSink.release();
+                        mAudioSink = null;
+                    }
+                }
+                mStartupTracer.mark(StartupReport.MARK_AUDIO_TRACK_READY);
             }
         } catch (final IOException e) {
             Log.w(TAG, e);
@@ -685,10 +1305,21 @@ public class MediaMoviePlayer {
         return trackIndex;
     }
 
+    /**
+     * create demuxer for specific source with the backend
+     * @param source
+     * @return
+     * @throws IOException
+     */
+    protected ISampleSource createSampleSource(final MediaSource source) throws IOException {
+        return mBackend.createSampleSource(source);
+    }
+
     protected void updateMovieInfo() {
         mVideoWidth = mVideoHeight = mRotation = mBitrate = 0;
         mDuration = 0;
         mFrameRate = 0;
+        if (mMetadata == null) return;
         String value = mMetadata.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH);
         if (!TextUtils.isEmpty(value)) {
             mVideoWidth = Integer.parseInt(value);
@@ -711,7 +1342,7 @@ public class MediaMoviePlayer {
         }
     }
 
-    private void handleStart() {
+    private void handleStart() throws IOException {
         if (DEBUG) {
             Log.v(TAG, "handleStart:");
         }
@@ -720,31 +1351,72 @@ public class MediaMoviePlayer {
                 throw new RuntimeException("invalid state:" + mState);
             mState = STATE_PLAYING;
         }
+        mStartupTracer.mark(StartupReport.MARK_START_STARTED);
+        mAVSyncMonitor.setFrameRate(mFrameRate);
+        mAVSyncMonitor.setAudioSink(mAudioSink, mAudioOutSampleRate, mAudioOutChannels);
+        if (mResampler != null) {
+            mResampler.reset();
+        }
+        mAVSyncMonitor.reset();
+        mVideoFirstFrameRendered = mAudioFirstWritten = false;
+        updateLoopRange();
+        if (mLooping && (mLoopStartUs > 0) && (mLoopEndUs > 0) && (mRequestTime < 0)) {
+            mRequestTime = mLoopStartUs;
+        }
+        mVideoSeekUs.set(-1);
+        mAudioSeekUs.set(-1);
         if (mRequestTime > 0) {
-            handleSeek(mRequestTime);
+            // the decoders are not started yet, so only the extractors are moved
+            if (mVideoTrackIndex >= 0) {
+                mVideoMediaExtractor.seekTo(mRequestTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            }
+            if (mAudioTrackIndex >= 0) {
+                mAudioMediaExtractor.seekTo(mRequestTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            }
         }
+        mRequestTime = -1;
         previousVideoPresentationTimeUs = previousAudioPresentationTimeUs = -1;
+        mVideoStartTime = mAudioStartTime = CLOCK_NOT_STARTED;
+        mLatencyTracker.reset();
         mVideoInputDone = mVideoOutputDone = true;
+        mAudioInputDone = mAudioOutputDone = true;
         Thread videoThread = null, audioThread = null;
         if (mVideoTrackIndex >= 0) {
-            final MediaCodec codec = internalStartVideo(mVideoMediaExtractor, mVideoTrackIndex);
-            if (codec != null) {
-                mVideoMediaCodec = codec;
-                mVideoBufferInfo = new MediaCodec.BufferInfo();
-                mVideoInputBuffers = codec.getInputBuffers();
-                mVideoOutputBuffers = codec.getOutputBuffers();
+            final IDecoder decoder = internalStartVideo(mVideoMediaExtractor, mVideoTrackIndex);
+            mStartupTracer.mark(StartupReport.MARK_VIDEO_CODEC_STARTED);
+            if (decoder == null) {
+                if (mDecoderCancel.isCancelled()) {
+                    // stop or release was requested while waiting for the decoder, it is handled next
+                    return;
+                }
+                throw new IOException("failed to start video decoder");
             }
+            mVideoDecoder = decoder;
+            mVideoBufferInfo = new MediaCodec.BufferInfo();
             mVideoInputDone = mVideoOutputDone = false;
+            mVideoVisibility = VISIBILITY_VISIBLE;
+            mVideoAudioOnly = false;
+            mVideoInFlight = 0;
+            mVideoInFlightLimit = 1;
+            mVideoLastProgressNs = System.nanoTime();
+            VsyncScheduler scheduler = null;
+            if (mVsyncEnabled && !mLowLatency && !mBenchmarkMode
+                && ((mYuvFrameListener == null) || (mOutputSurface != null))) {
+
+                scheduler = mBackend.createVsyncScheduler();
+                if (scheduler != null) {
+                    scheduler.start();
+                }
+            }
+            mVsyncScheduler = scheduler;
             videoThread = new Thread(mVideoTask, "VideoTask");
         }
-        mAudioInputDone = mAudioOutputDone = true;
         if (mAudioTrackIndex >= 0) {
-            final MediaCodec codec = internalStartAudio(mAudioMediaExtractor, mAudioTrackIndex);
-            if (codec != null) {
-                mAudioMediaCodec = codec;
+            final IDecoder decoder = internalStartAudio(mAudioMediaExtractor, mAudioTrackIndex);
+            mStartupTracer.mark(StartupReport.MARK_AUDIO_CODEC_STARTED);
+            if (decoder != null) {
+                mAudioDecoder = decoder;
                 mAudioBufferInfo = new MediaCodec.BufferInfo();
-                mAudioInputBuffers = codec.getInputBuffers();
-                mAudioOutputBuffers = codec.getOutputBuffers();
             }
             mAudioInputDone = mAudioOutputDone = false;
             audioThread = new Thread(mAudioTask, "AudioTask");
@@ -758,71 +1430,175 @@ public class MediaMoviePlayer {
      * @param trackIndex
      * @return
      */
-    protected MediaCodec internalStartVideo(
-        final MediaExtractor media_extractor, final int trackIndex) {
+    protected IDecoder internalStartVideo(
+        final ISampleSource media_extractor, final int trackIndex) {
 
         if (DEBUG) {
             Log.v(TAG, "internalStartVideo:");
         }
 
-        boolean supportsDolbyVision = false;
-        DisplayManager displayManager =
-                (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
-        mDisplay =
-                (displayManager != null) ? displayManager.getDisplay(DEFAULT_DISPLAY) : null;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            if (mDisplay != null && mDisplay.isHdr()) {
-                int[] supportedHdrTypes = mDisplay.getHdrCapabilities().getSupportedHdrTypes();
-                for (int hdrType : supportedHdrTypes) {
-                    if (hdrType == Display.HdrCapabilities.HDR_TYPE_DOLBY_VISION) {
-                        supportsDolbyVision = true;
-                        break;
-                    }
-                }
-            }
+        if (DEBUG && (mDisplay == null) && (mContext != null)) {
+            // only for logging HDR/SDR ratio
+            final DisplayManager displayManager
+                = (DisplayManager) mContext.getSystemService(Context.DISPLAY_SERVICE);
+            mDisplay = (displayManager != null) ? displayManager.getDisplay(DEFAULT_DISPLAY) : null;
         }
 
-        MediaCodec codec = null;
+        IDecoder decoder = null;
         if (trackIndex >= 0) {
             final MediaFormat format = media_extractor.getTrackFormat(trackIndex);
             final String mime = format.getString(MediaFormat.KEY_MIME);
-            if (Objects.equals(mime, "video/dolby-vision")) {
-                if (!supportsDolbyVision) {
+            if (mLowLatency) {
+                applyLowLatency(format, mFrameRate);
+            }
+            final Surface surface;
+            synchronized (mSurfaceSync) {
+                surface = mOutputSurface;
+                mSurfaceChanged = false;
+            }
+            applyYuvOutput(format, surface);
+            mVideoFormat = format;
+            mVideoOnSurface = surface != null;
+            mVideoDetached = false;
+            final DecoderResourceManager manager = mBackend.getDecoderResourceManager();
+            if (manager != null) {
+                // capabilities of decoders and display are probed only once
+                final CodecSelector selector = CodecSelector.getInstance(mContext);
+                if (Objects.equals(mime, MediaFormat.MIMETYPE_VIDEO_DOLBY_VISION)
+                    && !selector.isDisplayHdrTypeSupported(Display.HdrCapabilities.HDR_TYPE_DOLBY_VISION)) {
+
                     Log.w(TAG, "Current display doesn't support Dolby Vision.");
                 }
+                final int priority;
+                final long maxWaitMs;
+                synchronized (mSync) {
+                    priority = mDecoderPriority;
+                    maxWaitMs = mDecoderMaxWaitMs;
+                }
+                mDecoderGrant = manager.acquire(selector, format, mFrameRate, priority, maxWaitMs, mDecoderCancel);
+                if ((mDecoderGrant == null) && mDecoderCancel.isCancelled()) {
+                    if (DEBUG) Log.v(TAG, "internalStartVideo:cancelled");
+                    return null;
+                }
+                final List<String> codecNames = new ArrayList<String>();
+                if (mDecoderGrant != null) {
+                    codecNames.addAll(mDecoderGrant.getCodecNames());
+                } else {
+                    for (final CodecSelector.Decoder d: selector.getDecoders(format)) {
+                        codecNames.add(d.name);
+                    }
+                }
+                decoder = startVideoDecoder(format, surface, codecNames);
+                if ((decoder == null) && (mDecoderGrant != null)) {
+                    // createDecoderByType would pick the hardware decoder that the grant does not count
+                    Log.w(TAG, "internalStartVideo:failed to start the decoders of " + mDecoderGrant);
+                    releaseDecoderGrant();
+                    return null;
+                }
             }
-            try {
-                assert mime != null;
-                codec = MediaCodec.createDecoderByType(mime);
-                codec.configure(format, mOutputSurface, null, 0);
-                codec.start();
-            } catch (final IOException e) {
-                Log.w(TAG, e);
+            if (decoder == null) {
+                try {
+                    assert mime != null;
+                    decoder = mBackend.createDecoder(mime);
+                    decoder.configure(format, surface);
+                    decoder.start();
+                } catch (final IOException e) {
+                    Log.w(TAG, e);
+                    decoder = null;
+                    releaseDecoderGrant();
+                }
+            }
+            if (decoder != null) {
+                setSurfaceFrameRate(mFrameRate);
             }
             if (DEBUG) {
                 Log.v(TAG, "internalStartVideo:codec started");
             }
         }
-        return codec;
+        return decoder;
     }
 
     /**
-     * @param media_extractor
-     * @param trackIndex
-     * @return
+     * tell the frame rate of the movie to the compositor, so that it can choose
+     * the display refresh rate that shows every frame for same number of vsyncs
+     * @param frameRate 0 to clear
      */
-    protected MediaCodec internalStartAudio(
-        final MediaExtractor media_extractor, final int trackIndex) {
+    private void setSurfaceFrameRate(final float frameRate) {
+        final Surface surface = mOutputSurface;
+        if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) && mVsyncEnabled
+            && (surface != null) && surface.isValid()) {
 
-        if (DEBUG) {
-            Log.v(TAG, "internalStartAudio:");
+            try {
+                surface.setFrameRate(frameRate, Surface.FRAME_RATE_COMPATIBILITY_FIXED_SOURCE);
+            } catch (final IllegalArgumentException | IllegalStateException e) {
+                Log.w(TAG, "setSurfaceFrameRate:", e);
+            }
         }
-        MediaCodec codec = null;
-        int mSessionId;
+    }
 
-        AudioManager audioManager = null;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            audioManager = mContext.getSystemService(AudioManager.class);
+    /**
+     * set low latency keys to the format, each key is ignored by the OS versions/decoders that do not support it
+     * @param format
+     * @param frameRate 0 if KEY_OPERATING_RATE should not be set, e.g. audio
+     */
+    private static void applyLowLatency(final MediaFormat format, final float frameRate) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            format.setInteger(MediaFormat.KEY_LOW_LATENCY, 1);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            format.setInteger(MediaFormat.KEY_PRIORITY, 0);	// realtime
+            if (frameRate > 0) {
+                format.setFloat(MediaFormat.KEY_OPERATING_RATE, frameRate);
+            }
+        }
+    }
+
+    /**
+     * try the decoders in order until one of them is configured and started
+     * @param format
+     * @param surface
+     * @param codecNames
+     * @return null if all of them failed
+     */
+    private IDecoder startVideoDecoder(final MediaFormat format, final Surface surface,
+        final List<String> codecNames) {
+
+        for (final String name: codecNames) {
+            IDecoder decoder = null;
+            try {
+                decoder = mBackend.createDecoderByName(name);
+                decoder.configure(format, surface);
+                decoder.start();
+                if (DEBUG) Log.v(TAG, "startVideoDecoder:" + name);
+                return decoder;
+            } catch (final IOException | IllegalArgumentException | IllegalStateException e) {
+                // MediaCodec.CodecException is IllegalStateException
+                Log.w(TAG, "startVideoDecoder:failed to start " + name, e);
+                if (decoder != null) {
+                    decoder.release();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param media_extractor
+     * @param trackIndex
+     * @return
+     */
+    protected IDecoder internalStartAudio(
+        final ISampleSource media_extractor, final int trackIndex) {
+
+        if (DEBUG) {
+            Log.v(TAG, "internalStartAudio:");
+        }
+        IDecoder decoder = null;
+        int mSessionId;
+
+        AudioManager audioManager = null;
+        if ((mContext != null) && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)) {
+            audioManager = mContext.getSystemService(AudioManager.class);
         }
         mSessionId = 0;
         if (audioManager != null) {
@@ -837,44 +1613,200 @@ public class MediaMoviePlayer {
             final String mime = format.getString(MediaFormat.KEY_MIME);
             try {
                 assert mime != null;
-                codec = MediaCodec.createDecoderByType(mime);
-                codec.configure(format, null, null, 0);
-                if (Build.VERSION.SDK_INT >= 35) {
-                    mLcc.addMediaCodec(codec);
+                decoder = mBackend.createDecoder(mime);
+                if (mLowLatency) {
+                    applyLowLatency(format, 0);
                 }
-                codec.start();
-                if (DEBUG) {
-                    Log.v(TAG, "internalStartAudio:codec started");
+                decoder.configure(format, null);
+                if ((Build.VERSION.SDK_INT >= 35) && (decoder instanceof MediaCodecDecoder)) {
+                    mLcc.addMediaCodec(((MediaCodecDecoder)decoder).getCodec());
                 }
-                //
-                final ByteBuffer[] buffers = codec.getOutputBuffers();
-                int sz = buffers[0].capacity();
-                if (sz <= 0)
-                    sz = mAudioInputBufSize;
+                decoder.start();
                 if (DEBUG) {
-                    Log.v(TAG, "AudioOutputBufSize:" + sz);
+                    Log.v(TAG, "internalStartAudio:codec started");
                 }
-                mAudioOutTempBuf = new byte[sz];
+                // internalWriteAudio expands this if decoded buffer is larger
+                mAudioOutTempBuf = new byte[mAudioInputBufSize];
             } catch (final IOException e) {
                 Log.w(TAG, e);
             }
         }
-        return codec;
+        return decoder;
     }
 
+    /**
+     * extractors and decoders are owned by the video/audio tasks,
+     * so the seek request is handed to them and applied at the top of their loop.
+     * the audio task seeks after the video task to the key frame that video restarts from
+     * @param newTime
+     */
     private void handleSeek(final long newTime) {
-        if (DEBUG) Log.d(TAG, "handleSeek");
+        if (DEBUG) Log.d(TAG, "handleSeek:" + newTime);
         if (newTime < 0) return;
 
-        if (mVideoTrackIndex >= 0) {
-            mVideoMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-            mVideoMediaExtractor.advance();
+        if ((mVideoTrackIndex >= 0) && !(mVideoInputDone && mVideoOutputDone)) {
+            mVideoSeekUs.set(newTime);
+        } else if (mAudioTrackIndex >= 0) {
+            mAudioSeekUs.set(newTime);
+        }
+        wakeUpTasks();
+        mRequestTime = -1;
+    }
+
+    /**
+     * wake up the tasks that are waiting for presentation time
+     */
+    private void wakeUpTasks() {
+        synchronized (mVideoSync) {
+            mVideoSync.notifyAll();
+        }
+        synchronized (mAudioSync) {
+            mAudioSync.notifyAll();
+        }
+    }
+
+    private boolean isSeekRequested() {
+        return (mVideoSeekUs.get() >= 0) || (mAudioSeekUs.get() >= 0);
+    }
+
+    /**
+     * @param sync mVideoSync or mAudioSync
+     * @return true if the task should stop pacing and handle the request at the top of its loop
+     */
+    private boolean isWaitInterrupted(final Object sync) {
+        return isSeekRequested() || ((sync == mVideoSync) && mSurfaceChanged);
+    }
+
+    /**
+     * called from video task, move the extractor to the sync sample and drop the frames in the decoder
+     * @param newTime
+     */
+    private void handleSeekVideo(final long newTime) {
+        if (DEBUG) Log.d(TAG, "handleSeekVideo:" + newTime);
+        mVideoMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        final long sampleTimeUs = mVideoMediaExtractor.getSampleTime();
+        final long keyUs = sampleTimeUs >= 0 ? sampleTimeUs : newTime;
+        if (mVideoDecoder != null) {
+            flushVideoDecoder();
+        }
+        mVideoInputWaiting = false;
+        mVideoLoops = 0;
+        previousVideoPresentationTimeUs = -1;
+        // presentation clock restarts from the key frame now, audio task anchors its clock at same time
+        mVideoStartTime = mClock.nanoTime() / 1000 - keyUs;
+        mAVSyncMonitor.reset();
+        final VsyncScheduler scheduler = mVsyncScheduler;
+        if (scheduler != null) {
+            scheduler.reset();
         }
         if (mAudioTrackIndex >= 0) {
-            mAudioMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-            mAudioMediaExtractor.advance();
+            // audio restarts from the key frame, not from the requested time, to keep A/V in sync
+            mAudioSeekUs.set(keyUs);
+            synchronized (mAudioSync) {
+                mAudioSync.notifyAll();
+            }
         }
-        mRequestTime = -1;
+    }
+
+    /**
+     * called from audio task, drop the samples in the decoder and the audio sink
+     * @param newTime
+     */
+    private void handleSeekAudio(final long newTime) {
+        if (DEBUG) Log.d(TAG, "handleSeekAudio:" + newTime);
+        mAudioMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        if (mAudioDecoder != null) {
+            mAudioDecoder.flush();
+        }
+        if (mAudioSink != null) {
+            mAudioSink.flush();
+        }
+        mAVSyncMonitor.onAudioFlushed();
+        if (mResampler != null) {
+            mResampler.reset();
+        }
+        mAudioInputWaiting = false;
+        mAudioLoops = 0;
+        mAudioWrittenEndUs = -1;
+        previousAudioPresentationTimeUs = -1;
+        mAudioStartTime = mClock.nanoTime() / 1000 - newTime;
+    }
+
+    /**
+     * apply the range of #setLoopRange to current playback, called before the tasks start
+     */
+    private void updateLoopRange() {
+        long startUs, endUs;
+        synchronized (mSync) {
+            startUs = mLoopRangeStartUs;
+            endUs = mLoopRangeEndUs;
+        }
+        if ((endUs <= 0) || ((mDuration > 0) && (endUs > mDuration))) {
+            endUs = mDuration;
+        }
+        if (endUs <= startUs) {
+            if (mLooping) Log.w(TAG, "invalid loop range:" + startUs + "-" + endUs);
+            startUs = endUs = 0;
+        }
+        mLoopStartUs = startUs;
+        mLoopEndUs = endUs;
+        mVideoLoops = mAudioLoops = 0;
+        mAudioWrittenEndUs = -1;
+    }
+
+    /**
+     * rewind the input to the key frame of the loop start without flushing the decoder,
+     * the samples before the end of the loop are still decoded and shown
+     * @param extractor
+     * @param isAudio
+     * @return false if the input should be finished
+     */
+    private boolean rewindLoop(final ISampleSource extractor, final boolean isAudio) {
+        if (!mLooping || (mLoopEndUs <= 0)
+            || ((isAudio ? mAudioTailWatcher : mVideoTailWatcher) != null)) {
+            return false;
+        }
+        extractor.seekTo(mLoopStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        final long keyUs = extractor.getSampleTime();
+        if ((keyUs < 0) || (keyUs >= mLoopEndUs)) {
+            return false;
+        }
+        if (isAudio) {
+            mAudioLoopKeyUs = keyUs;
+            mAudioLoops++;
+        } else {
+            mVideoLoopKeyUs = keyUs;
+            mVideoLoops++;
+        }
+        if (DEBUG) Log.v(TAG, "rewindLoop:" + (isAudio ? "audio" : "video") + ",key=" + keyUs);
+        return true;
+    }
+
+    /**
+     * loop n is queued to the decoder from its key frame to the loop end
+     * and offset by n times of this period, so timestamps in the decoder never go back
+     * @param keyUs
+     */
+    private long getLoopPeriodUs(final long keyUs) {
+        return mLoopEndUs - keyUs;
+    }
+
+    /**
+     * @param decoderTimeUs timestamp that the sample was queued to the decoder with
+     * @param keyUs
+     * @return number of loops before the sample
+     */
+    private long getLoopIndex(final long decoderTimeUs, final long keyUs) {
+        return decoderTimeUs < mLoopEndUs ? 0 : (decoderTimeUs - keyUs) / getLoopPeriodUs(keyUs);
+    }
+
+    /**
+     * @param sampleTimeUs sample time in the movie
+     * @param loop
+     * @return time on the presentation clock that continues over the loops
+     */
+    private long toLoopPresentationTimeUs(final long sampleTimeUs, final long loop) {
+        return sampleTimeUs + loop * (mLoopEndUs - mLoopStartUs);
     }
 
     private void handleLoop(final IFrameCallback frameCallback) throws IOException {
@@ -896,24 +1828,36 @@ public class MediaMoviePlayer {
     /**
      * @param codec
      * @param extractor
-     * @param inputBuffers
      * @param presentationTimeUs
      * @param isAudio
      */
-    protected boolean internalProcessInput(final MediaCodec codec,
-        final MediaExtractor extractor, final ByteBuffer[] inputBuffers,
+    protected boolean internalProcessInput(final IDecoder codec,
+        final ISampleSource extractor,
         final long presentationTimeUs, final boolean isAudio) {
 
 //		if (DEBUG) Log.v(TAG, "internalProcessInput:presentationTimeUs=" + presentationTimeUs);
         boolean result = true;
         while (mIsRunning) {
+            final long startNs = System.nanoTime();
             final int inputBufIndex = codec.dequeueInputBuffer(TIMEOUT_USEC);
-            if (inputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER)
+            if (inputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mBenchmarkMode) {
+                    (isAudio ? mAudioBenchmark : mVideoBenchmark).onInputStall(System.nanoTime() - startNs);
+                }
                 break;
+            }
             if (inputBufIndex >= 0) {
-                final int size = extractor.readSampleData(inputBuffers[inputBufIndex], 0);
+                final long demuxNs = System.nanoTime();
+                final int size = extractor.readSampleData(codec.getInputBuffer(inputBufIndex), 0);
                 if (size > 0) {
                     codec.queueInputBuffer(inputBufIndex, 0, size, presentationTimeUs, 0);
+                    if (!isAudio) {
+                        mVideoInFlight++;
+                    }
+                    MediaTrace.beginAsyncSection(isAudio ? TRACE_AUDIO_FRAME : TRACE_VIDEO_FRAME,
+                        presentationTimeUs);
+                    mLatencyTracker.onQueued(isAudio ? PipelineLatencyTracker.TRACK_AUDIO
+                        : PipelineLatencyTracker.TRACK_VIDEO, presentationTimeUs, demuxNs, System.nanoTime());
                 }
                 result = extractor.advance();	// return false if no data is available
                 break;
@@ -923,67 +1867,396 @@ public class MediaMoviePlayer {
     }
 
     private void handleInputVideo() {
-        final long presentationTimeUs = mVideoMediaExtractor.getSampleTime();
+        if (mVideoInputWaiting) {
+            // tail follow mode, wait for next fragment
+            final int state = pollTail(mVideoMediaExtractor, mVideoTailWatcher);
+            if (state == TAIL_WAITING) return;
+            mVideoInputWaiting = false;
+            if (state == TAIL_FINISHED) {
+                signalVideoEndOfStream();
+                return;
+            }
+        }
+        if (mLowLatency && (mVideoInFlight >= mVideoInFlightLimit)) {
+            // wait for output to keep queue of decoder minimum
+            final long now = System.nanoTime();
+            if ((now - mVideoLastProgressNs > LOW_LATENCY_STALL_NS)
+                && (mVideoInFlightLimit < LOW_LATENCY_MAX_IN_FLIGHT)) {
+                // the decoder needs more samples before output, e.g. frame reordering
+                mVideoInFlightLimit++;
+                mVideoLastProgressNs = now;
+                if (DEBUG) Log.v(TAG, "handleInputVideo:in-flight limit=" + mVideoInFlightLimit);
+            }
+            return;
+        }
+        if ((mVisibility == VISIBILITY_THUMBNAIL) && !skipToKeyFrame(mVideoMediaExtractor)) {
+            if (!rewindLoop(mVideoMediaExtractor, false)) {
+                signalVideoEndOfStream();
+            }
+            return;
+        }
+        long presentationTimeUs = mVideoMediaExtractor.getSampleTime();
+        if ((mLoopEndUs > 0) && (presentationTimeUs >= mLoopEndUs) && (mLooping || (mVideoLoops > 0))) {
+            if (!rewindLoop(mVideoMediaExtractor, false)) {
+                signalVideoEndOfStream();
+                return;
+            }
+            presentationTimeUs = mVideoMediaExtractor.getSampleTime();
+        }
+        if (mVideoLoops > 0) {
+            presentationTimeUs += mVideoLoops * getLoopPeriodUs(mVideoLoopKeyUs);
+        }
 /*		if (presentationTimeUs < previousVideoPresentationTimeUs) {
             presentationTimeUs += previousVideoPresentationTimeUs - presentationTimeUs; // + EPS;
         }
         previousVideoPresentationTimeUs = presentationTimeUs; */
-        final boolean b = internalProcessInput(mVideoMediaCodec, mVideoMediaExtractor, mVideoInputBuffers,
+        final boolean b = internalProcessInput(mVideoDecoder, mVideoMediaExtractor,
                 presentationTimeUs, false);
         if (!b) {
-            if (DEBUG) Log.i(TAG, "video track input reached EOS");
-            while (mIsRunning) {
-                final int inputBufIndex = mVideoMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
-                if (inputBufIndex >= 0) {
-                    mVideoMediaCodec.queueInputBuffer(inputBufIndex, 0, 0, 0L,
-                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    if (DEBUG) Log.v(TAG, "sent input EOS:" + mVideoMediaCodec);
-                    break;
+            if (mVideoTailWatcher != null) {
+                if (DEBUG) Log.v(TAG, "video track input reached the end of written data");
+                mVideoInputWaiting = true;
+                return;
+            }
+            if (!rewindLoop(mVideoMediaExtractor, false)) {
+                signalVideoEndOfStream();
+            }
+        }
+    }
+
+    /**
+     * move to next key frame if current sample is not a key frame
+     * @param extractor
+     * @return false if there is no more key frame
+     */
+    private static boolean skipToKeyFrame(final ISampleSource extractor) {
+        final long ptsUs = extractor.getSampleTime();
+        if ((ptsUs < 0) || ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0)) {
+            return true;
+        }
+        // seek strictly after current sample
+        extractor.seekTo(ptsUs + 1, MediaExtractor.SEEK_TO_NEXT_SYNC);
+        return (extractor.getSampleTime() > ptsUs)
+            && ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0);
+    }
+
+    /**
+     * called from video task when visibility changed.
+     * while hidden or thumbnail, the decoder does not follow the presentation clock frame by frame,
+     * so frames in the decoder are dropped and video restarts from next key frame
+     * of current presentation time when the player becomes visible
+     * @param visibility
+     */
+    private void handleVideoVisibility(final int visibility) {
+        if (DEBUG) Log.v(TAG, "handleVideoVisibility:" + mVideoVisibility + "=>" + visibility);
+        final int prev = mVideoVisibility;
+        mVideoVisibility = visibility;
+        if ((visibility != VISIBILITY_VISIBLE) && (mVideoStartTime == CLOCK_NOT_STARTED)) {
+            // no frame was rendered yet, start presentation clock from current sample
+            mVideoStartTime = mClock.nanoTime() / 1000 - Math.max(mVideoMediaExtractor.getSampleTime(), 0);
+        }
+        if ((prev == VISIBILITY_HIDDEN)
+            || ((prev == VISIBILITY_THUMBNAIL) && (visibility == VISIBILITY_VISIBLE))) {
+
+            resyncVideo();
+        }
+    }
+
+    /**
+     * drop frames in the video decoder and restart video from the next key frame of current presentation time
+     */
+    private void resyncVideo() {
+        long positionUs = mClock.nanoTime() / 1000 - mVideoStartTime;
+        if ((mLoopEndUs > 0) && ((mLooping && (positionUs >= mLoopEndUs)) || (mVideoLoops > 0))) {
+            // the presentation clock may be in another loop than the input while video was suspended
+            final long loop = positionUs < mLoopEndUs ? 0
+                : (positionUs - mLoopStartUs) / (mLoopEndUs - mLoopStartUs);
+            positionUs -= loop * (mLoopEndUs - mLoopStartUs);
+            if ((loop > 0) && (mVideoLoops == 0)) {
+                mVideoMediaExtractor.seekTo(mLoopStartUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                mVideoLoopKeyUs = Math.max(mVideoMediaExtractor.getSampleTime(), 0);
+            }
+            mVideoLoops = (int)loop;
+        }
+        mVideoMediaExtractor.seekTo(positionUs, MediaExtractor.SEEK_TO_NEXT_SYNC);
+        flushVideoDecoder();
+        mVideoInputWaiting = false;
+        mAVSyncMonitor.reset();
+    }
+
+    /**
+     * drop the samples in the video decoder, they never come out so in-flight count restarts from 0
+     */
+    private void flushVideoDecoder() {
+        mVideoDecoder.flush();
+        mVideoInFlight = 0;
+    }
+
+    /**
+     * called from video task when output surface was changed with #setOutputSurface
+     * @throws IOException
+     */
+    private void handleOutputSurface() throws IOException {
+        final Surface surface = mOutputSurface;
+        if (DEBUG) Log.v(TAG, "handleOutputSurface:" + surface);
+        try {
+            boolean switched;
+            try {
+                switched = mVideoDecoder.setOutputSurface(surface);
+            } catch (final IllegalArgumentException e) {
+                Log.w(TAG, "handleOutputSurface:", e);
+                switched = false;
+            }
+            if (!switched) {
+                // reconfigure, frames in the decoder are lost
+                if (mVideoStartTime == CLOCK_NOT_STARTED) {
+                    mVideoStartTime = mClock.nanoTime() / 1000 - Math.max(mVideoMediaExtractor.getSampleTime(), 0);
+                }
+                mVideoDecoder.stop();
+                applyYuvOutput(mVideoFormat, surface);
+                mVideoDecoder.configure(mVideoFormat, surface);
+                mVideoDecoder.start();
+                mVideoOnSurface = surface != null;
+                resyncVideo();
+            }
+            mVideoDetached = (surface == null) && mVideoOnSurface;
+            setSurfaceFrameRate(mFrameRate);
+        } finally {
+            synchronized (mSurfaceSync) {
+                if (surface == mOutputSurface) {
+                    mSurfaceChanged = false;
                 }
+                mSurfaceSync.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * called from video task when audio only mode was changed.
+     * the video decoder is released on audio only mode and started again when it is disabled
+     * @param audioOnly
+     * @throws IOException
+     */
+    private void handleAudioOnly(final boolean audioOnly) throws IOException {
+        if (DEBUG) Log.v(TAG, "handleAudioOnly:" + audioOnly);
+        if (audioOnly) {
+            if (mVideoStartTime == CLOCK_NOT_STARTED) {
+                // no frame was rendered yet, start presentation clock from current sample
+                mVideoStartTime = mClock.nanoTime() / 1000 - Math.max(mVideoMediaExtractor.getSampleTime(), 0);
+            }
+            final IDecoder decoder = mVideoDecoder;
+            synchronized (mSurfaceSync) {
+                // output surface is applied when the decoder is started again
+                mVideoDecoder = null;
+                mSurfaceChanged = false;
+                mSurfaceSync.notifyAll();
+            }
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            releaseDecoderGrant();
+            if (mVsyncScheduler != null) {
+                mVsyncScheduler.stop();
+            }
+            mVideoInFlight = 0;
+            mVideoAudioOnly = true;
+        } else {
+            final IDecoder decoder = internalStartVideo(mVideoMediaExtractor, mVideoTrackIndex);
+            if (decoder == null) {
+                throw new IOException("failed to restart video decoder");
             }
+            synchronized (mSurfaceSync) {
+                mVideoDecoder = decoder;
+            }
+            mVideoInFlightLimit = 1;
+            mVideoLastProgressNs = System.nanoTime();
+            mVideoAudioOnly = false;
+            // frames before next key frame can not be decoded by new decoder
+            resyncVideo();
+            if (mVsyncScheduler != null) {
+                mVsyncScheduler.start();
+            }
+        }
+    }
+
+    /**
+     * called from video task while hidden or on audio only mode, this does not feed the decoder
+     * and waits until video is resumed or the presentation clock reaches end of movie
+     */
+    private void waitWhileHidden() {
+        if ((mDuration > 0) && !(mLooping && (mLoopEndUs > 0))
+            && (mClock.nanoTime() / 1000 - mVideoStartTime >= mDuration)) {
+            if (DEBUG) Log.v(TAG, "waitWhileHidden:reached end of movie");
             synchronized (mVideoTask) {
-                mVideoInputDone = true;
+                mVideoInputDone = mVideoOutputDone = true;
                 mVideoTask.notifyAll();
             }
+            return;
+        }
+        synchronized (mVideoSync) {
+            if ((mVisibility == VISIBILITY_HIDDEN) || mAudioOnly) {
+                try {
+                    mClock.waitOn(mVideoSync, HIDDEN_POLL_US * 1000);
+                } catch (final InterruptedException e) {
+                    // ignore
+                }
+            }
         }
     }
+
+    private void signalVideoEndOfStream() {
+        if (DEBUG) Log.i(TAG, "video track input reached EOS");
+        while (mIsRunning) {
+            final int inputBufIndex = mVideoDecoder.dequeueInputBuffer(TIMEOUT_USEC);
+            if (inputBufIndex >= 0) {
+                mVideoDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0L,
+                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                if (DEBUG) Log.v(TAG, "sent input EOS:" + mVideoDecoder);
+                break;
+            }
+        }
+        synchronized (mVideoTask) {
+            mVideoInputDone = true;
+            mVideoTask.notifyAll();
+        }
+    }
+
+    private static final int TAIL_AVAILABLE = 0;
+    private static final int TAIL_WAITING = 1;
+    private static final int TAIL_FINISHED = 2;
+
+    /**
+     * check whether next fragment was appended to the movie on tail follow mode.
+     * this waits at most backoff interval of GrowingFileWatcher,
+     * so the caller can keep draining decoded output while waiting
+     * @param source
+     * @param watcher
+     * @return TAIL_XXX
+     */
+    private int pollTail(final ISampleSource source, final GrowingFileWatcher watcher) {
+        final FragmentedMp4Extractor extractor = (FragmentedMp4Extractor)source;
+        if (extractor.poll()) {
+            return TAIL_AVAILABLE;
+        }
+        if (watcher.await()) {
+            return extractor.poll() ? TAIL_AVAILABLE : TAIL_WAITING;
+        }
+        return extractor.poll() ? TAIL_AVAILABLE : TAIL_FINISHED;
+    }
+
     /**
      * @param frameCallback
      */
     private void handleOutputVideo(final IFrameCallback frameCallback) {
 //    	if (DEBUG) Log.v(TAG, "handleDrainVideo:");
-        while (mIsRunning && !mVideoOutputDone) {
-            final int decoderStatus = mVideoMediaCodec.dequeueOutputBuffer(mVideoBufferInfo, TIMEOUT_USEC);
+        // return to the task loop as soon as output surface is changed, #setOutputSurface is waiting
+        while (mIsRunning && !mVideoOutputDone && !mSurfaceChanged) {
+            final long startNs = System.nanoTime();
+            final int decoderStatus = mVideoDecoder.dequeueOutputBuffer(mVideoBufferInfo, TIMEOUT_USEC);
             if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mBenchmarkMode) {
+                    mVideoBenchmark.onOutputStall(System.nanoTime() - startNs);
+                }
                 return;
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                mVideoOutputBuffers = mVideoMediaCodec.getOutputBuffers();
+                // output buffers are retrieved by index
                 if (DEBUG) Log.d(TAG, "INFO_OUTPUT_BUFFERS_CHANGED:");
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                final MediaFormat newFormat = mVideoMediaCodec.getOutputFormat();
-                if (DEBUG) Log.d(TAG, "video decoder output format changed: " + newFormat);
+                if (DEBUG) Log.d(TAG, "video decoder output format changed: " + mVideoDecoder.getOutputFormat());
+                if ((mYuvFrameListener != null) && !mVideoOnSurface) {
+                    mYuvLayout.update(mVideoDecoder.getOutputFormat());
+                    if (DEBUG && !mYuvLayout.isSupported()) {
+                        Log.v(TAG, "frames are read from output image, color format:" + mYuvLayout.getColorFormat());
+                    }
+                }
             } else if (decoderStatus < 0) {
                 throw new RuntimeException(
                     "unexpected result from video decoder.dequeueOutputBuffer: " + decoderStatus);
             } else { // decoderStatus >= 0
+                final long outputNs = System.nanoTime();
+                mLatencyTracker.onOutput(PipelineLatencyTracker.TRACK_VIDEO,
+                    mVideoBufferInfo.presentationTimeUs, outputNs);
+                if (mVideoInFlight > 0) {
+                    mVideoInFlight--;
+                }
+                mVideoLastProgressNs = outputNs;
+                long ptsUs = mVideoBufferInfo.presentationTimeUs;
+                boolean preroll = false;
+                if (mVideoLoops > 0) {
+                    final long loop = getLoopIndex(ptsUs, mVideoLoopKeyUs);
+                    final long sampleTimeUs = ptsUs - loop * getLoopPeriodUs(mVideoLoopKeyUs);
+                    // frames from the key frame to the loop start are decoded to refer but not shown
+                    preroll = (loop > 0) && (sampleTimeUs < mLoopStartUs);
+                    ptsUs = toLoopPresentationTimeUs(sampleTimeUs, loop);
+                }
                 boolean doRender = false;
-                if (mVideoBufferInfo.size > 0) {
-                    doRender = !internalWriteVideo(mVideoOutputBuffers[decoderStatus],
-                            0, mVideoBufferInfo.size, mVideoBufferInfo.presentationTimeUs);
-                    if (doRender) {
-                        if (!frameCallback.onFrameAvailable(mVideoBufferInfo.presentationTimeUs))
-                            mVideoStartTime = adjustPresentationTime(mVideoSync, mVideoStartTime, mVideoBufferInfo.presentationTimeUs);
+                long renderNs = -1;
+                if (mBenchmarkMode) {
+                    if (mVideoBufferInfo.size > 0) {
+                        mVideoBenchmark.onFrameDecoded();
+                    }
+                } else if ((mVideoBufferInfo.size > 0) && !preroll) {
+                    if ((mYuvFrameListener != null) && !mVideoOnSurface && !mYuvLayout.isSupported()) {
+                        doRender = !internalWriteVideo(mVideoDecoder.getOutputImage(decoderStatus), ptsUs);
+                    } else {
+                        doRender = !internalWriteVideo(mVideoDecoder.getOutputBuffer(decoderStatus),
+                                mVideoBufferInfo.offset, mVideoBufferInfo.size, ptsUs);
+                    }
+                    if (doRender && !frameCallback.onFrameAvailable(ptsUs)) {
+                        if (mVsyncScheduler != null) {
+                            renderNs = waitVsync(mVsyncScheduler, ptsUs);
+                        } else if (!mLowLatency) {
+                            mVideoStartTime = adjustPresentationTime(mVideoSync, mVideoStartTime, ptsUs);
+                        }
                     }
                 }
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) {
-                    assert mDisplay != null;
-                    float ratio = mDisplay.getHdrSdrRatio();
-                    Log.i(TAG, "Current HDR/SDR ratio is " + ratio);
-
+                if (DEBUG && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.UPSIDE_DOWN_CAKE) && (mDisplay != null)) {
+                    // log only when changed, string concatenation on every frame causes GC
+                    final float ratio = mDisplay.getHdrSdrRatio();
+                    if (ratio != mHdrSdrRatio) {
+                        mHdrSdrRatio = ratio;
+                        Log.v(TAG, "HDR/SDR ratio changed:" + ratio);
+                    }
+                }
+                if (mVideoDetached) {
+                    // paced but not shown, keeps decoding position until next surface is set
+                    doRender = false;
+                    renderNs = -1;
+                }
+                if (mVideoSeekUs.get() >= 0) {
+                    // pacing was interrupted by seeking, this frame is flushed soon
+                    doRender = false;
+                    renderNs = -1;
+                }
+                if (renderNs >= 0) {
+                    mVideoDecoder.releaseOutputBuffer(decoderStatus, renderNs);
+                } else {
+                    mVideoDecoder.releaseOutputBuffer(decoderStatus, doRender);
+                }
+                MediaTrace.endAsyncSection(TRACE_VIDEO_FRAME, mVideoBufferInfo.presentationTimeUs);
+                if (doRender) {
+                    mLatencyTracker.onRendered(PipelineLatencyTracker.TRACK_VIDEO,
+                        mVideoBufferInfo.presentationTimeUs, System.nanoTime());
+                    if (renderNs >= 0) {
+                        mAVSyncMonitor.onVideoRendered(ptsUs, renderNs);
+                    } else {
+                        mAVSyncMonitor.onVideoRendered(ptsUs);
+                    }
+                    if (!mVideoFirstFrameRendered) {
+                        mVideoFirstFrameRendered = true;
+                        mStartupTracer.mark(StartupReport.MARK_FIRST_VIDEO_FRAME);
+                        notifyStartupReport();
+                    }
+                } else {
+                    mLatencyTracker.onDropped(PipelineLatencyTracker.TRACK_VIDEO,
+                        mVideoBufferInfo.presentationTimeUs);
                 }
-                mVideoMediaCodec.releaseOutputBuffer(decoderStatus, doRender);
                 if ((mVideoBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
                     if (DEBUG) Log.d(TAG, "video:output EOS");
+                    if (mBenchmarkMode) {
+                        mVideoBenchmark.finish();
+                    }
                     synchronized (mVideoTask) {
                         mVideoOutputDone = true;
                         mVideoTask.notifyAll();
@@ -994,7 +2267,8 @@ public class MediaMoviePlayer {
     }
 
     /**
-     * @param buffer
+     * deliver decoded frame to IYuvFrameListener on surface-less decoding
+     * @param buffer null or undefined content if output surface was set
      * @param offset
      * @param size
      * @param presentationTimeUs
@@ -1004,60 +2278,194 @@ public class MediaMoviePlayer {
         final int offset, final int size, final long presentationTimeUs) {
 
 //		if (DEBUG) Log.v(TAG, "internalWriteVideo");
+        final IYuvFrameListener listener = mYuvFrameListener;
+        final YuvFramePool pool = mYuvFramePool;
+        if ((listener != null) && (pool != null) && (buffer != null)
+            && !mVideoOnSurface && mYuvLayout.isSupported()) {
+
+            final YuvFrame frame = pool.obtain(mYuvLayout.getWidth(), mYuvLayout.getHeight());
+            if (frame != null) {
+                mYuvLayout.copy(buffer, offset, frame);
+                frame.setPresentationTimeUs(presentationTimeUs);
+                listener.onYuvFrame(frame);
+            }
+        }
         return false;
     }
 
+    /**
+     * deliver decoded frame to IYuvFrameListener when the color format of the output buffer is not known,
+     * e.g. flexible or vendor specific(tiled) formats
+     * @param image null if the decoder can not output image, the frame is not delivered
+     * @param presentationTimeUs
+     * @return if return false, automatically adjust frame rate
+     */
+    protected boolean internalWriteVideo(@Nullable final Image image, final long presentationTimeUs) {
+        final IYuvFrameListener listener = mYuvFrameListener;
+        final YuvFramePool pool = mYuvFramePool;
+        if (image == null) return false;
+        try {
+            if ((listener != null) && (pool != null)) {
+                final Rect crop = image.getCropRect();
+                final YuvFrame frame = pool.obtain(crop.width(), crop.height());
+                if (frame != null) {
+                    mYuvLayout.copy(image, frame);
+                    frame.setPresentationTimeUs(presentationTimeUs);
+                    listener.onYuvFrame(frame);
+                }
+            }
+        } finally {
+            image.close();
+        }
+        return false;
+    }
+
+    /**
+     * request flexible YUV420 output on surface-less decoding, so that the decoder can output
+     * frames as Image even if its native color format is vendor specific
+     * @param format format to configure the video decoder
+     * @param surface
+     */
+    private void applyYuvOutput(final MediaFormat format, final Surface surface) {
+        if ((surface == null) && (mYuvFrameListener != null)) {
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+        } else if (format.containsKey(MediaFormat.KEY_COLOR_FORMAT)
+            && (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q)) {
+
+            format.removeKey(MediaFormat.KEY_COLOR_FORMAT);
+        }
+    }
+
     private void handleInputAudio() {
-        final long presentationTimeUs = mAudioMediaExtractor.getSampleTime();
+        if (mAudioInputWaiting) {
+            // tail follow mode, wait for next fragment
+            final int state = pollTail(mAudioMediaExtractor, mAudioTailWatcher);
+            if (state == TAIL_WAITING) return;
+            mAudioInputWaiting = false;
+            if (state == TAIL_FINISHED) {
+                signalAudioEndOfStream();
+                return;
+            }
+        }
+        long presentationTimeUs = mAudioMediaExtractor.getSampleTime();
+        if ((mLoopEndUs > 0) && (presentationTimeUs >= mLoopEndUs) && (mLooping || (mAudioLoops > 0))) {
+            if (!rewindLoop(mAudioMediaExtractor, true)) {
+                signalAudioEndOfStream();
+                return;
+            }
+            presentationTimeUs = mAudioMediaExtractor.getSampleTime();
+        }
+        if (mAudioLoops > 0) {
+            presentationTimeUs += mAudioLoops * getLoopPeriodUs(mAudioLoopKeyUs);
+        }
 /*		if (presentationTimeUs < previousAudioPresentationTimeUs) {
             presentationTimeUs += previousAudioPresentationTimeUs - presentationTimeUs; //  + EPS;
         }
         previousAudioPresentationTimeUs = presentationTimeUs; */
-        final boolean b = internalProcessInput(mAudioMediaCodec, mAudioMediaExtractor, mAudioInputBuffers,
+        final boolean b = internalProcessInput(mAudioDecoder, mAudioMediaExtractor,
                 presentationTimeUs, true);
         if (!b) {
-            if (DEBUG) Log.i(TAG, "audio track input reached EOS");
-            while (mIsRunning) {
-                final int inputBufIndex = mAudioMediaCodec.dequeueInputBuffer(TIMEOUT_USEC);
-                if (inputBufIndex >= 0) {
-                    mAudioMediaCodec.queueInputBuffer(inputBufIndex, 0, 0, 0L,
-                        MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                    if (DEBUG) Log.v(TAG, "sent input EOS:" + mAudioMediaCodec);
-                    break;
-                }
+            if (mAudioTailWatcher != null) {
+                if (DEBUG) Log.v(TAG, "audio track input reached the end of written data");
+                mAudioInputWaiting = true;
+                return;
             }
-            synchronized (mAudioTask) {
-                mAudioInputDone = true;
-                mAudioTask.notifyAll();
+            if (!rewindLoop(mAudioMediaExtractor, true)) {
+                signalAudioEndOfStream();
+            }
+        }
+    }
+
+    private void signalAudioEndOfStream() {
+        if (DEBUG) Log.i(TAG, "audio track input reached EOS");
+        while (mIsRunning) {
+            final int inputBufIndex = mAudioDecoder.dequeueInputBuffer(TIMEOUT_USEC);
+            if (inputBufIndex >= 0) {
+                mAudioDecoder.queueInputBuffer(inputBufIndex, 0, 0, 0L,
+                    MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                if (DEBUG) Log.v(TAG, "sent input EOS:" + mAudioDecoder);
+                break;
             }
-       }
+        }
+        synchronized (mAudioTask) {
+            mAudioInputDone = true;
+            mAudioTask.notifyAll();
+        }
     }
 
     private final void handleOutputAudio(final IFrameCallback frameCallback) {
 //		if (DEBUG) Log.v(TAG, "handleDrainAudio:");
         while (mIsRunning && !mAudioOutputDone) {
-            final int decoderStatus = mAudioMediaCodec.dequeueOutputBuffer(mAudioBufferInfo, TIMEOUT_USEC);
+            final long startNs = System.nanoTime();
+            final int decoderStatus = mAudioDecoder.dequeueOutputBuffer(mAudioBufferInfo, TIMEOUT_USEC);
             if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mBenchmarkMode) {
+                    mAudioBenchmark.onOutputStall(System.nanoTime() - startNs);
+                }
                 return;
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                mAudioOutputBuffers = mAudioMediaCodec.getOutputBuffers();
+                // output buffers are retrieved by index
                 if (DEBUG) Log.d(TAG, "INFO_OUTPUT_BUFFERS_CHANGED:");
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                final MediaFormat newFormat = mAudioMediaCodec.getOutputFormat();
-                if (DEBUG) Log.d(TAG, "audio decoder output format changed: " + newFormat);
+                if (DEBUG) Log.d(TAG, "audio decoder output format changed: " + mAudioDecoder.getOutputFormat());
             } else if (decoderStatus < 0) {
                 throw new RuntimeException(
                     "unexpected result from audio decoder.dequeueOutputBuffer: " + decoderStatus);
             } else { // decoderStatus >= 0
-                if (mAudioBufferInfo.size > 0) {
-                    internalWriteAudio(mAudioOutputBuffers[decoderStatus],
-                        0, mAudioBufferInfo.size, mAudioBufferInfo.presentationTimeUs);
-                    if (!frameCallback.onFrameAvailable(mAudioBufferInfo.presentationTimeUs))
-                        mAudioStartTime = adjustPresentationTime(mAudioSync, mAudioStartTime, mAudioBufferInfo.presentationTimeUs);
+                mLatencyTracker.onOutput(PipelineLatencyTracker.TRACK_AUDIO,
+                    mAudioBufferInfo.presentationTimeUs, System.nanoTime());
+                if (mBenchmarkMode) {
+                    if (mAudioBufferInfo.size > 0) {
+                        mAudioBenchmark.onFrameDecoded();
+                    }
+                } else if (mAudioBufferInfo.size > 0) {
+                    long ptsUs = mAudioBufferInfo.presentationTimeUs;
+                    int offset = 0, size = mAudioBufferInfo.size;
+                    if (mAudioLoops > 0) {
+                        // trim the samples that cross the loop start/end, so that each loop has same length
+                        final long loop = getLoopIndex(ptsUs, mAudioLoopKeyUs);
+                        long sampleTimeUs = ptsUs - loop * getLoopPeriodUs(mAudioLoopKeyUs);
+                        if (sampleTimeUs + audioBytesToUs(size) > mLoopEndUs) {
+                            size = Math.max(usToAudioBytes(mLoopEndUs - sampleTimeUs), 0);
+                        }
+                        if ((loop > 0) && (sampleTimeUs < mLoopStartUs)) {
+                            offset = Math.min(usToAudioBytes(mLoopStartUs - sampleTimeUs), size);
+                            sampleTimeUs = mLoopStartUs;
+                        }
+                        ptsUs = toLoopPresentationTimeUs(sampleTimeUs, loop);
+                        if (size > offset) {
+                            if (mAudioWrittenEndUs >= 0) {
+                                // audio track may be shorter than the loop, fill the gap not to drift
+                                writeSilence(mAudioWrittenEndUs, ptsUs - mAudioWrittenEndUs);
+                            }
+                            mAudioWrittenEndUs = ptsUs + audioBytesToUs(size - offset);
+                        }
+                    }
+                    if (size > offset) {
+                        internalWriteAudio(mAudioDecoder.getOutputBuffer(decoderStatus),
+                            offset, size - offset, ptsUs);
+                    }
+                    mLatencyTracker.onRendered(PipelineLatencyTracker.TRACK_AUDIO,
+                        mAudioBufferInfo.presentationTimeUs, System.nanoTime());
+                    if (!mAudioFirstWritten) {
+                        mAudioFirstWritten = true;
+                        mStartupTracer.mark(StartupReport.MARK_FIRST_AUDIO_WRITE);
+                        notifyStartupReport();
+                    }
+                    if (!frameCallback.onFrameAvailable(ptsUs) && !mLowLatency)
+                        mAudioStartTime = adjustPresentationTime(mAudioSync, mAudioStartTime, ptsUs);
+                } else {
+                    mLatencyTracker.onDropped(PipelineLatencyTracker.TRACK_AUDIO,
+                        mAudioBufferInfo.presentationTimeUs);
                 }
-                mAudioMediaCodec.releaseOutputBuffer(decoderStatus, false);
+                mAudioDecoder.releaseOutputBuffer(decoderStatus, false);
+                MediaTrace.endAsyncSection(TRACE_AUDIO_FRAME, mAudioBufferInfo.presentationTimeUs);
                 if ((mAudioBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
                     if (DEBUG) Log.d(TAG, "audio:output EOS");
+                    if (mBenchmarkMode) {
+                        mAudioBenchmark.finish();
+                    }
                     synchronized (mAudioTask) {
                         mAudioOutputDone = true;
                         mAudioTask.notifyAll();
@@ -1067,6 +2475,64 @@ public class MediaMoviePlayer {
         }
     }
 
+    /**
+     * write silence to the audio sink
+     * @param presentationTimeUs
+     * @param durationUs nothing is written if this is shorter than a frame
+     */
+    private void writeSilence(final long presentationTimeUs, final long durationUs) {
+        if (mAudioSink == null) return;
+        final int frameSize = mAudioOutChannels * 2;
+        int bytes = (int)(durationUs * mAudioOutSampleRate / 1000000L) * frameSize;
+        if (bytes <= 0) return;
+        if (DEBUG) Log.v(TAG, "writeSilence:" + durationUs);
+        if (mAudioSilence == null) {
+            mAudioSilence = new byte[Math.max(mAudioInputBufSize / frameSize, 1) * frameSize];
+        }
+        mAVSyncMonitor.onAudioWritten(presentationTimeUs, bytes);
+        while (mIsRunning && (bytes > 0)) {
+            final int n = Math.min(bytes, mAudioSilence.length);
+            mAudioSink.write(mAudioSilence, 0, n);
+            bytes -= n;
+        }
+    }
+
+    /**
+     * @param bytes size of decoded 16 bit PCM
+     * @return duration in micro seconds
+     */
+    private long audioBytesToUs(final int bytes) {
+        return bytes / (mAudioChannels * 2) * 1000000L / mAudioSampleRate;
+    }
+
+    /**
+     * @param us
+     * @return size of decoded 16 bit PCM, aligned to frames
+     */
+    private int usToAudioBytes(final long us) {
+        return (int)(us * mAudioSampleRate / 1000000L) * mAudioChannels * 2;
+    }
+
+    /**
+     * deliver startup report when both of video and audio output started
+     */
+    private void notifyStartupReport() {
+        final StartupReport report = mStartupTracer.complete(
+            (mVideoTrackIndex >= 0) && (mVideoDecoder != null),
+            (mAudioTrackIndex >= 0) && (mAudioDecoder != null));
+        if (report != null) {
+            if (DEBUG) Log.v(TAG, "notifyStartupReport:" + report);
+            final IStartupListener listener = mStartupListener;
+            if (listener != null) {
+                try {
+                    listener.onStartupReport(report);
+                } catch (final Exception e) {
+                    Log.w(TAG, e);
+                }
+            }
+        }
+    }
+
     /**
      * @param buffer
      * @param offset
@@ -1078,49 +2544,153 @@ public class MediaMoviePlayer {
         final int offset, final int size, final long presentationTimeUs) {
 
 //		if (DEBUG) Log.d(TAG, "internalWriteAudio");
-        if (mAudioOutTempBuf.length < size) {
-            mAudioOutTempBuf = new byte[size];
+        // temporary buffers grow to the capacity of decoder output buffer at once,
+        // so they are never re-allocated on steady state
+        final int capacity = Math.max(size, buffer.capacity() - offset);
+        if ((mDownmixGains == null) && (mResampler == null)) {
+            if (mAudioOutTempBuf.length < size) {
+                mAudioOutTempBuf = new byte[capacity];
+            }
+            PcmUtils.copy(buffer, offset, size, mAudioOutTempBuf);
+            if (mAudioSink != null) {
+                mAudioSink.write(mAudioOutTempBuf, 0, size);
+                mAVSyncMonitor.onAudioWritten(presentationTimeUs, size);
+            }
+            return true;
+        }
+        final int frames = size / (mAudioChannels * 2);
+        final int outSamples = frames * mAudioOutChannels;
+        final int maxFrames = capacity / (mAudioChannels * 2);
+        if ((mAudioOutSamples == null) || (mAudioOutSamples.length < outSamples)) {
+            mAudioOutSamples = new short[maxFrames * mAudioOutChannels];
+        }
+        if (mDownmixGains != null) {
+            PcmUtils.downmixToStereo(buffer, offset, mAudioChannels, frames, mDownmixGains, mAudioOutSamples);
+        } else {
+            PcmUtils.toShorts(buffer, offset, outSamples, mAudioOutSamples);
         }
-        buffer.position(offset);
-        buffer.get(mAudioOutTempBuf, 0, size);
         buffer.clear();
-        if (mAudioTrack != null)
-            mAudioTrack.write(mAudioOutTempBuf, 0, size);
+        short[] out = mAudioOutSamples;
+        int outFrames = frames;
+        if (mResampler != null) {
+            final int n = mResampler.getMaxOutputFrames(frames) * mAudioOutChannels;
+            if ((mAudioResampled == null) || (mAudioResampled.length < n)) {
+                mAudioResampled = new short[mResampler.getMaxOutputFrames(maxFrames) * mAudioOutChannels];
+            }
+            outFrames = mResampler.resample(mAudioOutSamples, frames, mAudioResampled);
+            out = mAudioResampled;
+        }
+        if (mAudioSink != null) {
+            mAudioSink.write(out, 0, outFrames * mAudioOutChannels);
+            mAVSyncMonitor.onAudioWritten(presentationTimeUs, outFrames * mAudioOutChannels * 2);
+        }
         return true;
     }
 
     /**
      * adjusting frame rate
      * @param sync
-     * @param startTime
+     * @param startTime CLOCK_NOT_STARTED for the first frame
      * @param presentationTimeUs
      * @return startTime
      */
     protected long adjustPresentationTime(final Object sync,
         final long startTime, final long presentationTimeUs) {
 
-        if (startTime > 0) {
-            for (long t = presentationTimeUs - (System.nanoTime() / 1000 - startTime);
-                    t > 0; t = presentationTimeUs - (System.nanoTime() / 1000 - startTime)) {
-                synchronized (sync) {
+        if (startTime != CLOCK_NOT_STARTED) {
+            MediaTrace.beginSection(TRACE_ADJUST_TIME);
+            try {
+                for (long t = presentationTimeUs - (mClock.nanoTime() / 1000 - startTime);
+                        t > 0; t = presentationTimeUs - (mClock.nanoTime() / 1000 - startTime)) {
+                    synchronized (sync) {
+                        try {
+                            mClock.waitOn(sync, t * 1000);
+                        } catch (final InterruptedException e) {
+                            // ignore
+                        }
+                        if ((mState == REQ_STOP) || (mState == REQ_QUIT) || isWaitInterrupted(sync))
+                            break;
+                    }
+                }
+            } finally {
+                MediaTrace.endSection();
+            }
+            return startTime;
+        } else {
+            return mClock.nanoTime() / 1000;
+        }
+    }
+
+    /**
+     * wait until the frame should be released to the decoder, a couple of vsyncs before
+     * the vsync that is closest to its presentation time.
+     * the first frame after start is shown on the next vsync, same as #adjustPresentationTime
+     * @param scheduler
+     * @param presentationTimeUs
+     * @return render timestamp for IDecoder#releaseOutputBuffer(int, long)
+     */
+    private long waitVsync(@NonNull final VsyncScheduler scheduler, final long presentationTimeUs) {
+        final long targetNs;
+        if (mVideoStartTime != CLOCK_NOT_STARTED) {
+            targetNs = (mVideoStartTime + presentationTimeUs) * 1000;
+        } else {
+            targetNs = mClock.nanoTime();
+            mVideoStartTime = targetNs / 1000;
+        }
+        final long renderNs = scheduler.schedule(targetNs);
+        final long releaseNs = renderNs - scheduler.getReleaseAheadNs();
+        MediaTrace.beginSection(TRACE_VSYNC_WAIT);
+        try {
+            for (long t = releaseNs - mClock.nanoTime(); t > 0; t = releaseNs - mClock.nanoTime()) {
+                synchronized (mVideoSync) {
                     try {
-                        sync.wait(t / 1000, (int)((t % 1000) * 1000));
+                        mClock.waitOn(mVideoSync, t);
                     } catch (final InterruptedException e) {
                         // ignore
                     }
-                    if ((mState == REQ_STOP) || (mState == REQ_QUIT))
+                    if ((mState == REQ_STOP) || (mState == REQ_QUIT) || isWaitInterrupted(mVideoSync))
                         break;
                 }
             }
-            return startTime;
-        } else {
-            return System.nanoTime() / 1000;
+        } finally {
+            MediaTrace.endSection();
+        }
+        return renderNs;
+    }
+
+    /**
+     * stops waiting for the video decoder in DecoderResourceManager#acquire when stop or release is requested
+     */
+    private final DecoderResourceManager.CancelSignal mDecoderCancel = new DecoderResourceManager.CancelSignal() {
+        @Override
+        public boolean isCancelled() {
+            synchronized (mSync) {
+                return !mIsRunning || (mRequest == REQ_STOP) || (mRequest == REQ_QUIT);
+            }
+        }
+    };
+
+    /**
+     * wake up the player thread that is queued for the video decoder,
+     * this should not be called while holding mSync because the manager checks mDecoderCancel with its lock held
+     */
+    private void wakeUpDecoderQueue() {
+        final DecoderResourceManager manager = mBackend.getDecoderResourceManager();
+        if (manager != null) {
+            manager.wakeUp();
+        }
+    }
+
+    private void releaseDecoderGrant() {
+        if (mDecoderGrant != null) {
+            mDecoderGrant.release();
+            mDecoderGrant = null;
         }
     }
 
     private void handleStop() throws IOException {
         if (DEBUG) {
-            Log.v(TAG, "handleStop:");
+            Log.v(TAG, "handleStop:" + mLatencyTracker.getSnapshot());
         }
         synchronized (mVideoTask) {
             if (mVideoTrackIndex >= 0) {
@@ -1152,21 +2722,27 @@ public class MediaMoviePlayer {
             }
             mAudioOutputDone = mAudioInputDone = true;
         }
-        if (mVideoMediaCodec != null) {
-            mVideoMediaCodec.stop();
-            mVideoMediaCodec.release();
-            mVideoMediaCodec = null;
+        if (mVideoDecoder != null) {
+            mVideoDecoder.stop();
+            mVideoDecoder.release();
+            mVideoDecoder = null;
+            setSurfaceFrameRate(0);
         }
-        if (mAudioMediaCodec != null) {
-            if (Build.VERSION.SDK_INT >= 35) {
-                mLcc.removeMediaCodec(mAudioMediaCodec);
+        if (mVsyncScheduler != null) {
+            mVsyncScheduler.stop();
+            if (DEBUG) Log.v(TAG, "handleStop:" + mVsyncScheduler.getStats());
+        }
+        releaseDecoderGrant();
+        if (mAudioDecoder != null) {
+            if ((Build.VERSION.SDK_INT >= 35) && (mAudioDecoder instanceof MediaCodecDecoder)) {
+                mLcc.removeMediaCodec(((MediaCodecDecoder)mAudioDecoder).getCodec());
             }
             if (Build.VERSION.SDK_INT >= 35) {
                 mLcc.close();  // stops updates
             }
-            mAudioMediaCodec.stop();
-            mAudioMediaCodec.release();
-            mAudioMediaCodec = null;
+            mAudioDecoder.stop();
+            mAudioDecoder.release();
+            mAudioDecoder = null;
         }
         if (mVideoMediaExtractor != null) {
             mVideoMediaExtractor.release();
@@ -1176,13 +2752,22 @@ public class MediaMoviePlayer {
             mAudioMediaExtractor.release();
             mAudioMediaExtractor = null;
         }
+        if (mVideoTailWatcher != null) {
+            mVideoTailWatcher.release();
+            mVideoTailWatcher = null;
+        }
+        if (mAudioTailWatcher != null) {
+            mAudioTailWatcher.release();
+            mAudioTailWatcher = null;
+        }
         mVideoBufferInfo = mAudioBufferInfo = null;
-        mVideoInputBuffers = mVideoOutputBuffers = null;
-        mAudioInputBuffers = mAudioOutputBuffers = null;
         if (mMetadata != null) {
             mMetadata.release();
             mMetadata = null;
         }
+        if (mSource != null) {
+            mSource.release();
+        }
         synchronized (mSync) {
             mState = STATE_STOP;
         }
@@ -1199,13 +2784,16 @@ public class MediaMoviePlayer {
         if (DEBUG) {
             Log.v(TAG, "internalStopAudio:");
         }
-        if (mAudioTrack != null) {
-            if (mAudioTrack.getState() != AudioTrack.STATE_UNINITIALIZED)
-                mAudioTrack.stop();
-            mAudioTrack.release();
-            mAudioTrack = null;
+        mAVSyncMonitor.setAudioSink(null, 0, 0);
+        if (mAudioSink != null) {
+            mAudioSink.stop();
+            mAudioSink.release();
+            mAudioSink = null;
         }
         mAudioOutTempBuf = null;
+        mAudioOutSamples = mAudioResampled = null;
+        mDownmixGains = null;
+        mResampler = null;
     }
 
     private void handlePause() {
@@ -1228,7 +2816,7 @@ public class MediaMoviePlayer {
      * @param mimeType "video/" or "audio/"
      * @return track index, -1 if not found
      */
-    protected static int selectTrack(final MediaExtractor extractor, final String mimeType) {
+    protected static int selectTrack(final ISampleSource extractor, final String mimeType) {
         final int numTracks = extractor.getTrackCount();
         MediaFormat format;
         String mime;
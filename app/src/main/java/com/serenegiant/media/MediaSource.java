@@ -0,0 +1,239 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MediaSource.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.media.MediaDataSource;
+import android.media.MediaExtractor;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * where the movie is read from, a file path, a range of file descriptor or MediaDataSource.
+ * metadata retriever and all extractors are opened with same path/descriptor range,
+ * so packaged assets and content uris can be played directly without copying them.
+ */
+public final class MediaSource {
+    /** same value as AssetFileDescriptor and MediaExtractor use when the length is unknown */
+    private static final long UNKNOWN_LENGTH = 0x7ffffffffffffffL;
+
+    private final String mPath;
+    private final FileDescriptor mFd;
+    private final long mOffset;
+    private final long mLength;
+    private final MediaDataSource mDataSource;
+    /** AssetFileDescriptor that this instance owns, closed in #release */
+    private AssetFileDescriptor mAfd;
+    private FileChannel mChannel;
+
+    private MediaSource(final String path, final FileDescriptor fd,
+        final long offset, final long length, final AssetFileDescriptor afd,
+        final MediaDataSource dataSource) {
+
+        mPath = path;
+        mFd = fd;
+        mOffset = offset;
+        mLength = length;
+        mAfd = afd;
+        mDataSource = dataSource;
+    }
+
+    public static MediaSource fromPath(@NonNull final String path) {
+        return new MediaSource(path, null, 0, -1, null, null);
+    }
+
+    /**
+     * the caller should keep the descriptor open while playing
+     * @param fd
+     * @param offset
+     * @param length negative value means the movie extends to the end of file
+     */
+    public static MediaSource fromFileDescriptor(@NonNull final FileDescriptor fd,
+        final long offset, final long length) {
+
+        if (!fd.valid()) {
+            throw new IllegalArgumentException("invalid file descriptor");
+        }
+        return new MediaSource(null, fd, offset, length, null, null);
+    }
+
+    /**
+     * the returned instance takes ownership of afd, it is closed when the player is stopped
+     * @param afd e.g. Resources#openRawResourceFd, AssetManager#openFd
+     */
+    public static MediaSource fromAssetFileDescriptor(@NonNull final AssetFileDescriptor afd) {
+        final long length = afd.getLength();
+        return new MediaSource(null, afd.getFileDescriptor(), afd.getStartOffset(),
+            length != AssetFileDescriptor.UNKNOWN_LENGTH ? length : -1, afd, null);
+    }
+
+    /**
+     * same data source is shared by metadata retriever and all extractors.
+     * HttpMediaDataSource is released when the player is stopped
+     * @param dataSource e.g. HttpMediaDataSource
+     */
+    @RequiresApi(Build.VERSION_CODES.M)
+    public static MediaSource fromDataSource(@NonNull final MediaDataSource dataSource) {
+        return new MediaSource(null, null, 0, -1, null, dataSource);
+    }
+
+    /**
+     * @param context
+     * @param uri file or content uri
+     */
+    public static MediaSource fromUri(@NonNull final Context context, @NonNull final Uri uri)
+        throws FileNotFoundException {
+
+        if ("file".equals(uri.getScheme())) {
+            return fromPath(uri.getPath());
+        }
+        final AssetFileDescriptor afd = context.getContentResolver().openAssetFileDescriptor(uri, "r");
+        if (afd == null) {
+            throw new FileNotFoundException("Unable to open " + uri);
+        }
+        return fromAssetFileDescriptor(afd);
+    }
+
+    /**
+     * check whether the movie is readable
+     * @throws FileNotFoundException
+     */
+    public void checkReadable() throws FileNotFoundException {
+        if (mPath != null) {
+            if (TextUtils.isEmpty(mPath) || !new File(mPath).canRead()) {
+                throw new FileNotFoundException("Unable to read " + mPath);
+            }
+        } else if ((mFd != null) && !mFd.valid()) {
+            throw new FileNotFoundException("Unable to read " + this);
+        }
+    }
+
+    /**
+     * @return file path, null if this source is a file descriptor or MediaDataSource
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    public void setDataSource(@NonNull final MediaExtractor extractor) throws IOException {
+        if (mPath != null) {
+            extractor.setDataSource(mPath);
+        } else if (mDataSource != null) {
+            extractor.setDataSource(mDataSource);
+        } else {
+            extractor.setDataSource(mFd, mOffset, mLength >= 0 ? mLength : UNKNOWN_LENGTH);
+        }
+    }
+
+    public void setDataSource(@NonNull final MediaMetadataRetriever retriever) {
+        if (mPath != null) {
+            retriever.setDataSource(mPath);
+        } else if (mDataSource != null) {
+            retriever.setDataSource(mDataSource);
+        } else {
+            retriever.setDataSource(mFd, mOffset, mLength >= 0 ? mLength : UNKNOWN_LENGTH);
+        }
+    }
+
+    /**
+     * @return true if the movie is fragmented mp4
+     */
+    public boolean isFragmented() {
+        if (mPath != null) {
+            return FragmentedMp4Extractor.isFragmented(mPath);
+        } else if (mDataSource != null) {
+            // MediaExtractor handles fragmented mp4 from MediaDataSource
+            return false;
+        }
+        try {
+            return Mp4FragmentReader.isFragmented(getChannel(), mOffset, mLength);
+        } catch (final IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * create FragmentedMp4Extractor that reads same path/descriptor range
+     * @return
+     * @throws IOException
+     */
+    public FragmentedMp4Extractor createFragmentedExtractor() throws IOException {
+        if (mPath != null) {
+            return new FragmentedMp4Extractor(mPath);
+        }
+        // FileChannel of descriptor is shared and reads with absolute position only
+        return new FragmentedMp4Extractor(getChannel(), mOffset, mLength, false);
+    }
+
+    /**
+     * close the descriptor if this instance owns it
+     */
+    public synchronized void release() {
+        mChannel = null;
+        if ((Build.VERSION.SDK_INT >= Build.VERSION_CODES.M)
+            && (mDataSource instanceof HttpMediaDataSource)) {
+
+            ((HttpMediaDataSource)mDataSource).release();
+        }
+        if (mAfd != null) {
+            try {
+                mAfd.close();
+            } catch (final IOException e) {
+                // ignore
+            }
+            mAfd = null;
+        }
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        if (mPath != null) {
+            return mPath;
+        } else if (mDataSource != null) {
+            return mDataSource.toString();
+        }
+        return "fd:" + mFd + "(" + mOffset + "," + mLength + ")";
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (mChannel == null) {
+            // never close this channel, it will close the descriptor
+            mChannel = new FileInputStream(mFd).getChannel();
+        }
+        return mChannel;
+    }
+}
@@ -0,0 +1,122 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MediaTrace.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.File;
+import java.io.IOException;
+
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+/**
+ * trace sections of decoding pipeline for systrace/Perfetto(android.os.Trace)
+ * and optional in-process Chrome trace-event JSON recorder.
+ * async sections(e.g. per frame slices keyed by presentation time) are sent
+ * to android.os.Trace only on API&gt;=29.
+ * section names should be string constants to avoid allocation.
+ */
+public final class MediaTrace {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "MediaTrace";
+
+    private static volatile ChromeTraceRecorder sRecorder;
+
+    private MediaTrace() {
+        // never be instantiated
+    }
+
+    /**
+     * start recording trace events in process, events are written by #stopRecording
+     * @param maxEvents
+     */
+    public static synchronized void startRecording(final int maxEvents) {
+        sRecorder = new ChromeTraceRecorder(maxEvents);
+    }
+
+    /**
+     * stop recording and write Chrome trace-event JSON
+     * @param file
+     * @throws IOException
+     */
+    public static synchronized void stopRecording(@NonNull final File file) throws IOException {
+        final ChromeTraceRecorder recorder = sRecorder;
+        sRecorder = null;
+        if (recorder != null) {
+            if (DEBUG) Log.v(TAG, "stopRecording:events=" + recorder.getEventCount()
+                + ",dropped=" + recorder.getDroppedCount());
+            recorder.writeTo(file);
+        }
+    }
+
+    public static boolean isRecording() {
+        return sRecorder != null;
+    }
+
+    public static void beginSection(@NonNull final String name) {
+        Trace.beginSection(name);
+        final ChromeTraceRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.beginSection(name);
+        }
+    }
+
+    public static void endSection() {
+        Trace.endSection();
+        final ChromeTraceRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.endSection();
+        }
+    }
+
+    /**
+     * @param name
+     * @param id e.g. presentation time of the frame
+     */
+    public static void beginAsyncSection(@NonNull final String name, final long id) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie(id));
+        }
+        final ChromeTraceRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.beginAsyncSection(name, id);
+        }
+    }
+
+    public static void endAsyncSection(@NonNull final String name, final long id) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie(id));
+        }
+        final ChromeTraceRecorder recorder = sRecorder;
+        if (recorder != null) {
+            recorder.endAsyncSection(name, id);
+        }
+    }
+
+    private static int cookie(final long id) {
+        return (int)(id ^ (id >>> 32));
+    }
+}
@@ -42,12 +42,18 @@ public class MediaVideoPlayer {
 
     private final IFrameCallback mCallback;
 
+    /**
+     * @param outputSurface if null, decoded frames are output to ByteBuffer
+     *                      and passed to #internalWriteVideo(ByteBuffer mode)
+     * @param callback
+     * @throws NullPointerException
+     */
     public MediaVideoPlayer(final Surface outputSurface, final IFrameCallback callback) throws NullPointerException {
         if (DEBUG) {
             Log.v(TAG, "Constructor:");
         }
-        if ((outputSurface == null) || (callback == null)) {
-            throw new NullPointerException("outputSurface and callback should not be null");
+        if (callback == null) {
+            throw new NullPointerException("callback should not be null");
         }
 
         mOutputSurface = outputSurface;
@@ -94,6 +100,25 @@ public class MediaVideoPlayer {
         return mDuration;
     }
 
+    /**
+     * enable/disable benchmark mode, this should be called before #prepare.
+     * on benchmark mode, decoded frames are dropped as fast as possible
+     * without presentation time adjusting,
+     * and IFrameCallback#onFrameAvailable is not called.
+     * @param enabled
+     */
+    public final void setBenchmarkMode(final boolean enabled) {
+        mBenchmarkMode = enabled;
+    }
+
+    /**
+     * get decode throughput on benchmark mode
+     * @return null if not finished yet
+     */
+    public final DecodeBenchmark.Result getBenchmarkResult() {
+        return mVideoBenchmark.getResult();
+    }
+
     /**
      * request to prepare movie playing
      * @param src_movie
@@ -122,7 +147,7 @@ public class MediaVideoPlayer {
 
     /**
      * request to seek to specifc timed frame<br>
-     * if the frame is not a key frame, frame image will be broken
+     * playback restarts from the closest key frame
      * @param newTime seek to new time[usec]
      */
     public final void seek(final long newTime) {
@@ -222,6 +247,8 @@ public class MediaVideoPlayer {
     private long mDuration;
     private int mRequest;
     private long mRequestTime;
+    /** seek request that is handled on video task, -1 if no request */
+    private long mPendingSeekTime = -1;
     // for video playback
     private final Object mVideoSync = new Object();
     private final Surface mOutputSurface;
@@ -239,6 +266,8 @@ public class MediaVideoPlayer {
     private int mBitrate;
     private float mFrameRate;
     private int mRotation;
+    private volatile boolean mBenchmarkMode;
+    private final DecodeBenchmark mVideoBenchmark = new DecodeBenchmark("video");
 
 //--------------------------------------------------------------------------------
     /**
@@ -304,8 +333,20 @@ public class MediaVideoPlayer {
         @Override
         public void run() {
             if (DEBUG) Log.v(TAG, "VideoTask:start");
-            for (; mIsRunning && !mVideoInputDone && !mVideoOutputDone ;) {
+            if (mBenchmarkMode) {
+                mVideoBenchmark.start();
+            }
+            // keep draining decoder after input reached EOS
+            for (; mIsRunning && (!mVideoInputDone || !mVideoOutputDone) ;) {
                 try {
+                    final long seekTime;
+                    synchronized (mSync) {
+                        seekTime = mPendingSeekTime;
+                        mPendingSeekTime = -1;
+                    }
+                    if (seekTime >= 0) {
+                        handleSeekVideo(seekTime);
+                    }
                     if (!mVideoInputDone) {
                         handleInputVideo();
                     }
@@ -560,6 +601,7 @@ public class MediaVideoPlayer {
         }
         previousVideoPresentationTimeUs = -1;
         mVideoInputDone = mVideoOutputDone = true;
+        mVideoStartTime = 0;
         Thread videoThread = null;
         if (mVideoTrackIndex >= 0) {
             final MediaCodec codec = internalStartVideo(mVideoMediaExtractor, mVideoTrackIndex);
@@ -604,12 +646,33 @@ public class MediaVideoPlayer {
         if (newTime < 0) return;
 
         if (mVideoTrackIndex >= 0) {
-            mVideoMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
-            mVideoMediaExtractor.advance();
+            if (mVideoMediaCodec != null) {
+                // decoder is used on video task, so extractor and decoder are reset there
+                synchronized (mSync) {
+                    mPendingSeekTime = newTime;
+                }
+            } else {
+                // never call #advance here, it skips the key frame
+                mVideoMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            }
         }
         mRequestTime = -1;
     }
 
+    /**
+     * seek extractor and discard samples in decoder, this is called on video task
+     * @param newTime
+     */
+    private final void handleSeekVideo(final long newTime) {
+        if (DEBUG) Log.d(TAG, "handleSeekVideo:" + newTime);
+        mVideoMediaExtractor.seekTo(newTime, MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        mVideoMediaCodec.flush();
+        previousVideoPresentationTimeUs = -1;
+        // presentation time is adjusted from the first frame after seeking
+        mVideoStartTime = 0;
+        mVideoInputDone = mVideoOutputDone = false;
+    }
+
     private final void handleLoop(final IFrameCallback frameCallback) throws IOException {
 //		if (DEBUG) Log.d(TAG, "handleLoop");
 
@@ -641,9 +704,14 @@ public class MediaVideoPlayer {
 //		if (DEBUG) Log.v(TAG, "internalProcessInput:presentationTimeUs=" + presentationTimeUs);
         boolean result = true;
         while (mIsRunning) {
+            final long startNs = System.nanoTime();
             final int inputBufIndex = codec.dequeueInputBuffer(TIMEOUT_USEC);
-            if (inputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER)
+            if (inputBufIndex == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mBenchmarkMode) {
+                    mVideoBenchmark.onInputStall(System.nanoTime() - startNs);
+                }
                 break;
+            }
             if (inputBufIndex >= 0) {
                 final int size = extractor.readSampleData(inputBuffers[inputBufIndex], 0);
                 if (size > 0) {
@@ -688,8 +756,17 @@ public class MediaVideoPlayer {
     private final void handleOutputVideo(final IFrameCallback frameCallback) {
 //    	if (DEBUG) Log.v(TAG, "handleDrainVideo:");
         while (mIsRunning && !mVideoOutputDone) {
+            synchronized (mSync) {
+                // decoder seldom returns INFO_TRY_AGAIN_LATER while draining after input EOS,
+                // so return here to handle seek request before the remaining frames and EOS
+                if (mPendingSeekTime >= 0) return;
+            }
+            final long startNs = System.nanoTime();
             final int decoderStatus = mVideoMediaCodec.dequeueOutputBuffer(mVideoBufferInfo, TIMEOUT_USEC);
             if (decoderStatus == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                if (mBenchmarkMode) {
+                    mVideoBenchmark.onOutputStall(System.nanoTime() - startNs);
+                }
                 return;
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
                 mVideoOutputBuffers = mVideoMediaCodec.getOutputBuffers();
@@ -697,15 +774,20 @@ public class MediaVideoPlayer {
             } else if (decoderStatus == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
                 final MediaFormat newFormat = mVideoMediaCodec.getOutputFormat();
                 if (DEBUG) Log.d(TAG, "video decoder output format changed: " + newFormat);
+                internalOutputFormatChanged(newFormat);
             } else if (decoderStatus < 0) {
                 throw new RuntimeException(
                     "unexpected result from video decoder.dequeueOutputBuffer: " + decoderStatus);
             } else { // decoderStatus >= 0
                 boolean doRender = false;
-                if (mVideoBufferInfo.size > 0) {
+                if (mBenchmarkMode) {
+                    if (mVideoBufferInfo.size > 0) {
+                        mVideoBenchmark.onFrameDecoded();
+                    }
+                } else if (mVideoBufferInfo.size > 0) {
                     doRender = (mVideoBufferInfo.size != 0)
                         && !internalWriteVideo(mVideoOutputBuffers[decoderStatus],
-                            0, mVideoBufferInfo.size, mVideoBufferInfo.presentationTimeUs);
+                            mVideoBufferInfo.offset, mVideoBufferInfo.size, mVideoBufferInfo.presentationTimeUs);
                     if (doRender) {
                         if (!frameCallback.onFrameAvailable(mVideoBufferInfo.presentationTimeUs))
                             mVideoStartTime = adjustPresentationTime(mVideoStartTime, mVideoBufferInfo.presentationTimeUs);
@@ -714,6 +796,9 @@ public class MediaVideoPlayer {
                 mVideoMediaCodec.releaseOutputBuffer(decoderStatus, doRender);
                 if ((mVideoBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
                     if (DEBUG) Log.d(TAG, "video:output EOS");
+                    if (mBenchmarkMode) {
+                        mVideoBenchmark.finish();
+                    }
                     synchronized (mSync) {
                         mVideoOutputDone = true;
                         mSync.notifyAll();
@@ -724,7 +809,16 @@ public class MediaVideoPlayer {
     }
 
     /**
-     * @param buffer
+     * called when output format of video decoder changed,
+     * on ByteBuffer mode, color format, stride, slice height and crop rect of decoded frames
+     * should be read from this format
+     * @param format
+     */
+    protected void internalOutputFormatChanged(final MediaFormat format) {
+    }
+
+    /**
+     * @param buffer the content is undefined if output surface was set
      * @param offset
      * @param size
      * @param presentationTimeUs
@@ -761,7 +855,8 @@ public class MediaVideoPlayer {
             }
             return startTime;
         } else {
-            return System.nanoTime() / 1000;
+            // the first frame after starting or seeking is shown immediately
+            return System.nanoTime() / 1000 - presentationTimeUs;
         }
     }
 
@@ -0,0 +1,46 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MonotonicClock.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * IClock that uses System#nanoTime and Object#wait
+ */
+public final class MonotonicClock implements IClock {
+    public static final MonotonicClock INSTANCE = new MonotonicClock();
+
+    private MonotonicClock() {
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void waitOn(final Object sync, final long timeoutNs) throws InterruptedException {
+        if (timeoutNs > 0) {
+            sync.wait(timeoutNs / 1000000L, (int)(timeoutNs % 1000000L));
+        }
+    }
+}
@@ -0,0 +1,912 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: Mp4FragmentReader.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * incremental box parser for fragmented MP4(moov followed by moof/mdat pairs).
+ * only moov and the sample table of current fragment are kept on memory,
+ * the fragment is parsed when both of moof and its sample data are available,
+ * so this can read a file that is still being written.
+ * this class does not depend on Android framework.
+ */
+public class Mp4FragmentReader {
+
+    public static final int BOX_FTYP = fourcc("ftyp");
+    public static final int BOX_MOOV = fourcc("moov");
+    public static final int BOX_MOOF = fourcc("moof");
+    public static final int BOX_MDAT = fourcc("mdat");
+    private static final int BOX_MVHD = fourcc("mvhd");
+    private static final int BOX_MVEX = fourcc("mvex");
+    private static final int BOX_MEHD = fourcc("mehd");
+    private static final int BOX_TREX = fourcc("trex");
+    private static final int BOX_TRAK = fourcc("trak");
+    private static final int BOX_TKHD = fourcc("tkhd");
+    private static final int BOX_MDIA = fourcc("mdia");
+    private static final int BOX_MDHD = fourcc("mdhd");
+    private static final int BOX_HDLR = fourcc("hdlr");
+    private static final int BOX_MINF = fourcc("minf");
+    private static final int BOX_STBL = fourcc("stbl");
+    private static final int BOX_STSD = fourcc("stsd");
+    private static final int BOX_TRAF = fourcc("traf");
+    private static final int BOX_TFHD = fourcc("tfhd");
+    private static final int BOX_TFDT = fourcc("tfdt");
+    private static final int BOX_TRUN = fourcc("trun");
+    private static final int BOX_AVC1 = fourcc("avc1");
+    private static final int BOX_AVC3 = fourcc("avc3");
+    private static final int BOX_AVCC = fourcc("avcC");
+    private static final int BOX_HVC1 = fourcc("hvc1");
+    private static final int BOX_HEV1 = fourcc("hev1");
+    private static final int BOX_HVCC = fourcc("hvcC");
+    private static final int BOX_AV01 = fourcc("av01");
+    private static final int BOX_AV1C = fourcc("av1C");
+    private static final int BOX_MP4A = fourcc("mp4a");
+    private static final int BOX_ESDS = fourcc("esds");
+
+    public static final int HANDLER_VIDEO = fourcc("vide");
+    public static final int HANDLER_SOUND = fourcc("soun");
+
+    private static final int TFHD_BASE_DATA_OFFSET = 0x000001;
+    private static final int TFHD_SAMPLE_DESCRIPTION_INDEX = 0x000002;
+    private static final int TFHD_DEFAULT_SAMPLE_DURATION = 0x000008;
+    private static final int TFHD_DEFAULT_SAMPLE_SIZE = 0x000010;
+    private static final int TFHD_DEFAULT_SAMPLE_FLAGS = 0x000020;
+    private static final int TRUN_DATA_OFFSET = 0x000001;
+    private static final int TRUN_FIRST_SAMPLE_FLAGS = 0x000004;
+    private static final int TRUN_SAMPLE_DURATION = 0x000100;
+    private static final int TRUN_SAMPLE_SIZE = 0x000200;
+    private static final int TRUN_SAMPLE_FLAGS = 0x000400;
+    private static final int TRUN_SAMPLE_CTS_OFFSET = 0x000800;
+    private static final int SAMPLE_IS_NON_SYNC = 0x00010000;
+    /** trun without per sample fields does not take box size, limit its sample count instead */
+    private static final int MAX_TRUN_SAMPLES = 1 << 20;
+
+    private static final byte[] START_CODE = { 0, 0, 0, 1 };
+
+    /**
+     * track information parsed from moov
+     */
+    public static final class TrackInfo {
+        public int trackId;
+        public int handler;
+        public long timescale;
+        public long durationUs;
+        public String mime;
+        public int width, height;
+        public int channelCount, sampleRate;
+        /** codec specific data, NAL units have start code already */
+        public final List<byte[]> csd = new ArrayList<>();
+        /** size of NAL unit length field in each sample, 0 if sample is not length prefixed */
+        public int nalLengthSize;
+        int defaultSampleDuration;
+        int defaultSampleSize;
+        int defaultSampleFlags;
+        long nextDecodeTime;
+
+        public boolean isVideo() {
+            return handler == HANDLER_VIDEO;
+        }
+
+        public boolean isAudio() {
+            return handler == HANDLER_SOUND;
+        }
+    }
+
+    /**
+     * sample table of one fragment of one track,
+     * arrays are reused between fragments and only grow to the largest fragment
+     */
+    public static final class SampleTable {
+        public int count;
+        public long[] offsets = new long[0];
+        public int[] sizes = new int[0];
+        public long[] timesUs = new long[0];
+        public boolean[] syncs = new boolean[0];
+        public int maxSize;
+
+        void ensureCapacity(final int n) {
+            if (offsets.length < n) {
+                final int cap = Math.max(n, offsets.length * 2);
+                final long[] o = new long[cap];
+                final int[] s = new int[cap];
+                final long[] t = new long[cap];
+                final boolean[] k = new boolean[cap];
+                System.arraycopy(offsets, 0, o, 0, count);
+                System.arraycopy(sizes, 0, s, 0, count);
+                System.arraycopy(timesUs, 0, t, 0, count);
+                System.arraycopy(syncs, 0, k, 0, count);
+                offsets = o; sizes = s; timesUs = t; syncs = k;
+            }
+        }
+
+        /**
+         * search sync sample
+         * @param timeUs
+         * @param next true: first sync sample at or after timeUs, false: last sync sample at or before timeUs
+         * @return index of sample, -1 if not found
+         */
+        public int findSyncSample(final long timeUs, final boolean next) {
+            int result = -1;
+            if (next) {
+                for (int i = 0; i < count; i++) {
+                    if (syncs[i] && (timesUs[i] >= timeUs)) {
+                        return i;
+                    }
+                }
+            } else {
+                for (int i = 0; i < count; i++) {
+                    if (syncs[i]) {
+                        if (timesUs[i] > timeUs) {
+                            return result >= 0 ? result : i;
+                        }
+                        result = i;
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    private final FileChannel mChannel;
+    private final long mBase;
+    private final long mLength;
+    private final List<TrackInfo> mTracks = new ArrayList<>();
+    private final ByteBuffer mHeader = ByteBuffer.allocate(16);
+    private ByteBuffer mWork = ByteBuffer.allocate(4096);
+    private long mBoxSize;
+    private int mBoxType;
+    private int mBoxHeaderSize;
+    private long mMovieDurationUs;
+    private boolean mHeaderRead;
+    /** position of next top level box that is not parsed yet */
+    private long mNextBoxPos;
+    /** readable size when the last #readNextFragment failed, to avoid re-reading same incomplete box */
+    private long mStalledSize = -1;
+    // fragment index, one entry per moof that has samples of selected track
+    private int mIndexCount;
+    private long[] mIndexPos = new long[16];
+    private long[] mIndexDecodeTime = new long[16];
+    private long[] mIndexTimeUs = new long[16];
+
+    /**
+     * @param channel
+     * @param base offset of the movie in the channel
+     * @param length length of the movie, negative value means the movie extends to the end of channel
+     * 		and it may grow
+     */
+    public Mp4FragmentReader(final FileChannel channel, final long base, final long length) {
+        mChannel = channel;
+        mBase = base;
+        mLength = length;
+    }
+
+    /**
+     * @return currently readable size of the movie
+     * @throws IOException
+     */
+    public long available() throws IOException {
+        return mLength >= 0 ? mLength : mChannel.size() - mBase;
+    }
+
+    /**
+     * @return position of next unparsed box, everything before this position was already read
+     */
+    public long getReadPosition() {
+        return mNextBoxPos;
+    }
+
+    public boolean isHeaderRead() {
+        return mHeaderRead;
+    }
+
+    public List<TrackInfo> getTracks() {
+        return mTracks;
+    }
+
+    /**
+     * check whether the movie is fragmented mp4, i.e. moov has mvex
+     * @param channel
+     * @param base
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    public static boolean isFragmented(final FileChannel channel, final long base, final long length)
+        throws IOException {
+
+        final Mp4FragmentReader reader = new Mp4FragmentReader(channel, base, length);
+        final long avail = reader.available();
+        for (long pos = 0; reader.readBoxHeader(pos, avail); pos += reader.mBoxSize) {
+            if (reader.mBoxType == BOX_MOOF) {
+                return true;
+            } else if (reader.mBoxType == BOX_MOOV) {
+                final ByteBuffer moov = reader.readBox(pos);
+                return (moov != null) && (findChild(moov, reader.mBoxHeaderSize, moov.limit(), BOX_MVEX) >= 0);
+            }
+            if (reader.mBoxSize <= 0) break;
+        }
+        return false;
+    }
+
+    /**
+     * parse moov
+     * @return false if moov is not available yet
+     * @throws IOException
+     */
+    public boolean readHeader() throws IOException {
+        if (mHeaderRead) return true;
+        final long avail = available();
+        for (long pos = 0; readBoxHeader(pos, avail); pos += mBoxSize) {
+            if (mBoxType == BOX_MOOV) {
+                final ByteBuffer moov = readBox(pos);
+                if (moov == null) {
+                    return false;
+                }
+                parseMoov(moov, mBoxHeaderSize, moov.limit());
+                mNextBoxPos = pos + moov.limit();
+                mHeaderRead = true;
+                return true;
+            } else if ((mBoxType == BOX_MOOF) || (mBoxSize <= 0)) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * parse next fragment that has samples of specific track
+     * @param trackId
+     * @param table
+     * @return false if no complete fragment is available now, table becomes empty in that case
+     * @throws IOException
+     */
+    public boolean readNextFragment(final int trackId, final SampleTable table) throws IOException {
+        final TrackInfo track = findTrack(trackId);
+        table.count = 0;
+        if (!mHeaderRead || (track == null)) return false;
+        final long avail = available();
+        if (avail == mStalledSize) {
+            // nothing was appended since last try
+            return false;
+        }
+        mStalledSize = -1;
+        while (readBoxHeader(mNextBoxPos, avail)) {
+            final long pos = mNextBoxPos;
+            if ((mBoxSize <= 0) || (pos + mBoxSize > avail)) {
+                // box is not written completely yet
+                mStalledSize = avail;
+                return false;
+            }
+            if (mBoxType == BOX_MOOF) {
+                final ByteBuffer moof = readBox(pos);
+                if (moof == null) {
+                    return false;
+                }
+                final long decodeTime = track.nextDecodeTime;
+                table.count = 0;
+                table.maxSize = 0;
+                final long dataEnd;
+                try {
+                    dataEnd = parseMoof(moof, pos, track, table);
+                } catch (final IOException e) {
+                    // skip broken fragment, so that next call continues from following box
+                    mNextBoxPos = pos + mBoxSize;
+                    track.nextDecodeTime = decodeTime;
+                    table.count = 0;
+                    throw e;
+                }
+                if (dataEnd > avail) {
+                    // sample data is not written yet, retry later
+                    track.nextDecodeTime = decodeTime;
+                    table.count = 0;
+                    mStalledSize = avail;
+                    return false;
+                }
+                mNextBoxPos = pos + mBoxSize;
+                if (table.count > 0) {
+                    addIndex(pos, table.timesUs[0], decodeTime);
+                    return true;
+                }
+            } else {
+                mNextBoxPos = pos + mBoxSize;
+            }
+        }
+        mStalledSize = avail;
+        return false;
+    }
+
+    /**
+     * rewind to the fragment that contains specific time, next #readNextFragment reads it.
+     * only fragments that were already parsed are taken into account
+     * @param trackId
+     * @param timeUs
+     * @return false if timeUs is after the last parsed fragment
+     */
+    public boolean rewindTo(final int trackId, final long timeUs) {
+        final TrackInfo track = findTrack(trackId);
+        if ((track == null) || (mIndexCount == 0)) return false;
+        int ix = 0;
+        for (int i = 0; i < mIndexCount; i++) {
+            if (mIndexTimeUs[i] <= timeUs) {
+                ix = i;
+            } else {
+                break;
+            }
+        }
+        mNextBoxPos = mIndexPos[ix];
+        mStalledSize = -1;
+        track.nextDecodeTime = mIndexDecodeTime[ix];
+        return (ix < mIndexCount - 1) || (mIndexTimeUs[ix] >= timeUs);
+    }
+
+    /**
+     * read sample data from the channel
+     * @param position position of sample in the movie
+     * @param dst data is read to dst.position() .. dst.position() + size
+     * @param size
+     * @return number of bytes read
+     * @throws IOException
+     */
+    public int readSample(final long position, final ByteBuffer dst, final int size) throws IOException {
+        final int limit = dst.limit();
+        dst.limit(dst.position() + size);
+        int total = 0;
+        try {
+            while (dst.hasRemaining()) {
+                final int n = mChannel.read(dst, mBase + position + total);
+                if (n < 0) break;
+                total += n;
+            }
+        } finally {
+            dst.limit(limit);
+        }
+        return total;
+    }
+
+//--------------------------------------------------------------------------------
+    private TrackInfo findTrack(final int trackId) {
+        for (final TrackInfo track: mTracks) {
+            if (track.trackId == trackId) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    private void addIndex(final long pos, final long timeUs, final long decodeTime) {
+        if ((mIndexCount > 0) && (pos <= mIndexPos[mIndexCount - 1])) {
+            return;	// already indexed
+        }
+        if (mIndexCount >= mIndexPos.length) {
+            final int cap = mIndexCount * 2;
+            final long[] p = new long[cap];
+            final long[] d = new long[cap];
+            final long[] t = new long[cap];
+            System.arraycopy(mIndexPos, 0, p, 0, mIndexCount);
+            System.arraycopy(mIndexDecodeTime, 0, d, 0, mIndexCount);
+            System.arraycopy(mIndexTimeUs, 0, t, 0, mIndexCount);
+            mIndexPos = p; mIndexDecodeTime = d; mIndexTimeUs = t;
+        }
+        mIndexPos[mIndexCount] = pos;
+        mIndexDecodeTime[mIndexCount] = decodeTime;
+        mIndexTimeUs[mIndexCount] = timeUs;
+        mIndexCount++;
+    }
+
+    /**
+     * read box header at specific position
+     * @return false if header is not available
+     */
+    private boolean readBoxHeader(final long pos, final long avail) throws IOException {
+        if (pos + 8 > avail) return false;
+        mHeader.clear();
+        mHeader.limit((int)Math.min(16, avail - pos));
+        while (mHeader.hasRemaining()) {
+            if (mChannel.read(mHeader, mBase + pos + mHeader.position()) < 0) break;
+        }
+        if (mHeader.position() < 8) return false;
+        long size = mHeader.getInt(0) & 0xffffffffL;
+        mBoxType = mHeader.getInt(4);
+        mBoxHeaderSize = 8;
+        if (size == 1) {
+            if (mHeader.position() < 16) return false;
+            size = mHeader.getLong(8);
+            mBoxHeaderSize = 16;
+        } else if (size == 0) {
+            // box extends to the end of file, it may be still being written
+            size = mLength >= 0 ? avail - pos : 0;
+        }
+        mBoxSize = size;
+        return true;
+    }
+
+    /**
+     * read whole box whose header was read by #readBoxHeader into work buffer
+     * @return null if the box is not available completely
+     */
+    private ByteBuffer readBox(final long pos) throws IOException {
+        if ((mBoxSize <= 0) || (mBoxSize > Integer.MAX_VALUE)
+            || (pos + mBoxSize > available())) {
+            return null;
+        }
+        final int size = (int)mBoxSize;
+        if (mWork.capacity() < size) {
+            mWork = ByteBuffer.allocate(size);
+        }
+        mWork.clear();
+        mWork.limit(size);
+        while (mWork.hasRemaining()) {
+            if (mChannel.read(mWork, mBase + pos + mWork.position()) < 0) {
+                return null;
+            }
+        }
+        mWork.flip();
+        return mWork;
+    }
+
+    private static int findChild(final ByteBuffer buf, final int start, final int end, final int type) {
+        for (int p = start; p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            if (buf.getInt(p + 4) == type) {
+                return p;
+            }
+            p += size;
+        }
+        return -1;
+    }
+
+    /**
+     * @return size of child box at p, 0 if the box is broken
+     */
+    private static int boxSize(final ByteBuffer buf, final int p, final int end) {
+        long size = buf.getInt(p) & 0xffffffffL;
+        if (size == 1) {
+            size = (p + 16 <= end) ? buf.getLong(p + 8) : 0;
+        } else if (size == 0) {
+            size = end - p;
+        }
+        return (size >= 8) && (p + size <= end) ? (int)size : 0;
+    }
+
+    private static int headerSize(final ByteBuffer buf, final int p) {
+        return buf.getInt(p) == 1 ? 16 : 8;
+    }
+
+    private void parseMoov(final ByteBuffer buf, final int start, final int end) {
+        mTracks.clear();
+        long movieTimescale = 0;
+        int mvex = -1;
+        for (int p = start; p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            final int type = buf.getInt(p + 4);
+            final int payload = p + headerSize(buf, p);
+            if (type == BOX_MVHD) {
+                final int version = buf.get(payload) & 0xff;
+                movieTimescale = buf.getInt(payload + (version == 1 ? 20 : 12)) & 0xffffffffL;
+            } else if (type == BOX_TRAK) {
+                final TrackInfo track = parseTrak(buf, payload, p + size);
+                if (track.mime != null) {
+                    mTracks.add(track);
+                }
+            } else if (type == BOX_MVEX) {
+                mvex = p;
+            }
+            p += size;
+        }
+        if (mvex >= 0) {
+            // trex refers track id, so parse mvex after all trak
+            parseMvex(buf, mvex + headerSize(buf, mvex), mvex + boxSize(buf, mvex, end), movieTimescale);
+        }
+        for (final TrackInfo track: mTracks) {
+            if (track.durationUs <= 0) {
+                track.durationUs = mMovieDurationUs;
+            }
+        }
+    }
+
+    private void parseMvex(final ByteBuffer buf, final int start, final int end, final long movieTimescale) {
+        for (int p = start; p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            final int type = buf.getInt(p + 4);
+            final int payload = p + headerSize(buf, p);
+            if (type == BOX_TREX) {
+                final TrackInfo track = findTrack(buf.getInt(payload + 4));
+                if (track != null) {
+                    track.defaultSampleDuration = buf.getInt(payload + 12);
+                    track.defaultSampleSize = buf.getInt(payload + 16);
+                    track.defaultSampleFlags = buf.getInt(payload + 20);
+                }
+            } else if ((type == BOX_MEHD) && (movieTimescale > 0)) {
+                final int version = buf.get(payload) & 0xff;
+                final long duration = version == 1 ? buf.getLong(payload + 4) : buf.getInt(payload + 4) & 0xffffffffL;
+                mMovieDurationUs = duration * 1000000L / movieTimescale;
+            }
+            p += size;
+        }
+    }
+
+    private TrackInfo parseTrak(final ByteBuffer buf, final int start, final int end) {
+        final TrackInfo track = new TrackInfo();
+        for (int p = start; p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            final int type = buf.getInt(p + 4);
+            final int payload = p + headerSize(buf, p);
+            if (type == BOX_TKHD) {
+                final int version = buf.get(payload) & 0xff;
+                track.trackId = buf.getInt(payload + (version == 1 ? 20 : 12));
+            } else if ((type == BOX_MDIA) || (type == BOX_MINF) || (type == BOX_STBL)) {
+                final TrackInfo t = parseTrak(buf, payload, p + size);
+                if (t.timescale > 0) {
+                    track.timescale = t.timescale;
+                    track.durationUs = t.durationUs;
+                }
+                if (t.handler != 0) track.handler = t.handler;
+                if (t.mime != null) {
+                    track.mime = t.mime;
+                    track.width = t.width;
+                    track.height = t.height;
+                    track.channelCount = t.channelCount;
+                    track.sampleRate = t.sampleRate;
+                    track.nalLengthSize = t.nalLengthSize;
+                    track.csd.addAll(t.csd);
+                }
+            } else if (type == BOX_MDHD) {
+                final int version = buf.get(payload) & 0xff;
+                final long duration;
+                if (version == 1) {
+                    track.timescale = buf.getInt(payload + 20) & 0xffffffffL;
+                    duration = buf.getLong(payload + 24);
+                } else {
+                    track.timescale = buf.getInt(payload + 12) & 0xffffffffL;
+                    duration = buf.getInt(payload + 16) & 0xffffffffL;
+                }
+                track.durationUs = (track.timescale > 0) && (duration != 0xffffffffL) && (duration > 0)
+                    ? duration * 1000000L / track.timescale : 0;
+            } else if (type == BOX_HDLR) {
+                track.handler = buf.getInt(payload + 8);
+            } else if (type == BOX_STSD) {
+                // use first sample entry only
+                final int entry = payload + 8;
+                if (entry + 8 <= p + size) {
+                    parseSampleEntry(buf, entry, p + size, track);
+                }
+            }
+            p += size;
+        }
+        return track;
+    }
+
+    private static void parseSampleEntry(final ByteBuffer buf, final int p, final int end, final TrackInfo track) {
+        final int size = boxSize(buf, p, end);
+        if (size <= 0) return;
+        final int type = buf.getInt(p + 4);
+        final int payload = p + headerSize(buf, p);
+        final int entryEnd = p + size;
+        if ((type == BOX_AVC1) || (type == BOX_AVC3) || (type == BOX_HVC1)
+            || (type == BOX_HEV1) || (type == BOX_AV01)) {
+
+            track.width = buf.getShort(payload + 24) & 0xffff;
+            track.height = buf.getShort(payload + 26) & 0xffff;
+            final int children = payload + 78;
+            if ((type == BOX_AVC1) || (type == BOX_AVC3)) {
+                final int c = findChild(buf, children, entryEnd, BOX_AVCC);
+                if (c >= 0) {
+                    track.mime = "video/avc";
+                    parseAvcC(buf, c + 8, c + boxSize(buf, c, entryEnd), track);
+                }
+            } else if ((type == BOX_HVC1) || (type == BOX_HEV1)) {
+                final int c = findChild(buf, children, entryEnd, BOX_HVCC);
+                if (c >= 0) {
+                    track.mime = "video/hevc";
+                    parseHvcC(buf, c + 8, c + boxSize(buf, c, entryEnd), track);
+                }
+            } else {
+                final int c = findChild(buf, children, entryEnd, BOX_AV1C);
+                if (c >= 0) {
+                    track.mime = "video/av01";
+                    track.csd.add(copy(buf, c + 8, boxSize(buf, c, entryEnd) - 8));
+                }
+            }
+        } else if (type == BOX_MP4A) {
+            // version of QuickTime sound description
+            final int version = buf.getShort(payload + 8) & 0xffff;
+            track.channelCount = buf.getShort(payload + 16) & 0xffff;
+            track.sampleRate = (buf.getInt(payload + 24) >>> 16) & 0xffff;
+            final int children = payload + 28 + (version == 1 ? 16 : (version == 2 ? 36 : 0));
+            final int c = findChild(buf, children, entryEnd, BOX_ESDS);
+            if (c >= 0) {
+                parseEsds(buf, c + 12, c + boxSize(buf, c, entryEnd), track);
+            }
+        }
+    }
+
+    private static void parseAvcC(final ByteBuffer buf, final int start, final int end, final TrackInfo track) {
+        if (start + 7 > end) return;
+        track.nalLengthSize = (buf.get(start + 4) & 0x03) + 1;
+        int p = start + 5;
+        final int numSps = buf.get(p++) & 0x1f;
+        final byte[] sps = readNalArray(buf, p, end, numSps);
+        p = skipNalArray(buf, p, end, numSps);
+        if (p >= end) return;
+        final int numPps = buf.get(p++) & 0xff;
+        final byte[] pps = readNalArray(buf, p, end, numPps);
+        track.csd.add(sps);
+        track.csd.add(pps);
+    }
+
+    private static void parseHvcC(final ByteBuffer buf, final int start, final int end, final TrackInfo track) {
+        if (start + 23 > end) return;
+        track.nalLengthSize = (buf.get(start + 21) & 0x03) + 1;
+        final int numArrays = buf.get(start + 22) & 0xff;
+        int p = start + 23;
+        int total = 0;
+        // calculate size of csd-0 first
+        for (int i = 0, q = p; (i < numArrays) && (q + 3 <= end); i++) {
+            final int n = buf.getShort(q + 1) & 0xffff;
+            final int next = skipNalArray(buf, q + 3, end, n);
+            total += (next - (q + 3)) + n * (START_CODE.length - 2);
+            q = next;
+        }
+        final ByteBuffer csd = ByteBuffer.allocate(total);
+        for (int i = 0; (i < numArrays) && (p + 3 <= end); i++) {
+            final int n = buf.getShort(p + 1) & 0xffff;
+            csd.put(readNalArray(buf, p + 3, end, n));
+            p = skipNalArray(buf, p + 3, end, n);
+        }
+        track.csd.add(csd.array());
+    }
+
+    /**
+     * DecoderSpecificInfo in ES_Descriptor is codec specific data
+     */
+    private static void parseEsds(final ByteBuffer buf, final int start, final int end, final TrackInfo track) {
+        int p = start;
+        while (p < end) {
+            final int tag = buf.get(p++) & 0xff;
+            int len = 0;
+            for (int i = 0; (i < 4) && (p < end); i++) {
+                final int b = buf.get(p++) & 0xff;
+                len = (len << 7) | (b & 0x7f);
+                if ((b & 0x80) == 0) break;
+            }
+            if (tag == 0x03) {
+                // ES_Descriptor
+                final int flags = buf.get(p + 2) & 0xff;
+                p += 3;
+                if ((flags & 0x80) != 0) p += 2;
+                if ((flags & 0x40) != 0) p += 1 + (buf.get(p) & 0xff);
+                if ((flags & 0x20) != 0) p += 2;
+            } else if (tag == 0x04) {
+                // DecoderConfigDescriptor
+                final int objectType = buf.get(p) & 0xff;
+                track.mime = (objectType == 0x6b) || (objectType == 0x69) ? "audio/mpeg" : "audio/mp4a-latm";
+                p += 13;
+            } else if (tag == 0x05) {
+                // DecoderSpecificInfo
+                if (p + len <= end) {
+                    track.csd.add(copy(buf, p, len));
+                }
+                return;
+            } else {
+                p += len;
+            }
+        }
+    }
+
+    private static byte[] readNalArray(final ByteBuffer buf, final int start, final int end, final int n) {
+        final int next = skipNalArray(buf, start, end, n);
+        final ByteBuffer result = ByteBuffer.allocate((next - start) + n * (START_CODE.length - 2));
+        for (int i = 0, p = start; (i < n) && (p + 2 <= next); i++) {
+            final int len = buf.getShort(p) & 0xffff;
+            result.put(START_CODE);
+            result.put(copy(buf, p + 2, len));
+            p += 2 + len;
+        }
+        return result.array();
+    }
+
+    private static int skipNalArray(final ByteBuffer buf, final int start, final int end, final int n) {
+        int p = start;
+        for (int i = 0; (i < n) && (p + 2 <= end); i++) {
+            final int len = buf.getShort(p) & 0xffff;
+            if (p + 2 + len > end) break;
+            p += 2 + len;
+        }
+        return p;
+    }
+
+    private static byte[] copy(final ByteBuffer buf, final int start, final int len) {
+        final byte[] result = new byte[Math.max(len, 0)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = buf.get(start + i);
+        }
+        return result;
+    }
+
+    /**
+     * parse moof and append samples of specific track to table
+     * @return end position of sample data
+     * @throws IOException fields of traf exceed its box
+     */
+    private long parseMoof(final ByteBuffer buf, final long moofPos,
+        final TrackInfo track, final SampleTable table) throws IOException {
+
+        long dataEnd = 0;
+        final int end = buf.limit();
+        for (int p = headerSize(buf, 0); p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            if (buf.getInt(p + 4) == BOX_TRAF) {
+                dataEnd = Math.max(dataEnd,
+                    parseTraf(buf, p + headerSize(buf, p), p + size, moofPos, track, table));
+            }
+            p += size;
+        }
+        return dataEnd;
+    }
+
+    private long parseTraf(final ByteBuffer buf, final int start, final int end,
+        final long moofPos, final TrackInfo track, final SampleTable table) throws IOException {
+
+        long dataEnd = 0;
+        long base = moofPos;
+        long dataPos = -1;
+        int defaultDuration = track.defaultSampleDuration;
+        int defaultSize = track.defaultSampleSize;
+        int defaultFlags = track.defaultSampleFlags;
+        for (int p = start; p + 8 <= end; ) {
+            final int size = boxSize(buf, p, end);
+            if (size <= 0) break;
+            final int type = buf.getInt(p + 4);
+            final int payload = p + headerSize(buf, p);
+            final int boxEnd = p + size;
+            if ((type == BOX_TFHD) || (type == BOX_TFDT) || (type == BOX_TRUN)) {
+                // version and flags
+                checkFields(payload, 4, boxEnd, "traf child");
+            }
+            if (type == BOX_TFHD) {
+                checkFields(payload, 8
+                    + bitCount(buf, payload, TFHD_BASE_DATA_OFFSET) * 8
+                    + bitCount(buf, payload, TFHD_SAMPLE_DESCRIPTION_INDEX | TFHD_DEFAULT_SAMPLE_DURATION
+                        | TFHD_DEFAULT_SAMPLE_SIZE | TFHD_DEFAULT_SAMPLE_FLAGS) * 4, boxEnd, "tfhd");
+                final int flags = buf.getInt(payload) & 0xffffff;
+                if (buf.getInt(payload + 4) != track.trackId) {
+                    return 0;	// other track
+                }
+                int q = payload + 8;
+                if ((flags & TFHD_BASE_DATA_OFFSET) != 0) {
+                    base = buf.getLong(q); q += 8;
+                }
+                if ((flags & TFHD_SAMPLE_DESCRIPTION_INDEX) != 0) q += 4;
+                if ((flags & TFHD_DEFAULT_SAMPLE_DURATION) != 0) {
+                    defaultDuration = buf.getInt(q); q += 4;
+                }
+                if ((flags & TFHD_DEFAULT_SAMPLE_SIZE) != 0) {
+                    defaultSize = buf.getInt(q); q += 4;
+                }
+                if ((flags & TFHD_DEFAULT_SAMPLE_FLAGS) != 0) {
+                    defaultFlags = buf.getInt(q);
+                }
+            } else if (type == BOX_TFDT) {
+                final int version = buf.get(payload) & 0xff;
+                checkFields(payload, version == 1 ? 12 : 8, boxEnd, "tfdt");
+                track.nextDecodeTime = version == 1
+                    ? buf.getLong(payload + 4) : buf.getInt(payload + 4) & 0xffffffffL;
+            } else if (type == BOX_TRUN) {
+                checkFields(payload, 8
+                    + bitCount(buf, payload, TRUN_DATA_OFFSET | TRUN_FIRST_SAMPLE_FLAGS) * 4, boxEnd, "trun");
+                final int version = buf.get(payload) & 0xff;
+                final int flags = buf.getInt(payload) & 0xffffff;
+                final int count = buf.getInt(payload + 4);
+                int q = payload + 8;
+                if ((flags & TRUN_DATA_OFFSET) != 0) {
+                    dataPos = base + buf.getInt(q); q += 4;
+                } else if (dataPos < 0) {
+                    dataPos = base;
+                }
+                final boolean hasFirstFlags = (flags & TRUN_FIRST_SAMPLE_FLAGS) != 0;
+                int firstFlags = 0;
+                if (hasFirstFlags) {
+                    firstFlags = buf.getInt(q); q += 4;
+                }
+                // validate sample count before allocating the table
+                final int recordSize = bitCount(buf, payload, TRUN_SAMPLE_DURATION | TRUN_SAMPLE_SIZE
+                    | TRUN_SAMPLE_FLAGS | TRUN_SAMPLE_CTS_OFFSET) * 4;
+                if ((count < 0)
+                    || ((recordSize > 0) && ((long)count * recordSize > boxEnd - q))
+                    || ((recordSize == 0) && (count > MAX_TRUN_SAMPLES))) {
+
+                    throw new IOException("invalid trun sample count:" + count);
+                }
+                table.ensureCapacity(table.count + count);
+                for (int i = 0; i < count; i++) {
+                    int duration = defaultDuration;
+                    int sz = defaultSize;
+                    int sampleFlags = (i == 0) && hasFirstFlags ? firstFlags : defaultFlags;
+                    long ctsOffset = 0;
+                    if ((flags & TRUN_SAMPLE_DURATION) != 0) {
+                        duration = buf.getInt(q); q += 4;
+                    }
+                    if ((flags & TRUN_SAMPLE_SIZE) != 0) {
+                        sz = buf.getInt(q); q += 4;
+                    }
+                    if ((flags & TRUN_SAMPLE_FLAGS) != 0) {
+                        final int f = buf.getInt(q); q += 4;
+                        if ((i != 0) || !hasFirstFlags) sampleFlags = f;
+                    }
+                    if ((flags & TRUN_SAMPLE_CTS_OFFSET) != 0) {
+                        // unsigned on version 0, signed on version 1
+                        ctsOffset = version == 0 ? buf.getInt(q) & 0xffffffffL : buf.getInt(q);
+                        q += 4;
+                    }
+                    if (sz < 0) {
+                        throw new IOException("invalid trun sample size:" + sz);
+                    }
+                    final int ix = table.count++;
+                    table.offsets[ix] = dataPos;
+                    table.sizes[ix] = sz;
+                    table.timesUs[ix] = track.timescale > 0
+                        ? (track.nextDecodeTime + ctsOffset) * 1000000L / track.timescale : 0;
+                    table.syncs[ix] = track.isAudio() || ((sampleFlags & SAMPLE_IS_NON_SYNC) == 0);
+                    if (sz > table.maxSize) table.maxSize = sz;
+                    track.nextDecodeTime += duration & 0xffffffffL;
+                    dataPos += sz;
+                }
+                dataEnd = Math.max(dataEnd, dataPos);
+            }
+            p += size;
+        }
+        return dataEnd;
+    }
+
+    /**
+     * @return number of set bits of the mask in 24 bits flags of full box
+     */
+    private static int bitCount(final ByteBuffer buf, final int payload, final int mask) {
+        return Integer.bitCount(buf.getInt(payload) & mask);
+    }
+
+    /**
+     * @throws IOException fields of the box exceed the box
+     */
+    private static void checkFields(final int payload, final int length, final int boxEnd, final String box)
+        throws IOException {
+
+        if (payload + length > boxEnd) {
+            throw new IOException(box + " exceeds its box");
+        }
+    }
+
+    private static int fourcc(final String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+}
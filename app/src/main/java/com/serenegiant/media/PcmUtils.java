@@ -0,0 +1,214 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PcmUtils.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * helper methods to process 16 bit PCM that MediaCodec outputs.
+ * all methods work on caller supplied arrays and never allocate,
+ * this class does not depend on Android framework.
+ */
+public final class PcmUtils {
+    /** fixed point gain, 1.0 is 1 << GAIN_SHIFT */
+    private static final int GAIN_SHIFT = 15;
+    private static final int GAIN_UNITY = 1 << GAIN_SHIFT;
+    /** -3dB */
+    private static final int GAIN_MINUS_3DB = (int)(GAIN_UNITY * 0.70710678);
+
+    private PcmUtils() {
+    }
+
+    /**
+     * copy PCM in the codec output buffer to byte array
+     * @param src
+     * @param offset
+     * @param size
+     * @param dst should have at least size bytes
+     */
+    public static void copy(final ByteBuffer src, final int offset, final int size, final byte[] dst) {
+        src.position(offset);
+        src.get(dst, 0, size);
+        src.clear();
+    }
+
+    /**
+     * create down mix gains from channels to stereo.
+     * the channel order is same as Android channel mask, i.e. FL, FR, FC, LFE, BL, BR, SL, SR.
+     * center and surround channels are mixed with -3dB, LFE is discarded,
+     * and gains are normalized so that the output never clips.
+     * @param channels
+     * @return gains of left and right output for each input channel, length is channels * 2
+     */
+    public static int[] createDownmixGains(final int channels) {
+        final int[] gains = new int[channels * 2];
+        if (channels == 1) {
+            gains[0] = gains[1] = GAIN_UNITY;
+            return gains;
+        }
+        for (int ch = 0; ch < channels; ch++) {
+            switch (ch) {
+            case 0:	// front left
+                gains[ch * 2] = GAIN_UNITY;
+                break;
+            case 1:	// front right
+                gains[ch * 2 + 1] = GAIN_UNITY;
+                break;
+            case 2:	// front center
+                gains[ch * 2] = gains[ch * 2 + 1] = channels >= 3 ? GAIN_MINUS_3DB : 0;
+                break;
+            case 3:	// LFE
+                break;
+            default:
+                // surround channels are interleaved left/right
+                gains[ch * 2 + ((ch & 1) == 0 ? 0 : 1)] = GAIN_MINUS_3DB;
+                break;
+            }
+        }
+        // normalize
+        int sumL = 0, sumR = 0;
+        for (int ch = 0; ch < channels; ch++) {
+            sumL += gains[ch * 2];
+            sumR += gains[ch * 2 + 1];
+        }
+        final int sum = Math.max(sumL, sumR);
+        if (sum > GAIN_UNITY) {
+            for (int i = 0; i < gains.length; i++) {
+                gains[i] = (int)((long)gains[i] * GAIN_UNITY / sum);
+            }
+        }
+        return gains;
+    }
+
+    /**
+     * mix interleaved multi channel PCM down to interleaved stereo.
+     * byte order of src is changed to native order, same as MediaCodec outputs
+     * @param src
+     * @param offset
+     * @param channels
+     * @param frames
+     * @param gains created by #createDownmixGains
+     * @param dst should have at least frames * 2 samples
+     */
+    public static void downmixToStereo(final ByteBuffer src, final int offset, final int channels,
+        final int frames, final int[] gains, final short[] dst) {
+
+        src.order(ByteOrder.nativeOrder());
+        final int frameSize = channels * 2;
+        for (int i = 0, s = offset, d = 0; i < frames; i++, s += frameSize, d += 2) {
+            int l = 0, r = 0;
+            for (int ch = 0; ch < channels; ch++) {
+                final int v = src.getShort(s + ch * 2);
+                l += v * gains[ch * 2];
+                r += v * gains[ch * 2 + 1];
+            }
+            dst[d] = clip(l >> GAIN_SHIFT);
+            dst[d + 1] = clip(r >> GAIN_SHIFT);
+        }
+    }
+
+    /**
+     * read native order 16 bit samples
+     * @param src
+     * @param offset
+     * @param samples
+     * @param dst
+     */
+    public static void toShorts(final ByteBuffer src, final int offset, final int samples, final short[] dst) {
+        src.order(ByteOrder.nativeOrder());
+        for (int i = 0, s = offset; i < samples; i++, s += 2) {
+            dst[i] = src.getShort(s);
+        }
+    }
+
+    private static short clip(final int v) {
+        return (short)(v > Short.MAX_VALUE ? Short.MAX_VALUE : (v < Short.MIN_VALUE ? Short.MIN_VALUE : v));
+    }
+
+    /**
+     * linear interpolating resampler for interleaved 16 bit PCM.
+     * keeps the phase and the last frame between calls,
+     * so consecutive buffers are resampled without discontinuity.
+     */
+    public static final class LinearResampler {
+        private static final int PHASE_SHIFT = 16;
+        private static final long PHASE_ONE = 1L << PHASE_SHIFT;
+
+        private final int mChannels;
+        private final long mStep;
+        private final short[] mLast;
+        /** position of next output frame relative to mLast, PHASE_ONE is the first input frame */
+        private long mPhase;
+
+        public LinearResampler(final int channels, final int srcRate, final int dstRate) {
+            mChannels = channels;
+            mStep = ((long)srcRate << PHASE_SHIFT) / dstRate;
+            mLast = new short[channels];
+            mPhase = PHASE_ONE;
+        }
+
+        /**
+         * @param frames number of input frames
+         * @return maximum number of output frames for specific input frames
+         */
+        public int getMaxOutputFrames(final int frames) {
+            return (int)(((long)(frames + 1) << PHASE_SHIFT) / mStep) + 1;
+        }
+
+        public void reset() {
+            mPhase = PHASE_ONE;
+            for (int ch = 0; ch < mChannels; ch++) {
+                mLast[ch] = 0;
+            }
+        }
+
+        /**
+         * @param src interleaved input
+         * @param frames number of input frames
+         * @param dst interleaved output, should have at least #getMaxOutputFrames * channels samples
+         * @return number of output frames
+         */
+        public int resample(final short[] src, final int frames, final short[] dst) {
+            if (frames <= 0) return 0;
+            final int channels = mChannels;
+            final long end = (long)frames << PHASE_SHIFT;
+            int d = 0;
+            long phase = mPhase;
+            for (; phase <= end; phase += mStep) {
+                // interpolate between input frame ix - 1 and ix, ix == 0 means mLast
+                final int ix = (int)(phase >> PHASE_SHIFT);
+                final int frac = (int)(phase & (PHASE_ONE - 1));
+                for (int ch = 0; ch < channels; ch++) {
+                    final int a = ix == 0 ? mLast[ch] : src[(ix - 1) * channels + ch];
+                    final int b = ix < frames ? src[ix * channels + ch] : a;
+                    dst[d++] = (short)(a + (((b - a) * frac) >> PHASE_SHIFT));
+                }
+            }
+            mPhase = phase - end;
+            System.arraycopy(src, (frames - 1) * channels, mLast, 0, channels);
+            return d / channels;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PipelineLatencyTracker.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.Arrays;
+
+/**
+ * per-frame latency instrumentation of decoding pipeline.
+ * each sample is timestamped when it is read from demuxer, queued to codec,
+ * dequeued from decoder output and rendered(or written to AudioTrack),
+ * and the latencies between stages are recorded into LatencyHistogram.
+ * timestamps are kept in a small open addressing ring keyed by presentation time because
+ * decoder may reorder frames, the oldest sample is overwritten when the ring is full
+ * and counted as TrackSnapshot#overwrites. each track should be updated from single thread
+ * (the decode thread of the track), snapshot can be taken from any thread.
+ * this class does not depend on Android framework.
+ */
+public class PipelineLatencyTracker {
+    public static final int TRACK_VIDEO = 0;
+    public static final int TRACK_AUDIO = 1;
+
+    /**
+     * latencies of one track in micro seconds
+     */
+    public static final class TrackSnapshot {
+        /** demux to queue to codec */
+        public final LatencyHistogram.Snapshot demux;
+        /** queue to codec to decoder output */
+        public final LatencyHistogram.Snapshot decode;
+        /** decoder output to render/AudioTrack write, this includes waiting for presentation time */
+        public final LatencyHistogram.Snapshot render;
+        /** demux to render/AudioTrack write */
+        public final LatencyHistogram.Snapshot total;
+        /** number of in-flight samples that were overwritten before rendered because the ring was full */
+        public final long overwrites;
+
+        private TrackSnapshot(final Track track) {
+            demux = track.demux.getSnapshot();
+            decode = track.decode.getSnapshot();
+            render = track.render.getSnapshot();
+            total = track.total.getSnapshot();
+            overwrites = track.overwrites;
+        }
+
+        @Override
+        public String toString() {
+            return "{demux=" + demux + ",decode=" + decode
+                + ",render=" + render + ",total=" + total + ",overwrites=" + overwrites + "}";
+        }
+    }
+
+    /**
+     * latencies of video and audio track
+     */
+    public static final class Snapshot {
+        public final TrackSnapshot video;
+        public final TrackSnapshot audio;
+
+        private Snapshot(final TrackSnapshot video, final TrackSnapshot audio) {
+            this.video = video;
+            this.audio = audio;
+        }
+
+        @Override
+        public String toString() {
+            return "Latency[us]{video=" + video + ",audio=" + audio + "}";
+        }
+    }
+
+    /** number of in-flight samples that can be tracked at the same time, must be power of 2 */
+    private static final int RING_SIZE = 64;
+    private static final long NONE = Long.MIN_VALUE;
+
+    private static final class Track {
+        private final LatencyHistogram demux = new LatencyHistogram();
+        private final LatencyHistogram decode = new LatencyHistogram();
+        private final LatencyHistogram render = new LatencyHistogram();
+        private final LatencyHistogram total = new LatencyHistogram();
+        // ring of in-flight samples, accessed only from decode thread of this track
+        private final long[] ptsUs = new long[RING_SIZE];
+        private final long[] demuxNs = new long[RING_SIZE];
+        private final long[] queuedNs = new long[RING_SIZE];
+        private final long[] outputNs = new long[RING_SIZE];
+        private volatile long overwrites;
+
+        private Track() {
+            Arrays.fill(ptsUs, NONE);
+        }
+
+        private void reset() {
+            demux.reset();
+            decode.reset();
+            render.reset();
+            total.reset();
+            Arrays.fill(ptsUs, NONE);
+            overwrites = 0;
+        }
+
+        /**
+         * probe linearly from the slot of the presentation time,
+         * free slots do not terminate the probe because samples are removed in any order
+         * @return slot index for the presentation time, -1 if not tracked
+         */
+        private int find(final long pts) {
+            final int home = slot(pts);
+            for (int i = 0; i < RING_SIZE; i++) {
+                final int ix = (home + i) & (RING_SIZE - 1);
+                if (ptsUs[ix] == pts) return ix;
+            }
+            return -1;
+        }
+
+        /**
+         * @return slot index to store the presentation time, the slot of same presentation time
+         *         (e.g. queued again after seeking), first free slot, or the oldest sample when full
+         */
+        private int acquire(final long pts) {
+            final int home = slot(pts);
+            int free = -1, oldest = home;
+            for (int i = 0; i < RING_SIZE; i++) {
+                final int ix = (home + i) & (RING_SIZE - 1);
+                final long p = ptsUs[ix];
+                if (p == pts) {
+                    return ix;
+                } else if (p == NONE) {
+                    if (free < 0) free = ix;
+                } else if (queuedNs[ix] - queuedNs[oldest] < 0) {
+                    oldest = ix;
+                }
+            }
+            if (free >= 0) return free;
+            overwrites++;
+            return oldest;
+        }
+    }
+
+    private final Track[] mTracks = { new Track(), new Track() };
+    private volatile boolean mEnabled = true;
+
+    public void setEnabled(final boolean enabled) {
+        mEnabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * sample was read from demuxer and queued to codec
+     * @param track TRACK_VIDEO or TRACK_AUDIO
+     * @param presentationTimeUs
+     * @param demuxNs System#nanoTime when reading sample started
+     * @param queuedNs System#nanoTime after the sample was queued
+     */
+    public void onQueued(final int track, final long presentationTimeUs,
+        final long demuxNs, final long queuedNs) {
+
+        if (!mEnabled) return;
+        final Track t = mTracks[track];
+        final int ix = t.acquire(presentationTimeUs);
+        t.ptsUs[ix] = presentationTimeUs;
+        t.demuxNs[ix] = demuxNs;
+        t.queuedNs[ix] = queuedNs;
+        t.outputNs[ix] = NONE;
+        t.demux.record((queuedNs - demuxNs) / 1000);
+    }
+
+    /**
+     * decoded sample was dequeued from decoder
+     * @param track
+     * @param presentationTimeUs
+     * @param nowNs System#nanoTime
+     */
+    public void onOutput(final int track, final long presentationTimeUs, final long nowNs) {
+        if (!mEnabled) return;
+        final Track t = mTracks[track];
+        final int ix = t.find(presentationTimeUs);
+        if (ix >= 0) {
+            t.outputNs[ix] = nowNs;
+            t.decode.record((nowNs - t.queuedNs[ix]) / 1000);
+        }
+    }
+
+    /**
+     * decoded sample was rendered or written to AudioTrack.
+     * samples that are dropped without rendering are not counted(see #onDropped),
+     * samples that were queued before seeking are reused by same presentation time or evicted as oldest
+     * @param track
+     * @param presentationTimeUs
+     * @param nowNs System#nanoTime
+     */
+    public void onRendered(final int track, final long presentationTimeUs, final long nowNs) {
+        if (!mEnabled) return;
+        final Track t = mTracks[track];
+        final int ix = t.find(presentationTimeUs);
+        if ((ix >= 0) && (t.outputNs[ix] != NONE)) {
+            t.render.record((nowNs - t.outputNs[ix]) / 1000);
+            t.total.record((nowNs - t.demuxNs[ix]) / 1000);
+            t.ptsUs[ix] = NONE;
+        }
+    }
+
+    /**
+     * decoded sample was released without rendering, e.g. late frame or pre-roll
+     * @param track
+     * @param presentationTimeUs
+     */
+    public void onDropped(final int track, final long presentationTimeUs) {
+        if (!mEnabled) return;
+        final Track t = mTracks[track];
+        final int ix = t.find(presentationTimeUs);
+        if (ix >= 0) {
+            t.ptsUs[ix] = NONE;
+        }
+    }
+
+    /**
+     * clear all histograms and in-flight samples,
+     * this should be called while the decode threads are not running
+     */
+    public void reset() {
+        for (final Track t: mTracks) {
+            t.reset();
+        }
+    }
+
+    /**
+     * this allocates Snapshot, 2 TrackSnapshots and their histogram snapshots,
+     * so this is for periodic reporting, not for calling on every frame
+     * @return
+     */
+    public Snapshot getSnapshot() {
+        return new Snapshot(new TrackSnapshot(mTracks[TRACK_VIDEO]),
+            new TrackSnapshot(mTracks[TRACK_AUDIO]));
+    }
+
+    private static int slot(final long pts) {
+        final long h = pts * 0x9E3779B97F4A7C15L;
+        return (int)(h >>> 58) & (RING_SIZE - 1);
+    }
+}
@@ -0,0 +1,308 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SegmentCache.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * size-bounded on-disk LRU cache of fixed-size segments of remote movies.
+ * each segment is stored as a file named "<key>_<index>.seg" in the cache directory,
+ * least recently used segments are deleted when total size exceeds the limit.
+ * total length and validator(ETag or Last-Modified) of each movie are stored as "<key>.len",
+ * it is deleted with the last segment of the movie.
+ * segments that were left in the directory are reused (ordered by last modified time).
+ * this class does not depend on Android framework,
+ * you should share one instance for each cache directory.
+ */
+public class SegmentCache {
+    private static final String SEGMENT_EXT = ".seg";
+    private static final String LENGTH_EXT = ".len";
+
+    private final File mDir;
+    private final long mMaxBytes;
+    /** file name => size of segment, in access order */
+    private final LinkedHashMap<String, Long> mEntries
+        = new LinkedHashMap<String, Long>(64, 0.75f, true);
+    /** key => number of cached segments */
+    private final Map<String, Integer> mSegmentCounts = new HashMap<String, Integer>();
+    private long mTotalBytes;
+
+    /**
+     * @param dir cache directory
+     * @param maxBytes maximum total size of segments
+     */
+    public SegmentCache(final File dir, final long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        dir.mkdirs();
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(final File f1, final File f2) {
+                    return Long.compare(f1.lastModified(), f2.lastModified());
+                }
+            });
+            for (final File file: files) {
+                if (file.getName().endsWith(SEGMENT_EXT)) {
+                    mEntries.put(file.getName(), file.length());
+                    mTotalBytes += file.length();
+                    addCount(keyOf(file.getName()), 1);
+                }
+            }
+            // length files without segments were left by older version or interrupted eviction
+            for (final File file: files) {
+                final String name = file.getName();
+                if (name.endsWith(LENGTH_EXT)
+                    && !mSegmentCounts.containsKey(name.substring(0, name.length() - LENGTH_EXT.length()))) {
+
+                    file.delete();
+                }
+            }
+        }
+        trim();
+    }
+
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return total size of cached segments
+     */
+    public synchronized long getCacheSize() {
+        return mTotalBytes;
+    }
+
+    public synchronized boolean contains(final String key, final long index) {
+        return mEntries.containsKey(segmentName(key, index));
+    }
+
+    /**
+     * read cached segment
+     * @param key
+     * @param index
+     * @return null if the segment is not cached
+     */
+    public synchronized byte[] get(final String key, final long index) {
+        final String name = segmentName(key, index);
+        final Long size = mEntries.get(name);	// this also moves the entry to the tail
+        if (size == null) return null;
+        final File file = new File(mDir, name);
+        final byte[] result = new byte[(int)(long)size];
+        try (final InputStream in = new FileInputStream(file)) {
+            int n = 0;
+            while (n < result.length) {
+                final int r = in.read(result, n, result.length - n);
+                if (r < 0) throw new IOException("segment is truncated");
+                n += r;
+            }
+            return result;
+        } catch (final IOException e) {
+            removeSegment(name);
+            return null;
+        }
+    }
+
+    /**
+     * add segment to the cache, least recently used segments are evicted if required
+     * @param key
+     * @param index
+     * @param data
+     * @param length
+     */
+    public synchronized void put(final String key, final long index,
+        final byte[] data, final int length) {
+
+        if (length > mMaxBytes) return;
+        final String name = segmentName(key, index);
+        // counted before replacing the segment so that the length file is kept
+        addCount(key, 1);
+        removeSegment(name);
+        try (final OutputStream out = new FileOutputStream(new File(mDir, name))) {
+            out.write(data, 0, length);
+        } catch (final IOException e) {
+            new File(mDir, name).delete();
+            addCount(key, -1);
+            return;
+        }
+        mEntries.put(name, (long)length);
+        mTotalBytes += length;
+        trim();
+    }
+
+    /**
+     * @param key
+     * @return total length of the movie that was saved with #putLength, -1 if unknown
+     */
+    public synchronized long getLength(final String key) {
+        final String[] values = readLengthFile(key);
+        if (values != null) {
+            try {
+                return Long.parseLong(values[0].trim());
+            } catch (final NumberFormatException e) {
+                new File(mDir, key + LENGTH_EXT).delete();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param key
+     * @return validator of the movie that was saved with #putLength, null if unknown
+     */
+    public synchronized String getValidator(final String key) {
+        final String[] values = readLengthFile(key);
+        return (values != null) && (values.length > 1) && !values[1].isEmpty() ? values[1] : null;
+    }
+
+    /**
+     * save total length and validator of the movie,
+     * they are kept while any segment of the movie is cached
+     * @param key
+     * @param length
+     * @param validator ETag or Last-Modified of the movie, null if the server does not send them
+     */
+    public synchronized void putLength(final String key, final long length, final String validator) {
+        try (final OutputStream out = new FileOutputStream(new File(mDir, key + LENGTH_EXT))) {
+            out.write((length + "\n" + (validator != null ? validator : "")).getBytes("UTF-8"));
+        } catch (final IOException e) {
+            // ignore, the length is requested from the server again
+        }
+    }
+
+    /**
+     * delete all cached segments and length of specific movie, e.g. when the movie was changed on the server
+     * @param key
+     */
+    public synchronized void remove(final String key) {
+        final String prefix = key + "_";
+        final Iterator<Map.Entry<String, Long>> iter = mEntries.entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<String, Long> entry = iter.next();
+            if (entry.getKey().startsWith(prefix)) {
+                mTotalBytes -= entry.getValue();
+                new File(mDir, entry.getKey()).delete();
+                iter.remove();
+            }
+        }
+        mSegmentCounts.remove(key);
+        new File(mDir, key + LENGTH_EXT).delete();
+    }
+
+    /**
+     * delete all cached segments
+     */
+    public synchronized void clear() {
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (final File file: files) {
+                final String name = file.getName();
+                if (name.endsWith(SEGMENT_EXT) || name.endsWith(LENGTH_EXT)) {
+                    file.delete();
+                }
+            }
+        }
+        mEntries.clear();
+        mSegmentCounts.clear();
+        mTotalBytes = 0;
+    }
+
+    private void removeSegment(final String name) {
+        final Long size = mEntries.remove(name);
+        if (size != null) {
+            mTotalBytes -= size;
+            new File(mDir, name).delete();
+            addCount(keyOf(name), -1);
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Long>> iter = mEntries.entrySet().iterator();
+        while ((mTotalBytes > mMaxBytes) && iter.hasNext()) {
+            final Map.Entry<String, Long> entry = iter.next();
+            mTotalBytes -= entry.getValue();
+            new File(mDir, entry.getKey()).delete();
+            iter.remove();
+            addCount(keyOf(entry.getKey()), -1);
+        }
+    }
+
+    /**
+     * update number of segments of the movie, length file is deleted with the last segment
+     * @param key
+     * @param delta
+     */
+    private void addCount(final String key, final int delta) {
+        final Integer count = mSegmentCounts.get(key);
+        final int n = (count != null ? count : 0) + delta;
+        if (n > 0) {
+            mSegmentCounts.put(key, n);
+        } else {
+            mSegmentCounts.remove(key);
+            new File(mDir, key + LENGTH_EXT).delete();
+        }
+    }
+
+    /**
+     * @param key
+     * @return lines of length file, null if the file does not exist or can't be read
+     */
+    private String[] readLengthFile(final String key) {
+        final File file = new File(mDir, key + LENGTH_EXT);
+        if (!file.exists()) return null;
+        try (final InputStream in = new FileInputStream(file)) {
+            final byte[] buf = new byte[(int)Math.min(file.length(), 4096)];
+            int n = 0;
+            while (n < buf.length) {
+                final int r = in.read(buf, n, buf.length - n);
+                if (r < 0) break;
+                n += r;
+            }
+            return n > 0 ? new String(buf, 0, n, "UTF-8").split("\n", 2) : null;
+        } catch (final IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    private static String keyOf(final String segmentName) {
+        return segmentName.substring(0, segmentName.lastIndexOf('_'));
+    }
+
+    private static String segmentName(final String key, final long index) {
+        return key + "_" + index + SEGMENT_EXT;
+    }
+}
@@ -0,0 +1,150 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StartupReport.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * breakdown of startup latency of MediaMoviePlayer from constructor(or prepare request)
+ * to the first rendered video frame and the first audio write.
+ * all times are elapsed time from the origin(the first recorded mark) in micro seconds,
+ * -1 if the mark was not recorded(e.g. the movie has no audio track).
+ */
+public final class StartupReport {
+    /** MediaMoviePlayer constructor, only recorded for the first playing after construction */
+    public static final int MARK_CONSTRUCTED = 0;
+    /** MediaMoviePlayer#prepare was called */
+    public static final int MARK_PREPARE_REQUESTED = 1;
+    /** player thread started preparing */
+    public static final int MARK_PREPARE_STARTED = 2;
+    /** MediaMetadataRetriever opened the movie */
+    public static final int MARK_METADATA_READY = 3;
+    /** video extractor opened and video track selected */
+    public static final int MARK_VIDEO_EXTRACTOR_READY = 4;
+    /** audio extractor opened and audio track selected */
+    public static final int MARK_AUDIO_EXTRACTOR_READY = 5;
+    /** AudioTrack created and started */
+    public static final int MARK_AUDIO_TRACK_READY = 6;
+    /** just before IFrameCallback#onPrepared */
+    public static final int MARK_PREPARED = 7;
+    /** IFrameCallback#onPrepared returned */
+    public static final int MARK_PREPARED_CALLBACK_RETURNED = 8;
+    /** MediaMoviePlayer#play was called */
+    public static final int MARK_START_REQUESTED = 9;
+    /** player thread started playing */
+    public static final int MARK_START_STARTED = 10;
+    /** video decoder created, configured and started */
+    public static final int MARK_VIDEO_CODEC_STARTED = 11;
+    /** audio decoder created, configured and started */
+    public static final int MARK_AUDIO_CODEC_STARTED = 12;
+    /** first releaseOutputBuffer(.., true) */
+    public static final int MARK_FIRST_VIDEO_FRAME = 13;
+    /** first write to AudioTrack */
+    public static final int MARK_FIRST_AUDIO_WRITE = 14;
+    public static final int MARK_NUM = 15;
+
+    private static final String[] NAMES = {
+        "constructed",
+        "prepareRequested",
+        "prepareStarted",
+        "metadataReady",
+        "videoExtractorReady",
+        "audioExtractorReady",
+        "audioTrackReady",
+        "prepared",
+        "preparedCallbackReturned",
+        "startRequested",
+        "startStarted",
+        "videoCodecStarted",
+        "audioCodecStarted",
+        "firstVideoFrame",
+        "firstAudioWrite",
+    };
+
+    private final long[] mElapsedUs;
+
+    /**
+     * @param marksNs System#nanoTime of each mark, 0 if not recorded
+     */
+    StartupReport(final long[] marksNs) {
+        long origin = Long.MAX_VALUE;
+        for (final long t: marksNs) {
+            if ((t != 0) && (t < origin)) origin = t;
+        }
+        mElapsedUs = new long[MARK_NUM];
+        for (int i = 0; i < MARK_NUM; i++) {
+            mElapsedUs[i] = marksNs[i] != 0 ? (marksNs[i] - origin) / 1000 : -1;
+        }
+    }
+
+    public static String getName(final int mark) {
+        return NAMES[mark];
+    }
+
+    /**
+     * @param mark MARK_XXX
+     * @return elapsed time from the origin in micro seconds, -1 if not recorded
+     */
+    public long getElapsedUs(final int mark) {
+        return mElapsedUs[mark];
+    }
+
+    /**
+     * @param from MARK_XXX
+     * @param to MARK_XXX
+     * @return duration between two marks in micro seconds, -1 if either mark was not recorded
+     */
+    public long getDurationUs(final int from, final int to) {
+        final long t0 = mElapsedUs[from];
+        final long t1 = mElapsedUs[to];
+        return (t0 >= 0) && (t1 >= 0) ? t1 - t0 : -1;
+    }
+
+    /**
+     * @return elapsed time from the origin until both first video frame and first audio write
+     */
+    public long getTimeToFirstFrameUs() {
+        return Math.max(mElapsedUs[MARK_FIRST_VIDEO_FRAME], mElapsedUs[MARK_FIRST_AUDIO_WRITE]);
+    }
+
+    /**
+     * @return mark name => elapsed time in micro seconds, marks that were not recorded are omitted.
+     * this is useful to send the report as structured data(e.g. json)
+     */
+    public Map<String, Long> toMap() {
+        final Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < MARK_NUM; i++) {
+            if (mElapsedUs[i] >= 0) {
+                result.put(NAMES[i], mElapsedUs[i]);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "StartupReport[us]" + toMap();
+    }
+}
@@ -0,0 +1,80 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: StartupTracer.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.Arrays;
+
+/**
+ * collects startup marks from caller, player and decode threads
+ * and builds StartupReport once the first video frame and audio write are done
+ */
+class StartupTracer {
+    /** async trace section from prepare request to first video frame, used by macrobenchmark */
+    static final String TRACE_TIME_TO_FIRST_FRAME = "MoviePlayer:timeToFirstFrame";
+
+    private final long[] mMarksNs = new long[StartupReport.MARK_NUM];
+    private boolean mReported;
+
+    /**
+     * start new session, all marks except MARK_CONSTRUCTED are cleared
+     * and MARK_CONSTRUCTED is also cleared if the session was already reported
+     */
+    synchronized void reset() {
+        final long constructed = mReported ? 0 : mMarksNs[StartupReport.MARK_CONSTRUCTED];
+        Arrays.fill(mMarksNs, 0);
+        mMarksNs[StartupReport.MARK_CONSTRUCTED] = constructed;
+        mReported = false;
+    }
+
+    /**
+     * record current time, only first call for each mark in the session is recorded
+     * @param mark StartupReport.MARK_XXX
+     */
+    synchronized void mark(final int mark) {
+        if (mMarksNs[mark] == 0) {
+            mMarksNs[mark] = System.nanoTime();
+            if (mark == StartupReport.MARK_PREPARE_REQUESTED) {
+                MediaTrace.beginAsyncSection(TRACE_TIME_TO_FIRST_FRAME, 0);
+            } else if (mark == StartupReport.MARK_FIRST_VIDEO_FRAME) {
+                MediaTrace.endAsyncSection(TRACE_TIME_TO_FIRST_FRAME, 0);
+            }
+        }
+    }
+
+    /**
+     * @param waitVideo
+     * @param waitAudio
+     * @return report if all required marks were recorded, null if not yet or already reported
+     */
+    synchronized StartupReport complete(final boolean waitVideo, final boolean waitAudio) {
+        if (mReported
+            || (waitVideo && (mMarksNs[StartupReport.MARK_FIRST_VIDEO_FRAME] == 0))
+            || (waitAudio && (mMarksNs[StartupReport.MARK_FIRST_AUDIO_WRITE] == 0))) {
+
+            return null;
+        }
+        mReported = true;
+        return new StartupReport(mMarksNs);
+    }
+}
@@ -0,0 +1,306 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SurfaceFanout.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.SurfaceTexture;
+import android.opengl.GLES20;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.serenegiant.glutils.EGLBase;
+import com.serenegiant.glutils.GLDrawer2D;
+import com.serenegiant.glutils.RenderHandler;
+
+/**
+ * draws decoded frames to multiple surfaces, e.g. main screen, Presentation display and preview tile,
+ * so that one decoder feeds all of them. pass #getInputSurface to the player as its output surface.
+ * the decoder renders into SurfaceTexture on the master EGL context, and each output draws the texture
+ * on its own RenderHandler thread with shared context and its own model view projection matrix.
+ * next frame is latched after all outputs finished drawing current frame, so a slow output
+ * throttles the decoder instead of showing torn frames. if the outputs do not finish within
+ * DRAW_TIMEOUT_MS, latching is retried on the master thread, and only the newest frame is latched
+ * when more frames arrived meanwhile.
+ */
+public class SurfaceFanout implements SurfaceTexture.OnFrameAvailableListener {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "SurfaceFanout";
+
+    /** maximum time to wait for all outputs to finish drawing previous frame */
+    private static final long DRAW_TIMEOUT_MS = 100;
+
+    private final int mWidth, mHeight;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final List<Output> mOutputs = new ArrayList<Output>();
+    /** copy of mOutputs to wait and draw without holding the lock, used only on master thread */
+    private final List<Output> mDrawing = new ArrayList<Output>();
+    private final float[] mTexMatrix = new float[16];
+    private EGLBase mEgl;
+    private EGLBase.EglSurface mMasterSurface;
+    private int mTexId;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mInputSurface;
+    private int mFrames;
+    private int mLateFrames;
+    /** number of frames that are not latched yet, used only on master thread */
+    private int mPendingFrames;
+
+    private static final class Output {
+        private final Surface surface;
+        private final RenderHandler handler;
+        /** texture matrix of the frame being drawn by this output, RenderHandler#draw does not copy it */
+        private final float[] texMatrix = new float[16];
+
+        private Output(final Surface surface, final RenderHandler handler) {
+            this.surface = surface;
+            this.handler = handler;
+        }
+    }
+
+    /**
+     * @param width size of the video
+     * @param height
+     */
+    public SurfaceFanout(final int width, final int height) {
+        mWidth = width;
+        mHeight = height;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        HandlerUtils.runAndWait(mHandler, new Runnable() {
+            @Override
+            public void run() {
+                mEgl = new EGLBase(null, false);
+                // the master context does not draw, pbuffer is only to make it current
+                mMasterSurface = mEgl.createOffscreen(1, 1);
+                mMasterSurface.makeCurrent();
+                mTexId = GLDrawer2D.initTex();
+                mSurfaceTexture = new SurfaceTexture(mTexId);
+                mSurfaceTexture.setDefaultBufferSize(mWidth, mHeight);
+                mSurfaceTexture.setOnFrameAvailableListener(SurfaceFanout.this, mHandler);
+                mInputSurface = new Surface(mSurfaceTexture);
+            }
+        });
+    }
+
+    /**
+     * @return surface that the player should output decoded frames to
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    /**
+     * add output surface, frames are drawn from next decoded frame
+     * @param surface
+     * @param mvpMatrix 4x4 column-major matrix to transform the video on this surface,
+     *                  e.g. GLMatrix#setAspectFit, null for identity(stretch to the surface)
+     */
+    public void addOutput(@NonNull final Surface surface, @Nullable final float[] mvpMatrix) {
+        if (DEBUG) Log.v(TAG, "addOutput:" + surface);
+        final RenderHandler handler;
+        synchronized (mOutputs) {
+            if (mEgl == null) {
+                throw new IllegalStateException("already released");
+            }
+            if (find(surface) != null) return;
+            handler = RenderHandler.createHandler(TAG + ":" + mOutputs.size());
+            handler.setEglContext(mEgl.getContext(), mTexId, surface);
+            if (mvpMatrix != null) {
+                handler.setMvpMatrix(mvpMatrix);
+            }
+            mOutputs.add(new Output(surface, handler));
+        }
+    }
+
+    /**
+     * change the transform of the output, e.g. when the size of the view changed
+     * @param surface
+     * @param mvpMatrix 4x4 column-major matrix
+     */
+    public void setTransform(@NonNull final Surface surface, @NonNull final float[] mvpMatrix) {
+        synchronized (mOutputs) {
+            final Output output = find(surface);
+            if (output != null) {
+                output.handler.setMvpMatrix(mvpMatrix);
+            }
+        }
+    }
+
+    /**
+     * remove output surface, this returns after EGL resources of the output are released,
+     * so this can be called from SurfaceHolder.Callback#surfaceDestroyed
+     * @param surface
+     */
+    public void removeOutput(@NonNull final Surface surface) {
+        if (DEBUG) Log.v(TAG, "removeOutput:" + surface);
+        final Output output;
+        synchronized (mOutputs) {
+            output = find(surface);
+            if (output == null) return;
+            mOutputs.remove(output);
+        }
+        output.handler.releaseAndWait();
+    }
+
+    public int getOutputCount() {
+        synchronized (mOutputs) {
+            return mOutputs.size();
+        }
+    }
+
+    /**
+     * @return number of latched frames
+     */
+    public synchronized int getFrameCount() {
+        return mFrames;
+    }
+
+    /**
+     * @return number of frames that were skipped because an output did not finish drawing previous frame
+     */
+    public synchronized int getLateFrameCount() {
+        return mLateFrames;
+    }
+
+    /**
+     * release all outputs and the input surface after the player stopped
+     */
+    public void release() {
+        if (DEBUG) Log.v(TAG, "release:");
+        final List<Output> outputs;
+        synchronized (mOutputs) {
+            outputs = new ArrayList<Output>(mOutputs);
+            mOutputs.clear();
+        }
+        for (final Output output: outputs) {
+            output.handler.releaseAndWait();
+        }
+        HandlerUtils.runAndWait(mHandler, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mOutputs) {
+                    if (mEgl == null) return;
+                    mSurfaceTexture.setOnFrameAvailableListener(null);
+                    mInputSurface.release();
+                    mSurfaceTexture.release();
+                    mMasterSurface.makeCurrent();
+                    GLDrawer2D.deleteTex(mTexId);
+                    mMasterSurface.release();
+                    mEgl.release();
+                    mEgl = null;
+                }
+            }
+        });
+        mThread.quitSafely();
+    }
+
+    /**
+     * this is called on master thread
+     * @param surfaceTexture
+     */
+    @Override
+    public void onFrameAvailable(final SurfaceTexture surfaceTexture) {
+        mPendingFrames++;
+        latch();
+    }
+
+    /**
+     * retry latching the pending frame after the outputs did not finish within DRAW_TIMEOUT_MS,
+     * otherwise the last frame(e.g. at the end of stream) is not shown until next frame arrives
+     */
+    private final Runnable mLatchTask = new Runnable() {
+        @Override
+        public void run() {
+            latch();
+        }
+    };
+
+    /**
+     * latch pending frame and request all outputs to draw it, this is called on master thread.
+     * outputs are waited without holding the lock, so #addOutput and #removeOutput do not block
+     */
+    private void latch() {
+        if (mPendingFrames <= 0) return;
+        synchronized (mOutputs) {
+            if (mEgl == null) return;
+            mDrawing.addAll(mOutputs);
+        }
+        try {
+            // the texture is shared, so it should not be updated while the outputs are drawing it.
+            // all outputs share one deadline so that the decoder is not blocked longer with more outputs
+            final long deadline = SystemClock.elapsedRealtime() + DRAW_TIMEOUT_MS;
+            final int n = mDrawing.size();
+            for (int i = 0; i < n; i++) {
+                final long remaining = Math.max(deadline - SystemClock.elapsedRealtime(), 0);
+                if (!mDrawing.get(i).handler.waitDrawn(remaining)) {
+                    mHandler.removeCallbacks(mLatchTask);
+                    mHandler.post(mLatchTask);
+                    return;
+                }
+            }
+            mMasterSurface.makeCurrent();
+            if (mPendingFrames > 1) {
+                synchronized (this) {
+                    mLateFrames += mPendingFrames - 1;
+                }
+            }
+            // latch newest frame, frames that were skipped are released
+            for (; mPendingFrames > 0; mPendingFrames--) {
+                mSurfaceTexture.updateTexImage();
+            }
+            mSurfaceTexture.getTransformMatrix(mTexMatrix);
+            // the outputs see new image after the commands of this context are finished
+            GLES20.glFinish();
+            for (int i = 0; i < n; i++) {
+                final Output output = mDrawing.get(i);
+                System.arraycopy(mTexMatrix, 0, output.texMatrix, 0, 16);
+                output.handler.draw(mTexId, output.texMatrix);
+            }
+            synchronized (this) {
+                mFrames++;
+            }
+        } finally {
+            mDrawing.clear();
+        }
+    }
+
+    private Output find(final Surface surface) {
+        for (final Output output: mOutputs) {
+            if (output.surface == surface) {
+                return output;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,231 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: VsyncScheduler.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Choreographer;
+
+/**
+ * aligns render time of video frames with vsync of the display.
+ * each frame is released to the decoder with the timestamp a little before the vsync
+ * that is closest to its target time, so that the compositor latches it on that vsync
+ * instead of the one that follows an arbitrary wake up of the decode thread.
+ * vsync timing comes from Choreographer after #start if this scheduler uses it,
+ * otherwise the vsync grid starts at 0 with the period of the given refresh rate(e.g. for VirtualClock).
+ * cadence error is the distance between target time and the vsync that was chosen.
+ * a frame is counted as judder when its interval in vsyncs is neither floor nor ceil of
+ * the ideal one, e.g. 2 or 3 vsyncs for 24fps on 60Hz is not judder but 1 or 4 is.
+ */
+public class VsyncScheduler {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "VsyncScheduler";
+
+    public static final float DEFAULT_REFRESH_RATE = 60.0f;
+    /** frames are released to the decoder this number of vsyncs before its render time */
+    public static final int RELEASE_AHEAD_VSYNCS = 2;
+    /** render timestamp is this percentage of vsync period before the vsync */
+    private static final int RENDER_OFFSET_PERCENT = 80;
+    /** weight of new vsync interval for smoothed vsync period */
+    private static final int PERIOD_SMOOTHING = 8;
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    /**
+     * snapshot of statistics since reset
+     */
+    public static final class Stats {
+        public final long frames;
+        public final long judderFrames;
+        /** average/maximum absolute difference between target time and vsync the frame is shown */
+        public final long avgCadenceErrorUs;
+        public final long maxCadenceErrorUs;
+        public final long vsyncPeriodUs;
+
+        private Stats(final long frames, final long judderFrames,
+            final long avgCadenceErrorUs, final long maxCadenceErrorUs, final long vsyncPeriodUs) {
+
+            this.frames = frames;
+            this.judderFrames = judderFrames;
+            this.avgCadenceErrorUs = avgCadenceErrorUs;
+            this.maxCadenceErrorUs = maxCadenceErrorUs;
+            this.vsyncPeriodUs = vsyncPeriodUs;
+        }
+
+        @Override
+        public String toString() {
+            return "Vsync{frames=" + frames + ",judder=" + judderFrames
+                + ",avgCadenceError=" + avgCadenceErrorUs + ",maxCadenceError=" + maxCadenceErrorUs
+                + ",period=" + vsyncPeriodUs + "}";
+        }
+    }
+
+    private final Object mSync = new Object();
+    private final boolean mUseChoreographer;
+    // vsync grid, guarded by mSync
+    private long mPeriodNs;
+    private long mVsyncNs;
+    private long mLastIntervalNs = UNKNOWN;
+    // statistics, guarded by mSync
+    private long mLastTargetNs = UNKNOWN;
+    private long mLastFrameVsyncNs;
+    private long mFrames;
+    private long mJudderFrames;
+    private long mSumErrorNs;
+    private long mMaxErrorNs;
+    // Choreographer
+    private HandlerThread mThread;
+    private volatile boolean mRunning;
+
+    /**
+     * @param refreshRate refresh rate of the display, used until vsync interval is measured
+     * @param useChoreographer false to use fixed vsync grid
+     */
+    public VsyncScheduler(final float refreshRate, final boolean useChoreographer) {
+        mPeriodNs = (long)(1e9 / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+        mUseChoreographer = useChoreographer;
+    }
+
+    /**
+     * start receiving vsync from Choreographer, no-op if this scheduler uses fixed vsync grid
+     */
+    public synchronized void start() {
+        if (!mUseChoreographer || (mThread != null)) return;
+        if (DEBUG) Log.v(TAG, "start:");
+        mRunning = true;
+        mThread = new HandlerThread(TAG);
+        mThread.start();
+        new Handler(mThread.getLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                // Choreographer of this thread
+                Choreographer.getInstance().postFrameCallback(mFrameCallback);
+            }
+        });
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) return;
+        if (DEBUG) Log.v(TAG, "stop:");
+        mRunning = false;
+        mThread.quit();
+        mThread = null;
+    }
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            onVsync(frameTimeNanos);
+            if (mRunning) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    /**
+     * @param frameTimeNs time of vsync in System#nanoTime base
+     */
+    public void onVsync(final long frameTimeNs) {
+        synchronized (mSync) {
+            final long interval = frameTimeNs - mVsyncNs;
+            if ((mVsyncNs > 0) && (interval > 0)) {
+                // skipped vsync is ignored unless the interval stays same(e.g. refresh rate was lowered)
+                if ((interval < mPeriodNs * 3 / 2)
+                    || ((mLastIntervalNs != UNKNOWN) && (Math.abs(interval - mLastIntervalNs) < mPeriodNs / 4))) {
+
+                    mPeriodNs += (interval - mPeriodNs) / PERIOD_SMOOTHING;
+                }
+                mLastIntervalNs = interval;
+            }
+            mVsyncNs = frameTimeNs;
+        }
+    }
+
+    /**
+     * @return vsync period in nano seconds
+     */
+    public long getPeriodNs() {
+        synchronized (mSync) {
+            return mPeriodNs;
+        }
+    }
+
+    /**
+     * @return how long before the render timestamp the frame should be released to the decoder
+     */
+    public long getReleaseAheadNs() {
+        synchronized (mSync) {
+            return mPeriodNs * RELEASE_AHEAD_VSYNCS;
+        }
+    }
+
+    /**
+     * choose the vsync to show the frame on
+     * @param targetNs time the frame should be shown in System#nanoTime(or IClock) base
+     * @return timestamp for IDecoder#releaseOutputBuffer(int, long)
+     */
+    public long schedule(final long targetNs) {
+        synchronized (mSync) {
+            final long period = mPeriodNs;
+            // closest vsync to the target
+            final long diff = targetNs - mVsyncNs + period / 2;
+            long n = diff / period;
+            if ((diff < 0) && (n * period != diff)) {
+                n--;
+            }
+            final long vsyncNs = mVsyncNs + n * period;
+            final long error = Math.abs(vsyncNs - targetNs);
+            mFrames++;
+            mSumErrorNs += error;
+            mMaxErrorNs = Math.max(mMaxErrorNs, error);
+            if ((mLastTargetNs != UNKNOWN) && (targetNs > mLastTargetNs)) {
+                final double ideal = (targetNs - mLastTargetNs) / (double)period;
+                final long vsyncs = (vsyncNs - mLastFrameVsyncNs + period / 2) / period;
+                if ((vsyncs < (long)Math.floor(ideal)) || (vsyncs > (long)Math.ceil(ideal))) {
+                    mJudderFrames++;
+                }
+            }
+            mLastTargetNs = targetNs;
+            mLastFrameVsyncNs = vsyncNs;
+            return vsyncNs - period * RENDER_OFFSET_PERCENT / 100;
+        }
+    }
+
+    /**
+     * clear statistics, e.g. when playing started or after seeking
+     */
+    public void reset() {
+        synchronized (mSync) {
+            mLastTargetNs = UNKNOWN;
+            mFrames = mJudderFrames = mSumErrorNs = mMaxErrorNs = 0;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (mSync) {
+            return new Stats(mFrames, mJudderFrames,
+                mFrames > 0 ? mSumErrorNs / mFrames / 1000 : 0, mMaxErrorNs / 1000, mPeriodNs / 1000);
+        }
+    }
+}
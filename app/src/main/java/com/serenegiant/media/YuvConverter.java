@@ -0,0 +1,202 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvConverter.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * converts YuvFrame to ARGB or NV21.
+ * a frame is split into bands of rows and converted on ForkJoinPool,
+ * bands are not split below the minimum rows so that small frames are converted on the caller thread.
+ * BT.601 limited range is used for ARGB.
+ * this class does not depend on Android framework so that conversions can be benchmarked on JVM.
+ */
+public class YuvConverter {
+    public static final int DEFAULT_MIN_BAND_ROWS = 64;
+
+    private final ForkJoinPool mPool;
+    private final int mMinBandRows;
+
+    /**
+     * convert on common pool
+     */
+    public YuvConverter() {
+        this(ForkJoinPool.commonPool(), DEFAULT_MIN_BAND_ROWS);
+    }
+
+    /**
+     * @param pool null to convert on the caller thread
+     * @param minBandRows
+     */
+    public YuvConverter(final ForkJoinPool pool, final int minBandRows) {
+        mPool = pool;
+        // band should have even rows because 2 rows share chroma samples
+        mMinBandRows = Math.max(2, (minBandRows + 1) & ~1);
+    }
+
+    /**
+     * @param frame
+     * @param argb at least width x height, each pixel is 0xAARRGGBB(same as Bitmap.Config.ARGB_8888 int)
+     */
+    public void toArgb(final YuvFrame frame, final int[] argb) {
+        if (argb.length < frame.getWidth() * frame.getHeight()) {
+            throw new IllegalArgumentException("output is too small");
+        }
+        convert(frame, argb, null);
+    }
+
+    /**
+     * @param frame
+     * @param nv21 at least YuvFrame#getFrameSize, same layout as ImageFormat.NV21
+     */
+    public void toNv21(final YuvFrame frame, final byte[] nv21) {
+        if (nv21.length < frame.getFrameSize()) {
+            throw new IllegalArgumentException("output is too small");
+        }
+        convert(frame, null, nv21);
+    }
+
+    private void convert(final YuvFrame frame, final int[] argb, final byte[] nv21) {
+        final int height = frame.getHeight();
+        if ((mPool == null) || (height <= mMinBandRows)) {
+            convertRows(frame, argb, nv21, 0, height);
+        } else {
+            mPool.invoke(new Band(frame, argb, nv21, 0, height, mMinBandRows));
+        }
+    }
+
+    private static void convertRows(final YuvFrame frame, final int[] argb, final byte[] nv21,
+        final int top, final int bottom) {
+
+        if (argb != null) {
+            toArgb(frame, argb, top, bottom);
+        } else {
+            toNv21(frame, nv21, top, bottom);
+        }
+    }
+
+    /**
+     * convert rows [top, bottom) to ARGB
+     */
+    /*package*/ static void toArgb(final YuvFrame frame, final int[] argb,
+        final int top, final int bottom) {
+
+        final byte[] data = frame.getData();
+        final int width = frame.getWidth();
+        final int chromaWidth = frame.getChromaWidth();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        for (int y = top; y < bottom; y++) {
+            int yIx = y * width;
+            int uIx = uOffset + (y >> 1) * chromaWidth;
+            int vIx = vOffset + (y >> 1) * chromaWidth;
+            // 2 horizontal pixels share chroma samples
+            for (int x = 0; x < width; x += 2, uIx++, vIx++) {
+                final int d = (data[uIx] & 0xff) - 128;
+                final int e = (data[vIx] & 0xff) - 128;
+                final int rv = 409 * e + 128;
+                final int gv = -100 * d - 208 * e + 128;
+                final int bv = 516 * d + 128;
+                argb[yIx] = toArgb(data[yIx], rv, gv, bv);
+                yIx++;
+                if (x + 1 < width) {
+                    argb[yIx] = toArgb(data[yIx], rv, gv, bv);
+                    yIx++;
+                }
+            }
+        }
+    }
+
+    private static int toArgb(final byte y, final int rv, final int gv, final int bv) {
+        final int c = Math.max((y & 0xff) - 16, 0) * 298;
+        return 0xff000000 | (clamp((c + rv) >> 8) << 16) | (clamp((c + gv) >> 8) << 8) | clamp((c + bv) >> 8);
+    }
+
+    /**
+     * convert rows [top, bottom) to NV21, top should be even
+     */
+    /*package*/ static void toNv21(final YuvFrame frame, final byte[] nv21,
+        final int top, final int bottom) {
+
+        final byte[] data = frame.getData();
+        final int width = frame.getWidth();
+        final int chromaWidth = frame.getChromaWidth();
+        final int uOffset = frame.getUOffset();
+        final int vOffset = frame.getVOffset();
+        System.arraycopy(data, top * width, nv21, top * width, (bottom - top) * width);
+        // interleaved VU plane follows Y plane, it starts at same offset as U plane of I420
+        for (int cy = top >> 1; cy < (bottom + 1) >> 1; cy++) {
+            int src = cy * chromaWidth;
+            int dst = uOffset + cy * chromaWidth * 2;
+            for (int cx = 0; cx < chromaWidth; cx++, src++) {
+                nv21[dst++] = data[vOffset + src];
+                nv21[dst++] = data[uOffset + src];
+            }
+        }
+    }
+
+    /**
+     * clamp to [0, 255] without branch, branches are mispredicted on noisy frames
+     */
+    private static int clamp(final int value) {
+        final int v = value & ~(value >> 31);
+        return (v | ((255 - v) >> 31)) & 0xff;
+    }
+
+    /**
+     * rows of a frame that are converted on ForkJoinPool, split into halves until small enough
+     */
+    private static final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final YuvFrame mFrame;
+        private final int[] mArgb;
+        private final byte[] mNv21;
+        private final int mTop, mBottom;
+        private final int mMinRows;
+
+        private Band(final YuvFrame frame, final int[] argb, final byte[] nv21,
+            final int top, final int bottom, final int minRows) {
+
+            mFrame = frame;
+            mArgb = argb;
+            mNv21 = nv21;
+            mTop = top;
+            mBottom = bottom;
+            mMinRows = minRows;
+        }
+
+        @Override
+        protected void compute() {
+            final int rows = mBottom - mTop;
+            if (rows <= mMinRows) {
+                convertRows(mFrame, mArgb, mNv21, mTop, mBottom);
+            } else {
+                final int middle = mTop + ((rows / 2 + 1) & ~1);
+                invokeAll(new Band(mFrame, mArgb, mNv21, mTop, middle, mMinRows),
+                    new Band(mFrame, mArgb, mNv21, middle, mBottom, mMinRows));
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvFrame.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+/**
+ * decoded video frame of cropped YUV420 planar(I420) without row padding,
+ * Y plane(width x height) is followed by U and V planes((width + 1) / 2 x (height + 1) / 2).
+ * frames from YuvFramePool should be returned with #release when they are no longer used.
+ * this class does not depend on Android framework so that conversions can be benchmarked on JVM.
+ */
+public final class YuvFrame {
+    private final YuvFramePool mPool;
+    private byte[] mData;
+    private int mWidth, mHeight;
+    private long mPresentationTimeUs;
+
+    /**
+     * @param width
+     * @param height
+     */
+    public YuvFrame(final int width, final int height) {
+        this(null, width, height);
+    }
+
+    /*package*/ YuvFrame(final YuvFramePool pool, final int width, final int height) {
+        mPool = pool;
+        resize(width, height);
+    }
+
+    /**
+     * change frame size, the buffer is re-allocated only when it is too small
+     * @param width
+     * @param height
+     */
+    public void resize(final int width, final int height) {
+        mWidth = width;
+        mHeight = height;
+        final int size = getFrameSize(width, height);
+        if ((mData == null) || (mData.length < size)) {
+            mData = new byte[size];
+        }
+    }
+
+    /**
+     * @return buffer of Y, U and V planes, this may be longer than #getFrameSize
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getChromaWidth() {
+        return (mWidth + 1) / 2;
+    }
+
+    public int getChromaHeight() {
+        return (mHeight + 1) / 2;
+    }
+
+    public int getUOffset() {
+        return mWidth * mHeight;
+    }
+
+    public int getVOffset() {
+        return mWidth * mHeight + getChromaWidth() * getChromaHeight();
+    }
+
+    public int getFrameSize() {
+        return getFrameSize(mWidth, mHeight);
+    }
+
+    public long getPresentationTimeUs() {
+        return mPresentationTimeUs;
+    }
+
+    public void setPresentationTimeUs(final long presentationTimeUs) {
+        mPresentationTimeUs = presentationTimeUs;
+    }
+
+    /**
+     * return this frame to the pool, the frame should not be used after calling this
+     */
+    public void release() {
+        if (mPool != null) {
+            mPool.recycle(this);
+        }
+    }
+
+    public static int getFrameSize(final int width, final int height) {
+        return width * height + ((width + 1) / 2) * ((height + 1) / 2) * 2;
+    }
+}
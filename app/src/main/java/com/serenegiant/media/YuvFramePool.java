@@ -0,0 +1,83 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvFramePool.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.ArrayDeque;
+
+/**
+ * pool of YuvFrame to deliver decoded frames without allocating buffers on every frame.
+ * at most #getMaxFrames frames can be used at the same time,
+ * #obtain returns null when all of them are in use so that the decoder does not wait for slow consumer.
+ */
+public class YuvFramePool {
+    private final int mMaxFrames;
+    private final ArrayDeque<YuvFrame> mFreeFrames;
+    private int mCreated;
+    private int mDropped;
+
+    /**
+     * @param maxFrames
+     */
+    public YuvFramePool(final int maxFrames) {
+        if (maxFrames <= 0) {
+            throw new IllegalArgumentException("maxFrames should be positive:" + maxFrames);
+        }
+        mMaxFrames = maxFrames;
+        mFreeFrames = new ArrayDeque<YuvFrame>(maxFrames);
+    }
+
+    public int getMaxFrames() {
+        return mMaxFrames;
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return null if all frames are in use
+     */
+    public synchronized YuvFrame obtain(final int width, final int height) {
+        YuvFrame frame = mFreeFrames.pollFirst();
+        if (frame != null) {
+            frame.resize(width, height);
+        } else if (mCreated < mMaxFrames) {
+            frame = new YuvFrame(this, width, height);
+            mCreated++;
+        } else {
+            mDropped++;
+        }
+        return frame;
+    }
+
+    /**
+     * @return number of #obtain calls that returned null
+     */
+    public synchronized int getDroppedCount() {
+        return mDropped;
+    }
+
+    /*package*/ synchronized void recycle(final YuvFrame frame) {
+        if (!mFreeFrames.contains(frame)) {
+            mFreeFrames.addFirst(frame);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvLayout.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.nio.ByteBuffer;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+
+import androidx.annotation.NonNull;
+
+/**
+ * memory layout of decoded frames in ByteBuffer of video decoder,
+ * read from KEY_COLOR_FORMAT, KEY_STRIDE, KEY_SLICE_HEIGHT and crop rect of output format.
+ * planar and semi-planar YUV420 are supported, vendor specific(e.g. tiled) and flexible formats
+ * are not known, those frames are copied from Image planes(MediaCodec#getOutputImage) instead.
+ */
+public class YuvLayout {
+    private static final String KEY_CROP_LEFT = "crop-left";
+    private static final String KEY_CROP_TOP = "crop-top";
+    private static final String KEY_CROP_RIGHT = "crop-right";
+    private static final String KEY_CROP_BOTTOM = "crop-bottom";
+    /** same as COLOR_TI_FormatYUV420PackedSemiPlanar */
+    private static final int COLOR_TI_SEMI_PLANAR = 0x7f000100;
+
+    private int mColorFormat;
+    private boolean mPlanar, mSemiPlanar;
+    private int mStride, mSliceHeight;
+    private int mCropLeft, mCropTop, mWidth, mHeight;
+    private byte[] mRow = new byte[0];
+
+    /**
+     * update layout with output format of video decoder(INFO_OUTPUT_FORMAT_CHANGED)
+     * @param format
+     */
+    @SuppressWarnings("deprecation")
+    public void update(@NonNull final MediaFormat format) {
+        final int width = format.getInteger(MediaFormat.KEY_WIDTH);
+        final int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+        mColorFormat = getInteger(format, MediaFormat.KEY_COLOR_FORMAT, 0);
+        switch (mColorFormat) {
+        case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar:
+        case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedPlanar:
+            mPlanar = true;
+            mSemiPlanar = false;
+            break;
+        case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar:
+        case MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420PackedSemiPlanar:
+        case COLOR_TI_SEMI_PLANAR:
+            mPlanar = false;
+            mSemiPlanar = true;
+            break;
+        default:
+            mPlanar = mSemiPlanar = false;
+            break;
+        }
+        mStride = Math.max(getInteger(format, MediaFormat.KEY_STRIDE, width), width);
+        mSliceHeight = Math.max(getInteger(format, MediaFormat.KEY_SLICE_HEIGHT, height), height);
+        mCropLeft = getInteger(format, KEY_CROP_LEFT, 0);
+        mCropTop = getInteger(format, KEY_CROP_TOP, 0);
+        mWidth = getInteger(format, KEY_CROP_RIGHT, width - 1) - mCropLeft + 1;
+        mHeight = getInteger(format, KEY_CROP_BOTTOM, height - 1) - mCropTop + 1;
+        if (mRow.length < mStride) {
+            mRow = new byte[mStride];
+        }
+    }
+
+    /**
+     * @return false if color format is unknown, vendor specific or flexible,
+     * use #copy(Image, YuvFrame) for these formats
+     */
+    public boolean isSupported() {
+        return mPlanar || mSemiPlanar;
+    }
+
+    public int getColorFormat() {
+        return mColorFormat;
+    }
+
+    /**
+     * @return width of crop rect
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return height of crop rect
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * copy crop rect of decoded frame to the frame as I420 without padding,
+     * the frame should have same size as this layout.
+     * position and limit of the buffer are changed
+     * @param buffer output buffer of video decoder
+     * @param offset offset of the frame in the buffer(BufferInfo#offset)
+     * @param frame
+     */
+    public void copy(@NonNull final ByteBuffer buffer, final int offset, @NonNull final YuvFrame frame) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("unsupported color format:" + mColorFormat);
+        }
+        final byte[] dst = frame.getData();
+        final int chromaLeft = mCropLeft / 2;
+        final int chromaTop = mCropTop / 2;
+        final int chromaWidth = frame.getChromaWidth();
+        final int chromaHeight = frame.getChromaHeight();
+        buffer.limit(buffer.capacity());
+        copyPlane(buffer, offset, mStride, mCropLeft, mCropTop, mWidth, mHeight, dst, 0);
+        final int chroma = offset + mStride * mSliceHeight;
+        if (mPlanar) {
+            final int chromaStride = mStride / 2;
+            copyPlane(buffer, chroma, chromaStride, chromaLeft, chromaTop,
+                chromaWidth, chromaHeight, dst, frame.getUOffset());
+            copyPlane(buffer, chroma + chromaStride * (mSliceHeight / 2), chromaStride,
+                chromaLeft, chromaTop, chromaWidth, chromaHeight, dst, frame.getVOffset());
+        } else {
+            int u = frame.getUOffset();
+            int v = frame.getVOffset();
+            final int len = chromaWidth * 2;
+            for (int y = chromaTop; y < chromaTop + chromaHeight; y++) {
+                buffer.position(chroma + y * mStride + chromaLeft * 2);
+                buffer.get(mRow, 0, len);
+                for (int x = 0; x < len; x += 2) {
+                    dst[u++] = mRow[x];
+                    dst[v++] = mRow[x + 1];
+                }
+            }
+        }
+    }
+
+    /**
+     * copy crop rect of the image to the frame as I420 without padding,
+     * the frame should have same size as the crop rect. this works for any YUV_420_888 layout
+     * @param image output image of video decoder
+     * @param frame
+     */
+    public void copy(@NonNull final Image image, @NonNull final YuvFrame frame) {
+        final Rect crop = image.getCropRect();
+        final Image.Plane[] planes = image.getPlanes();
+        final byte[] dst = frame.getData();
+        final int chromaLeft = crop.left / 2;
+        final int chromaTop = crop.top / 2;
+        copyPlane(planes[0], crop.left, crop.top, frame.getWidth(), frame.getHeight(), dst, 0);
+        copyPlane(planes[1], chromaLeft, chromaTop,
+            frame.getChromaWidth(), frame.getChromaHeight(), dst, frame.getUOffset());
+        copyPlane(planes[2], chromaLeft, chromaTop,
+            frame.getChromaWidth(), frame.getChromaHeight(), dst, frame.getVOffset());
+    }
+
+    private void copyPlane(final Image.Plane plane, final int left, final int top,
+        final int width, final int height, final byte[] dst, final int dstOffset) {
+
+        final ByteBuffer buffer = plane.getBuffer();
+        final int rowStride = plane.getRowStride();
+        final int pixelStride = plane.getPixelStride();
+        if (pixelStride == 1) {
+            copyPlane(buffer, 0, rowStride, left, top, width, height, dst, dstOffset);
+            return;
+        }
+        // interleaved chroma, the last row may not have padding after its last pixel
+        final int len = (width - 1) * pixelStride + 1;
+        if (mRow.length < len) {
+            mRow = new byte[len];
+        }
+        int pos = dstOffset;
+        for (int y = top; y < top + height; y++) {
+            buffer.position(y * rowStride + left * pixelStride);
+            buffer.get(mRow, 0, len);
+            for (int x = 0; x < len; x += pixelStride) {
+                dst[pos++] = mRow[x];
+            }
+        }
+    }
+
+    private static void copyPlane(final ByteBuffer buffer, final int start, final int stride,
+        final int left, final int top, final int width, final int height,
+        final byte[] dst, final int dstOffset) {
+
+        int pos = dstOffset;
+        for (int y = top; y < top + height; y++, pos += width) {
+            buffer.position(start + y * stride + left);
+            buffer.get(dst, pos, width);
+        }
+    }
+
+    private static int getInteger(final MediaFormat format, final String key, final int defaultValue) {
+        return format.containsKey(key) ? format.getInteger(key) : defaultValue;
+    }
+}
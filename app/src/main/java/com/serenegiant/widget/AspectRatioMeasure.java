@@ -0,0 +1,78 @@
+package com.serenegiant.widget;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: AspectRatioMeasure.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+/**
+ * aspect ratio calculation shared by onMeasure of PlayerSurfaceView and PlayerTextureView.
+ * the result is packed into long so that measuring never allocates,
+ * this class does not depend on Android framework.
+ */
+public final class AspectRatioMeasure {
+    /** returned when the size does not need to be changed */
+    public static final long UNCHANGED = -1;
+    /** stay size if the difference of calculated aspect ratio is small enough from specific value */
+    private static final double TOLERANCE = 0.01;
+
+    private AspectRatioMeasure() {
+    }
+
+    /**
+     * @param width size of width measure spec
+     * @param height size of height measure spec
+     * @param horizPadding
+     * @param vertPadding
+     * @param aspect requested aspect ratio(width / height)
+     * @return packed width and height including padding, or #UNCHANGED
+     */
+    public static long measure(final int width, final int height,
+        final int horizPadding, final int vertPadding, final double aspect) {
+
+        int w = width - horizPadding;
+        int h = height - vertPadding;
+        final double viewAspectRatio = (double)w / h;
+        final double aspectDiff = aspect / viewAspectRatio - 1;
+        if (!(Math.abs(aspectDiff) > TOLERANCE)) {
+            return UNCHANGED;
+        }
+        if (aspectDiff > 0) {
+            // adjust height from width
+            h = (int) (w / aspect);
+        } else {
+            // adjust width from height
+            w = (int) (h * aspect);
+        }
+        return pack(w + horizPadding, h + vertPadding);
+    }
+
+    public static int getWidth(final long size) {
+        return (int)(size >>> 32);
+    }
+
+    public static int getHeight(final long size) {
+        return (int)size;
+    }
+
+    private static long pack(final int width, final int height) {
+        return ((long)width << 32) | (height & 0xffffffffL);
+    }
+}
@@ -96,30 +96,15 @@ public class PlayerSurfaceView extends SurfaceView implements SurfaceHolder.Call
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
 
         if (mRequestedAspect > 0) {
-            int initialWidth = MeasureSpec.getSize(widthMeasureSpec);
-            int initialHeight = MeasureSpec.getSize(heightMeasureSpec);
-
-            final int horizPadding = getPaddingLeft() + getPaddingRight();
-            final int vertPadding = getPaddingTop() + getPaddingBottom();
-            initialWidth -= horizPadding;
-            initialHeight -= vertPadding;
-
-            final double viewAspectRatio = (double)initialWidth / initialHeight;
-            final double aspectDiff = mRequestedAspect / viewAspectRatio - 1;
-
-            // stay size if the difference of calculated aspect ratio is small enough from specific value
-            if (Math.abs(aspectDiff) > 0.01) {
-                if (aspectDiff > 0) {
-                    // adjust height from width
-                    initialHeight = (int) (initialWidth / mRequestedAspect);
-                } else {
-                    // adjust width from height
-                    initialWidth = (int) (initialHeight * mRequestedAspect);
-                }
-                initialWidth += horizPadding;
-                initialHeight += vertPadding;
-                widthMeasureSpec = MeasureSpec.makeMeasureSpec(initialWidth, MeasureSpec.EXACTLY);
-                heightMeasureSpec = MeasureSpec.makeMeasureSpec(initialHeight, MeasureSpec.EXACTLY);
+            final long size = AspectRatioMeasure.measure(
+                MeasureSpec.getSize(widthMeasureSpec), MeasureSpec.getSize(heightMeasureSpec),
+                getPaddingLeft() + getPaddingRight(), getPaddingTop() + getPaddingBottom(),
+                mRequestedAspect);
+            if (size != AspectRatioMeasure.UNCHANGED) {
+                widthMeasureSpec = MeasureSpec.makeMeasureSpec(
+                    AspectRatioMeasure.getWidth(size), MeasureSpec.EXACTLY);
+                heightMeasureSpec = MeasureSpec.makeMeasureSpec(
+                    AspectRatioMeasure.getHeight(size), MeasureSpec.EXACTLY);
             }
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.VANILLA_ICE_CREAM) {
                 super.setDesiredHdrHeadroom(2.0F);
@@ -0,0 +1,39 @@
+package android.os;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: Trace.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+/**
+ * replaces android.os.Trace in local unit tests, test classes precede android-all on the classpath.
+ * tracing is disabled.
+ */
+public final class Trace {
+    private Trace() {
+    }
+
+    public static boolean isEnabled() { return false; }
+    public static void beginSection(String sectionName) { }
+    public static void endSection() { }
+    public static void beginAsyncSection(String methodName, int cookie) { }
+    public static void endAsyncSection(String methodName, int cookie) { }
+    public static void setCounter(String counterName, long counterValue) { }
+}
@@ -0,0 +1,172 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: AllocationBudgetTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * checks that the video and audio loops of MediaMoviePlayer do not allocate on the java heap
+ * in steady state, also on surface-less decoding with IYuvFrameListener.
+ * the player plays a long synthetic movie on FakeMediaBackend
+ * and allocated bytes of VideoTask/AudioTask threads are sampled with JVM allocation counters
+ * after warming up. this runs with the other local unit tests of app module(`./gradlew :app:test`).
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP_FRAMES = 600;
+    private static final int MEASURE_FRAMES = 6000;
+    private static final long DURATION_US = 600 * 1000000L;
+    private static final long TIMEOUT_MS = 60 * 1000;
+    /**
+     * allowed total bytes while measuring, for sampling itself and lock inflation.
+     * a smallest object per frame exceeds this in MEASURE_FRAMES frames
+     */
+    private static final long SLACK_BYTES = 16 * 1024;
+
+    private static com.sun.management.ThreadMXBean sMXBean;
+
+    @BeforeClass
+    public static void setUpClass() {
+        sMXBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        assumeTrue("thread allocation counter is not supported", sMXBean.isThreadAllocatedMemorySupported());
+        sMXBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void nativeSampleRate() throws Exception {
+        check(48000, false);
+    }
+
+    /**
+     * 44100Hz audio is resampled to 48000Hz of FakeAudioSink
+     */
+    @Test
+    public void resampled() throws Exception {
+        check(44100, false);
+    }
+
+    @Test
+    public void yuvFrameListener() throws Exception {
+        check(48000, true);
+    }
+
+    private static void check(final int sampleRate, final boolean yuv) throws Exception {
+        final com.sun.management.ThreadMXBean mxBean = sMXBean;
+        final FakeMediaBackend backend = new FakeMediaBackend(new VirtualClock(),
+            1280, 720, 30, 30, sampleRate, 2, DURATION_US, 2);
+        final String name = (yuv ? "yuv," : "") + sampleRate + "Hz";
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        final MediaMoviePlayer[] holder = new MediaMoviePlayer[1];
+        final MediaMoviePlayer player = new MediaMoviePlayer(null, new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                finishLatch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return false;
+            }
+        }, true, null, backend);
+        holder[0] = player;
+        if (yuv) {
+            player.setYuvFrameListener(new IYuvFrameListener() {
+                @Override
+                public void onYuvFrame(final YuvFrame frame) {
+                    frame.release();
+                }
+            }, 2);
+        }
+        try {
+            player.prepare(MediaSource.fromPath("fake"));
+            final FakeDecoder video = waitFrames(backend, null, WARMUP_FRAMES);
+            final long videoId = findThread("VideoTask");
+            final long audioId = findThread("AudioTask");
+            final int startFrames = video.getRenderedCount();
+            final long startAudio = backend.getAudioSink().getWrittenFrames();
+            final long startVideoBytes = mxBean.getThreadAllocatedBytes(videoId);
+            final long startAudioBytes = mxBean.getThreadAllocatedBytes(audioId);
+            waitFrames(backend, video, startFrames + MEASURE_FRAMES);
+            final long videoBytes = mxBean.getThreadAllocatedBytes(videoId) - startVideoBytes;
+            final long audioBytes = mxBean.getThreadAllocatedBytes(audioId) - startAudioBytes;
+            final int frames = video.getRenderedCount() - startFrames;
+            // the audio loop handles AUDIO_FRAMES_PER_SAMPLE frames per decoded sample
+            final long audioSamples = (backend.getAudioSink().getWrittenFrames() - startAudio)
+                / FakeSampleSource.AUDIO_FRAMES_PER_SAMPLE;
+            player.stop();
+            if (!finishLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IllegalStateException("player did not finish in time");
+            }
+            assertBudget("video(" + name + ")", videoBytes, frames);
+            assertBudget("audio(" + name + ")", audioBytes, audioSamples);
+        } finally {
+            player.release();
+        }
+    }
+
+    private static void assertBudget(final String name, final long bytes, final long frames) {
+        final String result = name + ": " + bytes + " bytes allocated in " + frames + " frames";
+        System.out.println(result);
+        assertTrue("no frame was measured, " + result, frames > 0);
+        assertTrue("allocated per frame, " + result, bytes <= SLACK_BYTES);
+    }
+
+    private static FakeDecoder waitFrames(final FakeMediaBackend backend,
+        final FakeDecoder decoder, final int frames) throws InterruptedException {
+
+        final long limit = System.currentTimeMillis() + TIMEOUT_MS;
+        FakeDecoder video = decoder;
+        while ((video == null) || (video.getRenderedCount() < frames)) {
+            if (System.currentTimeMillis() > limit) {
+                throw new IllegalStateException("player did not render " + frames + " frames");
+            }
+            Thread.sleep(1);
+            if (video == null) {
+                video = backend.getDecoder("video/");
+            }
+        }
+        return video;
+    }
+
+    private static long findThread(final String name) {
+        for (final Thread thread: Thread.getAllStackTraces().keySet()) {
+            if (name.equals(thread.getName())) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException(name + " not found");
+    }
+}
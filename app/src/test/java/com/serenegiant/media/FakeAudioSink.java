@@ -0,0 +1,148 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeAudioSink.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+/**
+ * IAudioSink that consumes written frames in real time of IClock without playing.
+ * only native output sample rate can be opened, so other sample rates go through resampler of the player.
+ * the playback position stops while no data is written same as underrun of AudioTrack.
+ */
+public class FakeAudioSink implements IAudioSink {
+    private final IClock mClock;
+    private final int mNativeSampleRate;
+    private int mSampleRate;
+    private int mChannels;
+    private boolean mPlaying;
+    private long mWrittenFrames;
+    private double mPosition;
+    /** mWrittenFrames at the last #flush */
+    private long mFlushedFrames;
+    private long mLastUpdateNs;
+
+    /**
+     * @param clock
+     * @param nativeSampleRate
+     */
+    public FakeAudioSink(final IClock clock, final int nativeSampleRate) {
+        mClock = clock;
+        mNativeSampleRate = nativeSampleRate;
+    }
+
+    @Override
+    public int getMinBufferSize(final int sampleRate, final int channels) {
+        // 20 msec
+        return sampleRate / 50 * channels * 2;
+    }
+
+    @Override
+    public int getNativeOutputSampleRate() {
+        return mNativeSampleRate;
+    }
+
+    @Override
+    public synchronized boolean open(final int sampleRate, final int channels, final int bufferSize) {
+        if (sampleRate != mNativeSampleRate) return false;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mWrittenFrames = mFlushedFrames = 0;
+        mPosition = 0;
+        mPlaying = false;
+        return true;
+    }
+
+    @Override
+    public synchronized void play() {
+        mLastUpdateNs = mClock.nanoTime();
+        mPlaying = true;
+    }
+
+    @Override
+    public synchronized int write(final byte[] data, final int offset, final int size) {
+        update();
+        mWrittenFrames += size / (mChannels * 2);
+        return size;
+    }
+
+    @Override
+    public synchronized int write(final short[] data, final int offset, final int size) {
+        update();
+        mWrittenFrames += size / mChannels;
+        return size;
+    }
+
+    @Override
+    public synchronized long getPlaybackPosition(final long nowNs) {
+        if (!mPlaying) return -1;
+        update();
+        return (long)mPosition - mFlushedFrames;
+    }
+
+    @Override
+    public synchronized void flush() {
+        update();
+        // frames that are not played yet are discarded
+        mPosition = mFlushedFrames = mWrittenFrames;
+    }
+
+    /**
+     * @return sample rate that was opened, 0 if not opened
+     */
+    public synchronized int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * @return channel count that was opened, 0 if not opened
+     */
+    public synchronized int getChannelCount() {
+        return mChannels;
+    }
+
+    /**
+     * @return total number of frames written since opened
+     */
+    public synchronized long getWrittenFrames() {
+        return mWrittenFrames;
+    }
+
+    @Override
+    public synchronized void stop() {
+        update();
+        mPlaying = false;
+    }
+
+    @Override
+    public void release() {
+        stop();
+    }
+
+    private void update() {
+        final long now = mClock.nanoTime();
+        if (mPlaying) {
+            mPosition = Math.min(mWrittenFrames,
+                mPosition + (now - mLastUpdateNs) * (double)mSampleRate / 1e9);
+        }
+        mLastUpdateNs = now;
+    }
+}
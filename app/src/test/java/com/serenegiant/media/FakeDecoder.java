@@ -0,0 +1,357 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeDecoder.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+/**
+ * IDecoder that passes queued samples through to output without decoding.
+ * output of audio decoder is silent PCM 16 bit of AUDIO_FRAMES_PER_SAMPLE frames,
+ * output buffer of video decoder is null when configured with Surface same as MediaCodec,
+ * otherwise it is a gray I420 frame(COLOR_FormatYUV420Planar) of the track size.
+ * presentation time and VirtualClock time of rendered frames are recorded to check pacing,
+ * started decoder is registered to VirtualClock as a participant.
+ * all methods return immediately, timeouts are ignored.
+ */
+public class FakeDecoder implements IDecoder {
+    private static final int BUFFER_COUNT = 4;
+
+    private final Object mSync = new Object();
+    private final String mMime;
+    private final VirtualClock mClock;
+    /** number of samples that are kept in this decoder before output */
+    private final int mDelay;
+    private MediaFormat mFormat;
+    private MediaFormat mOutputFormat;
+    private boolean mHasSurface;
+    private boolean mStarted;
+    private boolean mFormatChanged;
+    private int mOutputSize;
+    private ByteBuffer[] mInputBuffers;
+    private ByteBuffer[] mOutputBuffers;
+    private final boolean[] mInputDequeued = new boolean[BUFFER_COUNT];
+    private final boolean[] mOutputDequeued = new boolean[BUFFER_COUNT];
+    private final long[] mOutputPts = new long[BUFFER_COUNT];
+    // queued samples in FIFO order
+    private final long[] mPendingPts = new long[BUFFER_COUNT];
+    private final int[] mPendingSizes = new int[BUFFER_COUNT];
+    private final int[] mPendingFlags = new int[BUFFER_COUNT];
+    private int mPendingHead, mPendingCount;
+    // rendered frames, pre-allocated with duration of the track
+    private long[] mRenderedPts = new long[256];
+    private long[] mRenderedNs = new long[256];
+    private int mRenderedCount;
+    private int mDroppedCount;
+
+    /**
+     * @param mime
+     * @param clock
+     * @param delay number of samples kept in the decoder like frame reordering, less than 4
+     */
+    public FakeDecoder(final String mime, final VirtualClock clock, final int delay) {
+        mMime = mime;
+        mClock = clock;
+        mDelay = Math.min(delay, BUFFER_COUNT - 1);
+    }
+
+    public String getMime() {
+        return mMime;
+    }
+
+    @Override
+    public void configure(final MediaFormat format, final Surface surface) {
+        synchronized (mSync) {
+            mFormat = format;
+            mHasSurface = surface != null;
+            int inputSize = BUFFER_COUNT * 1024;
+            if (format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)) {
+                inputSize = format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE);
+            }
+            mOutputFormat = format;
+            if (mMime.startsWith("audio/")) {
+                mOutputSize = FakeSampleSource.AUDIO_FRAMES_PER_SAMPLE * 2
+                    * format.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+            } else if (!mHasSurface) {
+                final int width = format.getInteger(MediaFormat.KEY_WIDTH);
+                final int height = format.getInteger(MediaFormat.KEY_HEIGHT);
+                mOutputSize = YuvFrame.getFrameSize(width, height);
+                mOutputFormat = MediaFormat.createVideoFormat(mMime, width, height);
+                mOutputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT,
+                    MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Planar);
+            } else {
+                mOutputSize = inputSize;
+            }
+            if (format.containsKey(MediaFormat.KEY_DURATION) && format.containsKey(MediaFormat.KEY_FRAME_RATE)) {
+                final int frames = (int)(format.getLong(MediaFormat.KEY_DURATION)
+                    * format.getInteger(MediaFormat.KEY_FRAME_RATE) / 1000000L) + BUFFER_COUNT;
+                if (frames > mRenderedPts.length) {
+                    mRenderedPts = new long[frames];
+                    mRenderedNs = new long[frames];
+                }
+            }
+            mInputBuffers = new ByteBuffer[BUFFER_COUNT];
+            mOutputBuffers = new ByteBuffer[BUFFER_COUNT];
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                mInputBuffers[i] = ByteBuffer.allocateDirect(inputSize);
+                mOutputBuffers[i] = ByteBuffer.allocateDirect(mOutputSize);
+                if (!mHasSurface && mMime.startsWith("video/")) {
+                    // gray frame
+                    for (int j = 0; j < mOutputSize; j++) {
+                        mOutputBuffers[i].put(j, (byte)0x80);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * same as MediaCodec, the decoder configured without surface can not switch to surface
+     */
+    @Override
+    public boolean setOutputSurface(final Surface surface) {
+        synchronized (mSync) {
+            return mHasSurface || (surface == null);
+        }
+    }
+
+    @Override
+    public void start() {
+        synchronized (mSync) {
+            if (mFormat == null) throw new IllegalStateException("not configured");
+            if (!mStarted) {
+                mClock.register();
+            }
+            mStarted = true;
+            mFormatChanged = false;
+        }
+    }
+
+    @Override
+    public int dequeueInputBuffer(final long timeoutUs) {
+        synchronized (mSync) {
+            checkStarted();
+            if (mPendingCount < BUFFER_COUNT) {
+                for (int i = 0; i < BUFFER_COUNT; i++) {
+                    if (!mInputDequeued[i]) {
+                        mInputDequeued[i] = true;
+                        return i;
+                    }
+                }
+            }
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(final int index) {
+        synchronized (mSync) {
+            return mInputDequeued[index] ? mInputBuffers[index] : null;
+        }
+    }
+
+    @Override
+    public void queueInputBuffer(final int index, final int offset, final int size,
+        final long presentationTimeUs, final int flags) {
+
+        synchronized (mSync) {
+            checkStarted();
+            if (!mInputDequeued[index] || (mPendingCount >= BUFFER_COUNT)) {
+                throw new IllegalStateException("input buffer is not dequeued:" + index);
+            }
+            mInputDequeued[index] = false;
+            final int tail = (mPendingHead + mPendingCount++) % BUFFER_COUNT;
+            mPendingPts[tail] = presentationTimeUs;
+            mPendingSizes[tail] = size;
+            mPendingFlags[tail] = flags;
+        }
+    }
+
+    @Override
+    public int dequeueOutputBuffer(final MediaCodec.BufferInfo info, final long timeoutUs) {
+        synchronized (mSync) {
+            checkStarted();
+            if (!mFormatChanged) {
+                mFormatChanged = true;
+                return MediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+            }
+            if (mPendingCount == 0) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+            final int last = (mPendingHead + mPendingCount - 1) % BUFFER_COUNT;
+            final boolean draining = (mPendingFlags[last] & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+            if ((mPendingCount <= mDelay) && !draining) {
+                return MediaCodec.INFO_TRY_AGAIN_LATER;
+            }
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                if (!mOutputDequeued[i]) {
+                    final int head = mPendingHead;
+                    mPendingHead = (mPendingHead + 1) % BUFFER_COUNT;
+                    mPendingCount--;
+                    final int size = mPendingSizes[head] > 0 ? mOutputSize : 0;
+                    mOutputDequeued[i] = true;
+                    mOutputPts[i] = mPendingPts[head];
+                    mOutputBuffers[i].clear();
+                    info.set(0, size, mPendingPts[head], mPendingFlags[head]);
+                    return i;
+                }
+            }
+            return MediaCodec.INFO_TRY_AGAIN_LATER;
+        }
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(final int index) {
+        synchronized (mSync) {
+            return mOutputDequeued[index] && !mHasSurface ? mOutputBuffers[index] : null;
+        }
+    }
+
+    /**
+     * output buffer is always I420, so images are not supported
+     */
+    @Override
+    public Image getOutputImage(final int index) {
+        return null;
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        synchronized (mSync) {
+            return mOutputFormat;
+        }
+    }
+
+    @Override
+    public void releaseOutputBuffer(final int index, final boolean render) {
+        synchronized (mSync) {
+            if (render) {
+                releaseOutputBuffer(index, mClock.nanoTime());
+            } else {
+                checkOutputDequeued(index);
+                mOutputDequeued[index] = false;
+                mDroppedCount++;
+            }
+        }
+    }
+
+    /**
+     * the frame is recorded as rendered at renderTimestampNs
+     */
+    @Override
+    public void releaseOutputBuffer(final int index, final long renderTimestampNs) {
+        synchronized (mSync) {
+            checkOutputDequeued(index);
+            mOutputDequeued[index] = false;
+            if (mRenderedCount == mRenderedPts.length) {
+                mRenderedPts = Arrays.copyOf(mRenderedPts, mRenderedCount * 2);
+                mRenderedNs = Arrays.copyOf(mRenderedNs, mRenderedCount * 2);
+            }
+            mRenderedPts[mRenderedCount] = mOutputPts[index];
+            mRenderedNs[mRenderedCount++] = renderTimestampNs;
+        }
+    }
+
+    @Override
+    public void flush() {
+        synchronized (mSync) {
+            checkStarted();
+            mPendingHead = mPendingCount = 0;
+            Arrays.fill(mInputDequeued, false);
+            Arrays.fill(mOutputDequeued, false);
+        }
+    }
+
+    @Override
+    public void stop() {
+        synchronized (mSync) {
+            if (mStarted) {
+                mClock.unregister();
+            }
+            mStarted = false;
+            mPendingHead = mPendingCount = 0;
+            Arrays.fill(mInputDequeued, false);
+            Arrays.fill(mOutputDequeued, false);
+        }
+    }
+
+    @Override
+    public void release() {
+        synchronized (mSync) {
+            stop();
+            mInputBuffers = mOutputBuffers = null;
+        }
+    }
+
+    public int getRenderedCount() {
+        synchronized (mSync) {
+            return mRenderedCount;
+        }
+    }
+
+    /**
+     * @return number of output buffers released without rendering
+     */
+    public int getDroppedCount() {
+        synchronized (mSync) {
+            return mDroppedCount;
+        }
+    }
+
+    /**
+     * @param index
+     * @return presentation time of index-th rendered frame
+     */
+    public long getRenderedPtsUs(final int index) {
+        synchronized (mSync) {
+            return mRenderedPts[index];
+        }
+    }
+
+    /**
+     * @param index
+     * @return IClock time when index-th frame was rendered(or will be shown if released with timestamp)
+     */
+    public long getRenderedTimeNs(final int index) {
+        synchronized (mSync) {
+            return mRenderedNs[index];
+        }
+    }
+
+    private void checkOutputDequeued(final int index) {
+        if (!mOutputDequeued[index]) {
+            throw new IllegalStateException("output buffer is not dequeued:" + index);
+        }
+    }
+
+    private void checkStarted() {
+        if (!mStarted) throw new IllegalStateException("not started");
+    }
+}
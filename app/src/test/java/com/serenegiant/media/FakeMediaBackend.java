@@ -0,0 +1,193 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeMediaBackend.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+
+import androidx.annotation.NonNull;
+
+/**
+ * IMediaBackend that plays synthetic movie with FakeSampleSource, FakeDecoder and FakeAudioSink.
+ * pacing of the player uses VirtualClock, so playback finishes as fast as decode loops run.
+ * MediaSource given to the player is ignored.
+ * call #freezeUntilSeeked before MediaMoviePlayer#seek to seek at deterministic time.
+ */
+public class FakeMediaBackend implements IMediaBackend {
+    private static final int NATIVE_SAMPLE_RATE = 48000;
+
+    private final VirtualClock mClock;
+    private final int mWidth, mHeight, mFrameRate, mGopSize;
+    private final int mSampleRate, mChannels;
+    private final long mDurationUs;
+    private final int mDecoderDelay;
+    private final List<FakeDecoder> mDecoders = new ArrayList<FakeDecoder>();
+    private FakeAudioSink mAudioSink;
+    private int mSampleSources;
+    private int mPendingSeeks;
+    private float mRefreshRate = VsyncScheduler.DEFAULT_REFRESH_RATE;
+
+    /**
+     * @param clock
+     * @param width
+     * @param height
+     * @param frameRate
+     * @param gopSize
+     * @param sampleRate 0 if the movie has no audio track
+     * @param channels
+     * @param durationUs
+     * @param decoderDelay number of samples kept in FakeDecoder
+     */
+    public FakeMediaBackend(@NonNull final VirtualClock clock,
+        final int width, final int height, final int frameRate, final int gopSize,
+        final int sampleRate, final int channels, final long durationUs, final int decoderDelay) {
+
+        mClock = clock;
+        mWidth = width;
+        mHeight = height;
+        mFrameRate = frameRate;
+        mGopSize = gopSize;
+        mSampleRate = sampleRate;
+        mChannels = channels;
+        mDurationUs = durationUs;
+        mDecoderDelay = decoderDelay;
+    }
+
+    @Override
+    public void checkReadable(final MediaSource source) throws FileNotFoundException {
+    }
+
+    @Override
+    public MediaMetadataRetriever createMetadataRetriever(final MediaSource source) {
+        // the player reads movie info from track format
+        return null;
+    }
+
+    @Override
+    public synchronized ISampleSource createSampleSource(final MediaSource source) {
+        mSampleSources++;
+        return new FakeSampleSource(mWidth, mHeight, mFrameRate, mGopSize,
+            mSampleRate, mChannels, mDurationUs) {
+            @Override
+            public void seekTo(final long timeUs, final int mode) {
+                super.seekTo(timeUs, mode);
+                onSeeked();
+            }
+        };
+    }
+
+    @Override
+    public IDecoder createDecoder(final String mime) {
+        final FakeDecoder decoder = new FakeDecoder(mime, mClock, mDecoderDelay);
+        synchronized (mDecoders) {
+            mDecoders.add(decoder);
+        }
+        return decoder;
+    }
+
+    /**
+     * codec names are granted only for video decoders, so this creates FakeDecoder for video
+     */
+    @Override
+    public IDecoder createDecoderByName(final String name) {
+        return createDecoder(MediaFormat.MIMETYPE_VIDEO_AVC);
+    }
+
+    /**
+     * fake decoders are not limited
+     */
+    @Override
+    public DecoderResourceManager getDecoderResourceManager() {
+        return null;
+    }
+
+    /**
+     * fixed vsync grid of #setRefreshRate on VirtualClock
+     */
+    @Override
+    public synchronized VsyncScheduler createVsyncScheduler() {
+        return new VsyncScheduler(mRefreshRate, false);
+    }
+
+    /**
+     * @param refreshRate refresh rate of the simulated display, call before the player is prepared
+     */
+    public synchronized void setRefreshRate(final float refreshRate) {
+        mRefreshRate = refreshRate;
+    }
+
+    @Override
+    public synchronized IAudioSink createAudioSink() {
+        mAudioSink = new FakeAudioSink(mClock, NATIVE_SAMPLE_RATE);
+        return mAudioSink;
+    }
+
+    @Override
+    public VirtualClock getClock() {
+        return mClock;
+    }
+
+    /**
+     * @param mimeType "video/" or "audio/"
+     * @return decoder that was created last for specific mime type, null if not created yet
+     */
+    public FakeDecoder getDecoder(@NonNull final String mimeType) {
+        synchronized (mDecoders) {
+            for (int i = mDecoders.size() - 1; i >= 0; i--) {
+                if (mDecoders.get(i).getMime().startsWith(mimeType)) {
+                    return mDecoders.get(i);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * freeze VirtualClock until the player seeks all sample sources,
+     * seeking is handed to the decode threads asynchronously while time may advance
+     */
+    public synchronized void freezeUntilSeeked() {
+        if ((mPendingSeeks == 0) && (mSampleSources > 0)) {
+            mClock.freeze();
+        }
+        mPendingSeeks = mSampleSources;
+    }
+
+    private synchronized void onSeeked() {
+        if ((mPendingSeeks > 0) && (--mPendingSeeks == 0)) {
+            mClock.unfreeze();
+        }
+    }
+
+    /**
+     * @return audio sink that was created last, null if not created yet
+     */
+    public synchronized FakeAudioSink getAudioSink() {
+        return mAudioSink;
+    }
+}
@@ -0,0 +1,166 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: FakeSampleSource.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.nio.ByteBuffer;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+/**
+ * ISampleSource that generates samples of synthetic movie without reading any file.
+ * the movie has one video track(video/avc) with sync sample every gopSize frames
+ * and optional audio track(audio/mp4a-latm, 1024 frames per sample).
+ * the content of samples is not meaningful, use with FakeDecoder.
+ */
+public class FakeSampleSource implements ISampleSource {
+    public static final String MIME_VIDEO = "video/avc";
+    public static final String MIME_AUDIO = "audio/mp4a-latm";
+    public static final int AUDIO_FRAMES_PER_SAMPLE = 1024;
+    private static final int VIDEO_SAMPLE_SIZE = 4096;
+    private static final int AUDIO_SAMPLE_SIZE = 512;
+
+    private final MediaFormat[] mFormats;
+    private final int[] mSampleCounts;
+    private final double[] mSampleDurationUs;
+    private final int mGopSize;
+    private int mTrack = -1;
+    private int mSampleIx;
+
+    /**
+     * @param width
+     * @param height
+     * @param frameRate
+     * @param gopSize interval of sync samples of video track
+     * @param sampleRate 0 if the movie has no audio track
+     * @param channels
+     * @param durationUs
+     */
+    public FakeSampleSource(final int width, final int height, final int frameRate, final int gopSize,
+        final int sampleRate, final int channels, final long durationUs) {
+
+        final int n = sampleRate > 0 ? 2 : 1;
+        mFormats = new MediaFormat[n];
+        mSampleCounts = new int[n];
+        mSampleDurationUs = new double[n];
+        mGopSize = Math.max(gopSize, 1);
+        final MediaFormat video = MediaFormat.createVideoFormat(MIME_VIDEO, width, height);
+        video.setInteger(MediaFormat.KEY_FRAME_RATE, frameRate);
+        video.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, VIDEO_SAMPLE_SIZE);
+        video.setLong(MediaFormat.KEY_DURATION, durationUs);
+        mFormats[0] = video;
+        mSampleDurationUs[0] = 1e6 / frameRate;
+        mSampleCounts[0] = (int)(durationUs / mSampleDurationUs[0]);
+        if (sampleRate > 0) {
+            final MediaFormat audio = MediaFormat.createAudioFormat(MIME_AUDIO, sampleRate, channels);
+            audio.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, AUDIO_SAMPLE_SIZE);
+            audio.setLong(MediaFormat.KEY_DURATION, durationUs);
+            mFormats[1] = audio;
+            mSampleDurationUs[1] = AUDIO_FRAMES_PER_SAMPLE * 1e6 / sampleRate;
+            mSampleCounts[1] = (int)(durationUs / mSampleDurationUs[1]);
+        }
+    }
+
+    @Override
+    public int getTrackCount() {
+        return mFormats.length;
+    }
+
+    @Override
+    public MediaFormat getTrackFormat(final int index) {
+        return mFormats[index];
+    }
+
+    @Override
+    public synchronized void selectTrack(final int index) {
+        mTrack = index;
+        mSampleIx = 0;
+    }
+
+    @Override
+    public synchronized int readSampleData(final ByteBuffer buffer, final int offset) {
+        if (!hasSample()) return -1;
+        final int size = Math.min(mTrack == 0 ? VIDEO_SAMPLE_SIZE : AUDIO_SAMPLE_SIZE,
+            buffer.capacity() - offset);
+        buffer.clear();
+        buffer.limit(offset + size);
+        buffer.position(offset);
+        return size;
+    }
+
+    @Override
+    public synchronized long getSampleTime() {
+        return hasSample() ? getTimeUs(mSampleIx) : -1;
+    }
+
+    @Override
+    public synchronized int getSampleFlags() {
+        return hasSample() && ((mTrack != 0) || (mSampleIx % mGopSize == 0))
+            ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public synchronized boolean advance() {
+        if (hasSample()) {
+            mSampleIx++;
+        }
+        return hasSample();
+    }
+
+    @Override
+    public synchronized void seekTo(final long timeUs, final int mode) {
+        if (mTrack < 0) return;
+        final int ix = (int)Math.max(0, Math.min(timeUs / mSampleDurationUs[mTrack], mSampleCounts[mTrack] - 1));
+        if (mTrack != 0) {
+            // every audio sample is sync sample
+            mSampleIx = ix;
+            return;
+        }
+        final int prev = ix - ix % mGopSize;
+        final int next = Math.min(prev + mGopSize, mSampleCounts[0] - 1);
+        switch (mode) {
+        case MediaExtractor.SEEK_TO_PREVIOUS_SYNC:
+            mSampleIx = prev;
+            break;
+        case MediaExtractor.SEEK_TO_NEXT_SYNC:
+            mSampleIx = ix == prev ? prev : next;
+            break;
+        default:
+            mSampleIx = timeUs - getTimeUs(prev) <= getTimeUs(next) - timeUs ? prev : next;
+            break;
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private boolean hasSample() {
+        return (mTrack >= 0) && (mSampleIx < mSampleCounts[mTrack]);
+    }
+
+    private long getTimeUs(final int ix) {
+        return (long)(ix * mSampleDurationUs[mTrack]);
+    }
+}
@@ -0,0 +1,302 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: HttpRangeSourceTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HttpRangeSource and SegmentCache against HTTP server on loopback interface,
+ * the server supports range requests and conditional requests with ETag or Last-Modified
+ */
+public class HttpRangeSourceTest {
+    private static final int SEGMENT_SIZE = 64 * 1024;
+    /** not multiple of segment size so that the last segment is short */
+    private static final int MOVIE_SIZE = SEGMENT_SIZE * 10 + 1234;
+
+    /**
+     * serves mContent at /movie, counts requests and bytes sent
+     */
+    private final class MovieHandler implements HttpHandler {
+        @Override
+        public void handle(final HttpExchange exchange) throws IOException {
+            mRequests.incrementAndGet();
+            final byte[] content = mContent;
+            final String etag = mUseETag ? "\"" + mVersion + "\"" : null;
+            final String lastModified = mUseETag ? null
+                : DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.of(2020, 1, 1, 0, 0, mVersion, 0, ZoneOffset.UTC));
+            if (etag != null) {
+                exchange.getResponseHeaders().set("ETag", etag);
+            } else {
+                exchange.getResponseHeaders().set("Last-Modified", lastModified);
+            }
+            final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+            final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+            if (((etag != null) && etag.equals(ifNoneMatch))
+                || ((lastModified != null) && lastModified.equals(ifModifiedSince))) {
+
+                exchange.sendResponseHeaders(304, -1);
+                exchange.close();
+                return;
+            }
+            final String range = exchange.getRequestHeaders().getFirst("Range");
+            final String[] values = range.substring("bytes=".length()).split("-");
+            final int start = Integer.parseInt(values[0]);
+            if (start >= content.length) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                exchange.close();
+                return;
+            }
+            final int end = Math.min(Integer.parseInt(values[1]), content.length - 1);
+            exchange.getResponseHeaders().set("Content-Range",
+                "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end - start + 1);
+            }
+            mBytesSent.addAndGet(end - start + 1);
+        }
+    }
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final AtomicInteger mRequests = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private volatile byte[] mContent;
+    private volatile int mVersion = 1;
+    private volatile boolean mUseETag = true;
+    private HttpServer mServer;
+    private URL mUrl;
+
+    @Before
+    public void setUp() throws IOException {
+        mContent = createContent(MOVIE_SIZE, 1);
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        mServer.createContext("/movie", new MovieHandler());
+        mServer.start();
+        mUrl = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(),
+            mServer.getAddress().getPort(), "/movie");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void readsAcrossSegments() throws IOException {
+        final SegmentCache cache = new SegmentCache(mFolder.newFolder(), MOVIE_SIZE * 2L);
+        final HttpRangeSource source = new HttpRangeSource(mUrl, cache, SEGMENT_SIZE, 2);
+        try {
+            assertEquals(MOVIE_SIZE, source.getSize());
+            assertArrayEquals(mContent, readAll(source, 10000));
+            // across the segment boundary and the end of movie
+            final byte[] buf = new byte[SEGMENT_SIZE];
+            assertEquals(SEGMENT_SIZE, source.readAt(SEGMENT_SIZE * 3 - 100, buf, 0, SEGMENT_SIZE));
+            assertArrayEquals(Arrays.copyOfRange(mContent, SEGMENT_SIZE * 3 - 100, SEGMENT_SIZE * 4 - 100), buf);
+            assertEquals(100, source.readAt(MOVIE_SIZE - 100, buf, 0, SEGMENT_SIZE));
+            assertEquals(-1, source.readAt(MOVIE_SIZE, buf, 0, SEGMENT_SIZE));
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * replay with new source on same cache directory is served from the disk cache
+     * after the conditional request for validation
+     */
+    @Test
+    public void replayHitsCache() throws IOException {
+        final File dir = mFolder.newFolder();
+        final HttpRangeSource first = new HttpRangeSource(mUrl, new SegmentCache(dir, MOVIE_SIZE * 2L), SEGMENT_SIZE, 0);
+        try {
+            assertArrayEquals(mContent, readAll(first, 4096));
+            assertEquals(MOVIE_SIZE, first.getStats().bytesFetched);
+        } finally {
+            first.close();
+        }
+        mRequests.set(0);
+        mBytesSent.set(0);
+        final HttpRangeSource second = new HttpRangeSource(mUrl, new SegmentCache(dir, MOVIE_SIZE * 2L), SEGMENT_SIZE, 0);
+        try {
+            assertArrayEquals(mContent, readAll(second, 4096));
+            final HttpRangeSource.Stats stats = second.getStats();
+            assertEquals(0, stats.bytesFetched);
+            assertEquals(0, stats.misses);
+            assertEquals(1, mRequests.get());
+            assertEquals(0, mBytesSent.get());
+        } finally {
+            second.close();
+        }
+    }
+
+    @Test
+    public void changedMovieIsFetchedAgainWithETag() throws IOException {
+        checkChangedMovie();
+    }
+
+    @Test
+    public void changedMovieIsFetchedAgainWithLastModified() throws IOException {
+        mUseETag = false;
+        checkChangedMovie();
+    }
+
+    /**
+     * alternating reads from different segments(e.g. video and audio track) are served from memory,
+     * the disk cache can't keep any segment here
+     */
+    @Test
+    public void alternatingReadersHitMemory() throws IOException {
+        final SegmentCache cache = new SegmentCache(mFolder.newFolder(), 0);
+        final HttpRangeSource source = new HttpRangeSource(mUrl, cache, SEGMENT_SIZE, 0);
+        try {
+            final byte[] buf = new byte[1024];
+            for (int i = 0; i < 64; i++) {
+                final long video = 1024L * i;
+                final long audio = SEGMENT_SIZE * 5L + 1024L * i;
+                assertEquals(buf.length, source.readAt(video, buf, 0, buf.length));
+                assertArrayEquals(Arrays.copyOfRange(mContent, (int)video, (int)video + buf.length), buf);
+                assertEquals(buf.length, source.readAt(audio, buf, 0, buf.length));
+                assertArrayEquals(Arrays.copyOfRange(mContent, (int)audio, (int)audio + buf.length), buf);
+            }
+            // validation of the first segment and each segment once
+            assertEquals(3, mRequests.get());
+            assertEquals(2, source.getStats().misses);
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * length file of the movie is deleted when its last segment is evicted
+     */
+    @Test
+    public void lengthFileIsEvictedWithSegments() throws IOException {
+        final File dir = mFolder.newFolder();
+        final SegmentCache cache = new SegmentCache(dir, MOVIE_SIZE);
+        final URL other = new URL(mUrl, "/movie?other");
+        final HttpRangeSource first = new HttpRangeSource(mUrl, cache, SEGMENT_SIZE, 0);
+        final HttpRangeSource second = new HttpRangeSource(other, cache, SEGMENT_SIZE, 0);
+        try {
+            readAll(first, SEGMENT_SIZE);
+            assertEquals(1, countFiles(dir, ".len"));
+            readAll(second, SEGMENT_SIZE);
+            // all segments of the first movie were evicted by the second movie
+            assertEquals(1, countFiles(dir, ".len"));
+            assertEquals(MOVIE_SIZE, cache.getCacheSize());
+        } finally {
+            first.close();
+            second.close();
+        }
+        // orphan length file is also deleted when the cache directory is opened
+        assertTrue(new File(dir, "orphan.len").createNewFile());
+        new SegmentCache(dir, MOVIE_SIZE);
+        assertEquals(1, countFiles(dir, ".len"));
+    }
+
+    /**
+     * the movie is changed on the server with same length after it was cached,
+     * new source should discard cached segments and read new content
+     */
+    private void checkChangedMovie() throws IOException {
+        final File dir = mFolder.newFolder();
+        final HttpRangeSource first = new HttpRangeSource(mUrl, new SegmentCache(dir, MOVIE_SIZE * 2L), SEGMENT_SIZE, 0);
+        try {
+            assertArrayEquals(mContent, readAll(first, 4096));
+        } finally {
+            first.close();
+        }
+        mContent = createContent(MOVIE_SIZE, 2);
+        mVersion = 2;
+        final HttpRangeSource second = new HttpRangeSource(mUrl, new SegmentCache(dir, MOVIE_SIZE * 2L), SEGMENT_SIZE, 0);
+        try {
+            assertArrayEquals(mContent, readAll(second, 4096));
+            assertEquals(MOVIE_SIZE, second.getStats().bytesFetched);
+        } finally {
+            second.close();
+        }
+        // and the new content is cached
+        mRequests.set(0);
+        final HttpRangeSource third = new HttpRangeSource(mUrl, new SegmentCache(dir, MOVIE_SIZE * 2L), SEGMENT_SIZE, 0);
+        try {
+            assertArrayEquals(mContent, readAll(third, 4096));
+            assertEquals(1, mRequests.get());
+        } finally {
+            third.close();
+        }
+    }
+
+    private static byte[] readAll(final HttpRangeSource source, final int chunkSize) throws IOException {
+        final byte[] result = new byte[(int)source.getSize()];
+        int pos = 0;
+        while (pos < result.length) {
+            final int n = source.readAt(pos, result, pos, Math.min(chunkSize, result.length - pos));
+            if (n <= 0) break;
+            pos += n;
+        }
+        assertEquals(result.length, pos);
+        return result;
+    }
+
+    private static byte[] createContent(final int size, final long seed) {
+        final byte[] result = new byte[size];
+        new Random(seed).nextBytes(result);
+        return result;
+    }
+
+    private static int countFiles(final File dir, final String ext) {
+        int result = 0;
+        for (final File file: dir.listFiles()) {
+            if (file.getName().endsWith(ext)) result++;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,203 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: MediaMoviePlayerTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * plays synthetic movie with MediaMoviePlayer on FakeMediaBackend and checks startup, pacing,
+ * seeking and A/V offset. time advances with VirtualClock, so each case finishes within seconds
+ */
+public class MediaMoviePlayerTest {
+    private static final int FRAME_RATE = 30;
+    private static final long FRAME_INTERVAL_US = 1000000L / FRAME_RATE;
+    /** sync sample every second */
+    private static final int GOP_SIZE = 30;
+    private static final long DURATION_US = 60 * 1000000L;
+    private static final long TIMEOUT_MS = 10 * 1000;
+    /** audio is played about 47 msec behind video, the latency of 2 samples in FakeDecoder */
+    private static final long MAX_AV_OFFSET_US = 100000;
+    /** render interval should match presentation time interval on VirtualClock */
+    private static final long MAX_PACING_ERROR_US = 2000;
+
+    private static FakeMediaBackend createBackend(final int sampleRate) {
+        return createBackend(sampleRate, 2);
+    }
+
+    private static FakeMediaBackend createBackend(final int sampleRate, final int channels) {
+        return new FakeMediaBackend(new VirtualClock(), 320, 240, FRAME_RATE, GOP_SIZE,
+            sampleRate, channels, DURATION_US, 2);
+    }
+
+    @Test
+    public void startup() throws Exception {
+        final FakeMediaBackend backend = createBackend(48000);
+        final CountDownLatch reportLatch = new CountDownLatch(1);
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        final StartupReport[] report = new StartupReport[1];
+        final MediaMoviePlayer[] holder = new MediaMoviePlayer[1];
+        final MediaMoviePlayer player = new MediaMoviePlayer(null, new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                finishLatch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                return false;
+            }
+        }, true, null, backend);
+        holder[0] = player;
+        player.setStartupListener(new IStartupListener() {
+            @Override
+            public void onStartupReport(final StartupReport r) {
+                report[0] = r;
+                reportLatch.countDown();
+            }
+        });
+        try {
+            player.prepare(MediaSource.fromPath("fake"));
+            assertTrue("no startup report", reportLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            player.stop();
+            assertTrue("player did not finish", finishLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            player.release();
+        }
+        assertNotNull(report[0]);
+        assertTrue(report[0].getElapsedUs(StartupReport.MARK_PREPARED)
+            <= report[0].getElapsedUs(StartupReport.MARK_START_STARTED));
+        assertTrue(report[0].getElapsedUs(StartupReport.MARK_VIDEO_CODEC_STARTED) >= 0);
+        assertTrue(report[0].getElapsedUs(StartupReport.MARK_AUDIO_CODEC_STARTED) >= 0);
+        assertTrue(report[0].getElapsedUs(StartupReport.MARK_FIRST_VIDEO_FRAME) >= 0);
+        assertTrue(report[0].getElapsedUs(StartupReport.MARK_FIRST_AUDIO_WRITE) >= 0);
+        final FakeDecoder video = backend.getDecoder("video/");
+        assertNotNull(video);
+        assertTrue(video.getRenderedCount() > 0);
+        assertEquals("playback should start from the first frame", 0, video.getRenderedPtsUs(0));
+    }
+
+    @Test
+    public void playToEnd() throws Exception {
+        final FakeMediaBackend backend = createBackend(48000);
+        final PipelineSimulation.Report report = new PipelineSimulation(backend, true).run(-1, -1, -1);
+        // same as the number of samples of FakeSampleSource
+        assertEquals((int)(DURATION_US / (1e6 / FRAME_RATE)), report.renderedFrames);
+        // only the empty end of stream buffer is released without rendering
+        assertTrue(report.toString(), report.droppedFrames <= 1);
+        assertTrue(report.toString(), report.maxPacingErrorUs <= MAX_PACING_ERROR_US);
+        assertTrue(report.toString(), report.avSync.maxAbsOffsetUs <= MAX_AV_OFFSET_US);
+        // 60 seconds of 48kHz audio, the last sample may be shorter
+        assertTrue(report.toString(), report.audioFramesWritten >= 48000 * 59);
+    }
+
+    /**
+     * 5.1ch audio is played as stereo, A/V offset is calculated from the frames written to the sink
+     */
+    @Test
+    public void multichannelAudioIsMixedDown() throws Exception {
+        final FakeMediaBackend backend = createBackend(48000, 6);
+        final PipelineSimulation.Report report = new PipelineSimulation(backend, true).run(-1, -1, -1);
+        assertEquals(2, backend.getAudioSink().getChannelCount());
+        assertEquals(48000, backend.getAudioSink().getSampleRate());
+        assertTrue(report.toString(), Math.abs(report.audioFramesWritten - 48000L * 60) <= 48000L);
+        assertTrue(report.toString(), report.avSync.maxAbsOffsetUs <= MAX_AV_OFFSET_US);
+    }
+
+    /**
+     * FakeAudioSink opens only 48kHz, so 44.1kHz audio is resampled to it
+     */
+    @Test
+    public void unsupportedSampleRateIsResampled() throws Exception {
+        final FakeMediaBackend backend = createBackend(44100);
+        final PipelineSimulation.Report report = new PipelineSimulation(backend, true).run(-1, -1, -1);
+        assertEquals(48000, backend.getAudioSink().getSampleRate());
+        assertTrue(report.toString(), Math.abs(report.audioFramesWritten - 48000L * 60) <= 48000L);
+        assertTrue(report.toString(), report.avSync.maxAbsOffsetUs <= MAX_AV_OFFSET_US);
+    }
+
+    @Test
+    public void seekForward() throws Exception {
+        checkSeek(10 * 1000000L, 40 * 1000000L, 45 * 1000000L);
+    }
+
+    @Test
+    public void seekBackward() throws Exception {
+        // play to the end, stopping at earlier presentation time would stop before seeking
+        checkSeek(40 * 1000000L, 10 * 1000000L, -1);
+    }
+
+    /**
+     * seek between sync samples, playback should resume from the sync sample before the target
+     */
+    @Test
+    public void seekBetweenSyncSamples() throws Exception {
+        checkSeek(10 * 1000000L, 40500000L, 45 * 1000000L);
+    }
+
+    /**
+     * @param fromUs seek when a frame of this presentation time is rendered
+     * @param toUs
+     * @param stopUs negative value to play to the end
+     */
+    private static void checkSeek(final long fromUs, final long toUs, final long stopUs) throws Exception {
+        final FakeMediaBackend backend = createBackend(48000);
+        final PipelineSimulation.Report report
+            = new PipelineSimulation(backend, true).run(fromUs, toUs, stopUs);
+        final FakeDecoder video = backend.getDecoder("video/");
+        assertNotNull(video);
+        // the first frame after seeking is the sync sample at or before the target
+        final long keyUs = toUs / 1000000L * 1000000L;
+        int ix = -1;
+        for (int i = 1; i < video.getRenderedCount(); i++) {
+            if (Math.abs(video.getRenderedPtsUs(i) - video.getRenderedPtsUs(i - 1)) > 1000000L) {
+                ix = i;
+                break;
+            }
+        }
+        assertTrue("seek was not applied:" + report, ix > 0);
+        // the frame that requested seeking is dropped
+        assertTrue(video.getRenderedPtsUs(ix - 1) > fromUs - 2 * FRAME_INTERVAL_US);
+        assertEquals(keyUs, video.getRenderedPtsUs(ix));
+        // frames are shown continuously from the sync sample
+        for (int i = ix + 1; i < video.getRenderedCount(); i++) {
+            assertTrue(video.getRenderedPtsUs(i) > video.getRenderedPtsUs(i - 1));
+            assertTrue(video.getRenderedPtsUs(i) - video.getRenderedPtsUs(i - 1) <= FRAME_INTERVAL_US + 1);
+        }
+        assertTrue(report.toString(), report.maxPacingErrorUs <= MAX_PACING_ERROR_US);
+        // statistics are reset on seeking, so this is A/V offset after seeking
+        assertTrue(report.toString(), report.avSync.frames > 0);
+        assertTrue(report.toString(), report.avSync.maxAbsOffsetUs <= MAX_AV_OFFSET_US);
+    }
+}
@@ -0,0 +1,155 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PcmUtilsTest.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * down mix and resampling that MediaMoviePlayer applies before writing PCM to IAudioSink
+ */
+public class PcmUtilsTest {
+    private static final int CHANNELS_5_1 = 6;
+
+    /**
+     * @param channels
+     * @param frames
+     * @param values value of each channel, same for all frames
+     * @return native order PCM same as MediaCodec outputs
+     */
+    private static ByteBuffer createPcm(final int channels, final int frames, final short... values) {
+        final ByteBuffer buf = ByteBuffer.allocate(channels * frames * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < frames; i++) {
+            for (int ch = 0; ch < channels; ch++) {
+                buf.putShort(values[ch]);
+            }
+        }
+        buf.clear();
+        return buf;
+    }
+
+    @Test
+    public void stereoGainsAreUnity() {
+        final int[] gains = PcmUtils.createDownmixGains(2);
+        final ByteBuffer src = createPcm(2, 4, (short)1234, (short)-5678);
+        final short[] dst = new short[8];
+        PcmUtils.downmixToStereo(src, 0, 2, 4, gains, dst);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(1234, dst[i * 2]);
+            assertEquals(-5678, dst[i * 2 + 1]);
+        }
+    }
+
+    @Test
+    public void downmix51DoesNotClip() {
+        final int[] gains = PcmUtils.createDownmixGains(CHANNELS_5_1);
+        final short max = Short.MAX_VALUE;
+        final ByteBuffer src = createPcm(CHANNELS_5_1, 16, max, max, max, max, max, max);
+        final short[] dst = new short[32];
+        PcmUtils.downmixToStereo(src, 0, CHANNELS_5_1, 16, gains, dst);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(dst[i * 2], dst[i * 2 + 1]);
+            // full scale on every channel stays within full scale without hard clipping
+            assertTrue(dst[i * 2] > max * 0.99);
+        }
+    }
+
+    @Test
+    public void downmix51Routing() {
+        final int[] gains = PcmUtils.createDownmixGains(CHANNELS_5_1);
+        final short[] dst = new short[2];
+        // FL, FR, FC, LFE, BL, BR
+        PcmUtils.downmixToStereo(createPcm(CHANNELS_5_1, 1, (short)10000, (short)0, (short)0, (short)0, (short)0, (short)0),
+            0, CHANNELS_5_1, 1, gains, dst);
+        assertTrue(dst[0] > 0);
+        assertEquals(0, dst[1]);
+        PcmUtils.downmixToStereo(createPcm(CHANNELS_5_1, 1, (short)0, (short)0, (short)10000, (short)0, (short)0, (short)0),
+            0, CHANNELS_5_1, 1, gains, dst);
+        assertTrue(dst[0] > 0);
+        assertEquals(dst[0], dst[1]);
+        // LFE is discarded
+        PcmUtils.downmixToStereo(createPcm(CHANNELS_5_1, 1, (short)0, (short)0, (short)0, (short)10000, (short)0, (short)0),
+            0, CHANNELS_5_1, 1, gains, dst);
+        assertEquals(0, dst[0]);
+        assertEquals(0, dst[1]);
+        PcmUtils.downmixToStereo(createPcm(CHANNELS_5_1, 1, (short)0, (short)0, (short)0, (short)0, (short)0, (short)10000),
+            0, CHANNELS_5_1, 1, gains, dst);
+        assertEquals(0, dst[0]);
+        assertTrue(dst[1] > 0);
+    }
+
+    @Test
+    public void resampleKeepsRate() {
+        final int frames = 1024;
+        final PcmUtils.LinearResampler resampler = new PcmUtils.LinearResampler(2, 44100, 48000);
+        final short[] src = new short[frames * 2];
+        final short[] dst = new short[resampler.getMaxOutputFrames(frames) * 2];
+        long total = 0;
+        final int buffers = 441;
+        for (int i = 0; i < buffers; i++) {
+            final int n = resampler.resample(src, frames, dst);
+            assertTrue(n <= resampler.getMaxOutputFrames(frames));
+            total += n;
+        }
+        final long expected = (long)frames * buffers * 48000 / 44100;
+        assertTrue("expected " + expected + " but " + total, Math.abs(total - expected) <= 1);
+    }
+
+    @Test
+    public void resampleIsContinuousAcrossBuffers() {
+        final int frames = 300;
+        final short[] src = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            src[i * 2] = (short)(i * 100);
+            src[i * 2 + 1] = (short)(-i * 100);
+        }
+        final PcmUtils.LinearResampler whole = new PcmUtils.LinearResampler(2, 44100, 48000);
+        final short[] expected = new short[whole.getMaxOutputFrames(frames) * 2];
+        final int n = whole.resample(src, frames, expected);
+        // same input split into buffers of different size
+        final PcmUtils.LinearResampler split = new PcmUtils.LinearResampler(2, 44100, 48000);
+        final short[] actual = new short[n * 2 + 2];
+        final short[] part = new short[frames * 2];
+        final short[] out = new short[split.getMaxOutputFrames(frames) * 2];
+        int pos = 0, m = 0;
+        for (final int len: new int[] {1, 7, 92, 200}) {
+            System.arraycopy(src, pos * 2, part, 0, len * 2);
+            final int k = split.resample(part, len, out);
+            System.arraycopy(out, 0, actual, m * 2, k * 2);
+            pos += len;
+            m += k;
+        }
+        assertEquals(n, m);
+        final short[] trimmed = new short[n * 2];
+        System.arraycopy(expected, 0, trimmed, 0, n * 2);
+        final short[] actualTrimmed = new short[n * 2];
+        System.arraycopy(actual, 0, actualTrimmed, 0, n * 2);
+        assertArrayEquals(trimmed, actualTrimmed);
+    }
+}
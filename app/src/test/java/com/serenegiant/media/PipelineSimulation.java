@@ -0,0 +1,191 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PipelineSimulation.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.WorkerThread;
+
+/**
+ * runs prepare/play/seek/stop cycle of MediaMoviePlayer on FakeMediaBackend.
+ * no codec, file or audio device is used and pacing waits are skipped with VirtualClock,
+ * so a cycle of a long movie finishes within milliseconds and the result is reproducible.
+ * pause/resume are not included because MediaMoviePlayer does not implement them yet.
+ */
+public class PipelineSimulation {
+    private static final boolean DEBUG = false;	// TODO set false on release
+    private static final String TAG = "PipelineSimulation";
+
+    private static final long TIMEOUT_MS = 10 * 1000;
+    /** render intervals across larger presentation time gap(e.g. seeking) are not checked */
+    private static final long MAX_PTS_GAP_US = 1000000;
+
+    /**
+     * result of a cycle
+     */
+    public static final class Report {
+        public final int renderedFrames;
+        public final int droppedFrames;
+        public final long audioFramesWritten;
+        /** average/maximum absolute difference between render interval and presentation time interval */
+        public final long avgPacingErrorUs;
+        public final long maxPacingErrorUs;
+        /** elapsed time of VirtualClock */
+        public final long virtualDurationUs;
+        public final long wallDurationMs;
+        public final AVSyncMonitor.Stats avSync;
+        /** cadence error and judder on the vsync grid of FakeMediaBackend#setRefreshRate, null if not used */
+        public final VsyncScheduler.Stats vsync;
+
+        private Report(final int renderedFrames, final int droppedFrames,
+            final long audioFramesWritten,
+            final long avgPacingErrorUs, final long maxPacingErrorUs,
+            final long virtualDurationUs, final long wallDurationMs,
+            final AVSyncMonitor.Stats avSync, final VsyncScheduler.Stats vsync) {
+
+            this.renderedFrames = renderedFrames;
+            this.droppedFrames = droppedFrames;
+            this.audioFramesWritten = audioFramesWritten;
+            this.avgPacingErrorUs = avgPacingErrorUs;
+            this.maxPacingErrorUs = maxPacingErrorUs;
+            this.virtualDurationUs = virtualDurationUs;
+            this.wallDurationMs = wallDurationMs;
+            this.avSync = avSync;
+            this.vsync = vsync;
+        }
+
+        @Override
+        public String toString() {
+            return "PipelineSimulation{rendered=" + renderedFrames + ",dropped=" + droppedFrames
+                + ",audioFrames=" + audioFramesWritten
+                + ",avgPacingError=" + avgPacingErrorUs + ",maxPacingError=" + maxPacingErrorUs
+                + ",virtual=" + virtualDurationUs + "us,wall=" + wallDurationMs + "ms,"
+                + avSync + "," + vsync + "}";
+        }
+    }
+
+    private final FakeMediaBackend mBackend;
+    private final boolean mAudio;
+
+    /**
+     * @param backend new instance should be used for each cycle
+     * @param audio
+     */
+    public PipelineSimulation(@NonNull final FakeMediaBackend backend, final boolean audio) {
+        mBackend = backend;
+        mAudio = audio;
+    }
+
+    /**
+     * run a cycle, this blocks until the player finished
+     * @param seekFromUs seek when a frame of this presentation time is rendered, negative value to disable
+     * @param seekToUs
+     * @param stopAtUs stop when a frame of this presentation time is rendered, negative value to play until the end
+     * @return
+     * @throws IOException the player did not finish in time
+     * @throws InterruptedException
+     */
+    @WorkerThread
+    public Report run(final long seekFromUs, final long seekToUs, final long stopAtUs)
+        throws IOException, InterruptedException {
+
+        final VirtualClock clock = mBackend.getClock();
+        final long startNs = clock.nanoTime();
+        final long wallStartMs = System.currentTimeMillis();
+        final CountDownLatch finishLatch = new CountDownLatch(1);
+        final AtomicBoolean seeked = new AtomicBoolean(seekFromUs < 0);
+        final AtomicBoolean stopped = new AtomicBoolean(stopAtUs < 0);
+        final MediaMoviePlayer[] holder = new MediaMoviePlayer[1];
+        final MediaMoviePlayer player = new MediaMoviePlayer(null, new IFrameCallback() {
+            @Override
+            public void onPrepared() {
+                holder[0].play();
+            }
+
+            @Override
+            public void onFinished() {
+                finishLatch.countDown();
+            }
+
+            @Override
+            public boolean onFrameAvailable(final long presentationTimeUs) {
+                if ((presentationTimeUs >= seekFromUs) && seeked.compareAndSet(false, true)) {
+                    if (DEBUG) Log.v(TAG, "seek from " + presentationTimeUs + " to " + seekToUs);
+                    mBackend.freezeUntilSeeked();
+                    holder[0].seek(seekToUs);
+                }
+                if ((presentationTimeUs >= stopAtUs) && stopped.compareAndSet(false, true)) {
+                    if (DEBUG) Log.v(TAG, "stop at " + presentationTimeUs);
+                    holder[0].stop();
+                }
+                // let the player adjust presentation time
+                return false;
+            }
+        }, mAudio, null, mBackend);
+        holder[0] = player;
+        try {
+            player.prepare(MediaSource.fromPath("fake"));
+            if (!finishLatch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new IOException("simulation timed out");
+            }
+            final Report report = createReport(clock.nanoTime() - startNs,
+                System.currentTimeMillis() - wallStartMs, player.getAVSyncStats(), player.getVsyncStats());
+            if (DEBUG) Log.v(TAG, "run:" + report);
+            return report;
+        } finally {
+            player.release();
+        }
+    }
+
+    private Report createReport(final long virtualNs, final long wallMs,
+        final AVSyncMonitor.Stats avSync, final VsyncScheduler.Stats vsync) {
+
+        final FakeDecoder video = mBackend.getDecoder("video/");
+        final FakeAudioSink sink = mBackend.getAudioSink();
+        int rendered = 0, dropped = 0;
+        long sumError = 0, maxError = 0;
+        int n = 0;
+        if (video != null) {
+            rendered = video.getRenderedCount();
+            dropped = video.getDroppedCount();
+            for (int i = 1; i < rendered; i++) {
+                final long ptsInterval = video.getRenderedPtsUs(i) - video.getRenderedPtsUs(i - 1);
+                if ((ptsInterval <= 0) || (ptsInterval > MAX_PTS_GAP_US)) continue;
+                final long interval = (video.getRenderedTimeNs(i) - video.getRenderedTimeNs(i - 1)) / 1000;
+                final long error = Math.abs(interval - ptsInterval);
+                sumError += error;
+                maxError = Math.max(maxError, error);
+                n++;
+            }
+        }
+        return new Report(rendered, dropped, sink != null ? sink.getWrittenFrames() : 0,
+            n > 0 ? sumError / n : 0, maxError, virtualNs / 1000, wallMs, avSync, vsync);
+    }
+}
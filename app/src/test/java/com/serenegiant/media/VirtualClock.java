@@ -0,0 +1,171 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: VirtualClock.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.util.Arrays;
+
+/**
+ * IClock whose time advances only when threads wait on it,
+ * so that paced playback finishes as fast as the decode loops can run.
+ * this works as discrete event simulation, time advances to the earliest wake up time
+ * of waiting threads when all registered participants(e.g. decode threads) are waiting.
+ * if some of them is busy, time advances after short grace period in real time.
+ */
+public class VirtualClock implements IClock {
+    /** the player treats start time 0 as not started */
+    private static final long DEFAULT_START_NS = 1000000000L;
+    private static final long GRACE_NS = 10000000L;
+
+    /** wake up time of waiting threads, no boxing so that waiting does not allocate */
+    private Thread[] mWaiters = new Thread[4];
+    private long[] mTargets = new long[4];
+    private int mWaiterCount;
+    private long mNowNs;
+    private int mParticipants;
+    private int mFreezeCount;
+
+    public VirtualClock() {
+        this(DEFAULT_START_NS);
+    }
+
+    /**
+     * @param startNs
+     */
+    public VirtualClock(final long startNs) {
+        mNowNs = startNs;
+    }
+
+    @Override
+    public synchronized long nanoTime() {
+        return mNowNs;
+    }
+
+    /**
+     * advance time to specific time, do nothing if it is in the past
+     * @param timeNs
+     */
+    public synchronized void advanceTo(final long timeNs) {
+        if (timeNs > mNowNs) {
+            mNowNs = timeNs;
+            notifyAll();
+        }
+    }
+
+    public synchronized void advance(final long durationNs) {
+        if (durationNs > 0) {
+            advanceTo(mNowNs + durationNs);
+        }
+    }
+
+    /**
+     * increase number of threads that time should wait for before advancing
+     */
+    public synchronized void register() {
+        mParticipants++;
+        notifyAll();
+    }
+
+    public synchronized void unregister() {
+        if (mParticipants > 0) {
+            mParticipants--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * stop advancing time until #unfreeze is called same times,
+     * e.g. while the player handles a request that is issued at specific time
+     */
+    public synchronized void freeze() {
+        mFreezeCount++;
+    }
+
+    public synchronized void unfreeze() {
+        if (mFreezeCount > 0) {
+            mFreezeCount--;
+            notifyAll();
+        }
+    }
+
+    /**
+     * block until time reaches timeoutNs later, the monitor of sync is not released
+     * so sync should not be shared with the other threads that wait on this clock.
+     * while the clock is frozen, this returns after a short real time wait without advancing time
+     * same as spurious wake up, so that the caller can check the request(e.g. seeking) that it waits for
+     */
+    @Override
+    public synchronized void waitOn(final Object sync, final long timeoutNs) throws InterruptedException {
+        if (timeoutNs <= 0) return;
+        final Thread current = Thread.currentThread();
+        final long target = mNowNs + timeoutNs;
+        final long graceEnd = System.nanoTime() + GRACE_NS;
+        addWaiter(current, target);
+        notifyAll();
+        try {
+            while (mNowNs < target) {
+                if (mFreezeCount > 0) {
+                    wait(1);
+                    break;
+                }
+                if (isEarliest(target)
+                    && ((mWaiterCount >= mParticipants) || (System.nanoTime() >= graceEnd))) {
+
+                    advanceTo(target);
+                    break;
+                }
+                wait(1);
+            }
+        } finally {
+            removeWaiter(current);
+        }
+    }
+
+    private void addWaiter(final Thread thread, final long target) {
+        if (mWaiterCount == mWaiters.length) {
+            mWaiters = Arrays.copyOf(mWaiters, mWaiterCount * 2);
+            mTargets = Arrays.copyOf(mTargets, mWaiterCount * 2);
+        }
+        mWaiters[mWaiterCount] = thread;
+        mTargets[mWaiterCount++] = target;
+    }
+
+    private void removeWaiter(final Thread thread) {
+        for (int i = 0; i < mWaiterCount; i++) {
+            if (mWaiters[i] == thread) {
+                mWaiterCount--;
+                mWaiters[i] = mWaiters[mWaiterCount];
+                mTargets[i] = mTargets[mWaiterCount];
+                mWaiters[mWaiterCount] = null;
+                break;
+            }
+        }
+    }
+
+    private boolean isEarliest(final long target) {
+        for (int i = 0; i < mWaiterCount; i++) {
+            if (mTargets[i] < target) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,52 @@
+package com.serenegiant.glutils;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: GLMatrixBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * matrix operations of GLDrawer2D, they run when a drawer is created or
+ * the transform of SurfaceFanout output is updated, not per drawn frame
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GLMatrixBenchmark {
+    private final float[] mResult = new float[16];
+
+    @Benchmark
+    public float[] setIdentity() {
+        GLMatrix.setIdentity(mResult, 0);
+        return mResult;
+    }
+
+    @Benchmark
+    public float[] setAspectFit() {
+        GLMatrix.setAspectFit(mResult, 0, 1920, 1080, 1080, 2340);
+        return mResult;
+    }
+}
@@ -0,0 +1,124 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: Mp4FragmentReaderBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * box parsing of fragmented mp4 and sample table lookup.
+ * the movie is generated by SyntheticMp4 and read from page cache.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Mp4FragmentReaderBenchmark {
+    private static final int GOP = 30;
+
+    @Param({"100"})
+    public int fragments;
+    /** samples per fragment */
+    @Param({"60"})
+    public int samples;
+
+    private File mFile;
+    private RandomAccessFile mRaf;
+    private FileChannel mChannel;
+    private int mTrackId;
+    private Mp4FragmentReader.SampleTable mTable;
+    private long mLastTimeUs;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mFile = File.createTempFile("bench", ".mp4");
+        SyntheticMp4.write(mFile, fragments, samples, GOP);
+        mRaf = new RandomAccessFile(mFile, "r");
+        mChannel = mRaf.getChannel();
+        final Mp4FragmentReader reader = new Mp4FragmentReader(mChannel, 0, -1);
+        if (!reader.readHeader()) {
+            throw new IOException("moov not found");
+        }
+        mTrackId = reader.getTracks().get(0).trackId;
+        // sample table of one fragment, same as FragmentedMp4Extractor keeps
+        mTable = new Mp4FragmentReader.SampleTable();
+        if (!reader.readNextFragment(mTrackId, mTable)) {
+            throw new IOException("fragment not found");
+        }
+        mLastTimeUs = mTable.timesUs[mTable.count - 1];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mRaf.close();
+        mFile.delete();
+    }
+
+    /** moov only, i.e. FragmentedMp4Extractor constructor */
+    @Benchmark
+    public Object readHeader() throws IOException {
+        final Mp4FragmentReader reader = new Mp4FragmentReader(mChannel, 0, -1);
+        reader.readHeader();
+        return reader.getTracks();
+    }
+
+    /** moof/traf/trun of all fragments */
+    @Benchmark
+    public int readAllFragments() throws IOException {
+        final Mp4FragmentReader reader = new Mp4FragmentReader(mChannel, 0, -1);
+        reader.readHeader();
+        final Mp4FragmentReader.SampleTable table = new Mp4FragmentReader.SampleTable();
+        int result = 0;
+        while (reader.readNextFragment(mTrackId, table)) {
+            result += table.count;
+        }
+        return result;
+    }
+
+    @Benchmark
+    public boolean isFragmented() throws IOException {
+        return Mp4FragmentReader.isFragmented(mChannel, 0, -1);
+    }
+
+    /** seeking to the last sync sample, worst case of linear search */
+    @Benchmark
+    public int findPreviousSyncSample() {
+        return mTable.findSyncSample(mLastTimeUs, false);
+    }
+
+    @Benchmark
+    public int findNextSyncSample() {
+        return mTable.findSyncSample(mLastTimeUs, true);
+    }
+}
@@ -0,0 +1,102 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: PcmBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * PCM processing on audio decoder thread, one codec output buffer per invocation
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PcmBenchmark {
+    /** number of frames in one codec output buffer, AAC outputs 1024 frames */
+    @Param({"1024"})
+    public int frames;
+
+    private ByteBuffer mStereo;
+    private ByteBuffer mSurround;
+    private byte[] mBytes;
+    private int[] mGains;
+    private short[] mSamples;
+    private short[] mResampled;
+    private PcmUtils.LinearResampler mResampler;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(0);
+        mStereo = ByteBuffer.allocateDirect(frames * 2 * 2).order(ByteOrder.nativeOrder());
+        while (mStereo.hasRemaining()) {
+            mStereo.putShort((short)random.nextInt());
+        }
+        mStereo.clear();
+        mSurround = ByteBuffer.allocateDirect(frames * 6 * 2).order(ByteOrder.nativeOrder());
+        while (mSurround.hasRemaining()) {
+            mSurround.putShort((short)random.nextInt());
+        }
+        mSurround.clear();
+        mBytes = new byte[mStereo.capacity()];
+        mGains = PcmUtils.createDownmixGains(6);
+        mSamples = new short[frames * 2];
+        PcmUtils.toShorts(mStereo, 0, frames * 2, mSamples);
+        mResampler = new PcmUtils.LinearResampler(2, 44100, 48000);
+        mResampled = new short[mResampler.getMaxOutputFrames(frames) * 2];
+    }
+
+    /** same as internalWriteAudio does for mono/stereo audio */
+    @Benchmark
+    public byte[] copy() {
+        PcmUtils.copy(mStereo, 0, mStereo.capacity(), mBytes);
+        return mBytes;
+    }
+
+    @Benchmark
+    public short[] toShorts() {
+        PcmUtils.toShorts(mStereo, 0, frames * 2, mSamples);
+        return mSamples;
+    }
+
+    /** 5.1ch to stereo */
+    @Benchmark
+    public short[] downmix() {
+        PcmUtils.downmixToStereo(mSurround, 0, 6, frames, mGains, mSamples);
+        return mSamples;
+    }
+
+    /** 44.1kHz to 48kHz stereo */
+    @Benchmark
+    public int resample() {
+        return mResampler.resample(mSamples, frames, mResampled);
+    }
+}
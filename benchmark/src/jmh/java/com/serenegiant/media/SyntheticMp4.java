@@ -0,0 +1,153 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: SyntheticMp4.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * writes fragmented mp4 that has one H.264 video track with dummy samples,
+ * only the boxes that Mp4FragmentReader parses are written
+ */
+final class SyntheticMp4 {
+    private static final int TIMESCALE = 90000;
+    private static final int SAMPLE_DURATION = TIMESCALE / 30;
+    private static final int SAMPLE_SIZE = 1024;
+    private static final int TRACK_ID = 1;
+    private static final byte[] SPS = { 0x67, 0x42, (byte)0xc0, 0x1f, (byte)0xda, 0x01, 0x40, 0x16, (byte)0xe8 };
+    private static final byte[] PPS = { 0x68, (byte)0xce, 0x3c, (byte)0x80 };
+
+    private SyntheticMp4() {
+    }
+
+    /**
+     * @param file
+     * @param fragments number of moof/mdat pairs
+     * @param samples number of samples in each fragment
+     * @param gop interval of sync samples
+     * @throws IOException
+     */
+    static void write(final File file, final int fragments, final int samples, final int gop)
+        throws IOException {
+
+        try (final OutputStream out = new FileOutputStream(file)) {
+            out.write(box("ftyp", concat(ascii("iso6"), int32(0), ascii("iso6"), ascii("cmfc"))));
+            out.write(moov(fragments * samples));
+            final byte[] data = new byte[SAMPLE_SIZE * samples];
+            for (int i = 0; i < fragments; i++) {
+                out.write(moof(i, samples, gop));
+                out.write(box("mdat", data));
+            }
+        }
+    }
+
+    private static byte[] moov(final int totalSamples) throws IOException {
+        final long duration = (long)totalSamples * SAMPLE_DURATION;
+        final byte[] mvhd = fullBox("mvhd", 0, concat(int32(0), int32(0), int32(TIMESCALE), int32((int)duration),
+            new byte[80], int32(TRACK_ID + 1)));
+        final byte[] tkhd = fullBox("tkhd", 3, concat(int32(0), int32(0), int32(TRACK_ID), new byte[72]));
+        final byte[] mdhd = fullBox("mdhd", 0, concat(int32(0), int32(0), int32(TIMESCALE), int32(0), new byte[4]));
+        final byte[] hdlr = fullBox("hdlr", 0, concat(int32(0), ascii("vide"), new byte[12], new byte[1]));
+        final byte[] avcC = box("avcC", concat(new byte[] { 1, 0x42, (byte)0xc0, 0x1f, (byte)0xff, (byte)0xe1 },
+            int16(SPS.length), SPS, new byte[] { 1 }, int16(PPS.length), PPS));
+        final byte[] avc1 = box("avc1", concat(new byte[6], int16(1), new byte[16], int16(1280), int16(720),
+            int32(0x00480000), int32(0x00480000), int32(0), int16(1), new byte[32], int16(0x18), int16(-1), avcC));
+        final byte[] stsd = fullBox("stsd", 0, concat(int32(1), avc1));
+        final byte[] stbl = box("stbl", stsd);
+        final byte[] minf = box("minf", stbl);
+        final byte[] mdia = box("mdia", concat(mdhd, hdlr, minf));
+        final byte[] trak = box("trak", concat(tkhd, mdia));
+        final byte[] mehd = fullBox("mehd", 0, int32((int)duration));
+        final byte[] trex = fullBox("trex", 0, concat(int32(TRACK_ID), int32(1), int32(SAMPLE_DURATION),
+            int32(SAMPLE_SIZE), int32(0x10000)));
+        final byte[] mvex = box("mvex", concat(mehd, trex));
+        return box("moov", concat(mvhd, trak, mvex));
+    }
+
+    private static byte[] moof(final int index, final int samples, final int gop) throws IOException {
+        final byte[] mfhd = fullBox("mfhd", 0, int32(index + 1));
+        final byte[] tfhd = fullBox("tfhd", 0x020000, int32(TRACK_ID));
+        final byte[] tfdt = fullBox("tfdt", 1 << 24, int64((long)index * samples * SAMPLE_DURATION));
+        // data offset, sample size and sample flags
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        for (int i = 0; i < samples; i++) {
+            entries.write(int32(SAMPLE_SIZE));
+            entries.write(int32(i % gop == 0 ? 0x02000000 : 0x01010000));
+        }
+        final int trunSize = 8 + 4 + 4 + 4 + entries.size();
+        final int moofSize = 8 + mfhd.length + 8 + tfhd.length + tfdt.length + trunSize;
+        final byte[] trun = fullBox("trun", 0x000601, concat(int32(samples), int32(moofSize + 8),
+            entries.toByteArray()));
+        return box("moof", concat(mfhd, box("traf", concat(tfhd, tfdt, trun))));
+    }
+
+    private static byte[] box(final String type, final byte[] payload) throws IOException {
+        return concat(int32(8 + payload.length), ascii(type), payload);
+    }
+
+    /**
+     * @param versionAndFlags version in upper 8 bits and flags in lower 24 bits
+     */
+    private static byte[] fullBox(final String type, final int versionAndFlags, final byte[] payload)
+        throws IOException {
+
+        return box(type, concat(int32(versionAndFlags), payload));
+    }
+
+    private static byte[] concat(final byte[]... arrays) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (final byte[] a: arrays) {
+            out.write(a);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] ascii(final String s) {
+        final byte[] result = new byte[s.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = (byte)s.charAt(i);
+        }
+        return result;
+    }
+
+    private static byte[] int16(final int v) {
+        return new byte[] { (byte)(v >> 8), (byte)v };
+    }
+
+    private static byte[] int32(final int v) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(4);
+        new DataOutputStream(out).writeInt(v);
+        return out.toByteArray();
+    }
+
+    private static byte[] int64(final long v) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(8);
+        new DataOutputStream(out).writeLong(v);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,88 @@
+package com.serenegiant.media;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014-2015 saki t_saki@serenegiant.com
+ *
+ * File name: YuvConverterBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * color conversion of a decoded frame on surface-less decoding,
+ * on the caller thread and split by row bands on ForkJoinPool
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class YuvConverterBenchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String size;
+
+    private YuvFrame mFrame;
+    private int[] mArgb;
+    private byte[] mNv21;
+    private YuvConverter mSequential;
+    private YuvConverter mParallel;
+
+    @Setup
+    public void setup() {
+        final String[] wh = size.split("x");
+        final int width = Integer.parseInt(wh[0]);
+        final int height = Integer.parseInt(wh[1]);
+        mFrame = new YuvFrame(width, height);
+        new Random(0).nextBytes(mFrame.getData());
+        mArgb = new int[width * height];
+        mNv21 = new byte[mFrame.getFrameSize()];
+        mSequential = new YuvConverter(null, YuvConverter.DEFAULT_MIN_BAND_ROWS);
+        mParallel = new YuvConverter(ForkJoinPool.commonPool(), YuvConverter.DEFAULT_MIN_BAND_ROWS);
+    }
+
+    @Benchmark
+    public int[] toArgb() {
+        mSequential.toArgb(mFrame, mArgb);
+        return mArgb;
+    }
+
+    @Benchmark
+    public int[] toArgbParallel() {
+        mParallel.toArgb(mFrame, mArgb);
+        return mArgb;
+    }
+
+    @Benchmark
+    public byte[] toNv21() {
+        mSequential.toNv21(mFrame, mNv21);
+        return mNv21;
+    }
+
+    @Benchmark
+    public byte[] toNv21Parallel() {
+        mParallel.toNv21(mFrame, mNv21);
+        return mNv21;
+    }
+}
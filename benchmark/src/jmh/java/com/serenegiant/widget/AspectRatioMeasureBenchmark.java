@@ -0,0 +1,53 @@
+package com.serenegiant.widget;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: AspectRatioMeasureBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * onMeasure of PlayerSurfaceView/PlayerTextureView
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AspectRatioMeasureBenchmark {
+    public int width = 1080;
+    public int height = 2340;
+    public int padding = 16;
+    public double aspect = 16.0 / 9.0;
+
+    @Benchmark
+    public long measure() {
+        return AspectRatioMeasure.measure(width, height, padding, padding, aspect);
+    }
+
+    /** measured size already has requested aspect ratio */
+    @Benchmark
+    public long measureUnchanged() {
+        return AspectRatioMeasure.measure(1920 + padding, 1080 + padding, padding, padding, aspect);
+    }
+}
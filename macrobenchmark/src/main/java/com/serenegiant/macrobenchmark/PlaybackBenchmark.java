@@ -0,0 +1,116 @@
+package com.serenegiant.macrobenchmark;
+/*
+ * AudioVideoPlayerSample
+ * Sample project to play audio and video from MPEG4 file using MediaCodec.
+ *
+ * Copyright (c) 2014 saki t_saki@serenegiant.com
+ *
+ * File name: PlaybackBenchmark.java
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ *
+ * All files in the folder are under this Apache License, Version 2.0.
+*/
+
+import java.util.Arrays;
+import java.util.List;
+
+import android.os.SystemClock;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.benchmark.macro.Metric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+
+/**
+ * launch MainActivity, tap play button of PlayerFragment and play the bundled clip for 30 seconds.
+ * video metrics come from trace sections of MediaMoviePlayer, because video frames are
+ * queued to SurfaceView directly and FrameTimingMetric only sees UI frames.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackBenchmark {
+    private static final String PACKAGE = "com.serenegiant.audiovideoplayersample";
+    private static final int ITERATIONS = 5;
+    private static final long PLAYBACK_MS = 30000;
+    private static final long TIMEOUT_MS = 10000;
+
+    // trace sections of app module
+    private static final String TRACE_TIME_TO_FIRST_FRAME = "MoviePlayer:timeToFirstFrame";
+    private static final String TRACE_VIDEO_FRAME = "MoviePlayer:videoFrame";
+    private static final String TRACE_VIDEO_JANK = "MoviePlayer:videoJank";
+
+    @Rule
+    public final MacrobenchmarkRule mBenchmarkRule = new MacrobenchmarkRule();
+
+    @Test
+    public void playback() {
+        // async sections are recorded on process track, so do not limit to thread of target package
+        final List<Metric> metrics = Arrays.asList(
+            new TraceSectionMetric(TRACE_TIME_TO_FIRST_FRAME,
+                TraceSectionMetric.Mode.First.INSTANCE, "timeToFirstFrame", false),
+            new TraceSectionMetric(TRACE_VIDEO_FRAME,
+                TraceSectionMetric.Mode.Count.INSTANCE, "videoFrameCount", false),
+            new TraceSectionMetric(TRACE_VIDEO_FRAME,
+                TraceSectionMetric.Mode.Average.INSTANCE, "videoFrameLatencyAverage", false),
+            new TraceSectionMetric(TRACE_VIDEO_FRAME,
+                TraceSectionMetric.Mode.Max.INSTANCE, "videoFrameLatencyMax", false),
+            new TraceSectionMetric(TRACE_VIDEO_JANK,
+                TraceSectionMetric.Mode.Count.INSTANCE, "videoJankCount", false),
+            new FrameTimingMetric());
+
+        mBenchmarkRule.measureRepeated(
+            PACKAGE,
+            metrics,
+            // AOT compiled, so results do not depend on JIT warm up
+            new CompilationMode.Full(),
+            null,
+            ITERATIONS,
+            new Function1<MacrobenchmarkScope, Unit>() {
+                @Override
+                public Unit invoke(final MacrobenchmarkScope scope) {
+                    // start from cold process, but launching is not measured
+                    scope.killProcess();
+                    scope.startActivityAndWait();
+                    return Unit.INSTANCE;
+                }
+            },
+            new Function1<MacrobenchmarkScope, Unit>() {
+                @Override
+                public Unit invoke(final MacrobenchmarkScope scope) {
+                    final UiDevice device = scope.getDevice();
+                    final UiObject2 button = device.wait(
+                        Until.findObject(By.res(PACKAGE, "play_button")), TIMEOUT_MS);
+                    if (button == null) {
+                        throw new IllegalStateException("play button not found");
+                    }
+                    button.click();
+                    SystemClock.sleep(PLAYBACK_MS);
+                    return Unit.INSTANCE;
+                }
+            });
+    }
+}